@@ -22,6 +22,7 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 
 public class MimeHeader {
@@ -48,6 +49,8 @@ public class MimeHeader {
         HEADER_ANDROID_ATTACHMENT_STORE_DATA
     };
 
+    static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
     protected final ArrayList<Field> mFields = new ArrayList<Field>();
 
     public void clear() {
@@ -66,6 +69,16 @@ public class MimeHeader {
         mFields.add(new Field(name, value));
     }
 
+    /**
+     * Adds a header field as parsed by
+     * {@link org.apache.james.mime4j.RawFieldContentHandler#rawField(byte[], int, int, int)}.
+     * The name is decoded right away; the value only when it is first asked for.
+     */
+    void addRawHeader(byte[] header, int start, int colon, int end) {
+        mFields.add(new Field(new String(header, start, colon - start, ISO_8859_1),
+                header, colon + 1, end));
+    }
+
     public void setHeader(String name, String value) throws MessagingException {
         if (name == null || value == null) {
             return;
@@ -78,7 +91,7 @@ public class MimeHeader {
         ArrayList<String> values = new ArrayList<String>();
         for (Field field : mFields) {
             if (field.name.equalsIgnoreCase(name)) {
-                values.add(field.value);
+                values.add(field.getValue());
             }
         }
         if (values.size() == 0) {
@@ -110,7 +123,7 @@ public class MimeHeader {
         StringBuilder builder = new StringBuilder();
         for (Field field : mFields) {
             if (!arrayContains(WRITE_OMIT_FIELDS, field.name)) {
-                builder.append(field.name + ": " + field.value + "\r\n");
+                builder.append(field.name + ": " + field.getValue() + "\r\n");
             }
         }
         return builder.toString();
@@ -120,7 +133,7 @@ public class MimeHeader {
         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out), 1024);
         for (Field field : mFields) {
             if (!arrayContains(WRITE_OMIT_FIELDS, field.name)) {
-                writer.write(field.name + ": " + field.value + "\r\n");
+                writer.write(field.name + ": " + field.getValue() + "\r\n");
             }
         }
         writer.flush();
@@ -128,16 +141,46 @@ public class MimeHeader {
 
     private static class Field {
         final String name;
-        final String value;
+        private String value;
+        /** The raw header holding the value until it is decoded */
+        private byte[] raw;
+        private int valueStart;
+        private int valueEnd;
 
         public Field(String name, String value) {
             this.name = name;
             this.value = value;
         }
-        
+
+        Field(String name, byte[] raw, int valueStart, int valueEnd) {
+            this.name = name;
+            this.raw = raw;
+            this.valueStart = valueStart;
+            this.valueEnd = valueEnd;
+        }
+
+        /**
+         * @return the value, trimmed like the value of a parsed field always was
+         */
+        synchronized String getValue() {
+            if (raw != null) {
+                int start = valueStart;
+                int end = valueEnd;
+                while (start < end && (raw[start] & 0xff) <= ' ') {
+                    start++;
+                }
+                while (end > start && (raw[end - 1] & 0xff) <= ' ') {
+                    end--;
+                }
+                value = new String(raw, start, end - start, ISO_8859_1);
+                raw = null;
+            }
+            return value;
+        }
+
         @Override
         public String toString() {
-            return name + "=" + value;
+            return name + "=" + getValue();
         }
     }
 
@@ -26,9 +26,9 @@ import com.android.emailcommon.mail.Part;
 import com.android.mail.utils.LogUtils;
 
 import org.apache.james.mime4j.BodyDescriptor;
-import org.apache.james.mime4j.ContentHandler;
 import org.apache.james.mime4j.EOLConvertingInputStream;
 import org.apache.james.mime4j.MimeStreamParser;
+import org.apache.james.mime4j.RawFieldContentHandler;
 import org.apache.james.mime4j.field.DateTimeField;
 import org.apache.james.mime4j.field.Field;
 
@@ -536,7 +536,7 @@ public class MimeMessage extends Message {
         return null;
     }
 
-    class MimeMessageBuilder implements ContentHandler {
+    class MimeMessageBuilder implements RawFieldContentHandler {
         private final Stack<Object> stack = new Stack<Object>();
 
         public MimeMessageBuilder() {
@@ -587,6 +587,19 @@ public class MimeMessage extends Message {
             }
         }
 
+        @Override
+        public void rawField(byte[] header, int start, int colon, int end) {
+            expect(Part.class);
+            final Object part = stack.peek();
+            if (part instanceof MimeMessage) {
+                ((MimeMessage) part).getMimeHeaders().addRawHeader(header, start, colon, end);
+            } else if (part instanceof MimeBodyPart) {
+                ((MimeBodyPart) part).mHeader.addRawHeader(header, start, colon, end);
+            } else {
+                field(new String(header, start, end - start, MimeHeader.ISO_8859_1));
+            }
+        }
+
         @Override
         public void endHeader() {
             expect(Part.class);
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compiled MIME type specification as accepted by
+ * {@link MimeUtility#mimeTypeMatches(String, String)}: "*" matches any run of characters
+ * (including none) and everything else matches itself, ignoring case. The specification is split
+ * into the literal tokens between its wildcards once, so matching is a few region compares.
+ */
+final class MimeTypeMatcher {
+    /**
+     * Specifications are nearly always constants, so this stays small; the bound only guards
+     * against a caller passing arbitrary strings.
+     */
+    private static final int MAX_CACHED_MATCHERS = 64;
+
+    private static final ConcurrentHashMap<String, MimeTypeMatcher> sMatchers =
+            new ConcurrentHashMap<String, MimeTypeMatcher>();
+
+    /** The literal tokens between wildcards; the first and last may be empty */
+    private final String[] mTokens;
+    /** Whether the specification has no wildcard, i.e. is a single token */
+    private final boolean mExact;
+
+    private MimeTypeMatcher(String specification) {
+        mTokens = specification.split("\\*", -1);
+        mExact = mTokens.length == 1;
+    }
+
+    /**
+     * @return the matcher for the specification, compiled on first use
+     */
+    static MimeTypeMatcher get(String specification) {
+        MimeTypeMatcher matcher = sMatchers.get(specification);
+        if (matcher == null) {
+            matcher = new MimeTypeMatcher(specification);
+            if (sMatchers.size() < MAX_CACHED_MATCHERS) {
+                sMatchers.put(specification, matcher);
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * @return true if the whole of mimeType matches the specification
+     */
+    boolean matches(String mimeType) {
+        final String[] tokens = mTokens;
+        final String first = tokens[0];
+        if (mExact) {
+            return first.equalsIgnoreCase(mimeType);
+        }
+        final String last = tokens[tokens.length - 1];
+        final int length = mimeType.length();
+        if (length < first.length() + last.length()
+                || !mimeType.regionMatches(true, 0, first, 0, first.length())
+                || !mimeType.regionMatches(true, length - last.length(), last, 0, last.length())) {
+            return false;
+        }
+        // Place each middle token as early as possible after the previous one
+        int position = first.length();
+        final int end = length - last.length();
+        for (int i = 1; i < tokens.length - 1; i++) {
+            position = indexOfIgnoreCase(mimeType, tokens[i], position, end);
+            if (position < 0) {
+                return false;
+            }
+            position += tokens[i].length();
+        }
+        return true;
+    }
+
+    private static int indexOfIgnoreCase(String s, String token, int from, int end) {
+        final int tokenLength = token.length();
+        for (int i = from; i + tokenLength <= end; i++) {
+            if (s.regionMatches(true, i, token, 0, tokenLength)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -35,10 +35,15 @@ import org.apache.james.mime4j.decoder.DecoderUtil;
 import org.apache.james.mime4j.decoder.QuotedPrintableInputStream;
 import org.apache.james.mime4j.util.CharsetUtil;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -48,6 +53,8 @@ public class MimeUtility {
 
     public static final String MIME_TYPE_RFC822 = "message/rfc822";
     private final static Pattern PATTERN_CR_OR_LF = Pattern.compile("\r|\n");
+    /** The size, in bytes and in chars, of the buffers getTextFromPart decodes through */
+    private static final int DECODE_BUFFER_SIZE = 8192;
 
     /**
      * Replace sequences of CRLF+WSP with WSP.  Tries to preserve original string
@@ -225,40 +232,57 @@ public class MimeUtility {
      * or an error during conversion.
      */
     public static String getTextFromPart(Part part, ArrayList<InputStream> outInputStreams) {
+        final StringBuilder sb = new StringBuilder();
+        if (!appendTextFromPart(part, sb, -1, outInputStreams)) {
+            return null;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reads the Part's body and appends its text to an Appendable, decoding it as it is read
+     * instead of buffering the whole body first.
+     * @param part The part containing a body
+     * @param out Where to append the text. If there is an error part way through, the text up to
+     *            there will already have been appended.
+     * @param maxChars The most chars to append, or -1 for no limit. Reading stops once the
+     *                 limit is reached.
+     * @param outInputStreams A list of input streams the opened body stream should be added to.
+     *                        If null is passed the stream should be closed.
+     * @return true if the part has text and all of it (or maxChars of it) was appended; false if
+     * there was no text or an error during conversion.
+     */
+    public static boolean appendTextFromPart(Part part, Appendable out, int maxChars,
+            ArrayList<InputStream> outInputStreams) {
         InputStream in = null;
-        ByteArrayOutputStream out = null;
         try {
             if (part != null && part.getBody() != null) {
                 in = part.getBody().getInputStream();
                 String mimeType = part.getMimeType();
                 if (mimeType != null && MimeUtility.mimeTypeMatches(mimeType, "text/*")) {
-                    /*
-                     * Now we read the part into a buffer for further processing. Because
-                     * the stream is now wrapped we'll remove any transfer encoding at this point.
-                     */
-                    out = new ByteArrayOutputStream();
-                    IOUtils.copy(in, out);
-
                     /*
                      * We've got a text part, so let's see if it needs to be processed further.
                      */
-                    String charset = getHeaderParameter(part.getContentType(), "charset");
-                    if (charset != null) {
+                    String mimeCharset = getHeaderParameter(part.getContentType(), "charset");
+                    Charset charset = null;
+                    if (mimeCharset != null) {
                         /*
                          * See if there is conversion from the MIME charset to the Java one.
                          */
-                        charset = CharsetUtil.toJavaCharset(charset);
+                        charset = CharsetUtil.getDecodingCharset(mimeCharset);
                     }
                     /*
                      * No encoding, so use us-ascii, which is the standard.
                      */
                     if (charset == null) {
-                        charset = "ASCII";
+                        charset = CharsetUtil.US_ASCII;
                     }
                     /*
-                     * Convert and return as new String
+                     * Because the stream is wrapped we'll remove any transfer encoding as we
+                     * decode.
                      */
-                    return out.toString(charset);
+                    decodeText(in, charset, out, maxChars < 0 ? Integer.MAX_VALUE : maxChars);
+                    return true;
                 }
             }
 
@@ -266,25 +290,73 @@ public class MimeUtility {
         catch (OutOfMemoryError oom) {
             /*
              * If we are not able to process the body there's nothing we can do about it. Return
-             * null and let the upper layers handle the missing content.
+             * false and let the upper layers handle the missing content.
              */
             Log.e(LOG_TAG, "Unable to getTextFromPart " + oom.toString());
         }
         catch (Exception e) {
             /*
              * If we are not able to process the body there's nothing we can do about it. Return
-             * null and let the upper layers handle the missing content.
+             * false and let the upper layers handle the missing content.
              */
             Log.e(LOG_TAG, "Unable to getTextFromPart " + e.toString());
         } finally {
-            IOUtils.closeQuietly(out);
             if (outInputStreams != null && in != null) {
                 outInputStreams.add(in);
             } else {
                 IOUtils.closeQuietly(in);
             }
         }
-        return null;
+        return false;
+    }
+
+    /**
+     * Decodes a stream to chars through fixed-size buffers, appending up to maxChars of them.
+     * Malformed input is replaced the same way new String(byte[], Charset) does.
+     */
+    private static void decodeText(InputStream in, Charset charset, Appendable out, int maxChars)
+            throws IOException {
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer bytes = ByteBuffer.allocate(DECODE_BUFFER_SIZE);
+        final CharBuffer chars = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+        int remaining = maxChars;
+        boolean endOfInput = false;
+        boolean flushed = false;
+        while (remaining > 0 && !flushed) {
+            if (!endOfInput && bytes.hasRemaining()) {
+                final int n = in.read(bytes.array(), bytes.position(), bytes.remaining());
+                if (n == -1) {
+                    endOfInput = true;
+                } else {
+                    bytes.position(bytes.position() + n);
+                }
+            }
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, endOfInput);
+            bytes.compact();
+            if (endOfInput && result.isUnderflow()) {
+                flushed = decoder.flush(chars).isUnderflow();
+            }
+            final int count = Math.min(chars.position(), remaining);
+            appendChars(out, chars.array(), count);
+            remaining -= count;
+            chars.clear();
+        }
+    }
+
+    private static void appendChars(Appendable out, char[] chars, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(chars, 0, count);
+        } else if (out instanceof StringBuffer) {
+            ((StringBuffer) out).append(chars, 0, count);
+        } else {
+            out.append(CharBuffer.wrap(chars, 0, count));
+        }
     }
 
     /**
@@ -296,9 +368,7 @@ public class MimeUtility {
      * @return true if the mimeType matches
      */
     public static boolean mimeTypeMatches(String mimeType, String matchAgainst) {
-        Pattern p = Pattern.compile(matchAgainst.replaceAll("\\*", "\\.\\*"),
-                Pattern.CASE_INSENSITIVE);
-        return p.matcher(mimeType).matches();
+        return MimeTypeMatcher.get(matchAgainst).matches(mimeType);
     }
 
     /**
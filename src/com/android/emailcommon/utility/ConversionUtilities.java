@@ -28,23 +28,18 @@ import java.util.ArrayList;
 
 public class ConversionUtilities {
     /**
-     * Helper function to append text to a StringBuffer, creating it if necessary.
-     * Optimization:  The majority of the time we are *not* appending - we should have a path
-     * that deals with single strings.
+     * Helper function to append a part's text to a StringBuilder, separated by a newline from
+     * any text already there. Nothing is appended if the part has no text or it can't be read.
      */
-    private static StringBuffer appendTextPart(StringBuffer sb, String newText) {
-        if (newText == null) {
-            return sb;
+    private static void appendTextPart(StringBuilder sb, Part part,
+            ArrayList<InputStream> outInputStreams) {
+        final int start = sb.length();
+        if (start > 0) {
+            sb.append('\n');
         }
-        else if (sb == null) {
-            sb = new StringBuffer(newText);
-        } else {
-            if (sb.length() > 0) {
-                sb.append('\n');
-            }
-            sb.append(newText);
+        if (!MimeUtility.appendTextFromPart(part, sb, -1, outInputStreams)) {
+            sb.setLength(start);
         }
-        return sb;
     }
 
     /**
@@ -72,33 +67,55 @@ public class ConversionUtilities {
      */
     public static BodyFieldData parseBodyFields(ArrayList<Part> viewables,
             ArrayList<InputStream> outInputStreams) throws MessagingException {
+        return parseBodyFields(viewables, outInputStreams, true);
+    }
+
+    /**
+     * Parse body text (plain and/or HTML) from MimeMessage to {@link BodyFieldData}, for callers
+     * that make their own pass over the HTML.  Each part is read once, and the snippet is built
+     * from the plain text as it is read and stops being built as soon as it is full.  If there is
+     * no plain text, the snippet is left null instead of being scanned out of the HTML: the caller
+     * can append the HTML's visible text to a {@link TextUtilities.SnippetBuilder} during its own
+     * pass, such as sanitizing the HTML.
+     */
+    public static BodyFieldData parseBodyFieldsWithoutHtmlSnippet(ArrayList<Part> viewables)
+            throws MessagingException {
+        return parseBodyFields(viewables, null, false);
+    }
+
+    private static BodyFieldData parseBodyFields(ArrayList<Part> viewables,
+            ArrayList<InputStream> outInputStreams, boolean htmlSnippet)
+            throws MessagingException {
         final BodyFieldData data = new BodyFieldData();
-        StringBuffer sbHtml = null;
-        StringBuffer sbText = null;
+        final StringBuilder sbHtml = new StringBuilder();
+        final StringBuilder sbText = new StringBuilder();
+        final TextUtilities.SnippetBuilder snippet = new TextUtilities.SnippetBuilder();
 
         for (Part viewable : viewables) {
-            String text = MimeUtility.getTextFromPart(viewable, outInputStreams);
             // Deploy text as marked by the various tags
             boolean isHtml = "text/html".equalsIgnoreCase(viewable.getMimeType());
 
             // Most of the time, just process regular body parts
             if (isHtml) {
-                sbHtml = appendTextPart(sbHtml, text);
+                appendTextPart(sbHtml, viewable, outInputStreams);
             } else {
-                sbText = appendTextPart(sbText, text);
+                final int start = sbText.length();
+                appendTextPart(sbText, viewable, outInputStreams);
+                if (!snippet.isFull()) {
+                    snippet.append(sbText, start, sbText.length());
+                }
             }
         }
 
         // write the combined data to the body part
         if (!TextUtils.isEmpty(sbText)) {
-            String text = sbText.toString();
-            data.textContent = text;
-            data.snippet = TextUtilities.makeSnippetFromPlainText(text);
+            data.textContent = sbText.toString();
+            data.snippet = snippet.toString();
         }
         if (!TextUtils.isEmpty(sbHtml)) {
             String text = sbHtml.toString();
             data.htmlContent = text;
-            if (data.snippet == null) {
+            if (data.snippet == null && htmlSnippet) {
                 data.snippet = TextUtilities.makeSnippetFromHtmlText(text);
             }
         }
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.utility;
+
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.BackgroundColorSpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+/**
+ * Highlights the terms of a search query in text. The terms are compiled once into a
+ * case-folded Aho-Corasick automaton, so one instance can highlight all the results of a search,
+ * and each text is scanned once however many terms the query has.
+ * <p>
+ * Every occurrence of every term is highlighted; occurrences that overlap or touch are
+ * highlighted as one. In HTML, tags (and the content of title, script, style, applet and head
+ * elements) are copied as they are and terms are only matched within the text between them.
+ * <p>
+ * Immutable, so it can be shared between threads.
+ */
+public final class TermHighlighter {
+    private static final String HIGHLIGHT_START_TAG =
+            "<span style=\"background-color: " + TextUtilities.HIGHLIGHT_COLOR_STRING + "\">";
+    private static final String HIGHLIGHT_END_TAG = "</span>";
+
+    private final String mQuery;
+    /** The distinct lower case chars of the terms, sorted; each one's symbol is its index + 1 */
+    private final char[] mAlphabet;
+    /** The symbol of each ASCII char, 0 for chars not in any term */
+    private final int[] mAsciiSymbols = new int[128];
+    /** The automaton's transitions: mNext[state * mWidth + symbol], symbol 0 being any other */
+    private final int[] mNext;
+    private final int mWidth;
+    /** The length of the longest term ending in each state, 0 if none */
+    private final int[] mMatchLengths;
+    private final int mMaxTermLength;
+
+    /**
+     * @param query the query, which can contain multiple terms separated by whitespace
+     */
+    public TermHighlighter(String query) {
+        mQuery = query;
+        final ArrayList<char[]> terms = new ArrayList<char[]>();
+        if (query != null) {
+            final StringTokenizer st = new StringTokenizer(query);
+            while (st.hasMoreTokens()) {
+                final char[] term = st.nextToken().toCharArray();
+                for (int i = 0; i < term.length; i++) {
+                    term[i] = Character.toLowerCase(term[i]);
+                }
+                terms.add(term);
+            }
+        }
+
+        // Number the distinct chars of the terms
+        final StringBuilder chars = new StringBuilder();
+        int maxStates = 1;
+        int maxTermLength = 0;
+        for (char[] term : terms) {
+            chars.append(term);
+            maxStates += term.length;
+            maxTermLength = Math.max(maxTermLength, term.length);
+        }
+        mMaxTermLength = maxTermLength;
+        final char[] sorted = chars.toString().toCharArray();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[distinct++] = sorted[i];
+            }
+        }
+        mAlphabet = Arrays.copyOf(sorted, distinct);
+        for (int i = 0; i < mAlphabet.length && mAlphabet[i] < 128; i++) {
+            mAsciiSymbols[mAlphabet[i]] = i + 1;
+        }
+        mWidth = mAlphabet.length + 1;
+
+        // Build the trie of the terms; 0 in a transition means none yet, as the root (state 0)
+        // is never a child
+        final int[] next = new int[maxStates * mWidth];
+        final int[] matchLengths = new int[maxStates];
+        final int[] depths = new int[maxStates];
+        int stateCount = 1;
+        for (char[] term : terms) {
+            int state = 0;
+            for (char c : term) {
+                final int index = state * mWidth + symbolOf(c);
+                if (next[index] == 0) {
+                    depths[stateCount] = depths[state] + 1;
+                    next[index] = stateCount++;
+                }
+                state = next[index];
+            }
+            matchLengths[state] = term.length;
+        }
+
+        // Turn it into the automaton, breadth first, following failure links for the missing
+        // transitions
+        final int[] failures = new int[stateCount];
+        final int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        for (int symbol = 0; symbol < mWidth; symbol++) {
+            final int child = next[symbol];
+            if (child != 0) {
+                failures[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            matchLengths[state] = Math.max(matchLengths[state], matchLengths[failures[state]]);
+            for (int symbol = 0; symbol < mWidth; symbol++) {
+                final int index = state * mWidth + symbol;
+                final int fallback = next[failures[state] * mWidth + symbol];
+                final int child = next[index];
+                if (child != 0 && depths[child] == depths[state] + 1) {
+                    failures[child] = fallback;
+                    queue[tail++] = child;
+                } else {
+                    next[index] = fallback;
+                }
+            }
+        }
+        mNext = Arrays.copyOf(next, stateCount * mWidth);
+        mMatchLengths = Arrays.copyOf(matchLengths, stateCount);
+    }
+
+    /**
+     * @return the query this highlighter was compiled from
+     */
+    public String getQuery() {
+        return mQuery;
+    }
+
+    private int symbolOf(char c) {
+        if (c < 128) {
+            return mAsciiSymbols[c];
+        }
+        final int i = Arrays.binarySearch(mAlphabet, c);
+        return i >= 0 ? i + 1 : 0;
+    }
+
+    /**
+     * Receives the parts of the highlighted text, in order.
+     */
+    private interface Output {
+        void appendPlain(String text, int start, int end);
+        void appendHighlighted(String text, int start, int end);
+    }
+
+    /**
+     * Finds the terms in text[start, end) and passes the text on to the output, with the
+     * ranges the terms cover highlighted.
+     */
+    private void highlight(String text, int start, int end, Output out) {
+        // A match can reach back over earlier ones, so the disjoint highlights found so far are
+        // held until no later match can touch them; then [pending, pendingCount) of
+        // highlightStarts/Ends, sorted, are all that's left to pass on
+        final int[] highlightStarts = new int[mMaxTermLength + 1];
+        final int[] highlightEnds = new int[mMaxTermLength + 1];
+        int pending = 0;
+        int pendingCount = 0;
+        int emitted = start;
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            state = mNext[state * mWidth + symbolOf(Character.toLowerCase(text.charAt(i)))];
+            final int matchLength = mMatchLengths[state];
+            if (matchLength == 0) {
+                continue;
+            }
+            int matchStart = Math.max(i + 1 - matchLength, start);
+            // Merge the highlights this match overlaps or touches
+            while (pendingCount > pending && highlightEnds[pendingCount - 1] >= matchStart) {
+                pendingCount--;
+                matchStart = Math.min(matchStart, highlightStarts[pendingCount]);
+            }
+            // Pass on the highlights no later match can reach
+            while (pending < pendingCount
+                    && highlightEnds[pending] < i + 2 - mMaxTermLength) {
+                out.appendPlain(text, emitted, highlightStarts[pending]);
+                out.appendHighlighted(text, highlightStarts[pending], highlightEnds[pending]);
+                emitted = highlightEnds[pending++];
+            }
+            if (pending == pendingCount) {
+                pending = pendingCount = 0;
+            } else if (pendingCount == highlightStarts.length) {
+                // Compact; there are never more than mMaxTermLength pending highlights
+                System.arraycopy(highlightStarts, pending, highlightStarts, 0,
+                        pendingCount - pending);
+                System.arraycopy(highlightEnds, pending, highlightEnds, 0, pendingCount - pending);
+                pendingCount -= pending;
+                pending = 0;
+            }
+            highlightStarts[pendingCount] = matchStart;
+            highlightEnds[pendingCount++] = i + 1;
+        }
+        for (; pending < pendingCount; pending++) {
+            out.appendPlain(text, emitted, highlightStarts[pending]);
+            out.appendHighlighted(text, highlightStarts[pending], highlightEnds[pending]);
+            emitted = highlightEnds[pending];
+        }
+        out.appendPlain(text, emitted, end);
+    }
+
+    /**
+     * Returns a copy of the plain text in which the terms are highlighted with spans (intended
+     * for use in a TextView).
+     */
+    public SpannableStringBuilder highlightText(String text) {
+        final SpannableStringBuilder sb = new SpannableStringBuilder(text);
+        if (text.length() == 0 || mAlphabet.length == 0) {
+            return sb;
+        }
+        highlight(text, 0, text.length(), new Output() {
+            @Override
+            public void appendPlain(String text, int start, int end) {
+            }
+
+            @Override
+            public void appendHighlighted(String text, int start, int end) {
+                sb.setSpan(new BackgroundColorSpan(TextUtilities.HIGHLIGHT_COLOR_INT), start,
+                        end, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        });
+        return sb;
+    }
+
+    /**
+     * Returns a copy of the HTML in which the terms are highlighted with markup (intended for use
+     * in a WebView).
+     */
+    public StringBuilder highlightHtml(String text) {
+        final int length = text.length();
+        final StringBuilder sb = new StringBuilder(length + length / 8);
+        if (mAlphabet.length == 0) {
+            return sb.append(text);
+        }
+        final Output out = new Output() {
+            @Override
+            public void appendPlain(String text, int start, int end) {
+                sb.append(text, start, end);
+            }
+
+            @Override
+            public void appendHighlighted(String text, int start, int end) {
+                sb.append(HIGHLIGHT_START_TAG).append(text, start, end).append(HIGHLIGHT_END_TAG);
+            }
+        };
+
+        // Copy HTML tags directly into the output; search for terms in the text between them
+        int textStart = 0;
+        int i = 0;
+        while ((i = text.indexOf('<', i)) >= 0) {
+            final int tagStart = i;
+            if (!isTagStart(text, i)) {
+                i++;
+                continue;
+            }
+            highlight(text, textStart, tagStart, out);
+            int tagEnd = -1;
+            // Skip content of title, script, style and applet tags
+            if (i < (length - (TextUtilities.MAX_STRIP_TAG_LENGTH + 2))) {
+                for (String stripTag : TextUtilities.STRIP_TAGS) {
+                    if (text.regionMatches(true, i + 1, stripTag, 0, stripTag.length())) {
+                        // Look for the end of this tag
+                        final int endTagPosition = findTagEnd(text, i + 1, stripTag.length(), i);
+                        if (endTagPosition < 0) {
+                            sb.append(text, i, length);
+                            return sb;
+                        }
+                        tagEnd = endTagPosition - 1;
+                        break;
+                    }
+                }
+            }
+            // The tag runs up to the next '>', which (like the old scanner) is body text
+            final int close = text.indexOf('>', Math.max(tagEnd, i + 1));
+            i = close < 0 ? length : close;
+            sb.append(text, tagStart, i);
+            textStart = i;
+            if (close < 0) {
+                break;
+            }
+        }
+        highlight(text, textStart, length, out);
+        return sb;
+    }
+
+    /**
+     * Tags begin with <! or <- or </ or <letter
+     */
+    private static boolean isTagStart(String text, int i) {
+        if (i + 1 >= text.length()) {
+            return false;
+        }
+        final char peek = text.charAt(i + 1);
+        return peek == '!' || peek == '-' || peek == '/' || Character.isLetter(peek);
+    }
+
+    /**
+     * Index-based {@link TextUtilities#findTagEnd(String, String, int)}, for the tag name
+     * at htmlText[tagStart, tagStart + tagLength).
+     */
+    private static int findTagEnd(String htmlText, int tagStart, int tagLength, int startPos) {
+        final int length = htmlText.length();
+        char prevChar = 0;
+        for (int i = startPos; i < length; i++) {
+            final char c = htmlText.charAt(i);
+            if (c == '>') {
+                if (prevChar == '/') {
+                    return i - 1;
+                }
+                break;
+            }
+            prevChar = c;
+        }
+        // We didn't find /> at the end of the tag so find </tag>
+        for (int i = htmlText.indexOf('/', startPos); i >= 0; i = htmlText.indexOf('/', i + 1)) {
+            if (htmlText.regionMatches(i + 1, htmlText, tagStart, tagLength)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
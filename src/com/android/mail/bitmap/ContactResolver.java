@@ -21,6 +21,8 @@ import android.content.ContentResolver;
 import android.os.AsyncTask;
 import android.os.AsyncTask.Status;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.util.LruCache;
 
 import com.android.bitmap.BitmapCache;
 import com.android.bitmap.DecodeTask;
@@ -32,19 +34,29 @@ import com.android.mail.SenderInfoLoader;
 import com.android.mail.bitmap.ContactRequest.ContactRequestHolder;
 import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Batches up ContactRequests so we can efficiently query the contacts provider. Kicks off a
- * ContactResolverTask to query for contact images in the background.
+ * ContactResolverTask to query for contact images in the background, and decodes the images
+ * on a small pool of threads. Addresses found to have no contact image aren't looked up again
+ * for a while.
  */
 public class ContactResolver implements Runnable {
 
@@ -68,6 +80,33 @@ public class ContactResolver implements Runnable {
             1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
     private static final Executor EXECUTOR = SMALL_POOL_EXECUTOR;
 
+    /**
+     * Decodes the photos of a batch, a few at a time. The queue is first in, first out, so the
+     * photos start decoding in the order of the batch, which is the order on screen.
+     */
+    private static final int DECODE_THREADS = 2;
+    private static final ThreadPoolExecutor DECODE_EXECUTOR = new ThreadPoolExecutor(
+            DECODE_THREADS, DECODE_THREADS, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    static {
+        DECODE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * How long to remember that an address has no contact photo, rather than look it up again
+     * in each batch.
+     */
+    @VisibleForTesting
+    static final long NO_PHOTO_TTL_MS = 10 * 60 * 1000;
+    private static final int MAX_NO_PHOTO_ADDRESSES = 1024;
+
+    /** Addresses with no contact photo, to the time they should be looked up again. */
+    private static final LruCache<String, Long> sNoPhotoAddresses =
+            new LruCache<String, Long>(MAX_NO_PHOTO_ADDRESSES);
+
+    private static final AtomicInteger sDecodeCount = new AtomicInteger();
+    private static final AtomicLong sDecodedBytes = new AtomicLong();
+
     public interface ContactDrawableInterface {
         public void onDecodeComplete(final RequestKey key, final ReusableBitmap result);
         public int getDecodeWidth();
@@ -116,6 +155,40 @@ public class ContactResolver implements Runnable {
         return mCache;
     }
 
+    /**
+     * @return the number of contact photos decoded
+     */
+    public static int getDecodeCount() {
+        return sDecodeCount.get();
+    }
+
+    /**
+     * @return the total size in bytes of the contact photos decoded
+     */
+    public static long getDecodedBytes() {
+        return sDecodedBytes.get();
+    }
+
+    /**
+     * @param now the current {@link SystemClock#elapsedRealtime()}
+     */
+    @VisibleForTesting
+    static boolean isKnownToHaveNoPhoto(final String email, final long now) {
+        final Long lookUpAgainTime = sNoPhotoAddresses.get(email);
+        if (lookUpAgainTime == null) {
+            return false;
+        }
+        if (now >= lookUpAgainTime) {
+            sNoPhotoAddresses.remove(email);
+            return false;
+        }
+        return true;
+    }
+
+    private static void setHasNoPhoto(final String email) {
+        sNoPhotoAddresses.put(email, SystemClock.elapsedRealtime() + NO_PHOTO_TTL_MS);
+    }
+
     public void add(final ContactRequest request, final ContactDrawableInterface drawable) {
         mBatch.add(new ContactRequestHolder(request, drawable));
         notifyBatchReady();
@@ -177,68 +250,138 @@ public class ContactResolver implements Runnable {
             final Set<String> emails = new HashSet<String>(mContactRequests.size());
             for (ContactRequestHolder request : mContactRequests) {
                 final String email = request.getEmail();
-                emails.add(email);
+                if (!isKnownToHaveNoPhoto(email, SystemClock.elapsedRealtime())) {
+                    emails.add(email);
+                }
             }
             Trace.endSection();
 
             Trace.beginSection("load contact photo bytes");
             // Query the contacts provider for the current batch of emails.
-            final ImmutableMap<String, ContactInfo> contactInfos = loadContactPhotos(emails);
+            final ImmutableMap<String, ContactInfo> contactInfos =
+                    emails.isEmpty() ? null : loadContactPhotos(emails);
             Trace.endSection();
 
-            for (ContactRequestHolder request : mContactRequests) {
-                Trace.beginSection("decode");
-                final String email = request.getEmail();
-                if (contactInfos == null) {
-                    // Query failed.
-                    LogUtils.d(TAG, "ContactResolver -- failed  %s", email);
-                    publishProgress(new Result(request, null));
-                    Trace.endSection();
-                    continue;
+            final List<Future<?>> decodes = Lists.newArrayList();
+            // The request of each decode
+            final List<ContactRequestHolder> decodeRequests = Lists.newArrayList();
+            int waited = 0;
+            try {
+                for (final ContactRequestHolder request : mContactRequests) {
+                    if (isCancelled()) {
+                        break;
+                    }
+                    final String email = request.getEmail();
+                    if (!emails.contains(email)) {
+                        // No photo found recently.
+                        LogUtils.d(TAG, "ContactResolver -- known   %s", email);
+                        publishProgress(new Result(request, null));
+                        continue;
+                    }
+
+                    if (contactInfos == null) {
+                        // Query failed.
+                        LogUtils.d(TAG, "ContactResolver -- failed  %s", email);
+                        publishProgress(new Result(request, null));
+                        continue;
+                    }
+
+                    final ContactInfo contactInfo = contactInfos.get(email);
+                    if (contactInfo == null) {
+                        // Request skipped. Try again next batch.
+                        LogUtils.d(TAG, "ContactResolver  = skipped %s", email);
+                        continue;
+                    }
+
+                    // Query attempted.
+                    final byte[] photo = contactInfo.photoBytes;
+                    if (photo == null) {
+                        // No photo bytes found.
+                        LogUtils.d(TAG, "ContactResolver -- failed  %s", email);
+                        setHasNoPhoto(email);
+                        publishProgress(new Result(request, null));
+                        continue;
+                    }
+
+                    // Query succeeded. Photo bytes found.
+                    LogUtils.d(TAG, "ContactResolver ++ found   %s", email);
+                    decodes.add(DECODE_EXECUTOR.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!isCancelled()) {
+                                decode(request, photo);
+                            }
+                        }
+                    }));
+                    decodeRequests.add(request);
                 }
 
-                final ContactInfo contactInfo = contactInfos.get(email);
-                if (contactInfo == null) {
-                    // Request skipped. Try again next batch.
-                    LogUtils.d(TAG, "ContactResolver  = skipped %s", email);
-                    Trace.endSection();
-                    continue;
+                // Wait for the decodes, so that the next batch only starts after this one. A
+                // failed decode doesn't stop the others.
+                for (; waited < decodes.size(); waited++) {
+                    waitForDecode(decodes.get(waited), decodeRequests.get(waited));
                 }
-
-                // Query attempted.
-                final byte[] photo = contactInfo.photoBytes;
-                if (photo == null) {
-                    // No photo bytes found.
-                    LogUtils.d(TAG, "ContactResolver -- failed  %s", email);
-                    publishProgress(new Result(request, null));
-                    Trace.endSection();
-                    continue;
+            } catch (InterruptedException e) {
+                // Cancelled for a newer batch.
+                LogUtils.d(TAG, "ContactResolver << batch cancelled");
+            } finally {
+                // Leave the decode threads to the next batch.
+                for (; waited < decodes.size(); waited++) {
+                    if (decodes.get(waited).cancel(false)) {
+                        publishProgress(new Result(decodeRequests.get(waited), null));
+                    }
                 }
+            }
 
-                // Query succeeded. Photo bytes found.
-                request.contactRequest.bytes = photo;
+            return null;
+        }
 
-                // Start decode.
-                LogUtils.d(TAG, "ContactResolver ++ found   %s", email);
-                // Synchronously decode the photo bytes. We are already in a background
-                // thread, and we want decodes to finish in order. The decodes are blazing
-                // fast so we don't need to kick off multiple threads.
-                final int width = HALF_MAXIMUM_PHOTO_SIZE >= request.destination.getDecodeWidth()
-                        ? HALF_MAXIMUM_PHOTO_SIZE : MAXIMUM_PHOTO_SIZE;
-                final int height = HALF_MAXIMUM_PHOTO_SIZE >= request.destination.getDecodeHeight()
-                        ? HALF_MAXIMUM_PHOTO_SIZE : MAXIMUM_PHOTO_SIZE;
-                final DecodeTask.DecodeOptions opts = new DecodeTask.DecodeOptions(
-                        width, height, 1 / 2f, DecodeTask.DecodeOptions.STRATEGY_ROUND_NEAREST);
-                final ReusableBitmap result = new DecodeTask(request.contactRequest, opts, null,
-                        null, mCache).decode();
+        /**
+         * Waits for the decode of a request. The decode publishes its own result, so this only
+         * publishes a null result if the decode failed or was cancelled.
+         */
+        private void waitForDecode(final Future<?> decode, final ContactRequestHolder request)
+                throws InterruptedException {
+            try {
+                decode.get();
+            } catch (ExecutionException e) {
+                LogUtils.e(TAG, e, "ContactResolver decode failed %s", request.getEmail());
+                publishProgress(new Result(request, null));
+            } catch (CancellationException e) {
+                LogUtils.d(TAG, "ContactResolver -- cancelled %s", request.getEmail());
+                publishProgress(new Result(request, null));
+            }
+        }
+
+        /**
+         * Decodes the photo of a request, on a decode thread, and publishes the result.
+         */
+        private void decode(final ContactRequestHolder request, final byte[] photo) {
+            Trace.beginSection("decode");
+            final int width = HALF_MAXIMUM_PHOTO_SIZE >= request.destination.getDecodeWidth()
+                    ? HALF_MAXIMUM_PHOTO_SIZE : MAXIMUM_PHOTO_SIZE;
+            final int height = HALF_MAXIMUM_PHOTO_SIZE >= request.destination.getDecodeHeight()
+                    ? HALF_MAXIMUM_PHOTO_SIZE : MAXIMUM_PHOTO_SIZE;
+            final DecodeTask.DecodeOptions opts = new DecodeTask.DecodeOptions(
+                    width, height, 1 / 2f, DecodeTask.DecodeOptions.STRATEGY_ROUND_NEAREST);
+            final ReusableBitmap result;
+            // The bytes are handed to the decode through the request, which may be shared by
+            // two holders decoding at once.
+            synchronized (request.contactRequest) {
+                request.contactRequest.bytes = photo;
+                result = new DecodeTask(request.contactRequest, opts, null, null, mCache)
+                        .decode();
                 request.contactRequest.bytes = null;
+            }
 
-                // Decode success.
-                publishProgress(new Result(request, result));
-                Trace.endSection();
+            if (result != null) {
+                sDecodeCount.incrementAndGet();
+                sDecodedBytes.addAndGet(result.getByteCount());
             }
 
-            return null;
+            // Decode success.
+            publishProgress(new Result(request, result));
+            Trace.endSection();
         }
 
         protected ImmutableMap<String, ContactInfo> loadContactPhotos(Set<String> emails) {
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.content.ContentValues;
+
+import com.android.mail.providers.Conversation;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Column-oriented store for the values {@link ConversationCursor} caches on top of its underlying
+ * cursor. Values are keyed by (underlying position, column index): integer values live in
+ * per-column int arrays and strings/blobs in per-column object arrays, each allocated the first
+ * time its column is written. A dirty bitmap tracks which rows carry any cached state, so the
+ * common case of reading an untouched row is a single bit test.
+ * <p>
+ * Rows can be added with {@link #ensureRowCount(int)}, for stores that aren't tied to the rows of
+ * a cursor, and cleared with {@link #clearRow(int)} to be reused.
+ * <p>
+ * Not thread safe; writers are expected to hold the cursor's cache lock.
+ */
+final class CachedColumnStore {
+    private int mRowCount;
+    private final int mColumnCount;
+    /** Rows with any cached state (including a cached deletion) */
+    private final BitSet mDirtyRows;
+    /** The last time each dirty row was written */
+    private long[] mUpdateTimes;
+    /** Per column, the rows that have a cached value for it; null until first written */
+    private final BitSet[] mCachedCells;
+    private final int[][] mIntValues;
+    /** Per column String/byte[] values; a null entry in a cached cell means an int value */
+    private final Object[][] mObjectValues;
+    /** Copies of the base Conversation with this row's cached values applied */
+    private Conversation[] mOverlaidConversations;
+
+    CachedColumnStore(int rowCount, int columnCount) {
+        mRowCount = rowCount;
+        mColumnCount = columnCount;
+        mDirtyRows = new BitSet(rowCount);
+        mUpdateTimes = new long[rowCount];
+        mCachedCells = new BitSet[columnCount];
+        mIntValues = new int[columnCount][];
+        mObjectValues = new Object[columnCount][];
+        mOverlaidConversations = new Conversation[rowCount];
+    }
+
+    private boolean inRange(int row) {
+        return row >= 0 && row < mRowCount;
+    }
+
+    int getRowCount() {
+        return mRowCount;
+    }
+
+    int getColumnCount() {
+        return mColumnCount;
+    }
+
+    /**
+     * Grows the store to at least the given number of rows; the new rows have no cached state.
+     * Rows are added in chunks, so that adding one row at a time doesn't copy every time.
+     */
+    void ensureRowCount(int rowCount) {
+        if (rowCount <= mRowCount) {
+            return;
+        }
+        final int newRowCount = Math.max(rowCount, mRowCount + (mRowCount >> 1));
+        mUpdateTimes = Arrays.copyOf(mUpdateTimes, newRowCount);
+        mOverlaidConversations = Arrays.copyOf(mOverlaidConversations, newRowCount);
+        for (int column = 0; column < mColumnCount; column++) {
+            if (mIntValues[column] != null) {
+                mIntValues[column] = Arrays.copyOf(mIntValues[column], newRowCount);
+            }
+            if (mObjectValues[column] != null) {
+                mObjectValues[column] = Arrays.copyOf(mObjectValues[column], newRowCount);
+            }
+        }
+        mRowCount = newRowCount;
+    }
+
+    /**
+     * @return true if the row has any cached state
+     */
+    boolean isDirty(int row) {
+        return inRange(row) && mDirtyRows.get(row);
+    }
+
+    /**
+     * @return the next dirty row at or after the given row, or -1 if there is none
+     */
+    int nextDirtyRow(int fromRow) {
+        return mDirtyRows.nextSetBit(fromRow);
+    }
+
+    /**
+     * @return the first row at or after the given row without cached state; this may be past the
+     * last row
+     */
+    int nextCleanRow(int fromRow) {
+        return mDirtyRows.nextClearBit(fromRow);
+    }
+
+    int getDirtyRowCount() {
+        return mDirtyRows.cardinality();
+    }
+
+    long getUpdateTime(int row) {
+        return mUpdateTimes[row];
+    }
+
+    /**
+     * Marks the row as dirty as of the given time and drops its overlaid conversation.
+     */
+    void touch(int row, long updateTime) {
+        mDirtyRows.set(row);
+        mUpdateTimes[row] = updateTime;
+        mOverlaidConversations[row] = null;
+    }
+
+    /**
+     * Drops all cached state of a row.
+     */
+    void clearRow(int row) {
+        if (!inRange(row)) {
+            return;
+        }
+        mDirtyRows.clear(row);
+        mUpdateTimes[row] = 0;
+        mOverlaidConversations[row] = null;
+        for (int column = 0; column < mColumnCount; column++) {
+            final BitSet cells = mCachedCells[column];
+            if (cells != null) {
+                cells.clear(row);
+            }
+            final Object[] objects = mObjectValues[column];
+            if (objects != null) {
+                // Don't hold on to blobs of cleared rows
+                objects[row] = null;
+            }
+        }
+    }
+
+    boolean hasValue(int row, int column) {
+        if (!isDirty(row) || column < 0 || column >= mColumnCount) {
+            return false;
+        }
+        final BitSet cells = mCachedCells[column];
+        return cells != null && cells.get(row);
+    }
+
+    /**
+     * Returns the cached int value of a cell, which must have a value.
+     *
+     * @throws ClassCastException if the cached value is not an int
+     */
+    int getInt(int row, int column) {
+        final Object[] objects = mObjectValues[column];
+        if (objects != null && objects[row] != null) {
+            return (Integer) objects[row];
+        }
+        return mIntValues[column][row];
+    }
+
+    /**
+     * @return the cached value of a cell, boxing int values, or null if the cell has no value
+     */
+    Object getValue(int row, int column) {
+        if (!hasValue(row, column)) {
+            return null;
+        }
+        final Object[] objects = mObjectValues[column];
+        if (objects != null && objects[row] != null) {
+            return objects[row];
+        }
+        return mIntValues[column][row];
+    }
+
+    private BitSet cellsFor(int column) {
+        BitSet cells = mCachedCells[column];
+        if (cells == null) {
+            cells = new BitSet(mRowCount);
+            mCachedCells[column] = cells;
+        }
+        return cells;
+    }
+
+    void putInt(int row, int column, int value) {
+        cellsFor(column).set(row);
+        int[] ints = mIntValues[column];
+        if (ints == null) {
+            ints = new int[mRowCount];
+            mIntValues[column] = ints;
+        }
+        ints[row] = value;
+        final Object[] objects = mObjectValues[column];
+        if (objects != null) {
+            objects[row] = null;
+        }
+    }
+
+    /**
+     * Caches a String or byte[] value for a cell.
+     */
+    void putObject(int row, int column, Object value) {
+        cellsFor(column).set(row);
+        Object[] objects = mObjectValues[column];
+        if (objects == null) {
+            objects = new Object[mRowCount];
+            mObjectValues[column] = objects;
+        }
+        objects[row] = value;
+    }
+
+    Conversation getOverlaidConversation(int row) {
+        return mOverlaidConversations[row];
+    }
+
+    void setOverlaidConversation(int row, Conversation conversation) {
+        mOverlaidConversations[row] = conversation;
+    }
+
+    /**
+     * Fills a ContentValues with the cached values of a row, suitable for
+     * {@link Conversation#applyCachedValues(ContentValues)}.
+     */
+    ContentValues getValues(int row, String[] columnNames) {
+        final ContentValues values = new ContentValues();
+        for (int column = 0; column < mColumnCount; column++) {
+            final Object value = getValue(row, column);
+            if (value instanceof Integer) {
+                values.put(columnNames[column], (Integer) value);
+            } else if (value instanceof String) {
+                values.put(columnNames[column], (String) value);
+            } else if (value instanceof byte[]) {
+                values.put(columnNames[column], (byte[]) value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Copies all cached state of a row in another store (for a previous underlying cursor with
+     * the same columns) into a row of this store.
+     */
+    void copyRow(CachedColumnStore from, int fromRow, int toRow) {
+        for (int column = 0; column < mColumnCount; column++) {
+            if (!from.hasValue(fromRow, column)) {
+                continue;
+            }
+            final Object[] objects = from.mObjectValues[column];
+            if (objects != null && objects[fromRow] != null) {
+                putObject(toRow, column, objects[fromRow]);
+            } else {
+                putInt(toRow, column, from.mIntValues[column][fromRow]);
+            }
+        }
+        touch(toRow, from.mUpdateTimes[fromRow]);
+    }
+
+    @Override
+    public String toString() {
+        return "{CachedColumnStore rows=" + mRowCount + " dirty=" + mDirtyRows + "}";
+    }
+}
@@ -53,15 +53,14 @@ import com.android.mail.utils.NotificationActionUtils.NotificationAction;
 import com.android.mail.utils.NotificationActionUtils.NotificationActionType;
 import com.android.mail.utils.Utils;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -79,14 +78,8 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
     public static final String LOG_TAG = "ConvCursor";
     /** Turn to true for debugging. */
     private static final boolean DEBUG = false;
-    /** A deleted row is indicated by the presence of DELETED_COLUMN in the cache map */
+    /** A deleted row is indicated by caching a value for DELETED_COLUMN */
     private static final String DELETED_COLUMN = "__deleted__";
-    /** An row cached during a requery is indicated by the presence of REQUERY_COLUMN in the map */
-    private static final String UPDATE_TIME_COLUMN = "__updatetime__";
-    /**
-     * A sentinel value for the "index" of the deleted column; it's an int that is otherwise invalid
-     */
-    private static final int DELETED_COLUMN_INDEX = -1;
     /**
      * If a cached value within 10 seconds of a refresh(), preserve it. This time has been
      * chosen empirically (long enough for UI changes to propagate in any reasonable case)
@@ -114,8 +107,18 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
     UnderlyingCursorWrapper mUnderlyingCursor;
     /** The new cursor obtained via a requery */
     private volatile UnderlyingCursorWrapper mRequeryCursor;
-    /** A mapping from Uri to updated ContentValues */
-    private final HashMap<String, ContentValues> mCacheMap = new HashMap<String, ContentValues>();
+    /** Updated values, by position in the underlying cursor and column */
+    private CachedColumnStore mCachedValues = new CachedColumnStore(0, 0);
+    /**
+     * Updated values for conversations that aren't in the underlying cursor, e.g. from a
+     * notification action, or while a query without a limit replaces the initial one. They're
+     * moved into {@link #mCachedValues} once the conversation shows up in the underlying cursor.
+     */
+    private CachedColumnStore mOverflowValues = new CachedColumnStore(0, 0);
+    /** The rows of conversations in {@link #mOverflowValues}, by uri */
+    private final HashMap<String, Integer> mOverflowRows = new HashMap<String, Integer>();
+    /** The rows of {@link #mOverflowValues} whose conversations are deleted locally */
+    private final BitSet mOverflowDeleted = new BitSet();
     /** Cache map lock (will be used only very briefly - few ms at most) */
     private final Object mCacheMapLock = new Object();
     /** The listeners registered for this cursor */
@@ -140,8 +143,8 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
     private final String mName;
     /** Column names for this cursor */
     private String[] mColumnNames;
-    // Column names as above, as a Set for quick membership checking
-    private Set<String> mColumnNameSet;
+    // Column names as above, mapped to their index for quick lookup
+    private Map<String, Integer> mColumnIndexMap;
     /** An observer on the underlying cursor (so we can detect changes from outside the UI) */
     private final CursorObserver mCursorObserver;
     /** Whether our observer is currently registered with the underlying cursor */
@@ -155,9 +158,13 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
     private int mPosition = -1;
 
     /**
-     * The number of cached deletions from this cursor (used to quickly generate an accurate count)
+     * Index of locally deleted rows over the underlying cursor, used to seek to a visible position
+     * without walking every row in between, and to quickly generate an accurate count
      */
-    private int mDeletedCount = 0;
+    private DeletedRowIndex mDeletedRowIndex = new DeletedRowIndex(0);
+
+    /** How the rows changed in the last refresh, or null if there is nothing to compare to */
+    private RefreshDelta mLastRefreshDelta;
 
     /** Parameters passed to the underlying query */
     private Uri qUri;
@@ -173,11 +180,11 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             close();
         }
         mColumnNames = cursor.getColumnNames();
-        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
-        for (String name : mColumnNames) {
-            builder.add(name);
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        for (int i = 0; i < mColumnNames.length; i++) {
+            builder.put(mColumnNames[i], i);
         }
-        mColumnNameSet = builder.build();
+        mColumnIndexMap = builder.build();
         mRefreshRequired = false;
         mRefreshReady = false;
         mRefreshTask = null;
@@ -255,16 +262,6 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         return mUnderlyingCursor != null ? mUnderlyingCursor.conversationIds() : null;
     }
 
-    private static class UnderlyingRowData {
-        public final String innerUri;
-        public Conversation conversation;
-
-        public UnderlyingRowData(String innerUri, Conversation conversation) {
-            this.innerUri = innerUri;
-            this.conversation = conversation;
-        }
-    }
-
     /**
      * Simple wrapper for a cursor that provides methods for quickly determining
      * the existence of a row.
@@ -273,9 +270,9 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             implements DrawIdler.IdleListener {
 
         /**
-         * An AsyncTask that will fill as much of the cache as possible until either the cache is
-         * full or the task is cancelled. If not cancelled and we're not done caching, it will
-         * schedule another iteration to run upon completion.
+         * An AsyncTask that will fill as much of the cache as possible until either there is
+         * nothing left to prefetch (see {@link PagedConversationCache#nextPrefetchPosition()}) or
+         * the task is cancelled.
          * <p>
          * Generally, only one task instance per {@link UnderlyingCursorWrapper} will run at a time.
          * But if an old task is cancelled, it may continue to execute at most one iteration (due
@@ -294,28 +291,24 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
                     Utils.traceBeginSection("backgroundCaching");
                     if (DEBUG) LogUtils.i(LOG_TAG, "in cache job pos=%s c=%s", mStartPos,
                             getWrappedCursor());
-                    final int count = getCount();
                     while (true) {
                         // It is possible for two instances of this loop to execute at once if
-                        // an earlier task is cancelled but gets preempted. As written, this loop
-                        // safely shares mCachePos without mutexes by only reading it once and
-                        // writing it once (writing based on the previously-read value).
-                        // The most that can happen is that one row's values is read twice.
-                        final int pos = mCachePos;
-                        if (isCancelled() || pos >= count) {
+                        // an earlier task is cancelled but gets preempted. The cache is
+                        // synchronized and only keeps the first Conversation stored for a row,
+                        // so the most that can happen is that one row's values is read twice.
+                        final int pos = mConversationCache.nextPrefetchPosition();
+                        if (isCancelled() || pos < 0) {
                             break;
                         }
 
-                        final UnderlyingRowData rowData = mRowCache.get(pos);
-                        if (rowData.conversation == null) {
-                            // We are running in a background thread.  Set the position to the row
-                            // we are interested in.
-                            if (moveToPosition(pos)) {
-                                rowData.conversation = new Conversation(
-                                        UnderlyingCursorWrapper.this);
-                            }
+                        // We are running in a background thread.  Set the position to the row
+                        // we are interested in.
+                        if (!moveToPosition(pos)) {
+                            break;
                         }
-                        mCachePos = pos + 1;
+                        mConversationCache.putIfAbsent(pos,
+                                new Conversation(UnderlyingCursorWrapper.this));
+                        mCachePos = pos;
                     }
                     System.gc();
                 } finally {
@@ -356,22 +349,29 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
          */
         private CacheLoaderTask mCacheLoaderTask;
         /**
-         * The current row that the cache task is working on, or should work on next.
-         * <p>
-         * Not synchronized; see comments in {@link CacheLoaderTask#doInBackground(Void...)} for
-         * notes on thread safety.
+         * The last row that the cache task built a Conversation for; for logging only.
          */
-        private int mCachePos;
+        private volatile int mCachePos;
         private boolean mCachingEnabled;
         private final NewCursorUpdateObserver mCursorUpdateObserver;
         private boolean mUpdateObserverRegistered = false;
 
         // Ideally these two objects could be combined into a Map from
         // conversationId -> position, but the cached values uses the conversation
-        // uri as a key.
-        private final Map<String, Integer> mConversationUriPositionMap;
-        private final Map<Long, Integer> mConversationIdPositionMap;
-        private final List<UnderlyingRowData> mRowCache;
+        // uri as a key. Both are primitive maps over the arrays below so that pre-loading a
+        // large cursor doesn't box every id and position.
+        private final StringPositionMap mConversationUriPositionMap;
+        private final LongPositionMap mConversationIdPositionMap;
+        /** The conversation uri of each row, indexed by position */
+        private final String[] mInnerUriCache;
+        /** The Conversations built for the rows, by position; only nearby pages of big cursors */
+        private final PagedConversationCache mConversationCache;
+        /**
+         * A hash of all of each row's columns, indexed by position, so that a refresh can tell
+         * which rows are unchanged and keep their Conversations. Null until
+         * {@link #computeVersionHashes()} is called off the UI thread.
+         */
+        private long[] mVersionHashes;
 
         private boolean mCursorUpdated = false;
 
@@ -390,19 +390,15 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             }
 
             final long start = SystemClock.uptimeMillis();
-            final Map<String, Integer> uriPositionMap;
-            final Map<Long, Integer> idPositionMap;
-            final UnderlyingRowData[] cache;
             final int count;
             Utils.traceBeginSection("blockingCaching");
             if (super.moveToFirst()) {
                 count = super.getCount();
-                cache = new UnderlyingRowData[count];
+                mInnerUriCache = new String[count];
+                mConversationUriPositionMap = new StringPositionMap(mInnerUriCache);
+                mConversationIdPositionMap = new LongPositionMap(count);
                 int i = 0;
 
-                uriPositionMap = Maps.newHashMapWithExpectedSize(count);
-                idPositionMap = Maps.newHashMapWithExpectedSize(count);
-
                 do {
                     final String innerUriString;
                     final long convId;
@@ -410,49 +406,44 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
                     innerUriString = super.getString(URI_COLUMN_INDEX);
                     convId = super.getLong(UIProvider.CONVERSATION_ID_COLUMN);
 
+                    mInnerUriCache[i] = innerUriString;
+                    final int prevUriPosition = mConversationUriPositionMap.put(i);
+                    final int prevIdPosition = mConversationIdPositionMap.put(convId, i);
+
                     if (DEBUG_DUPLICATE_KEYS) {
-                        if (uriPositionMap.containsKey(innerUriString)) {
+                        if (prevUriPosition >= 0) {
                             LogUtils.e(LOG_TAG, "Inserting duplicate conversation uri key: %s. " +
                                     "Cursor position: %d, iteration: %d map position: %d",
-                                    innerUriString, getPosition(), i,
-                                    uriPositionMap.get(innerUriString));
+                                    innerUriString, getPosition(), i, prevUriPosition);
                         }
-                        if (idPositionMap.containsKey(convId)) {
+                        if (prevIdPosition >= 0) {
                             LogUtils.e(LOG_TAG, "Inserting duplicate conversation id key: %d" +
                                     "Cursor position: %d, iteration: %d map position: %d",
-                                    convId, getPosition(), i, idPositionMap.get(convId));
+                                    convId, getPosition(), i, prevIdPosition);
                         }
                     }
-
-                    uriPositionMap.put(innerUriString, i);
-                    idPositionMap.put(convId, i);
-
-                    cache[i] = new UnderlyingRowData(
-                            innerUriString,
-                            null /* conversation */);
                 } while (super.moveToPosition(++i));
 
-                if (uriPositionMap.size() != count || idPositionMap.size() != count) {
+                final int uriCount = mConversationUriPositionMap.size();
+                final int idCount = mConversationIdPositionMap.size();
+                if (uriCount != count || idCount != count) {
                     if (DEBUG_DUPLICATE_KEYS)  {
                         throw new IllegalStateException("Unexpected map sizes: cursorN=" + count
-                                + " uriN=" + uriPositionMap.size() + " idN="
-                                + idPositionMap.size());
+                                + " uriN=" + uriCount + " idN=" + idCount);
                     } else {
                         LogUtils.e(LOG_TAG, "Unexpected map sizes.  Cursor size: %d, " +
                                 "uri position map size: %d, id position map size: %d", count,
-                                uriPositionMap.size(), idPositionMap.size());
+                                uriCount, idCount);
                     }
                 }
             } else {
                 count = 0;
-                cache = new UnderlyingRowData[0];
-                uriPositionMap = Maps.newHashMap();
-                idPositionMap = Maps.newHashMap();
+                mInnerUriCache = new String[0];
+                mConversationUriPositionMap = new StringPositionMap(mInnerUriCache);
+                mConversationIdPositionMap = new LongPositionMap(0);
             }
-            mConversationUriPositionMap = Collections.unmodifiableMap(uriPositionMap);
-            mConversationIdPositionMap = Collections.unmodifiableMap(idPositionMap);
+            mConversationCache = new PagedConversationCache(count);
 
-            mRowCache = Collections.unmodifiableList(Arrays.asList(cache));
             final long end = SystemClock.uptimeMillis();
             LogUtils.i(LOG_TAG, "*** ConversationCursor pre-loading took %sms n=%s", (end-start),
                     count);
@@ -465,7 +456,59 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         }
 
         /**
-         * Resumes caching at {@link #mCachePos}.
+         * Hashes every row, for {@link #getVersionHash(int)}. This reads every column of every
+         * row, so it must not be called on the UI thread or during the blocking pre-load; the
+         * refresh task calls it before the cursor is handed to the UI.
+         */
+        public synchronized void computeVersionHashes() {
+            if (mVersionHashes != null) {
+                return;
+            }
+            final int count = getCount();
+            final long[] hashes = new long[count];
+            for (int i = 0; i < count; i++) {
+                // This thread's position is its own, so the UI may keep using the cursor
+                if (!moveToPosition(i)) {
+                    return;
+                }
+                hashes[i] = computeVersionHash();
+            }
+            moveToPosition(-1);
+            mVersionHashes = hashes;
+        }
+
+        /**
+         * Hashes every column of the wrapped cursor's current row.
+         */
+        private long computeVersionHash() {
+            long hash = 17;
+            final int columnCount = super.getColumnCount();
+            for (int column = 0; column < columnCount; column++) {
+                final long value;
+                switch (super.getType(column)) {
+                    case FIELD_TYPE_INTEGER:
+                        value = super.getLong(column);
+                        break;
+                    case FIELD_TYPE_FLOAT:
+                        value = Double.doubleToLongBits(super.getDouble(column));
+                        break;
+                    case FIELD_TYPE_STRING:
+                        value = super.getString(column).hashCode();
+                        break;
+                    case FIELD_TYPE_BLOB:
+                        value = Arrays.hashCode(super.getBlob(column));
+                        break;
+                    default:
+                        value = 0;
+                        break;
+                }
+                hash = hash * 1000003L + value;
+            }
+            return hash;
+        }
+
+        /**
+         * Resumes caching around the rows the UI last showed.
          *
          * @return true if we actually resumed, false if we're done or stopped
          */
@@ -474,8 +517,9 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
                 throw new IllegalStateException("unexpected existing task: " + mCacheLoaderTask);
             }
 
-            if (mCachingEnabled && mCachePos < getCount()) {
-                mCacheLoaderTask = new CacheLoaderTask(mCachePos);
+            final int startPos = mConversationCache.nextPrefetchPosition();
+            if (mCachingEnabled && startPos >= 0) {
+                mCacheLoaderTask = new CacheLoaderTask(startPos);
                 mCacheLoaderTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
                 return true;
             }
@@ -505,32 +549,61 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         }
 
         public int getPosition(long conversationId) {
-            final Integer position = mConversationIdPositionMap.get(conversationId);
-            return position != null ? position.intValue() : -1;
+            return mConversationIdPositionMap.get(conversationId);
         }
 
         public int getPosition(String conversationUri) {
-            final Integer position = mConversationUriPositionMap.get(conversationUri);
-            return position != null ? position.intValue() : -1;
+            return mConversationUriPositionMap.get(conversationUri);
         }
 
         public String getInnerUri() {
-            return mRowCache.get(getPosition()).innerUri;
+            return mInnerUriCache[getPosition()];
+        }
+
+        public String getInnerUri(int position) {
+            return mInnerUriCache[position];
         }
 
         public Conversation getConversation() {
-            return mRowCache.get(getPosition()).conversation;
+            return mConversationCache.get(getPosition());
         }
 
         public void cacheConversation(Conversation conversation) {
-            final UnderlyingRowData rowData = mRowCache.get(getPosition());
-            if (rowData.conversation == null) {
-                rowData.conversation = conversation;
-            }
+            mConversationCache.putIfAbsent(getPosition(), conversation);
+        }
+
+        public synchronized boolean hasVersionHashes() {
+            return mVersionHashes != null;
+        }
+
+        public synchronized long getVersionHash(int position) {
+            return mVersionHashes[position];
+        }
+
+        /**
+         * Reuses the Conversation another cursor built for an unchanged row, if it built one.
+         *
+         * @return true if a Conversation was carried over
+         */
+        public boolean carryOverConversation(UnderlyingCursorWrapper from, int fromPosition,
+                int position) {
+            final Conversation conversation = from.mConversationCache.get(fromPosition);
+            return conversation != null
+                    && mConversationCache.putIfAbsent(position, conversation);
+        }
+
+        /**
+         * Picks up scrolling where another cursor (the one this one replaces) left off, so that
+         * pages near the UI are the ones kept resident.
+         */
+        public void copyScrollState(UnderlyingCursorWrapper from) {
+            mConversationCache.copyScrollState(from.mConversationCache);
         }
 
         private void notifyConversationUIPositionChange() {
-            Utils.notifyCursorUIPositionChange(this, getPosition());
+            final int position = getPosition();
+            mConversationCache.onPositionShown(position);
+            Utils.notifyCursorUIPositionChange(this, position);
         }
 
         /**
@@ -590,6 +663,22 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             final UnderlyingCursorWrapper result = doQuery(false);
             // Make sure window is full
             result.getCount();
+            // Hash the rows here rather than on the UI thread, so that sync() can tell which
+            // rows changed. The cursor this one replaces may have come from load(), which
+            // doesn't hash, so hash that too.
+            final UnderlyingCursorWrapper current;
+            synchronized (mCacheMapLock) {
+                current = mUnderlyingCursor;
+            }
+            if (current != null && !current.isClosed()) {
+                try {
+                    current.computeVersionHashes();
+                } catch (RuntimeException e) {
+                    // A concurrent load() closed it; the refresh then counts every row as changed
+                    LogUtils.w(LOG_TAG, e, "Couldn't hash the rows of %s", current);
+                }
+            }
+            result.computeVersionHashes();
             return result;
         }
 
@@ -663,45 +752,53 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
      */
     private void resetCursor(UnderlyingCursorWrapper newCursorWrapper) {
         synchronized (mCacheMapLock) {
-            // Walk through the cache
-            final Iterator<Map.Entry<String, ContentValues>> iter =
-                    mCacheMap.entrySet().iterator();
+            // Walk through the cache, carrying recent changes over to the rows' positions in the
+            // new cursor
+            final int newCount = newCursorWrapper.getCount();
+            final CachedColumnStore newCachedValues =
+                    new CachedColumnStore(newCount, mColumnNames.length);
+            final DeletedRowIndex newDeletedRowIndex = new DeletedRowIndex(newCount);
             final long now = System.currentTimeMillis();
-            while (iter.hasNext()) {
-                Map.Entry<String, ContentValues> entry = iter.next();
-                final ContentValues values = entry.getValue();
-                final String key = entry.getKey();
-                boolean withinTimeWindow = false;
-                boolean removed = false;
-                if (values != null) {
-                    Long updateTime = values.getAsLong(UPDATE_TIME_COLUMN);
-                    if (updateTime != null && ((now - updateTime) < REQUERY_ALLOWANCE_TIME)) {
-                        LogUtils.d(LOG_TAG, "IN resetCursor, keep recent changes to %s", key);
-                        withinTimeWindow = true;
-                    } else if (updateTime == null) {
-                        LogUtils.e(LOG_TAG, "null updateTime from mCacheMap for key: %s", key);
-                    }
-                    if (values.containsKey(DELETED_COLUMN)) {
-                        // Item is deleted locally AND deleted in the new cursor.
-                        if (!newCursorWrapper.contains(key)) {
-                            // Keep the deleted count up-to-date; remove the
-                            // cache entry
-                            mDeletedCount--;
-                            removed = true;
-                            LogUtils.i(LOG_TAG,
-                                    "IN resetCursor, sDeletedCount decremented to: %d by %s",
-                                    mDeletedCount,
+            // Rows whose expired cached values no longer show on top of the new cursor
+            final BitSet expiredRows = new BitSet(newCount);
+            if (mUnderlyingCursor != null) {
+                for (int row = mCachedValues.nextDirtyRow(0); row >= 0;
+                        row = mCachedValues.nextDirtyRow(row + 1)) {
+                    final String key = mUnderlyingCursor.getInnerUri(row);
+                    final boolean deleted = mDeletedRowIndex.isDeleted(row);
+                    final int newRow = newCursorWrapper.getPosition(key);
+                    if (newRow < 0) {
+                        if (deleted) {
+                            // Item is deleted locally AND deleted in the new cursor; it no longer
+                            // counts against the new cursor.
+                            LogUtils.i(LOG_TAG, "IN resetCursor, dropping deleted item %s",
                                     (LogUtils.isLoggable(LOG_TAG, LogUtils.DEBUG)) ? key
                                             : "[redacted]");
+                        } else if ((now - mCachedValues.getUpdateTime(row))
+                                < REQUERY_ALLOWANCE_TIME) {
+                            // The item may only be missing from this query (e.g. a limited
+                            // one); keep its recent changes for when it shows up again
+                            LogUtils.d(LOG_TAG, "IN resetCursor, keep recent changes to missing %s",
+                                    key);
+                            final int overflowRow = getOverflowRow(key);
+                            mOverflowValues.copyRow(mCachedValues, row, overflowRow);
                         }
+                        continue;
                     }
-                } else {
-                    LogUtils.e(LOG_TAG, "null ContentValues from mCacheMap for key: %s", key);
-                }
-                // Remove the entry if it was time for an update or the item was deleted by the user.
-                if (!withinTimeWindow || removed) {
-                    iter.remove();
+                    // Drop the entry if it was time for an update
+                    if ((now - mCachedValues.getUpdateTime(row)) >= REQUERY_ALLOWANCE_TIME) {
+                        expiredRows.set(newRow);
+                        continue;
+                    }
+                    LogUtils.d(LOG_TAG, "IN resetCursor, keep recent changes to %s", key);
+                    newCachedValues.copyRow(mCachedValues, row, newRow);
+                    newDeletedRowIndex.setDeleted(newRow, deleted);
                 }
+                applyOverflowValues(newCursorWrapper, newCachedValues, newDeletedRowIndex, now);
+                mLastRefreshDelta = computeRefreshDelta(newCursorWrapper, newDeletedRowIndex,
+                        expiredRows);
+            } else {
+                mLastRefreshDelta = null;
             }
 
             // Swap cursor
@@ -709,6 +806,8 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
                 close();
             }
             mUnderlyingCursor = newCursorWrapper;
+            mCachedValues = newCachedValues;
+            mDeletedRowIndex = newDeletedRowIndex;
 
             mPosition = -1;
             mUnderlyingCursor.moveToPosition(mPosition);
@@ -730,6 +829,108 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         if (DEBUG) LogUtils.i(LOG_TAG, "OUT resetCursor, this=%s", this);
     }
 
+    /**
+     * Diffs the current underlying cursor against its replacement by conversation id and row
+     * version hash, handing the Conversations of unchanged rows over to the new cursor. Must be
+     * called with the cache map lock held, after the cached values have been carried over.
+     *
+     * @param expiredRows rows of the new cursor whose cached values were dropped
+     */
+    private RefreshDelta computeRefreshDelta(UnderlyingCursorWrapper newCursorWrapper,
+            DeletedRowIndex newDeletedRowIndex, BitSet expiredRows) {
+        final RefreshDelta delta = new RefreshDelta();
+        final UnderlyingCursorWrapper oldCursorWrapper = mUnderlyingCursor;
+        newCursorWrapper.copyScrollState(oldCursorWrapper);
+
+        // Removed rows, in the positions the UI last saw
+        final int oldCount = mDeletedRowIndex.getUnderlyingCount();
+        for (int oldRow = 0; oldRow < oldCount; oldRow++) {
+            if (mDeletedRowIndex.isDeleted(oldRow)) {
+                continue;
+            }
+            if (newCursorWrapper.getPosition(oldCursorWrapper.getInnerUri(oldRow)) < 0) {
+                delta.addRemoved(mDeletedRowIndex.toVisiblePosition(oldRow));
+            }
+        }
+
+        // Inserted, changed and moved rows, in their new positions. Without hashes for both
+        // cursors (see RefreshTask) no row can be shown to be unchanged.
+        final boolean hashed = oldCursorWrapper.hasVersionHashes()
+                && newCursorWrapper.hasVersionHashes();
+        final int newCount = newDeletedRowIndex.getUnderlyingCount();
+        int visiblePosition = 0;
+        // The furthest old position of the rows kept so far; a kept row before it has moved
+        int lastOldPosition = -1;
+        for (int newRow = 0; newRow < newCount; newRow++) {
+            final int oldRow = oldCursorWrapper.getPosition(newCursorWrapper.getInnerUri(newRow));
+            final boolean unchanged = hashed && oldRow >= 0
+                    && oldCursorWrapper.getVersionHash(oldRow)
+                            == newCursorWrapper.getVersionHash(newRow);
+            if (unchanged && newCursorWrapper.carryOverConversation(oldCursorWrapper, oldRow,
+                    newRow)) {
+                delta.incrementCarriedOverCount();
+            }
+            if (newDeletedRowIndex.isDeleted(newRow)) {
+                continue;
+            }
+            if (oldRow < 0 || mDeletedRowIndex.isDeleted(oldRow)) {
+                delta.addInserted(visiblePosition);
+            } else {
+                final int oldPosition = mDeletedRowIndex.toVisiblePosition(oldRow);
+                final boolean moved = oldPosition < lastOldPosition;
+                if (!moved) {
+                    lastOldPosition = oldPosition;
+                }
+                if (!unchanged || expiredRows.get(newRow)) {
+                    delta.addChanged(visiblePosition);
+                } else if (moved) {
+                    delta.addMoved(visiblePosition);
+                }
+            }
+            visiblePosition++;
+        }
+        if (DEBUG) LogUtils.i(LOG_TAG, "IN resetCursor, %s", delta);
+        return delta;
+    }
+
+    /**
+     * Returns how the rows changed in the last refresh that was put in place by {@link #sync()},
+     * or null if the cursor was loaded from scratch.
+     */
+    public RefreshDelta getLastRefreshDelta() {
+        return mLastRefreshDelta;
+    }
+
+    /**
+     * Moves the overflow values of conversations that are in the new cursor into the new cursor's
+     * rows, and drops overflow values that are too old to matter any more. Must be called with
+     * {@link #mCacheMapLock} held.
+     */
+    private void applyOverflowValues(UnderlyingCursorWrapper newCursorWrapper,
+            CachedColumnStore newCachedValues, DeletedRowIndex newDeletedRowIndex, long now) {
+        final Iterator<Map.Entry<String, Integer>> iter = mOverflowRows.entrySet().iterator();
+        while (iter.hasNext()) {
+            final Map.Entry<String, Integer> entry = iter.next();
+            final String key = entry.getKey();
+            final int row = entry.getValue();
+            final int newRow = newCursorWrapper.getPosition(key);
+            final boolean expired =
+                    (now - mOverflowValues.getUpdateTime(row)) >= REQUERY_ALLOWANCE_TIME;
+            if (newRow < 0 && !expired) {
+                // Still not there; keep waiting for it
+                continue;
+            }
+            if (newRow >= 0 && !expired) {
+                LogUtils.d(LOG_TAG, "IN resetCursor, applying changes to new row %s", key);
+                newCachedValues.copyRow(mOverflowValues, row, newRow);
+                newDeletedRowIndex.setDeleted(newRow, mOverflowDeleted.get(row));
+            }
+            mOverflowValues.clearRow(row);
+            mOverflowDeleted.clear(row);
+            iter.remove();
+        }
+    }
+
     /**
      * Returns the conversation uris for the Conversations that the ConversationCursor is treating
      * as deleted.  This is an optimization to allow clients to determine if an item has been
@@ -739,15 +940,21 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         synchronized (mCacheMapLock) {
             // Walk through the cache and return the list of uris that have been deleted
             final Set<String> deletedItems = Sets.newHashSet();
-            final Iterator<Map.Entry<String, ContentValues>> iter =
-                    mCacheMap.entrySet().iterator();
+            if (mUnderlyingCursor == null) {
+                return deletedItems;
+            }
             final StringBuilder uriBuilder = new StringBuilder();
-            while (iter.hasNext()) {
-                final Map.Entry<String, ContentValues> entry = iter.next();
-                final ContentValues values = entry.getValue();
-                if (values.containsKey(DELETED_COLUMN)) {
+            for (int row = mCachedValues.nextDirtyRow(0); row >= 0;
+                    row = mCachedValues.nextDirtyRow(row + 1)) {
+                if (mDeletedRowIndex.isDeleted(row)) {
                     // Since clients of the conversation cursor see conversation ConversationCursor
                     // provider uris, we need to make sure that this also returns these uris
+                    deletedItems.add(
+                            uriToCachingUriString(mUnderlyingCursor.getInnerUri(row), uriBuilder));
+                }
+            }
+            for (Map.Entry<String, Integer> entry : mOverflowRows.entrySet()) {
+                if (mOverflowDeleted.get(entry.getValue())) {
                     deletedItems.add(uriToCachingUriString(entry.getKey(), uriBuilder));
                 }
             }
@@ -777,34 +984,10 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             return underlyingPosition;
         }
 
-        // Walk through each of the deleted items.  If the deleted item is before the underlying
-        // position, decrement the position
+        // Items deleted from the cache before the underlying position shift it down; an item that
+        // is itself deleted has no position
         synchronized (mCacheMapLock) {
-            int updatedPosition = underlyingPosition;
-            final Iterator<Map.Entry<String, ContentValues>> iter =
-                    mCacheMap.entrySet().iterator();
-            while (iter.hasNext()) {
-                final Map.Entry<String, ContentValues> entry = iter.next();
-                final ContentValues values = entry.getValue();
-                if (values.containsKey(DELETED_COLUMN)) {
-                    // Since clients of the conversation cursor see conversation ConversationCursor
-                    // provider uris, we need to make sure that this also returns these uris
-                    final String conversationUri = entry.getKey();
-                    final int deletedItemPosition = mUnderlyingCursor.getPosition(conversationUri);
-                    if (deletedItemPosition == underlyingPosition) {
-                        // The requested items has been deleted.
-                        return -1;
-                    }
-
-                    if (deletedItemPosition >= 0 && deletedItemPosition < underlyingPosition) {
-                        // This item has been deleted, but is still in the underlying cursor, at
-                        // a position before the requested item.  Decrement the position of the
-                        // requested item.
-                        updatedPosition--;
-                    }
-                }
-            }
-            return updatedPosition;
+            return mDeletedRowIndex.toVisiblePosition(underlyingPosition);
         }
     }
 
@@ -918,70 +1101,126 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         }
 
         synchronized (mCacheMapLock) {
-            // Get the map for our uri
-            ContentValues map = mCacheMap.get(uriString);
-            // Create one if necessary
-            if (map == null) {
-                map = new ContentValues();
-                mCacheMap.put(uriString, map);
-            }
-            // If we're caching a deletion, add to our count
+            if (mUnderlyingCursor == null) {
+                if (DEBUG) {
+                    LogUtils.i(LOG_TAG, "Not caching value for %s: no cursor", uriString);
+                }
+                return;
+            }
+            // Find the row for our uri; conversations that aren't in the underlying cursor keep
+            // their values until they show up in it
+            final int row = mUnderlyingCursor.getPosition(uriString);
+            if (row < 0) {
+                cacheOverflowValue(uriString, columnName, value);
+                return;
+            }
+            // If we're caching a deletion, update our index (and with it, our count)
             if (columnName.equals(DELETED_COLUMN)) {
                 final boolean state = (Boolean)value;
-                final boolean hasValue = map.get(columnName) != null;
-                if (state && !hasValue) {
-                    mDeletedCount++;
+                final boolean changed = mDeletedRowIndex.setDeleted(row, state);
+                if (state && changed) {
                     if (DEBUG) {
                         LogUtils.i(LOG_TAG, "Deleted %s, incremented deleted count=%d", uriString,
-                                mDeletedCount);
-                    }
-                } else if (!state && hasValue) {
-                    mDeletedCount--;
-                    map.remove(columnName);
-                    if (DEBUG) {
-                        LogUtils.i(LOG_TAG, "Undeleted %s, decremented deleted count=%d", uriString,
-                                mDeletedCount);
+                                mDeletedRowIndex.getDeletedCount());
                     }
-                    return;
                 } else if (!state) {
-                    // Trying to undelete, but it's not deleted; just return
+                    // Undeleting; if it wasn't deleted just ignore it
                     if (DEBUG) {
-                        LogUtils.i(LOG_TAG, "Undeleted %s, IGNORING, deleted count=%d", uriString,
-                                mDeletedCount);
+                        LogUtils.i(LOG_TAG, "Undeleted %s, %s deleted count=%d", uriString,
+                                changed ? "decremented" : "IGNORING",
+                                mDeletedRowIndex.getDeletedCount());
                     }
                     return;
                 }
+            } else {
+                final Integer columnIndex = mColumnIndexMap.get(columnName);
+                // Values for columns outside of the cursor projection are never read back
+                if (columnIndex != null) {
+                    putInCache(mCachedValues, row, columnIndex, value);
+                }
+                if (DEBUG) {
+                    LogUtils.i(LOG_TAG, "Caching value for %s: %s", uriString, columnName);
+                }
             }
-            putInValues(map, columnName, value);
-            map.put(UPDATE_TIME_COLUMN, System.currentTimeMillis());
-            if (DEBUG && (!columnName.equals(DELETED_COLUMN))) {
-                LogUtils.i(LOG_TAG, "Caching value for %s: %s", uriString, columnName);
+            mCachedValues.touch(row, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Caches a column name/value pair for a conversation that isn't in the underlying cursor. Must
+     * be called with {@link #mCacheMapLock} held.
+     */
+    private void cacheOverflowValue(String uriString, String columnName, Object value) {
+        if (columnName.equals(DELETED_COLUMN)) {
+            final boolean state = (Boolean) value;
+            if (!state) {
+                // Undeleting; if it wasn't deleted just ignore it
+                final Integer row = mOverflowRows.get(uriString);
+                if (row != null) {
+                    mOverflowDeleted.clear(row);
+                }
+                if (DEBUG) {
+                    LogUtils.i(LOG_TAG, "Undeleted %s, not in cursor", uriString);
+                }
+                return;
+            }
+        }
+        final int row = getOverflowRow(uriString);
+        if (columnName.equals(DELETED_COLUMN)) {
+            mOverflowDeleted.set(row);
+        } else {
+            final Integer columnIndex = mColumnIndexMap.get(columnName);
+            // Values for columns outside of the cursor projection are never read back
+            if (columnIndex != null) {
+                putInCache(mOverflowValues, row, columnIndex, value);
             }
         }
+        if (DEBUG) {
+            LogUtils.i(LOG_TAG, "Caching value for %s: %s, not in cursor", uriString, columnName);
+        }
+        mOverflowValues.touch(row, System.currentTimeMillis());
     }
 
     /**
-     * Get the cached value for the provided column; we special case -1 as the "deleted" column
+     * Returns the row of a conversation in {@link #mOverflowValues}, taking a free row if it has
+     * none yet. Must be called with {@link #mCacheMapLock} held.
+     */
+    private int getOverflowRow(String uriString) {
+        if (mOverflowValues.getColumnCount() != mColumnNames.length) {
+            mOverflowValues = new CachedColumnStore(0, mColumnNames.length);
+            mOverflowRows.clear();
+            mOverflowDeleted.clear();
+        }
+        Integer row = mOverflowRows.get(uriString);
+        if (row == null) {
+            row = mOverflowValues.nextCleanRow(0);
+            mOverflowValues.ensureRowCount(row + 1);
+            mOverflowRows.put(uriString, row);
+        }
+        return row;
+    }
+
+    /**
+     * Get the cached value for the provided column
      * @param columnIndex the index of the column whose cached value we want to retrieve
      * @return the cached value for this column, or null if there is none
      */
     private Object getCachedValue(int columnIndex) {
-        final String uri = mUnderlyingCursor.getInnerUri();
-        return getCachedValue(uri, columnIndex);
+        return mCachedValues.getValue(mUnderlyingCursor.getPosition(), columnIndex);
     }
 
     private Object getCachedValue(String uri, int columnIndex) {
-        ContentValues uriMap = mCacheMap.get(uri);
-        if (uriMap != null) {
-            String columnName;
-            if (columnIndex == DELETED_COLUMN_INDEX) {
-                columnName = DELETED_COLUMN;
-            } else {
-                columnName = mColumnNames[columnIndex];
-            }
-            return uriMap.get(columnName);
+        if (mUnderlyingCursor == null) {
+            return null;
         }
-        return null;
+        return mCachedValues.getValue(mUnderlyingCursor.getPosition(uri), columnIndex);
+    }
+
+    /**
+     * @return whether the underlying cursor's current row has been deleted locally
+     */
+    private boolean isUnderlyingRowDeleted() {
+        return mDeletedRowIndex.isDeleted(mUnderlyingCursor.getPosition());
     }
 
     /**
@@ -1051,6 +1290,22 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         handleNotificationActions();
     }
 
+    /**
+     * Must be called on UI thread; notify listeners that a refresh changed the given rows
+     */
+    private void notifyDataRangesChanged(RefreshDelta delta) {
+        if (DEBUG) {
+            LogUtils.i(LOG_TAG, "[Notify %s: onDataSetRangesChanged(%s)]", mName, delta);
+        }
+        synchronized(mListeners) {
+            for (ConversationListener listener: mListeners) {
+                listener.onDataSetRangesChanged(delta);
+            }
+        }
+
+        handleNotificationActions();
+    }
+
     /**
      * Put the refreshed cursor in place (called by the UI)
      */
@@ -1072,7 +1327,11 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             resetCursor(mRequeryCursor);
             mRequeryCursor = null;
         }
-        notifyDataChanged();
+        if (mLastRefreshDelta != null) {
+            notifyDataRangesChanged(mLastRefreshDelta);
+        } else {
+            notifyDataChanged();
+        }
     }
 
     public boolean isRefreshRequired() {
@@ -1109,7 +1368,11 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
 
     public void disable() {
         close();
-        mCacheMap.clear();
+        mCachedValues = new CachedColumnStore(0, 0);
+        mDeletedRowIndex = new DeletedRowIndex(0);
+        mOverflowValues = new CachedColumnStore(0, 0);
+        mOverflowRows.clear();
+        mOverflowDeleted.clear();
         mListeners.clear();
         mUnderlyingCursor = null;
     }
@@ -1142,11 +1405,11 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
                 if (DEBUG) {
                     LogUtils.i(LOG_TAG, "*** moveToNext returns false: pos = %d, und = %d" +
                             ", del = %d", mPosition, mUnderlyingCursor.getPosition(),
-                            mDeletedCount);
+                            mDeletedRowIndex.getDeletedCount());
                 }
                 return false;
             }
-            if (getCachedValue(DELETED_COLUMN_INDEX) instanceof Integer) continue;
+            if (isUnderlyingRowDeleted()) continue;
             mPosition++;
             return true;
         }
@@ -1164,7 +1427,7 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
                 mPosition = -1;
                 return false;
             }
-            if (getCachedValue(DELETED_COLUMN_INDEX) instanceof Integer) continue;
+            if (isUnderlyingRowDeleted()) continue;
             mPosition--;
             return true;
         }
@@ -1184,7 +1447,7 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             throw new IllegalStateException(
                     "getCount() on disabled cursor: " + mName + "(" + qUri + ")");
         }
-        return mUnderlyingCursor.getCount() - mDeletedCount;
+        return mUnderlyingCursor.getCount() - mDeletedRowIndex.getDeletedCount();
     }
 
     @Override
@@ -1204,45 +1467,38 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
             throw new IllegalStateException(
                     "moveToPosition() on disabled cursor: " + mName + "(" + qUri + ")");
         }
-        // Handle the "move to first" case before anything else; moveToPosition(0) in an empty
-        // SQLiteCursor moves the position to 0 when returning false, which we will mirror.
-        // But we don't want to return true on a subsequent "move to first", which we would if we
-        // check pos vs mPosition first
+        // Always seek, even if pos == mPosition; moveToPosition(0) in an empty SQLiteCursor moves
+        // the position to 0 when returning false, which we mirror, and we don't want to return
+        // true on a subsequent "move to first".
         if (mUnderlyingCursor.getPosition() == -1) {
             LogUtils.d(LOG_TAG, "*** Underlying cursor position is -1 asking to move from %d to %d",
                     mPosition, pos);
         }
-        if (pos == 0) {
-            return moveToFirst();
-        } else if (pos < 0) {
+        if (pos < 0) {
             mPosition = -1;
             mUnderlyingCursor.moveToPosition(mPosition);
             return false;
-        } else if (pos == mPosition) {
-            // Return false if we're past the end of the cursor
-            return pos < getCount();
-        } else if (pos > mPosition) {
-            while (pos > mPosition) {
-                if (!moveToNext()) {
-                    return false;
-                }
-            }
-            return true;
-        } else if ((pos >= 0) && (mPosition - pos) > pos) {
-            // Optimization if it's easier to move forward to position instead of backward
-            if (DEBUG) {
-                LogUtils.i(LOG_TAG, "*** Move from %d to %d, starting from first", mPosition, pos);
-            }
-            moveToFirst();
-            return moveToPosition(pos);
-        } else {
-            while (pos < mPosition) {
-                if (!moveToPrevious()) {
-                    return false;
-                }
-            }
-            return true;
         }
+        return seekToPosition(pos);
+    }
+
+    /**
+     * Move directly to the given (non-negative) position by looking up the matching underlying row
+     * in {@link #mDeletedRowIndex}, rather than stepping over each row in between
+     */
+    private boolean seekToPosition(int pos) {
+        final int underlyingPosition;
+        synchronized (mCacheMapLock) {
+            underlyingPosition = mDeletedRowIndex.toUnderlyingPosition(pos);
+        }
+        if (underlyingPosition < 0) {
+            // Past the end; mirror moveToNext() running off the end of the cursor
+            mPosition = getCount();
+            mUnderlyingCursor.moveToPosition(mUnderlyingCursor.getCount());
+            return false;
+        }
+        mPosition = pos;
+        return mUnderlyingCursor.moveToPosition(underlyingPosition);
     }
 
     /**
@@ -1250,8 +1506,11 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
      */
     private void recalibratePosition() {
         final int pos = mPosition;
-        moveToFirst();
-        moveToPosition(pos);
+        if (pos < 0) {
+            moveToPosition(pos);
+        } else {
+            seekToPosition(pos);
+        }
     }
 
     @Override
@@ -1284,8 +1543,11 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
 
     @Override
     public int getInt(int columnIndex) {
-        Object obj = getCachedValue(columnIndex);
-        if (obj != null) return (Integer)obj;
+        // Avoid boxing on this (hot) path
+        final int row = mUnderlyingCursor.getPosition();
+        if (mCachedValues.hasValue(row, columnIndex)) {
+            return mCachedValues.getInt(row, columnIndex);
+        }
         return mUnderlyingCursor.getInt(columnIndex);
     }
 
@@ -1351,16 +1613,16 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         }
 
         // apply any cached values
-        // but skip over any cached values that aren't part of the cursor projection
-        final ContentValues values = mCacheMap.get(mUnderlyingCursor.getInnerUri());
-        if (values != null) {
-            final ContentValues queryableValues = new ContentValues();
-            for (String key : values.keySet()) {
-                if (!mColumnNameSet.contains(key)) {
-                    continue;
-                }
-                putInValues(queryableValues, key, values.get(key));
+        final int row = mUnderlyingCursor.getPosition();
+        synchronized (mCacheMapLock) {
+            if (!mCachedValues.isDirty(row)) {
+                return result;
             }
+            final Conversation overlaid = mCachedValues.getOverlaidConversation(row);
+            if (overlaid != null) {
+                return overlaid;
+            }
+            final ContentValues queryableValues = mCachedValues.getValues(row, mColumnNames);
             if (queryableValues.size() > 0) {
                 // copy-on-write to help ensure the underlying cached Conversation is immutable
                 // of course, any callers this method should also try not to modify them
@@ -1368,8 +1630,10 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
                 result = new Conversation(result);
                 result.applyCachedValues(queryableValues);
             }
+            // Reuse the result on later binds until this row's cached values change
+            mCachedValues.setOverlaidConversation(row, result);
+            return result;
         }
-        return result;
     }
 
     /**
@@ -1379,18 +1643,17 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         mUnderlyingCursor.notifyConversationUIPositionChange();
     }
 
-    private static void putInValues(ContentValues dest, String key, Object value) {
+    private static void putInCache(CachedColumnStore store, int row, int columnIndex,
+            Object value) {
         // ContentValues has no generic "put", so we must test.  For now, the only classes
         // of values implemented are Boolean/Integer/String/Blob, though others are trivially
         // added
         if (value instanceof Boolean) {
-            dest.put(key, ((Boolean) value).booleanValue() ? 1 : 0);
+            store.putInt(row, columnIndex, ((Boolean) value).booleanValue() ? 1 : 0);
         } else if (value instanceof Integer) {
-            dest.put(key, (Integer) value);
-        } else if (value instanceof String) {
-            dest.put(key, (String) value);
-        } else if (value instanceof byte[]) {
-            dest.put(key, (byte[])value);
+            store.putInt(row, columnIndex, (Integer) value);
+        } else if (value instanceof String || value instanceof byte[]) {
+            store.putObject(row, columnIndex, value);
         } else {
             final String cname = value.getClass().getName();
             throw new IllegalArgumentException("Value class not compatible with cache: "
@@ -1886,6 +2149,12 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
          * The data underlying the cursor has changed; the UI should redraw the list
          */
         public void onDataSetChanged();
+        /**
+         * A refresh has been put in place and only the rows in the given delta differ from
+         * before; sent instead of {@link #onDataSetChanged()} when the cursor could compare the
+         * old and new data
+         */
+        public void onDataSetRangesChanged(RefreshDelta delta);
     }
 
     @Override
@@ -2363,12 +2632,12 @@ public final class ConversationCursor implements Cursor, ConversationCursorOpera
         sb.append(" mPaused=");
         sb.append(mPaused);
         sb.append(" mDeletedCount=");
-        sb.append(mDeletedCount);
+        sb.append(mDeletedRowIndex.getDeletedCount());
         sb.append(" mUnderlying=");
         sb.append(mUnderlyingCursor);
         if (LogUtils.isLoggable(LOG_TAG, LogUtils.DEBUG)) {
-            sb.append(" mCacheMap=");
-            sb.append(mCacheMap);
+            sb.append(" mCachedValues=");
+            sb.append(mCachedValues);
         }
         sb.append("}");
         return sb.toString();
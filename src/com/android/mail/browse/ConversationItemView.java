@@ -777,7 +777,7 @@ public class ConversationItemView extends View
             // This is a special view that doesn't need special sender formatting
             mHeader.sendersDisplayText = new SpannableStringBuilder(mHeader.sendersText);
             loadImages();
-        } else if (mHeader.conversation.conversationInfo != null) {
+        } else if (mHeader.conversation.getConversationInfo() != null) {
             Context context = getContext();
             mHeader.messageInfoString = SendersView
                     .createMessageInfo(context, mHeader.conversation, true);
@@ -788,7 +788,7 @@ public class ConversationItemView extends View
             mHeader.displayableNames.clear();
             mHeader.styledNames.clear();
 
-            SendersView.format(context, mHeader.conversation.conversationInfo,
+            SendersView.format(context, mHeader.conversation.getConversationInfo(),
                     mHeader.messageInfoString.toString(), maxChars, mHeader.styledNames,
                     mHeader.displayableNames, mHeader.mSenderAvatarModel,
                     mAccount, mDisplayedFolder.shouldShowRecipients(), true);
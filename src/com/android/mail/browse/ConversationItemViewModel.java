@@ -29,6 +29,7 @@ import android.util.Pair;
 
 import com.android.mail.R;
 import com.android.mail.providers.Conversation;
+import com.android.mail.providers.ConversationInfo;
 import com.android.mail.providers.Folder;
 import com.android.mail.providers.ParticipantInfo;
 import com.android.mail.providers.UIProvider;
@@ -37,7 +38,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 
 import java.util.ArrayList;
-import java.util.List;
 
 /**
  * This is the view model for the conversation header. It includes all the
@@ -191,13 +191,13 @@ public class ConversationItemViewModel {
     /**
      * Returns the hashcode to compare if the data in the header is valid.
      */
-    private static int getHashCode(CharSequence dateText, Object convInfo,
-            List<Folder> rawFolders, boolean starred, boolean read, int priority,
+    private static int getHashCode(CharSequence dateText, int convInfoHash,
+            int rawFoldersHash, boolean starred, boolean read, int priority,
             int sendingState) {
         if (dateText == null) {
             return -1;
         }
-        return Objects.hashCode(convInfo, dateText, rawFolders, starred, read, priority,
+        return Objects.hashCode(convInfoHash, dateText, rawFoldersHash, starred, read, priority,
                 sendingState);
     }
 
@@ -212,9 +212,9 @@ public class ConversationItemViewModel {
      * Marks this header as having valid data and layout.
      */
     void validate() {
-        mDataHashCode = getHashCode(dateText,
-                conversation.conversationInfo, conversation.getRawFolders(), conversation.starred,
-                conversation.read, conversation.priority, conversation.sendingState);
+        mDataHashCode = getHashCode(dateText, conversation.getConversationInfoHashCode(),
+                conversation.getRawFoldersHashCode(), conversation.starred, conversation.read,
+                conversation.priority, conversation.sendingState);
         mLayoutHashCode = getLayoutHashCode();
     }
 
@@ -222,9 +222,9 @@ public class ConversationItemViewModel {
      * Returns if the data in this model is valid.
      */
     boolean isDataValid() {
-        return mDataHashCode == getHashCode(dateText,
-                conversation.conversationInfo, conversation.getRawFolders(), conversation.starred,
-                conversation.read, conversation.priority, conversation.sendingState);
+        return mDataHashCode == getHashCode(dateText, conversation.getConversationInfoHashCode(),
+                conversation.getRawFoldersHashCode(), conversation.starred, conversation.read,
+                conversation.priority, conversation.sendingState);
     }
 
     /**
@@ -253,17 +253,18 @@ public class ConversationItemViewModel {
             // If all are read, get the last sender.
             String participant = "";
             String lastParticipant = "";
-            int last = conversation.conversationInfo.participantInfos != null ?
-                    conversation.conversationInfo.participantInfos.size() - 1 : -1;
+            final ConversationInfo conversationInfo = conversation.getConversationInfo();
+            int last = conversationInfo.participantInfos != null ?
+                    conversationInfo.participantInfos.size() - 1 : -1;
             if (last != -1) {
-                lastParticipant = conversation.conversationInfo.participantInfos.get(last).name;
+                lastParticipant = conversationInfo.participantInfos.get(last).name;
             }
             if (conversation.read) {
                 participant = TextUtils.isEmpty(lastParticipant) ?
                         SendersView.getMe(showToHeader /* useObjectMe */) : lastParticipant;
             } else {
                 ParticipantInfo firstUnread = null;
-                for (ParticipantInfo p : conversation.conversationInfo.participantInfos) {
+                for (ParticipantInfo p : conversationInfo.participantInfos) {
                     if (!p.readConversation) {
                         firstUnread = p;
                         break;
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+/**
+ * Maps visible positions of a {@link ConversationCursor} to positions in its underlying cursor,
+ * skipping rows that have been locally deleted. Backed by a Fenwick (binary indexed) tree over
+ * the underlying rows, so marking a row and seeking to a visible position are both O(log n).
+ * <p>
+ * Not thread safe; callers are expected to hold the cursor's cache map lock.
+ */
+final class DeletedRowIndex {
+    /** Whether each underlying row is currently marked as deleted */
+    private final boolean[] mDeleted;
+    /** Fenwick tree of deleted counts, 1-based */
+    private final int[] mTree;
+    /** Highest power of two not greater than the row count, used to walk the tree top-down */
+    private final int mTopBit;
+    private int mDeletedCount;
+
+    DeletedRowIndex(int underlyingCount) {
+        mDeleted = new boolean[underlyingCount];
+        mTree = new int[underlyingCount + 1];
+        mTopBit = underlyingCount == 0 ? 0 : Integer.highestOneBit(underlyingCount);
+    }
+
+    /**
+     * @return the number of rows in the underlying cursor
+     */
+    int getUnderlyingCount() {
+        return mDeleted.length;
+    }
+
+    /**
+     * @return the number of rows that are currently marked as deleted
+     */
+    int getDeletedCount() {
+        return mDeletedCount;
+    }
+
+    /**
+     * @return the number of rows visible through the index
+     */
+    int getVisibleCount() {
+        return mDeleted.length - mDeletedCount;
+    }
+
+    boolean isDeleted(int underlyingPosition) {
+        return underlyingPosition >= 0 && underlyingPosition < mDeleted.length
+                && mDeleted[underlyingPosition];
+    }
+
+    /**
+     * Marks or unmarks a row of the underlying cursor as deleted.
+     *
+     * @return true if the state of the row changed
+     */
+    boolean setDeleted(int underlyingPosition, boolean deleted) {
+        if (underlyingPosition < 0 || underlyingPosition >= mDeleted.length
+                || mDeleted[underlyingPosition] == deleted) {
+            return false;
+        }
+        mDeleted[underlyingPosition] = deleted;
+        final int delta = deleted ? 1 : -1;
+        mDeletedCount += delta;
+        for (int i = underlyingPosition + 1; i < mTree.length; i += i & -i) {
+            mTree[i] += delta;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of deleted rows strictly before the given underlying position
+     */
+    int deletedBefore(int underlyingPosition) {
+        int sum = 0;
+        for (int i = Math.min(underlyingPosition, mDeleted.length); i > 0; i -= i & -i) {
+            sum += mTree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Converts an underlying position to a visible position.
+     *
+     * @return the visible position, or -1 if the row is deleted or out of range
+     */
+    int toVisiblePosition(int underlyingPosition) {
+        if (underlyingPosition < 0 || underlyingPosition >= mDeleted.length
+                || mDeleted[underlyingPosition]) {
+            return -1;
+        }
+        return underlyingPosition - deletedBefore(underlyingPosition);
+    }
+
+    /**
+     * Converts a visible position to the position of the corresponding row in the underlying
+     * cursor.
+     *
+     * @return the underlying position, or -1 if the visible position is out of range
+     */
+    int toUnderlyingPosition(int visiblePosition) {
+        if (visiblePosition < 0 || visiblePosition >= getVisibleCount()) {
+            return -1;
+        }
+        if (mDeletedCount == 0) {
+            return visiblePosition;
+        }
+        // Find the largest prefix containing exactly visiblePosition visible rows; the row
+        // right after it is the one we want.
+        int remaining = visiblePosition;
+        int pos = 0;
+        for (int step = mTopBit; step > 0; step >>= 1) {
+            final int next = pos + step;
+            if (next < mTree.length) {
+                final int visibleInStep = step - mTree[next];
+                if (visibleInStep <= remaining) {
+                    pos = next;
+                    remaining -= visibleInStep;
+                }
+            }
+        }
+        return pos;
+    }
+}
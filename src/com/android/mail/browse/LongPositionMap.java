@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An open-addressing hash map from long keys (conversation ids) to non-negative cursor positions.
+ * Keys and positions live in parallel primitive arrays, so filling the map for a large cursor
+ * allocates no per-entry objects.
+ */
+final class LongPositionMap {
+    /** Marks an empty slot in {@link #mPositions} */
+    private static final int EMPTY = -1;
+
+    private final long[] mKeys;
+    private final int[] mPositions;
+    private final int mMask;
+    private int mSize;
+
+    LongPositionMap(int expectedSize) {
+        final int capacity = tableSizeFor(expectedSize);
+        mKeys = new long[capacity];
+        mPositions = new int[capacity];
+        Arrays.fill(mPositions, EMPTY);
+        mMask = capacity - 1;
+    }
+
+    /**
+     * @return a power-of-two table size that keeps the load factor at or below one half
+     */
+    static int tableSizeFor(int expectedSize) {
+        int capacity = 2;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static int mix(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Associates the key with a position, replacing any previous position.
+     *
+     * @return the previous position for the key, or -1 if there was none
+     */
+    int put(long key, int position) {
+        if (mSize * 2 >= mKeys.length) {
+            throw new IllegalStateException("LongPositionMap is full: " + mSize);
+        }
+        int slot = mix(key) & mMask;
+        while (mPositions[slot] != EMPTY) {
+            if (mKeys[slot] == key) {
+                final int previous = mPositions[slot];
+                mPositions[slot] = position;
+                return previous;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mKeys[slot] = key;
+        mPositions[slot] = position;
+        mSize++;
+        return -1;
+    }
+
+    /**
+     * @return the position for the key, or -1 if it is not present
+     */
+    int get(long key) {
+        int slot = mix(key) & mMask;
+        while (mPositions[slot] != EMPTY) {
+            if (mKeys[slot] == key) {
+                return mPositions[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return -1;
+    }
+
+    boolean containsKey(long key) {
+        return get(key) >= 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return a read-only view of the keys of this map
+     */
+    Set<Long> keySet() {
+        return new AbstractSet<Long>() {
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Long && containsKey((Long) o);
+            }
+
+            @Override
+            public int size() {
+                return mSize;
+            }
+
+            @Override
+            public Iterator<Long> iterator() {
+                return new Iterator<Long>() {
+                    private int mNext = advance(0);
+
+                    private int advance(int from) {
+                        while (from < mPositions.length && mPositions[from] == EMPTY) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return mNext < mPositions.length;
+                    }
+
+                    @Override
+                    public Long next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        final long key = mKeys[mNext];
+                        mNext = advance(mNext + 1);
+                        return key;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -59,6 +59,7 @@ public class MessageFooterView extends LinearLayout implements DetachListener,
     private FragmentManager mFragmentManager;
     private AttachmentCursor mAttachmentsCursor;
     private View mViewEntireMessagePrompt;
+    private View mMessageClippedNotice;
     private AttachmentTileGrid mAttachmentGrid;
     private LinearLayout mAttachmentBarList;
 
@@ -100,6 +101,7 @@ public class MessageFooterView extends LinearLayout implements DetachListener,
         super.onFinishInflate();
 
         mViewEntireMessagePrompt = findViewById(R.id.view_entire_message_prompt);
+        mMessageClippedNotice = findViewById(R.id.message_clipped_notice);
         mAttachmentGrid = (AttachmentTileGrid) findViewById(R.id.attachment_tile_grid);
         mAttachmentBarList = (LinearLayout) findViewById(R.id.attachment_bar_list);
 
@@ -132,6 +134,7 @@ public class MessageFooterView extends LinearLayout implements DetachListener,
             mAttachmentGrid.removeAllViewsInLayout();
             mAttachmentBarList.removeAllViewsInLayout();
             mViewEntireMessagePrompt.setVisibility(View.GONE);
+            mMessageClippedNotice.setVisibility(View.GONE);
             mAttachmentGrid.setVisibility(View.GONE);
             mAttachmentBarList.setVisibility(View.GONE);
         }
@@ -152,8 +155,11 @@ public class MessageFooterView extends LinearLayout implements DetachListener,
         }
 
         final ConversationMessage message = mMessageHeaderItem.getMessage();
-        mViewEntireMessagePrompt.setVisibility(
-                message.clipped && !TextUtils.isEmpty(message.permalink) ? VISIBLE : GONE);
+        // Without a permalink (e.g. an .eml file) the entire message can't be shown, but the
+        // user should still know that it was clipped
+        final boolean hasPermalink = !TextUtils.isEmpty(message.permalink);
+        mViewEntireMessagePrompt.setVisibility(message.clipped && hasPermalink ? VISIBLE : GONE);
+        mMessageClippedNotice.setVisibility(message.clipped && !hasPermalink ? VISIBLE : GONE);
         setVisibility(mMessageHeaderItem.isExpanded() ? VISIBLE : GONE);
     }
 
@@ -870,7 +870,7 @@ public class MessageHeaderView extends SnapHeader implements OnClickListener,
     private Bitmap makeLetterTile(
             String displayName, String senderAddress) {
         if (mLetterTileProvider == null) {
-            mLetterTileProvider = new LetterTileProvider(getContext().getResources());
+            mLetterTileProvider = new LetterTileProvider(getContext());
         }
 
         final ImageCanvas.Dimensions dimensions = new ImageCanvas.Dimensions(
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import com.android.mail.providers.Conversation;
+import com.android.mail.providers.UIProvider.ConversationListQueryParameters;
+
+/**
+ * The Conversations built for the rows of a {@link ConversationCursor}, held in fixed-size pages.
+ * <p>
+ * For cursors with up to {@link #MAX_RESIDENT_PAGES} pages every page may stay resident and
+ * prefetching fills the whole cursor, starting from the page the UI last showed. Larger cursors
+ * are paged: at most {@link #MAX_RESIDENT_PAGES} pages are resident at once, pages farthest from
+ * the one the UI last showed are evicted first, and prefetching only fills the shown page and the
+ * next {@link #PREFETCH_PAGES} pages in the direction the UI is scrolling. That keeps the number
+ * of resident Conversations flat however many rows the cursor has.
+ * <p>
+ * Thread safe; rows are filled from the background caching task while the UI reads them.
+ */
+final class PagedConversationCache {
+    /** Rows per page; the same as the initial conversation list query limit */
+    static final int PAGE_SIZE = Integer.parseInt(ConversationListQueryParameters.DEFAULT_LIMIT);
+    static final int MAX_RESIDENT_PAGES = 20;
+    static final int PREFETCH_PAGES = 2;
+
+    private final int mCount;
+    private final boolean mPaged;
+    /** Resident pages, by page index; null if not resident */
+    private final Conversation[][] mPages;
+    /** Number of non-null rows in each resident page */
+    private final int[] mFilledCounts;
+    private int mResidentPageCount;
+
+    /** The page the UI last showed a row of */
+    private int mCurrentPage;
+    /** 1 when the UI last moved to a later page, -1 when to an earlier one */
+    private int mDirection = 1;
+
+    PagedConversationCache(int count) {
+        mCount = count;
+        final int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        mPaged = pageCount > MAX_RESIDENT_PAGES;
+        mPages = new Conversation[pageCount][];
+        mFilledCounts = new int[pageCount];
+    }
+
+    /**
+     * @return true if this cache bounds its resident pages
+     */
+    boolean isPaged() {
+        return mPaged;
+    }
+
+    synchronized int getResidentPageCount() {
+        return mResidentPageCount;
+    }
+
+    /**
+     * @return the Conversation for the row, or null if none is resident
+     */
+    synchronized Conversation get(int position) {
+        final Conversation[] page = mPages[position / PAGE_SIZE];
+        return page != null ? page[position % PAGE_SIZE] : null;
+    }
+
+    /**
+     * Stores the Conversation for a row unless one is already resident, making its page resident
+     * (and evicting another page if need be).
+     *
+     * @return true if the Conversation was stored
+     */
+    synchronized boolean putIfAbsent(int position, Conversation conversation) {
+        final int pageIndex = position / PAGE_SIZE;
+        Conversation[] page = mPages[pageIndex];
+        if (page == null) {
+            if (mPaged && mResidentPageCount >= MAX_RESIDENT_PAGES) {
+                evictFarthestPage(pageIndex);
+            }
+            page = new Conversation[Math.min(PAGE_SIZE, mCount - pageIndex * PAGE_SIZE)];
+            mPages[pageIndex] = page;
+            mResidentPageCount++;
+        }
+        final int slot = position % PAGE_SIZE;
+        if (page[slot] != null) {
+            return false;
+        }
+        page[slot] = conversation;
+        mFilledCounts[pageIndex]++;
+        return true;
+    }
+
+    private void evictFarthestPage(int keepPage) {
+        int farthest = -1;
+        int farthestDistance = -1;
+        for (int i = 0; i < mPages.length; i++) {
+            if (mPages[i] == null || i == keepPage) {
+                continue;
+            }
+            final int distance = Math.abs(i - mCurrentPage);
+            if (distance > farthestDistance) {
+                farthest = i;
+                farthestDistance = distance;
+            }
+        }
+        if (farthest >= 0) {
+            mPages[farthest] = null;
+            mFilledCounts[farthest] = 0;
+            mResidentPageCount--;
+        }
+    }
+
+    /**
+     * Records that the UI showed the given row, which steers eviction and prefetching.
+     */
+    synchronized void onPositionShown(int position) {
+        final int page = position / PAGE_SIZE;
+        if (page != mCurrentPage) {
+            mDirection = page > mCurrentPage ? 1 : -1;
+            mCurrentPage = page;
+        }
+    }
+
+    /**
+     * Takes over where the UI is in another cache, e.g. that of the cursor this one replaces.
+     */
+    void copyScrollState(PagedConversationCache other) {
+        final int page;
+        final int direction;
+        synchronized (other) {
+            page = other.mCurrentPage;
+            direction = other.mDirection;
+        }
+        synchronized (this) {
+            mCurrentPage = Math.max(0, Math.min(page, mPages.length - 1));
+            mDirection = direction;
+        }
+    }
+
+    /**
+     * @return the next row the background caching task should build a Conversation for, or -1
+     *         if there is nothing left to prefetch
+     */
+    synchronized int nextPrefetchPosition() {
+        final int pageCount = mPages.length;
+        final int pagesAhead = mPaged ? PREFETCH_PAGES : pageCount;
+        // The current page, then pages in the scroll direction
+        for (int i = 0; i <= pagesAhead; i++) {
+            final int position = firstMissingPosition(mCurrentPage + i * mDirection);
+            if (position >= 0) {
+                return position;
+            }
+        }
+        if (!mPaged) {
+            // Everything fits, so also fill the pages behind
+            for (int i = 1; i < pageCount; i++) {
+                final int position = firstMissingPosition(mCurrentPage - i * mDirection);
+                if (position >= 0) {
+                    return position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int firstMissingPosition(int pageIndex) {
+        if (pageIndex < 0 || pageIndex >= mPages.length) {
+            return -1;
+        }
+        final Conversation[] page = mPages[pageIndex];
+        if (page == null) {
+            return pageIndex * PAGE_SIZE;
+        }
+        if (mFilledCounts[pageIndex] == page.length) {
+            return -1;
+        }
+        for (int slot = 0; slot < page.length; slot++) {
+            if (page[slot] == null) {
+                return pageIndex * PAGE_SIZE + slot;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "{PagedConversationCache count=" + mCount + " paged=" + mPaged + " resident="
+                + mResidentPageCount + " page=" + mCurrentPage + " direction=" + mDirection + "}";
+    }
+}
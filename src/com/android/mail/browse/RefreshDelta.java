@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import java.util.Arrays;
+
+/**
+ * The difference between the rows a {@link ConversationCursor} showed before a refresh and the
+ * rows it shows after it. Rows are matched by conversation id and compared by a hash of all of
+ * their columns, so a row that only shifted (because rows were inserted or removed before it) is
+ * neither changed nor inserted. A row that kept its data but changed places with other rows is
+ * moved.
+ * <p>
+ * Ranges are packed as {start, count} pairs. Inserted, changed and moved ranges are in the
+ * cursor's positions after the refresh, removed ranges in its positions before it.
+ */
+public final class RefreshDelta {
+    private final Ranges mInserted = new Ranges();
+    private final Ranges mChanged = new Ranges();
+    private final Ranges mRemoved = new Ranges();
+    private final Ranges mMoved = new Ranges();
+    private int mCarriedOverCount;
+
+    RefreshDelta() {}
+
+    void addInserted(int position) {
+        mInserted.add(position);
+    }
+
+    void addChanged(int position) {
+        mChanged.add(position);
+    }
+
+    void addRemoved(int position) {
+        mRemoved.add(position);
+    }
+
+    void addMoved(int position) {
+        mMoved.add(position);
+    }
+
+    void incrementCarriedOverCount() {
+        mCarriedOverCount++;
+    }
+
+    /**
+     * @return true if every row shows the same data as before the refresh, in the same order
+     */
+    public boolean isEmpty() {
+        return mInserted.isEmpty() && mChanged.isEmpty() && mRemoved.isEmpty()
+                && mMoved.isEmpty();
+    }
+
+    public int[] getInsertedRanges() {
+        return mInserted.toArray();
+    }
+
+    public int[] getChangedRanges() {
+        return mChanged.toArray();
+    }
+
+    public int[] getRemovedRanges() {
+        return mRemoved.toArray();
+    }
+
+    public int[] getMovedRanges() {
+        return mMoved.toArray();
+    }
+
+    /**
+     * @return the number of already built Conversations that were reused for unchanged rows
+     */
+    public int getCarriedOverCount() {
+        return mCarriedOverCount;
+    }
+
+    @Override
+    public String toString() {
+        return "{RefreshDelta inserted=" + mInserted + " changed=" + mChanged + " removed="
+                + mRemoved + " moved=" + mMoved + " carriedOver=" + mCarriedOverCount + "}";
+    }
+
+    /**
+     * A list of {start, count} ranges, built from positions added in increasing order.
+     */
+    private static final class Ranges {
+        private int[] mPairs = new int[8];
+        private int mLength;
+
+        boolean isEmpty() {
+            return mLength == 0;
+        }
+
+        void add(int position) {
+            if (mLength > 0 && mPairs[mLength - 2] + mPairs[mLength - 1] == position) {
+                // extends the last range
+                mPairs[mLength - 1]++;
+                return;
+            }
+            if (mLength == mPairs.length) {
+                mPairs = Arrays.copyOf(mPairs, mLength * 2);
+            }
+            mPairs[mLength++] = position;
+            mPairs[mLength++] = 1;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mPairs, mLength);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(toArray());
+        }
+    }
+}
@@ -37,12 +37,13 @@ import com.android.mail.providers.Conversation;
 import com.android.mail.providers.ConversationInfo;
 import com.android.mail.providers.ParticipantInfo;
 import com.android.mail.providers.UIProvider;
-import com.android.mail.utils.ObjectCache;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -77,24 +78,24 @@ public class SendersView {
     private static TextAppearanceSpan sMessageInfoUnreadStyleSpan;
     private static BidiFormatter sBidiFormatter;
 
-    // We only want to have at most 2 Priority to length maps.  This will handle the case where
-    // there is a widget installed on the launcher while the user is scrolling in the app
-    private static final int MAX_PRIORITY_LENGTH_MAP_LIST = 2;
-
-    // Cache of priority to length maps.  We can't just use a single instance as it may be
-    // modified from different threads
-    private static final ObjectCache<Map<Integer, Integer>> PRIORITY_LENGTH_MAP_CACHE =
-            new ObjectCache<Map<Integer, Integer>>(
-                    new ObjectCache.Callback<Map<Integer, Integer>>() {
-                        @Override
-                        public Map<Integer, Integer> newInstance() {
-                            return Maps.newHashMap();
-                        }
-                        @Override
-                        public void onObjectReleased(Map<Integer, Integer> object) {
-                            object.clear();
-                        }
-                    }, MAX_PRIORITY_LENGTH_MAP_LIST);
+    // The buffer in which each thread sorts the priorities of a conversation's participants. A
+    // single one won't do, as senders are formatted on more than one thread (for instance for a
+    // widget on the launcher while the user is scrolling in the app)
+    private static final ThreadLocal<PriorityBuffer> PRIORITY_BUFFER =
+            new ThreadLocal<PriorityBuffer>() {
+                @Override
+                protected PriorityBuffer initialValue() {
+                    return new PriorityBuffer();
+                }
+            };
+
+    /**
+     * A growable array of participant priorities, each packed with the participant's index into a
+     * long, so that they sort by priority, and then by index.
+     */
+    private static final class PriorityBuffer {
+        long[] entries = new long[16];
+    }
 
     public static Typeface getTypeface(boolean isUnread) {
         return isUnread ? Typeface.DEFAULT_BOLD : Typeface.DEFAULT;
@@ -146,7 +147,7 @@ public class SendersView {
         SpannableStringBuilder messageInfo = new SpannableStringBuilder();
 
         try {
-            final ConversationInfo conversationInfo = conv.conversationInfo;
+            final ConversationInfo conversationInfo = conv.getConversationInfo();
             final int sendingStatus = conv.sendingState;
             boolean hasSenders = false;
             // This covers the case where the sender is "me" and this is a draft
@@ -266,6 +267,54 @@ public class SendersView {
         }
     }
 
+    /**
+     * Returns the highest priority of the senders to show by name, inclusive. Senders are added
+     * in order of priority while their names fit in maxChars, but at least two are shown if they
+     * exist. Where participants share a priority, the name of the last one counts.
+     *
+     * @param numCharsUsed the number of chars already used, by the draft and message counts
+     */
+    @VisibleForTesting
+    static int getMaxPriorityToInclude(List<ParticipantInfo> participants, int numCharsUsed,
+            int maxChars) {
+        final int count = participants.size();
+        final PriorityBuffer buffer = PRIORITY_BUFFER.get();
+        if (buffer.entries.length < count) {
+            buffer.entries = new long[Math.max(count, buffer.entries.length * 2)];
+        }
+        final long[] entries = buffer.entries;
+        int maxFoundPriority = 0;
+        for (int i = 0; i < count; i++) {
+            final int priority = participants.get(i).priority;
+            entries[i] = ((long) priority << 32) | i;
+            maxFoundPriority = Math.max(maxFoundPriority, priority);
+        }
+        Arrays.sort(entries, 0, count);
+
+        int numSendersUsed = 0;
+        for (int i = 0; i < count; i++) {
+            final int priority = (int) (entries[i] >> 32);
+            if (priority < 0 || (i + 1 < count && (int) (entries[i + 1] >> 32) == priority)) {
+                // Negative priorities are never added, and of equal priorities only the last
+                // participant counts
+                continue;
+            }
+            final String senderName = participants.get((int) entries[i]).name;
+            int length = numCharsUsed + (!TextUtils.isEmpty(senderName) ? senderName.length() : 0);
+            if (numCharsUsed > 0) {
+                length += 2;
+            }
+            // We must show at least two senders if they exist. If we don't have space for both
+            // then we will truncate names.
+            if (length > maxChars && numSendersUsed >= 2) {
+                return priority - 1;
+            }
+            numCharsUsed = length;
+            numSendersUsed++;
+        }
+        return maxFoundPriority;
+    }
+
     private static void handlePriority(int maxChars, String messageInfoString,
             ConversationInfo conversationInfo, ArrayList<SpannableString> styledSenders,
             ArrayList<String> displayableSenderNames,
@@ -274,44 +323,11 @@ public class SendersView {
             final CharacterStyle readStyleSpan, final boolean showToHeader) {
         final boolean shouldSelectSenders = displayableSenderNames != null;
         final boolean shouldSelectAvatar = senderAvatarModel != null;
-        int maxPriorityToInclude = -1; // inclusive
-        int numCharsUsed = messageInfoString.length(); // draft, number drafts,
-                                                       // count
-        int numSendersUsed = 0;
+        final int maxPriorityToInclude = getMaxPriorityToInclude(
+                conversationInfo.participantInfos, messageInfoString.length(), maxChars);
         int numCharsToRemovePerWord = 0;
-        int maxFoundPriority = 0;
-        if (numCharsUsed > maxChars) {
-            numCharsToRemovePerWord = numCharsUsed - maxChars;
-        }
-
-        final Map<Integer, Integer> priorityToLength = PRIORITY_LENGTH_MAP_CACHE.get();
-        try {
-            priorityToLength.clear();
-            int senderLength;
-            for (ParticipantInfo info : conversationInfo.participantInfos) {
-                final String senderName = info.name;
-                senderLength = !TextUtils.isEmpty(senderName) ? senderName.length() : 0;
-                priorityToLength.put(info.priority, senderLength);
-                maxFoundPriority = Math.max(maxFoundPriority, info.priority);
-            }
-            while (maxPriorityToInclude < maxFoundPriority) {
-                if (priorityToLength.containsKey(maxPriorityToInclude + 1)) {
-                    int length = numCharsUsed + priorityToLength.get(maxPriorityToInclude + 1);
-                    if (numCharsUsed > 0)
-                        length += 2;
-                    // We must show at least two senders if they exist. If we don't
-                    // have space for both
-                    // then we will truncate names.
-                    if (length > maxChars && numSendersUsed >= 2) {
-                        break;
-                    }
-                    numCharsUsed = length;
-                    numSendersUsed++;
-                }
-                maxPriorityToInclude++;
-            }
-        } finally {
-            PRIORITY_LENGTH_MAP_CACHE.release(priorityToLength);
+        if (messageInfoString.length() > maxChars) {
+            numCharsToRemovePerWord = messageInfoString.length() - maxChars;
         }
 
         SpannableString spannableDisplay;
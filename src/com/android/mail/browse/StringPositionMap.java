@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from strings (conversation uris) to cursor positions. The strings
+ * themselves are not copied: the map indexes into a caller-owned array, where the string for a
+ * position is {@code keys[position]}, and only stores each key's hash and position. Hash
+ * collisions are resolved by comparing against the key array.
+ */
+final class StringPositionMap {
+    /** Marks an empty slot in {@link #mPositions} */
+    private static final int EMPTY = -1;
+
+    private final String[] mKeys;
+    private final int[] mHashes;
+    private final int[] mPositions;
+    private final int mMask;
+    private int mSize;
+
+    /**
+     * @param keys the array holding the key of each position; filled in by the caller before
+     *             the position is {@link #put}
+     */
+    StringPositionMap(String[] keys) {
+        final int capacity = LongPositionMap.tableSizeFor(keys.length);
+        mKeys = keys;
+        mHashes = new int[capacity];
+        mPositions = new int[capacity];
+        Arrays.fill(mPositions, EMPTY);
+        mMask = capacity - 1;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Indexes {@code keys[position]} at the given position, replacing any previous position for an
+     * equal key.
+     *
+     * @return the previous position for the key, or -1 if there was none
+     */
+    int put(int position) {
+        final String key = mKeys[position];
+        final int hash = key == null ? 0 : key.hashCode();
+        int slot = spread(hash) & mMask;
+        while (mPositions[slot] != EMPTY) {
+            if (mHashes[slot] == hash && equals(key, mKeys[mPositions[slot]])) {
+                final int previous = mPositions[slot];
+                mPositions[slot] = position;
+                return previous;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mHashes[slot] = hash;
+        mPositions[slot] = position;
+        mSize++;
+        return -1;
+    }
+
+    /**
+     * @return the position for the key, or -1 if it is not present
+     */
+    int get(String key) {
+        final int hash = key == null ? 0 : key.hashCode();
+        int slot = spread(hash) & mMask;
+        while (mPositions[slot] != EMPTY) {
+            if (mHashes[slot] == hash && equals(key, mKeys[mPositions[slot]])) {
+                return mPositions[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return -1;
+    }
+
+    boolean containsKey(String key) {
+        return get(key) >= 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -1158,7 +1158,8 @@ public class ComposeActivity extends AppCompatActivity
         message.bodyHtml = spannedBodyToHtml(body, true);
         message.bodyText = body.toString();
         // Fallback to use the text version if html conversion fails for whatever the reason.
-        final String htmlInPlainText = Utils.convertHtmlToPlainText(message.bodyHtml);
+        // Only whether there is any text matters, so there's no need to convert all of it.
+        final String htmlInPlainText = Utils.convertHtmlToPlainText(message.bodyHtml, 1);
         if (message.bodyText != null && message.bodyText.trim().length() > 0 &&
                 TextUtils.isEmpty(htmlInPlainText)) {
             LogUtils.w(LOG_TAG, "FAILED HTML CONVERSION: from %d to %d", message.bodyText.length(),
@@ -118,6 +118,14 @@ public class ThreadSafeCursorWrapper extends CursorWrapper {
         }
     }
 
+    @Override
+    public int getType(int column) {
+        synchronized (mLock) {
+            moveToCurrent();
+            return super.getType(column);
+        }
+    }
+
     @Override
     public boolean isNull(int column){
         synchronized (mLock) {
@@ -16,6 +16,9 @@
 
 package com.android.mail.photomanager;
 
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -25,6 +28,7 @@ import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.text.TextPaint;
 import android.text.TextUtils;
+import android.util.LruCache;
 
 import com.android.mail.R;
 import com.android.mail.bitmap.ColorPicker;
@@ -32,6 +36,7 @@ import com.android.mail.ui.ImageCanvas.Dimensions;
 import com.android.mail.utils.BitmapUtil;
 import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
+import com.google.common.annotations.VisibleForTesting;
 
 /**
  * LetterTileProvider is an implementation of the DefaultImageProvider. When no
@@ -40,11 +45,13 @@ import com.android.mail.utils.LogUtils;
  * number), this method creates a bitmap with the letter in the center of a
  * tile. If there is no English alphabet character (or digit), it creates a
  * bitmap with the default contact avatar.
+ *
+ * There are only so many distinct tiles (colors, times letters, times sizes), so the tiles are
+ * cached, by all providers together, and a tile is only drawn the first time it is asked for.
  */
 public class LetterTileProvider {
     private static final String TAG = LogTag.getLogTag();
     private final Bitmap mDefaultBitmap;
-    private final Bitmap[] mBitmapBackgroundCache;
     private final Bitmap[] mDefaultBitmapCache;
     private final Typeface mSansSerifLight;
     private final Rect mBounds;
@@ -54,10 +61,105 @@ public class LetterTileProvider {
     private final TextPaint mPaint = new TextPaint();
     private final Canvas mCanvas = new Canvas();
     private final char[] mFirstChar = new char[1];
+    /** The key to look tiles up with, to save allocating one for each lookup */
+    private final TileKey mLookupKey = new TileKey();
 
     private static final int POSSIBLE_BITMAP_SIZES = 3;
     private final ColorPicker mTileColorPicker;
 
+    /** The most bytes of tiles to cache */
+    private static final int MAX_TILE_CACHE_BYTES = 2 * 1024 * 1024;
+
+    private static final TileCache sTileCache = new TileCache(MAX_TILE_CACHE_BYTES);
+    private static boolean sTileCacheRegistered;
+
+    /**
+     * The key of a tile: everything that decides what it looks like.
+     */
+    private static final class TileKey {
+        int color;
+        /** The letter or digit on the tile, or 0 for the default avatar */
+        char glyph;
+        int width;
+        int height;
+        float fontSize;
+
+        TileKey copy() {
+            final TileKey key = new TileKey();
+            key.color = color;
+            key.glyph = glyph;
+            key.width = width;
+            key.height = height;
+            key.fontSize = fontSize;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+            final TileKey other = (TileKey) o;
+            return color == other.color && glyph == other.glyph && width == other.width
+                    && height == other.height && fontSize == other.fontSize;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = color;
+            result = 31 * result + glyph;
+            result = 31 * result + width;
+            result = 31 * result + height;
+            return 31 * result + Float.floatToIntBits(fontSize);
+        }
+    }
+
+    /**
+     * The cache of tiles, sized in bytes. It gives up some or all of its tiles when the system
+     * is low on memory.
+     */
+    private static final class TileCache extends LruCache<TileKey, Bitmap>
+            implements ComponentCallbacks2 {
+        TileCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(TileKey key, Bitmap value) {
+            return value.getByteCount();
+        }
+
+        @Override
+        public void onTrimMemory(int level) {
+            if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+                evictAll();
+            } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                trimToSize(maxSize() / 2);
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            evictAll();
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {}
+    }
+
+    /**
+     * Creates a provider whose tile cache is trimmed when the system is low on memory.
+     */
+    public LetterTileProvider(Context context) {
+        this(context.getResources());
+        synchronized (sTileCache) {
+            if (!sTileCacheRegistered) {
+                sTileCacheRegistered = true;
+                context.getApplicationContext().registerComponentCallbacks(sTileCache);
+            }
+        }
+    }
+
     public LetterTileProvider(Resources res) {
         this(res, new ColorPicker.PaletteColorPicker(res));
     }
@@ -72,7 +174,6 @@ public class LetterTileProvider {
         mPaint.setColor(mTileFontColor);
         mPaint.setTextAlign(Align.CENTER);
         mPaint.setAntiAlias(true);
-        mBitmapBackgroundCache = new Bitmap[POSSIBLE_BITMAP_SIZES];
 
         mDefaultBitmap = BitmapFactory.decodeResource(res, R.drawable.ic_anonymous_avatar_40dp);
         mDefaultBitmapCache = new Bitmap[POSSIBLE_BITMAP_SIZES];
@@ -80,51 +181,80 @@ public class LetterTileProvider {
         mTileColorPicker = colorPicker;
     }
 
+    /**
+     * Returns the tile for a sender. The tile may be shared with other callers, so it must not be
+     * modified.
+     */
     public Bitmap getLetterTile(final Dimensions dimensions, final String displayName,
             final String address) {
         final String display = !TextUtils.isEmpty(displayName) ? displayName : address;
         final char firstChar = !TextUtils.isEmpty(display) ? display.charAt(0) : '\0';
 
-        // get an empty bitmap
-        final Bitmap bitmap = getBitmap(dimensions, false /* getDefault */);
-        if (bitmap == null) {
+        if (dimensions.width <= 0 || dimensions.height <= 0) {
             LogUtils.w(TAG, "LetterTileProvider width(%d) or height(%d) is 0 for name %s and "
                     + "address %s.", dimensions.width, dimensions.height, displayName, address);
             return null;
         }
 
+        final TileKey key = mLookupKey;
+        key.color = mTileColorPicker.pickColor(address);
+        key.width = dimensions.width;
+        key.height = dimensions.height;
+        if (isEnglishLetterOrDigit(firstChar)) {
+            key.glyph = Character.toUpperCase(firstChar);
+            key.fontSize =
+                    dimensions.fontSize > 0 ? dimensions.fontSize : getFontSize(dimensions.scale);
+        } else {
+            key.glyph = '\0';
+            key.fontSize = 0;
+        }
+
+        Bitmap bitmap = sTileCache.get(key);
+        if (bitmap == null) {
+            bitmap = drawTile(key, dimensions);
+            sTileCache.put(key.copy(), bitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap drawTile(final TileKey key, final Dimensions dimensions) {
+        final Bitmap bitmap = Bitmap.createBitmap(key.width, key.height, Bitmap.Config.ARGB_8888);
         final Canvas c = mCanvas;
         c.setBitmap(bitmap);
-        c.drawColor(mTileColorPicker.pickColor(address));
+        c.drawColor(key.color);
 
         // If its a valid English alphabet letter,
         // draw the letter on top of the color
-        if (isEnglishLetterOrDigit(firstChar)) {
-            mFirstChar[0] = Character.toUpperCase(firstChar);
-            mPaint.setTextSize(
-                    dimensions.fontSize > 0 ? dimensions.fontSize : getFontSize(dimensions.scale));
+        if (key.glyph != '\0') {
+            mFirstChar[0] = key.glyph;
+            mPaint.setTextSize(key.fontSize);
             mPaint.getTextBounds(mFirstChar, 0, 1, mBounds);
             c.drawText(mFirstChar, 0, 1, 0 + dimensions.width / 2,
                     0 + dimensions.height / 2 + (mBounds.bottom - mBounds.top) / 2, mPaint);
         } else { // draw the generic icon on top
-            c.drawBitmap(getBitmap(dimensions, true /* getDefault */), 0, 0, null);
+            c.drawBitmap(getDefaultBitmap(dimensions), 0, 0, null);
         }
 
         return bitmap;
     }
 
+    @VisibleForTesting
+    static int getTileCacheHitCount() {
+        return sTileCache.hitCount();
+    }
+
+    @VisibleForTesting
+    static int getTileCacheMissCount() {
+        return sTileCache.missCount();
+    }
+
     private static boolean isEnglishLetterOrDigit(char c) {
         return ('A' <= c && c <= 'Z')
                 || ('a' <= c && c <= 'z')
                 || ('0' <= c && c <= '9');
     }
 
-    private Bitmap getBitmap(final Dimensions d, boolean getDefault) {
-        if (d.width <= 0 || d.height <= 0) {
-            LogUtils.w(TAG,
-                    "LetterTileProvider width(%d) or height(%d) is 0.", d.width, d.height);
-            return null;
-        }
+    private Bitmap getDefaultBitmap(final Dimensions d) {
         final int pos;
         float scale = d.scale;
         if (scale == Dimensions.SCALE_ONE) {
@@ -135,18 +265,14 @@ public class LetterTileProvider {
             pos = 2;
         }
 
-        final Bitmap[] cache = (getDefault) ? mDefaultBitmapCache : mBitmapBackgroundCache;
+        final Bitmap[] cache = mDefaultBitmapCache;
 
         Bitmap bitmap = cache[pos];
         // ensure bitmap is suitable for the desired w/h
         // (two-pane uses two different sets of dimensions depending on pane width)
         if (bitmap == null || bitmap.getWidth() != d.width || bitmap.getHeight() != d.height) {
             // create and place the bitmap
-            if (getDefault) {
-                bitmap = BitmapUtil.centerCrop(mDefaultBitmap, d.width, d.height);
-            } else {
-                bitmap = Bitmap.createBitmap(d.width, d.height, Bitmap.Config.ARGB_8888);
-            }
+            bitmap = BitmapUtil.centerCrop(mDefaultBitmap, d.width, d.height);
             cache[pos] = bitmap;
         }
         return bitmap;
@@ -29,14 +29,17 @@ import com.android.mail.utils.LogUtils;
 import com.android.mail.widget.BaseWidgetProvider;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * A high-level API to store and retrieve unified mail preferences.
@@ -53,6 +56,9 @@ public final class MailPrefs extends VersionedPrefs {
 
     private final int mSnapHeaderDefault;
 
+    /** The sender whitelist, compiled; see {@link #getCompiledSenderWhitelist()} */
+    private volatile SenderWhitelist mSenderWhitelist;
+
     public static final class PreferenceKeys {
         private static final String MIGRATED_VERSION = "migrated-version";
 
@@ -372,31 +378,126 @@ public final class MailPrefs extends VersionedPrefs {
 
     /**
      * Returns whether or not an email address is in the whitelist of senders to show images for.
-     * This method reads the entire whitelist, so if you have multiple emails to check, you should
-     * probably call getSenderWhitelist() and check membership yourself.
+     * To check several senders, such as those of the messages of a conversation, call
+     * {@link #getDisplayImagesFromSenders(Collection)} instead.
      *
      * @param sender raw email address ("foo@bar.com")
      * @return whether we should show pictures for this sender
      */
     public boolean getDisplayImagesFromSender(String sender) {
-        boolean displayImages = getSenderWhitelist().contains(sender);
-        if (!displayImages) {
-            final SharedPreferences sharedPreferences = getSharedPreferences();
-            // Check the saved email address patterns to determine if this pattern matches
-            final Set<String> defaultPatternSet = Collections.emptySet();
-            final Set<String> currentPatterns = sharedPreferences.getStringSet(
-                        PreferenceKeys.DISPLAY_IMAGES_PATTERNS, defaultPatternSet);
-            for (String pattern : currentPatterns) {
-                displayImages = Pattern.compile(pattern).matcher(sender).matches();
-                if (displayImages) {
-                    break;
-                }
+        return getCompiledSenderWhitelist().matches(sender);
+    }
+
+    /**
+     * Returns the senders that are in the whitelist of senders to show images for.
+     *
+     * @param senders raw email addresses ("foo@bar.com")
+     * @return the senders we should show pictures for
+     */
+    public Set<String> getDisplayImagesFromSenders(Collection<String> senders) {
+        final SenderWhitelist whitelist = getCompiledSenderWhitelist();
+        final Set<String> result = Sets.newHashSet();
+        for (String sender : senders) {
+            if (whitelist.matches(sender)) {
+                result.add(sender);
             }
         }
+        return result;
+    }
 
-        return displayImages;
+    /**
+     * Returns the sender whitelist, compiled. It is only compiled again when the whitelist
+     * preferences have changed, which SharedPreferences shows by returning new sets.
+     */
+    private SenderWhitelist getCompiledSenderWhitelist() {
+        final Set<String> addresses = getSenderWhitelist();
+        final Set<String> patterns = getSenderWhitelistPatterns();
+        SenderWhitelist whitelist = mSenderWhitelist;
+        if (whitelist == null || !whitelist.isCompiledFrom(addresses, patterns)) {
+            whitelist = new SenderWhitelist(addresses, patterns);
+            mSenderWhitelist = whitelist;
+        }
+        return whitelist;
     }
 
+    /**
+     * The sender whitelist preferences, compiled: the addresses in a hash set, and the patterns in
+     * a single pattern that matches if any of them does.
+     */
+    private static final class SenderWhitelist {
+        // Matches what might be a back reference or a quote, which can't be combined with other
+        // patterns: the groups are numbered again, and a quote needn't be closed
+        private static final Pattern UNCOMBINABLE = Pattern.compile("\\\\(\\d|k<|Q)");
+
+        private final Set<String> mAddressPrefs;
+        private final Set<String> mPatternPrefs;
+        private final Set<String> mAddresses;
+        /** All the patterns that can be combined, in one; null if there are none */
+        private final Pattern mCombinedPattern;
+        /** The patterns that can't be combined */
+        private final List<Pattern> mPatterns = Lists.newArrayList();
+
+        SenderWhitelist(Set<String> addresses, Set<String> patterns) {
+            mAddressPrefs = addresses;
+            mPatternPrefs = patterns;
+            mAddresses = ImmutableSet.copyOf(addresses);
+
+            final StringBuilder combined = new StringBuilder();
+            final List<Pattern> combinedPatterns = Lists.newArrayList();
+            for (String pattern : patterns) {
+                // Compile each pattern by itself, so that an invalid one fails as it always has
+                final Pattern compiled = Pattern.compile(pattern);
+                if (UNCOMBINABLE.matcher(pattern).find()) {
+                    mPatterns.add(compiled);
+                } else {
+                    if (combined.length() > 0) {
+                        combined.append('|');
+                    }
+                    combined.append("(?:").append(pattern).append(')');
+                    combinedPatterns.add(compiled);
+                }
+            }
+            mCombinedPattern = combined.length() > 0
+                    ? compileCombined(combined.toString(), combinedPatterns) : null;
+        }
+
+        /**
+         * Compiles the combined patterns. Patterns that are valid by themselves can still clash
+         * once combined, e.g. with named groups of the same name, or a comment in a (?x) pattern
+         * that swallows the closing parenthesis; those are then matched one at a time.
+         *
+         * @return the combined pattern, or null if the patterns couldn't be combined
+         */
+        private Pattern compileCombined(String combined, List<Pattern> combinedPatterns) {
+            try {
+                return Pattern.compile(combined);
+            } catch (PatternSyntaxException e) {
+                LogUtils.w(LOG_TAG, "Couldn't combine %d sender whitelist patterns",
+                        combinedPatterns.size());
+                mPatterns.addAll(combinedPatterns);
+                return null;
+            }
+        }
+
+        boolean isCompiledFrom(Set<String> addresses, Set<String> patterns) {
+            return addresses == mAddressPrefs && patterns == mPatternPrefs;
+        }
+
+        boolean matches(String sender) {
+            if (mAddresses.contains(sender)) {
+                return true;
+            }
+            if (mCombinedPattern != null && mCombinedPattern.matcher(sender).matches()) {
+                return true;
+            }
+            for (Pattern pattern : mPatterns) {
+                if (pattern.matcher(sender).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
 
     public void setDisplayImagesFromSender(String sender, List<Pattern> allowedPatterns) {
         if (allowedPatterns != null) {
@@ -36,6 +36,7 @@ import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
 import com.google.common.collect.ImmutableList;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -95,6 +96,10 @@ public class Conversation implements Parcelable {
      * @see UIProvider.ConversationColumns#RAW_FOLDERS
      */
     private FolderList rawFolders;
+    /** The undecoded blob for {@link #rawFolders}, if it has not been decoded yet */
+    private byte[] rawFoldersBlob;
+    /** The hash of the blob {@link #rawFolders} came from, or 0 if it wasn't hashed */
+    private int rawFoldersBlobHash;
     /**
      * @see UIProvider.ConversationColumns#FLAGS
      */
@@ -126,7 +131,13 @@ public class Conversation implements Parcelable {
     /**
      * @see UIProvider.ConversationColumns#CONVERSATION_INFO
      */
-    public final ConversationInfo conversationInfo;
+    private ConversationInfo conversationInfo;
+    /** The undecoded blob for {@link #conversationInfo}, if it has not been decoded yet */
+    private byte[] conversationInfoBlob;
+    /** The hash of the blob {@link #conversationInfo} came from, or 0 if it wasn't hashed */
+    private int conversationInfoBlobHash;
+    /** The hash of {@link #conversationInfo} when it was decoded, to tell if it changed since */
+    private int conversationInfoDecodedHash;
     /**
      * @see UIProvider.ConversationColumns#CONVERSATION_BASE_URI
      */
@@ -186,7 +197,7 @@ public class Conversation implements Parcelable {
         dest.writeInt(read ? 1 : 0);
         dest.writeInt(seen ? 1 : 0);
         dest.writeInt(starred ? 1 : 0);
-        dest.writeParcelable(rawFolders, 0);
+        dest.writeParcelable(getRawFolderList(), 0);
         dest.writeInt(convFlags);
         dest.writeInt(personalLevel);
         dest.writeInt(spam ? 1 : 0);
@@ -194,7 +205,7 @@ public class Conversation implements Parcelable {
         dest.writeInt(muted ? 1 : 0);
         dest.writeInt(color);
         dest.writeParcelable(accountUri, 0);
-        dest.writeParcelable(conversationInfo, 0);
+        dest.writeParcelable(getConversationInfo(), 0);
         dest.writeParcelable(conversationBaseUri, 0);
         dest.writeInt(isRemote ? 1 : 0);
         dest.writeLong(orderKey);
@@ -288,7 +299,7 @@ public class Conversation implements Parcelable {
         read = cursor.getInt(UIProvider.CONVERSATION_READ_COLUMN) != 0;
         seen = cursor.getInt(UIProvider.CONVERSATION_SEEN_COLUMN) != 0;
         starred = cursor.getInt(UIProvider.CONVERSATION_STARRED_COLUMN) != 0;
-        rawFolders = readRawFolders(cursor);
+        readRawFolders(cursor);
         convFlags = cursor.getInt(UIProvider.CONVERSATION_FLAGS_COLUMN);
         personalLevel = cursor.getInt(UIProvider.CONVERSATION_PERSONAL_LEVEL_COLUMN);
         spam = cursor.getInt(UIProvider.CONVERSATION_IS_SPAM_COLUMN) != 0;
@@ -299,8 +310,8 @@ public class Conversation implements Parcelable {
         accountUri = !TextUtils.isEmpty(account) ? Uri.parse(account) : null;
         position = NO_POSITION;
         localDeleteOnUpdate = false;
-        conversationInfo = readConversationInfo(cursor);
-        if (conversationInfo == null) {
+        readConversationInfo(cursor);
+        if (conversationInfo == null && conversationInfoBlob == null) {
             LogUtils.wtf(LOG_TAG, "Null conversation info from cursor");
         }
         final String conversationBase =
@@ -327,7 +338,18 @@ public class Conversation implements Parcelable {
         read = other.read;
         seen = other.seen;
         starred = other.starred;
-        rawFolders = other.rawFolders; // FolderList is immutable, shallow copy is OK
+        synchronized (other) {
+            // FolderList is immutable, shallow copy is OK; so is sharing the undecoded blob
+            rawFolders = other.rawFolders;
+            rawFoldersBlob = other.rawFoldersBlob;
+            rawFoldersBlobHash = other.rawFoldersBlobHash;
+            // although ConversationInfo is mutable (see ConversationInfo.markRead),
+            // applyCachedValues will overwrite this if cached changes exist anyway, so a shallow
+            // copy is OK
+            conversationInfo = other.getConversationInfo();
+            conversationInfoBlobHash = other.conversationInfoBlobHash;
+            conversationInfoDecodedHash = other.conversationInfoDecodedHash;
+        }
         convFlags = other.convFlags;
         personalLevel = other.personalLevel;
         spam = other.spam;
@@ -337,9 +359,6 @@ public class Conversation implements Parcelable {
         accountUri = other.accountUri;
         position = other.position;
         localDeleteOnUpdate = other.localDeleteOnUpdate;
-        // although ConversationInfo is mutable (see ConversationInfo.markRead), applyCachedValues
-        // will overwrite this if cached changes exist anyway, so a shallow copy is OK
-        conversationInfo = other.conversationInfo;
         conversationBaseUri = other.conversationBaseUri;
         isRemote = other.isRemote;
         orderKey = other.orderKey;
@@ -556,48 +575,114 @@ public class Conversation implements Parcelable {
                 ConversationCursorCommand.OPTION_MOVE_POSITION);
     }
 
-    private static ConversationInfo readConversationInfo(Cursor cursor) {
-        final ConversationInfo ci;
-
+    /**
+     * Reads the conversation info for the cursor's current row. When it comes as a blob, decoding
+     * is deferred to the first {@link #getConversationInfo()} call.
+     */
+    private void readConversationInfo(Cursor cursor) {
         if (cursor instanceof ConversationCursor) {
             final byte[] blob = ((ConversationCursor) cursor).getCachedBlob(
                     UIProvider.CONVERSATION_INFO_COLUMN);
             if (blob != null && blob.length > 0) {
-                return ConversationInfo.fromBlob(blob);
+                conversationInfoBlob = blob;
+                return;
             }
         }
 
         final Bundle response = cursor.respond(CONVERSATION_INFO_REQUEST);
         if (response.containsKey(ConversationCursorCommand.COMMAND_GET_CONVERSATION_INFO)) {
-            ci = response.getParcelable(ConversationCursorCommand.COMMAND_GET_CONVERSATION_INFO);
+            conversationInfo =
+                    response.getParcelable(ConversationCursorCommand.COMMAND_GET_CONVERSATION_INFO);
         } else {
             // legacy fallback
-            ci = ConversationInfo.fromBlob(cursor.getBlob(UIProvider.CONVERSATION_INFO_COLUMN));
+            conversationInfoBlob = cursor.getBlob(UIProvider.CONVERSATION_INFO_COLUMN);
         }
-        return ci;
     }
 
-    private static FolderList readRawFolders(Cursor cursor) {
-        final FolderList fl;
-
+    /**
+     * Reads the folders for the cursor's current row. When they come as a blob, decoding is
+     * deferred to the first {@link #getRawFolders()} call.
+     */
+    private void readRawFolders(Cursor cursor) {
         if (cursor instanceof ConversationCursor) {
             final byte[] blob = ((ConversationCursor) cursor).getCachedBlob(
                     UIProvider.CONVERSATION_RAW_FOLDERS_COLUMN);
             if (blob != null && blob.length > 0) {
-                return FolderList.fromBlob(blob);
+                rawFoldersBlob = blob;
+                return;
             }
         }
 
         final Bundle response = cursor.respond(RAW_FOLDERS_REQUEST);
         if (response.containsKey(ConversationCursorCommand.COMMAND_GET_RAW_FOLDERS)) {
-            fl = response.getParcelable(ConversationCursorCommand.COMMAND_GET_RAW_FOLDERS);
+            rawFolders = response.getParcelable(ConversationCursorCommand.COMMAND_GET_RAW_FOLDERS);
         } else {
             // legacy fallback
             // TODO: delete this once Email supports the respond call
-            fl = FolderList.fromBlob(
-                    cursor.getBlob(UIProvider.CONVERSATION_RAW_FOLDERS_COLUMN));
+            rawFoldersBlob = cursor.getBlob(UIProvider.CONVERSATION_RAW_FOLDERS_COLUMN);
+            if (rawFoldersBlob == null) {
+                rawFolders = FolderList.fromBlob(null);
+            }
+        }
+    }
+
+    /**
+     * Get the conversation info for this conversation, decoding it first if necessary. Callers
+     * may modify the result (see {@link ConversationInfo#markRead(boolean)}); the same instance
+     * is returned on every call.
+     */
+    public synchronized ConversationInfo getConversationInfo() {
+        if (conversationInfoBlob != null) {
+            conversationInfoBlobHash = Arrays.hashCode(conversationInfoBlob);
+            conversationInfo = ConversationInfo.fromBlob(conversationInfoBlob);
+            conversationInfoBlob = null;
+            if (conversationInfo != null) {
+                conversationInfoDecodedHash = conversationInfo.hashCode();
+            }
+        }
+        return conversationInfo;
+    }
+
+    /**
+     * Returns a hash of the conversation info, to tell if it changed, without decoding it. While
+     * the info is undecoded, or decoded and unchanged, this is the hash of its blob.
+     */
+    public synchronized int getConversationInfoHashCode() {
+        if (conversationInfoBlob != null) {
+            if (conversationInfoBlobHash == 0) {
+                conversationInfoBlobHash = Arrays.hashCode(conversationInfoBlob);
+            }
+            return conversationInfoBlobHash;
+        }
+        if (conversationInfo == null) {
+            return 0;
+        }
+        final int hash = conversationInfo.hashCode();
+        return conversationInfoBlobHash != 0 && hash == conversationInfoDecodedHash
+                ? conversationInfoBlobHash : hash;
+    }
+
+    private synchronized FolderList getRawFolderList() {
+        if (rawFoldersBlob != null) {
+            rawFoldersBlobHash = Arrays.hashCode(rawFoldersBlob);
+            rawFolders = FolderList.fromBlob(rawFoldersBlob);
+            rawFoldersBlob = null;
+        }
+        return rawFolders;
+    }
+
+    /**
+     * Returns a hash of the folders, to tell if they changed, without decoding them. Until they
+     * are replaced by {@link #setRawFolders(FolderList)}, this is the hash of their blob.
+     */
+    public synchronized int getRawFoldersHashCode() {
+        if (rawFoldersBlob != null && rawFoldersBlobHash == 0) {
+            rawFoldersBlobHash = Arrays.hashCode(rawFoldersBlob);
+        }
+        if (rawFoldersBlobHash != 0) {
+            return rawFoldersBlobHash;
         }
-        return fl;
+        return rawFolders != null ? rawFolders.hashCode() : 0;
     }
 
     /**
@@ -620,7 +705,7 @@ public class Conversation implements Parcelable {
                 if (cachedCi == null) {
                     LogUtils.d(LOG_TAG, "Null ConversationInfo in applyCachedValues");
                 } else {
-                    conversationInfo.overwriteWith(cachedCi);
+                    getConversationInfo().overwriteWith(cachedCi);
                 }
             } else if (ConversationColumns.FLAGS.equals(key)) {
                 convFlags = (Integer) val;
@@ -629,7 +714,7 @@ public class Conversation implements Parcelable {
             } else if (ConversationColumns.SEEN.equals(key)) {
                 seen = (Integer) val != 0;
             } else if (ConversationColumns.RAW_FOLDERS.equals(key)) {
-                rawFolders = FolderList.fromBlob((byte[]) val);
+                setRawFolders(FolderList.fromBlob((byte[]) val));
             } else if (ConversationColumns.VIEWED.equals(key)) {
                 // ignore. this is not read from the cursor, either.
             } else if (ConversationColumns.PRIORITY.equals(key)) {
@@ -648,11 +733,13 @@ public class Conversation implements Parcelable {
      * @return <strong>Immutable</strong> list of {@link Folder}s.
      */
     public List<Folder> getRawFolders() {
-        return rawFolders.folders;
+        return getRawFolderList().folders;
     }
 
-    public void setRawFolders(FolderList folders) {
+    public synchronized void setRawFolders(FolderList folders) {
         rawFolders = folders;
+        rawFoldersBlob = null;
+        rawFoldersBlobHash = 0;
     }
 
     @Override
@@ -726,22 +813,22 @@ public class Conversation implements Parcelable {
      * Get the snippet for this conversation.
      */
     public String getSnippet() {
-        return !TextUtils.isEmpty(conversationInfo.firstSnippet) ?
-                conversationInfo.firstSnippet : "";
+        final ConversationInfo info = getConversationInfo();
+        return !TextUtils.isEmpty(info.firstSnippet) ? info.firstSnippet : "";
     }
 
     /**
      * Get the number of messages for this conversation.
      */
     public int getNumMessages() {
-        return conversationInfo.messageCount;
+        return getConversationInfo().messageCount;
     }
 
     /**
      * Get the number of drafts for this conversation.
      */
     public int numDrafts() {
-        return conversationInfo.draftCount;
+        return getConversationInfo().draftCount;
     }
 
     public boolean isViewed() {
@@ -35,6 +35,7 @@ import android.os.Bundle;
 
 import com.android.mail.R;
 import com.android.mail.providers.UIProvider.AccountCursorExtraKeys;
+import com.android.mail.ui.ThumbnailDiskCache;
 import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
 import com.android.mail.utils.MatrixCursorWithExtra;
@@ -504,6 +505,8 @@ public abstract class MailAppProvider extends ContentProvider
                     mAccountCache.remove(accountUri);
                 }
             }
+            // Don't keep the attachment thumbnails of removed accounts around
+            ThumbnailDiskCache.clearAsync(getContext());
         }
         broadcastAccountChange();
 
@@ -38,9 +38,11 @@ import com.android.emailcommon.mail.Address;
 import com.android.emailcommon.mail.MessagingException;
 import com.android.emailcommon.mail.Part;
 import com.android.emailcommon.utility.ConversionUtilities;
+import com.android.emailcommon.utility.TextUtilities;
 import com.android.mail.providers.UIProvider.MessageColumns;
 import com.android.mail.ui.HtmlMessage;
 import com.android.mail.utils.HtmlSanitizer;
+import com.android.mail.utils.SanitizedHtmlCache;
 import com.android.mail.utils.Utils;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
@@ -65,6 +67,9 @@ public class Message implements Parcelable, HtmlMessage {
     // regex that matches content id surrounded by "<>" optionally.
     private static final Pattern REMOVE_OPTIONAL_BRACKETS = Pattern.compile("^<?([^>]+)>?$");
 
+    // the most chars of sanitized html kept from an .eml file; the rest is clipped
+    private static final int MAX_EML_HTML_CHARS = 1024 * 1024;
+
     /**
      * @see BaseColumns#_ID
      */
@@ -451,7 +456,6 @@ public class Message implements Parcelable, HtmlMessage {
         starred = false;
         spamWarningString = null;
         messageFlags = 0;
-        clipped = false;
         permalink = null;
         hasAttachments = false;
 
@@ -461,13 +465,20 @@ public class Message implements Parcelable, HtmlMessage {
         ArrayList<Part> attachments = new ArrayList<Part>();
         MimeUtility.collectParts(mimeMessage, viewables, attachments);
 
-        ConversionUtilities.BodyFieldData data = ConversionUtilities.parseBodyFields(viewables);
+        ConversionUtilities.BodyFieldData data =
+                ConversionUtilities.parseBodyFieldsWithoutHtmlSnippet(viewables);
 
         snippet = data.snippet;
         bodyText = data.textContent;
-
         // sanitize the HTML found within the .eml file before consuming it
-        bodyHtml = HtmlSanitizer.sanitizeHtml(data.htmlContent);
+        if (data.htmlContent != null) {
+            final SanitizedHtmlCache.Entry sanitized = sanitizeEmlHtml(context, data.htmlContent);
+            bodyHtml = sanitized.sanitizedHtml;
+            clipped = sanitized.clipped;
+            if (snippet == null) {
+                snippet = sanitized.snippet;
+            }
+        }
 
         // populate mAttachments
         mAttachments = Lists.newArrayList();
@@ -499,6 +510,27 @@ public class Message implements Parcelable, HtmlMessage {
         attachmentByCidUri = EmlAttachmentProvider.getAttachmentByCidUri(emlFileUri, messageId);
     }
 
+    /**
+     * Sanitizes the HTML of an .eml file, clipping it at {@link #MAX_EML_HTML_CHARS}, or takes it
+     * from the cache if the same HTML was sanitized before. The snippet of the HTML's visible text
+     * is built in the same pass, and cached even if it isn't needed now, as it may be next time.
+     */
+    private static SanitizedHtmlCache.Entry sanitizeEmlHtml(Context context, String html) {
+        final SanitizedHtmlCache cache = SanitizedHtmlCache.getInstance(context);
+        SanitizedHtmlCache.Entry sanitized = cache.get(html, MAX_EML_HTML_CHARS);
+        if (sanitized == null) {
+            final TextUtilities.SnippetBuilder snippet = new TextUtilities.SnippetBuilder();
+            final StringBuilder sanitizedHtml =
+                    new StringBuilder(Math.min(html.length(), MAX_EML_HTML_CHARS));
+            final boolean clipped =
+                    HtmlSanitizer.sanitizeHtml(html, sanitizedHtml, snippet, MAX_EML_HTML_CHARS);
+            sanitized = new SanitizedHtmlCache.Entry(sanitizedHtml.toString(), snippet.toString(),
+                    clipped);
+            cache.put(html, MAX_EML_HTML_CHARS, sanitized);
+        }
+        return sanitized;
+    }
+
     public boolean isFlaggedReplied() {
         return (messageFlags & UIProvider.MessageFlags.REPLIED) ==
                 UIProvider.MessageFlags.REPLIED;
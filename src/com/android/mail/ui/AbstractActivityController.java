@@ -72,6 +72,7 @@ import com.android.mail.browse.ConversationItemViewModel;
 import com.android.mail.browse.ConversationMessage;
 import com.android.mail.browse.ConversationPagerAdapter;
 import com.android.mail.browse.ConversationPagerController;
+import com.android.mail.browse.RefreshDelta;
 import com.android.mail.browse.SelectedConversationsActionMenu;
 import com.android.mail.browse.SyncErrorDialogFragment;
 import com.android.mail.browse.UndoCallback;
@@ -1936,7 +1937,7 @@ public abstract class AbstractActivityController implements ActivityController,
             if (markViewed) {
                 value.put(ConversationColumns.VIEWED, true);
             }
-            final ConversationInfo info = target.conversationInfo;
+            final ConversationInfo info = target.getConversationInfo();
             final boolean changed = info.markRead(read);
             if (changed) {
                 value.put(ConversationColumns.CONVERSATION_INFO, info.toBlob());
@@ -3209,6 +3210,19 @@ public abstract class AbstractActivityController implements ActivityController,
         mCheckedSet.validateAgainstCursor(mConversationListCursor);
     }
 
+    @Override
+    public final void onDataSetRangesChanged(RefreshDelta delta) {
+        if (delta.isEmpty()) {
+            // Every row shows what it showed before the refresh, so the list needn't be redrawn.
+            // The observers and the checked set still need to see the new cursor.
+            LogUtils.d(LOG_TAG, "Skipping conversation list update for empty refresh %s", delta);
+        } else {
+            updateConversationListFragment();
+        }
+        mConversationListObservable.notifyChanged();
+        mCheckedSet.validateAgainstCursor(mConversationListCursor);
+    }
+
     /**
      * If the Conversation List Fragment is visible, updates the fragment.
      */
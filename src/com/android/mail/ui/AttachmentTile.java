@@ -94,7 +94,8 @@ public abstract class AttachmentTile extends RelativeLayout implements Attachmen
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         super.onLayout(changed, l, t, r, b);
 
-        ThumbnailLoadTask.setupThumbnailPreview(mAttachmentPreviewCache, this, mAttachment, null);
+        ThumbnailLoadTask.setupThumbnailPreview(getContext(), mAttachmentPreviewCache, this,
+                mAttachment, null);
     }
 
     public Attachment getAttachment() {
@@ -136,8 +137,8 @@ public abstract class AttachmentTile extends RelativeLayout implements Attachmen
             updateSubtitleText();
         }
 
-        ThumbnailLoadTask.setupThumbnailPreview(mAttachmentPreviewCache, this, attachment,
-                prevAttachment);
+        ThumbnailLoadTask.setupThumbnailPreview(getContext(), mAttachmentPreviewCache, this,
+                attachment, prevAttachment);
     }
 
     private void updateSubtitleText() {
@@ -121,7 +121,7 @@ public class ConversationViewState implements Parcelable {
     }
 
     public void setInfoForConversation(Conversation conv) {
-        mConversationInfo = conv.conversationInfo.toBlob();
+        mConversationInfo = conv.getConversationInfo().toBlob();
     }
 
     /**
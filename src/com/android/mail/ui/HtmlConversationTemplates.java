@@ -78,9 +78,15 @@ public class HtmlConversationTemplates extends AbstractHtmlTemplates {
     private static final String LEFT_TO_RIGHT_TRIANGLE = "\u25B6 ";
     private static final String RIGHT_TO_LEFT_TRIANGLE = "\u25C0 ";
 
+    private static final String PLACEHOLDER = "%s";
+    /** The index of the message body's placeholder in the message template */
+    private static final int MESSAGE_BODY_PLACEHOLDER_INDEX = 5;
+
     private static boolean sLoadedTemplates;
     private static String sSuperCollapsed;
-    private static String sMessage;
+    /** The message template, split around the message body's placeholder */
+    private static String sMessageHead;
+    private static String sMessageTail;
     private static String sConversationUpper;
     private static String sConversationLower;
 
@@ -92,7 +98,10 @@ public class HtmlConversationTemplates extends AbstractHtmlTemplates {
         if (!sLoadedTemplates) {
             sLoadedTemplates = true;
             sSuperCollapsed = readTemplate(R.raw.template_super_collapsed);
-            sMessage = readTemplate(R.raw.template_message);
+            final String message = readTemplate(R.raw.template_message);
+            final int bodyStart = indexOfPlaceholder(message, MESSAGE_BODY_PLACEHOLDER_INDEX);
+            sMessageHead = message.substring(0, bodyStart);
+            sMessageTail = message.substring(bodyStart + PLACEHOLDER.length());
             sConversationUpper = readTemplate(R.raw.template_conversation_upper);
             sConversationLower = readTemplate(R.raw.template_conversation_lower);
         }
@@ -106,6 +115,21 @@ public class HtmlConversationTemplates extends AbstractHtmlTemplates {
         append(sSuperCollapsed, firstCollapsed, blockHeight);
     }
 
+    /**
+     * @return the position of the given placeholder, counting from 0, in a template
+     */
+    @VisibleForTesting
+    static int indexOfPlaceholder(String template, int index) {
+        int pos = -1;
+        for (int i = 0; i <= index; i++) {
+            pos = template.indexOf(PLACEHOLDER, pos + 1);
+            if (pos < 0) {
+                throw new IllegalArgumentException("Template has no placeholder " + index);
+            }
+        }
+        return pos;
+    }
+
     @VisibleForTesting
     static String replaceAbsoluteImgUrls(final String html) {
         return sAbsoluteImgUrlPattern.matcher(html).replaceAll(IMG_URL_REPLACEMENT);
@@ -154,18 +178,30 @@ public class HtmlConversationTemplates extends AbstractHtmlTemplates {
             body = replaceAbsoluteImgUrls(body);
         }
 
-        append(sMessage,
+        append(sMessageHead,
                 getMessageDomId(message),
                 expandedClass,
                 headerHeight,
                 showImagesClass,
-                bodyDisplay,
-                wrapMessageBody(body),
+                bodyDisplay
+        );
+        appendMessageBody(body);
+        append(sMessageTail,
                 bodyDisplay,
                 footerHeight
         );
     }
 
+    /**
+     * Appends a message body straight to the output. Bodies can be large, so they skip the
+     * formatter, and the output is grown once to fit the body rather than doubled repeatedly.
+     * {@link #wrapMessageBody(String)} is a no-op for now; if it comes back, wrap here too.
+     */
+    private void appendMessageBody(String body) {
+        mBuilder.ensureCapacity(mBuilder.length() + body.length() + sMessageTail.length());
+        mBuilder.append(body);
+    }
+
     public String getMessageDomId(HtmlMessage msg) {
         return MESSAGE_PREFIX + msg.getId();
     }
@@ -598,7 +598,7 @@ public class NestedFolderTeaserView extends LinearLayout implements Conversation
 
                         // Find the highest priority participant
                         for (final ParticipantInfo p :
-                                conversation.conversationInfo.participantInfos) {
+                                conversation.getConversationInfo().participantInfos) {
                             if (sender == null || priority < p.priority) {
                                 sender = p.name;
                                 senderEmail = p.email;
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.mail.ui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.AsyncTask;
+
+import com.android.mail.utils.LogTag;
+import com.android.mail.utils.LogUtils;
+import com.google.common.annotations.VisibleForTesting;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the thumbnails decoded by {@link ThumbnailLoadTask} in files in the app's cache
+ * directory, so that the attachments of a conversation that is opened again needn't be decoded
+ * again. Thumbnails are keyed by the attachment's identifier uri and size, so that an attachment
+ * whose content changes gets a new thumbnail, and the size they were decoded for. The least
+ * recently used files are evicted once the files outgrow a size cap, and all of them are deleted
+ * when an account is removed.
+ *
+ * This does disk I/O, so it must be used off the main thread.
+ */
+public final class ThumbnailDiskCache {
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    /** The name of the cache's directory, in the app's cache directory */
+    private static final String DIRECTORY_NAME = "attachment_thumbnails";
+    /** The most bytes of files kept on disk */
+    private static final long MAX_DISK_BYTES = 16 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 90;
+
+    private static ThumbnailDiskCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxDiskBytes;
+    /** The total size of the files on disk; -1 until the directory is first read */
+    private long mDiskBytes = -1;
+
+    private int mHits;
+    private int mMisses;
+
+    public static synchronized ThumbnailDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ThumbnailDiskCache(
+                    new File(context.getCacheDir(), DIRECTORY_NAME), MAX_DISK_BYTES);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    ThumbnailDiskCache(File directory, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * Deletes all cached thumbnails on a background thread, e.g. once an account is removed, so
+     * that its attachments' thumbnails don't outlive it.
+     */
+    public static void clearAsync(Context context) {
+        final ThumbnailDiskCache cache = getInstance(context);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                cache.clear();
+            }
+        });
+    }
+
+    /**
+     * @param attachmentSize the size in bytes of the attachment, which changes along with its
+     *      content
+     * @return the key of the thumbnail of an attachment, decoded for the given size
+     */
+    public static String getKey(Uri identifierUri, int attachmentSize, int width, int height) {
+        return identifierUri + "#" + attachmentSize + "#" + width + "x" + height;
+    }
+
+    /**
+     * @return the cached thumbnail, or null if there is none
+     */
+    public Bitmap get(String key) {
+        final File file = getFile(key);
+        Bitmap bitmap = null;
+        if (file.exists()) {
+            bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap != null) {
+                // Mark it as recently used, for eviction
+                file.setLastModified(System.currentTimeMillis());
+            } else {
+                LogUtils.w(LOG_TAG, "Corrupt thumbnail %s", key);
+                file.delete();
+            }
+        }
+        synchronized (this) {
+            if (bitmap != null) {
+                mHits++;
+            } else {
+                mMisses++;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Caches a thumbnail.
+     */
+    public void put(String key, Bitmap bitmap) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LogUtils.w(LOG_TAG, "Couldn't create %s", mDirectory);
+            return;
+        }
+        // Write to a temporary file, so that a partial file is never read. Each write has its own,
+        // as two threads may write the same key at once.
+        final File file = getFile(key);
+        File tempFile = null;
+        OutputStream out = null;
+        try {
+            tempFile = File.createTempFile(file.getName(), ".tmp", mDirectory);
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+            // Photos compress far better as JPEG, but only PNG keeps transparency
+            if (!bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG
+                    : Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                throw new IOException("Couldn't compress thumbnail");
+            }
+            out.close();
+            out = null;
+
+            synchronized (this) {
+                final long oldLength = file.length();
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Couldn't rename " + tempFile);
+                }
+                if (mDiskBytes >= 0) {
+                    mDiskBytes += file.length() - oldLength;
+                }
+                trimDisk();
+            }
+        } catch (IOException e) {
+            LogUtils.w(LOG_TAG, e, "Couldn't write thumbnail %s", key);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Deletes all cached thumbnails.
+     */
+    @VisibleForTesting
+    synchronized void clear() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        // Recount on the next write, in case a write was under way
+        mDiskBytes = -1;
+    }
+
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ThumbnailDiskCache{hits=" + mHits + " misses=" + mMisses
+                + " diskBytes=" + mDiskBytes + "}";
+    }
+
+    /**
+     * @return the file of a key, named by the hex SHA-1 of the key
+     */
+    private File getFile(String key) {
+        final byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        final StringBuilder sb = new StringBuilder(40);
+        for (byte b : hash) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return new File(mDirectory, sb.toString());
+    }
+
+    /**
+     * Deletes the least recently used files, until the files fit in the cache's size again.
+     */
+    private synchronized void trimDisk() {
+        if (mDiskBytes >= 0 && mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        mDiskBytes = 0;
+        for (File file : files) {
+            mDiskBytes += file.length();
+        }
+        if (mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsModified = lhs.lastModified();
+                final long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        // Trim to somewhat below the cap, so that every write doesn't have to trim again
+        final long target = mMaxDiskBytes * 3 / 4;
+        for (int i = 0; i < files.length && mDiskBytes > target; i++) {
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+}
@@ -18,13 +18,16 @@
 package com.android.mail.ui;
 
 import android.content.ContentResolver;
+import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.util.DisplayMetrics;
+import android.view.View;
 
 import com.android.ex.photo.util.Exif;
 import com.android.ex.photo.util.ImageUtils;
@@ -32,28 +35,103 @@ import com.android.ex.photo.util.ImageUtils;
 import com.android.mail.providers.Attachment;
 import com.android.mail.utils.LogTag;
 import com.android.mail.utils.LogUtils;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Performs the load of a thumbnail bitmap in a background
  * {@link AsyncTask}. Available for use with any view that implements
  * the {@link AttachmentBitmapHolder} interface.
+ *
+ * The tasks started by {@link #setupThumbnailPreview} run on a small pool of threads, the tasks
+ * of visible tiles first, and then the most recently started. Holders that ask for the thumbnail
+ * of the same attachment at the same size share a task, and a holder that moves on to another
+ * attachment leaves its task, which is cancelled once no holder is left. Decoded thumbnails
+ * are kept in a {@link ThumbnailDiskCache}.
  */
 public class ThumbnailLoadTask extends AsyncTask<Uri, Void, Bitmap> {
     private static final String LOG_TAG = LogTag.getLogTag();
 
-    private final AttachmentBitmapHolder mHolder;
+    private static final int THREADS = 2;
+    private static final ThreadPoolExecutor THUMBNAIL_EXECUTOR = new ThreadPoolExecutor(
+            THREADS, THREADS, 1, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+    static {
+        THUMBNAIL_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    // The following are only used on the UI thread.
+    private static long sSequence;
+    private static final Rect sVisibleRect = new Rect();
+    /** The tasks that are loading, by the key of the thumbnail they load */
+    private static final Map<String, ThumbnailLoadTask> sPendingTasks = Maps.newHashMap();
+    /** The task that is loading the thumbnail of each holder */
+    private static final Map<AttachmentBitmapHolder, ThumbnailLoadTask> sHolderTasks =
+            new WeakHashMap<AttachmentBitmapHolder, ThumbnailLoadTask>();
+
+    private final List<AttachmentBitmapHolder> mHolders = Lists.newArrayListWithCapacity(1);
+    private final ContentResolver mResolver;
     private final int mWidth;
     private final int mHeight;
+    /** The disk cache, and the key of the thumbnail in it; null if not cached */
+    private final ThumbnailDiskCache mDiskCache;
+    private final String mKey;
+
+    /**
+     * A task's runnable, ordered for the executor's queue: those of visible tiles first, and
+     * then the most recently queued.
+     */
+    private static final class PrioritizedRunnable
+            implements Runnable, Comparable<PrioritizedRunnable> {
+        private final Runnable mRunnable;
+        private final boolean mVisible;
+        private final long mSequence;
+
+        PrioritizedRunnable(Runnable runnable, boolean visible, long sequence) {
+            mRunnable = runnable;
+            mVisible = visible;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mRunnable.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedRunnable other) {
+            if (mVisible != other.mVisible) {
+                return mVisible ? -1 : 1;
+            }
+            return mSequence > other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
 
     public static void setupThumbnailPreview(AttachmentTile.AttachmentPreviewCache cache,
             AttachmentBitmapHolder holder, Attachment attachment, Attachment prevAttachment) {
+        setupThumbnailPreview(null, cache, holder, attachment, prevAttachment);
+    }
+
+    /**
+     * @param context if not null, thumbnails are also cached on disk
+     */
+    public static void setupThumbnailPreview(Context context,
+            AttachmentTile.AttachmentPreviewCache cache, AttachmentBitmapHolder holder,
+            Attachment attachment, Attachment prevAttachment) {
         // Check cache first
         if (cache != null) {
             final Bitmap cached = cache.get(attachment);
             if (cached != null) {
+                leaveTask(holder);
                 holder.setThumbnail(cached);
                 return;
             }
@@ -63,6 +141,7 @@ public class ThumbnailLoadTask extends AsyncTask<Uri, Void, Bitmap> {
         final int height = holder.getThumbnailHeight();
         if (attachment == null || width == 0 || height == 0
                 || !ImageUtils.isImageMimeType(attachment.getContentType())) {
+            leaveTask(holder);
             holder.setThumbnailToDefault();
             return;
         }
@@ -76,29 +155,115 @@ public class ThumbnailLoadTask extends AsyncTask<Uri, Void, Bitmap> {
         if ((thumbnailUri != null || contentUri != null)
                 && (holder.bitmapSetToDefault() ||
                 prevUri == null || !uri.equals(prevUri))) {
-            final ThumbnailLoadTask task = new ThumbnailLoadTask(
-                    holder, width, height);
-            task.execute(thumbnailUri, contentUri);
+            final String key = Uri.EMPTY.equals(uri) ? null
+                    : ThumbnailDiskCache.getKey(uri, attachment.size, width, height);
+            ThumbnailLoadTask task = key != null ? sPendingTasks.get(key) : null;
+            if (task != null) {
+                // Already loading; share the result
+                task.addHolder(holder);
+            } else {
+                task = new ThumbnailLoadTask(holder, width, height,
+                        context != null && key != null
+                                ? ThumbnailDiskCache.getInstance(context) : null, key);
+                if (key != null) {
+                    sPendingTasks.put(key, task);
+                }
+                task.executeOnExecutor(getExecutor(holder), thumbnailUri, contentUri);
+            }
         } else if (thumbnailUri == null && contentUri == null) {
             // not an image, or no thumbnail exists. fall back to default.
             // async image load must separately ensure the default appears upon load failure.
+            leaveTask(holder);
             holder.setThumbnailToDefault();
         }
     }
 
+    /**
+     * @return an executor that queues a task on the shared executor with the priority of its
+     *      holder
+     */
+    private static Executor getExecutor(AttachmentBitmapHolder holder) {
+        final boolean visible = holder instanceof View
+                && ((View) holder).getGlobalVisibleRect(sVisibleRect);
+        final long sequence = sSequence++;
+        return new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                THUMBNAIL_EXECUTOR.execute(new PrioritizedRunnable(runnable, visible, sequence));
+            }
+        };
+    }
+
+    /**
+     * Takes a holder off the task that is loading its thumbnail, if any, and cancels the task if
+     * no holder is left.
+     */
+    private static void leaveTask(AttachmentBitmapHolder holder) {
+        final ThumbnailLoadTask task = sHolderTasks.remove(holder);
+        if (task != null) {
+            task.mHolders.remove(holder);
+            if (task.mHolders.isEmpty()) {
+                LogUtils.d(LOG_TAG, "no holder left, cancelling %s", task.mKey);
+                task.cancel(false);
+                task.finish();
+            }
+        }
+    }
+
     public ThumbnailLoadTask(AttachmentBitmapHolder holder, int width, int height) {
-        mHolder = holder;
+        this(holder, width, height, null, null);
+    }
+
+    private ThumbnailLoadTask(AttachmentBitmapHolder holder, int width, int height,
+            ThumbnailDiskCache diskCache, String key) {
+        mResolver = holder.getResolver();
         mWidth = width;
         mHeight = height;
+        mDiskCache = diskCache;
+        mKey = key;
+        addHolder(holder);
+    }
+
+    private void addHolder(AttachmentBitmapHolder holder) {
+        if (sHolderTasks.get(holder) == this) {
+            return;
+        }
+        leaveTask(holder);
+        mHolders.add(holder);
+        sHolderTasks.put(holder, this);
+    }
+
+    /**
+     * Forgets the task, once it is done or cancelled.
+     */
+    private void finish() {
+        if (mKey != null && sPendingTasks.get(mKey) == this) {
+            sPendingTasks.remove(mKey);
+        }
+        for (AttachmentBitmapHolder holder : mHolders) {
+            if (sHolderTasks.get(holder) == this) {
+                sHolderTasks.remove(holder);
+            }
+        }
     }
 
     @Override
     protected Bitmap doInBackground(Uri... params) {
+        if (mDiskCache != null) {
+            final Bitmap cached = mDiskCache.get(mKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         Bitmap result = loadBitmap(params[0]);
         if (result == null) {
             result = loadBitmap(params[1]);
         }
 
+        if (result != null && mDiskCache != null && !isCancelled()) {
+            mDiskCache.put(mKey, result);
+        }
         return result;
     }
 
@@ -112,7 +277,7 @@ public class ThumbnailLoadTask extends AsyncTask<Uri, Void, Bitmap> {
 
         AssetFileDescriptor fd = null;
         try {
-            fd = mHolder.getResolver().openAssetFileDescriptor(thumbnailUri, "r");
+            fd = mResolver.openAssetFileDescriptor(thumbnailUri, "r");
             if (isCancelled() || fd == null) {
                 return null;
             }
@@ -169,8 +334,7 @@ public class ThumbnailLoadTask extends AsyncTask<Uri, Void, Bitmap> {
 
         InputStream in = null;
         try {
-            final ContentResolver resolver = mHolder.getResolver();
-            in = resolver.openInputStream(thumbnailUri);
+            in = mResolver.openInputStream(thumbnailUri);
             return Exif.getOrientation(in, -1);
         } catch (Throwable t) {
             LogUtils.i(LOG_TAG, "Unable to get orientation of thumbnail %s: %s %s", thumbnailUri,
@@ -190,15 +354,25 @@ public class ThumbnailLoadTask extends AsyncTask<Uri, Void, Bitmap> {
 
     @Override
     protected void onPostExecute(Bitmap result) {
+        finish();
         if (result == null) {
             LogUtils.d(LOG_TAG, "back in UI thread, decode failed or file does not exist");
-            mHolder.thumbnailLoadFailed();
+            for (AttachmentBitmapHolder holder : mHolders) {
+                holder.thumbnailLoadFailed();
+            }
             return;
         }
 
         LogUtils.d(LOG_TAG, "back in UI thread, decode success, w/h=%d/%d", result.getWidth(),
                 result.getHeight());
-        mHolder.setThumbnail(result);
+        for (AttachmentBitmapHolder holder : mHolders) {
+            holder.setThumbnail(result);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Bitmap result) {
+        finish();
     }
 
 }
@@ -31,6 +31,7 @@ import org.owasp.html.HtmlPolicyBuilder;
 import org.owasp.html.HtmlStreamRenderer;
 import org.owasp.html.PolicyFactory;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -359,6 +360,165 @@ public final class HtmlSanitizer {
             .allowElements("wbr")
             .toFactory();
 
+    /**
+     * Elements whose text content isn't shown, as far as {@link #sanitizeHtml(String, Appendable)}
+     * is concerned; the same elements {@link
+     * com.android.emailcommon.utility.TextUtilities#makeSnippetFromHtmlText(String)} skips.
+     */
+    private static final ImmutableSet<String> INVISIBLE_TEXT_ELEMENTS =
+            ImmutableSet.of("title", "script", "style", "applet", "head");
+
+    /**
+     * Passes the events of the HTML being sanitized on to the sanitizing policy, and copies the
+     * visible text to an Appendable on the way.
+     */
+    private static final class VisibleTextPolicy implements org.owasp.html.HtmlSanitizer.Policy {
+        private final org.owasp.html.HtmlSanitizer.Policy mPolicy;
+        private final Appendable mVisibleText;
+        /** The number of open elements whose text isn't shown */
+        private int mInvisibleDepth;
+
+        VisibleTextPolicy(org.owasp.html.HtmlSanitizer.Policy policy, Appendable visibleText) {
+            mPolicy = policy;
+            mVisibleText = visibleText;
+        }
+
+        @Override
+        public void openDocument() {
+            mPolicy.openDocument();
+        }
+
+        @Override
+        public void closeDocument() {
+            mPolicy.closeDocument();
+        }
+
+        @Override
+        public void openTag(String elementName, List<String> attrs) {
+            if (INVISIBLE_TEXT_ELEMENTS.contains(elementName)) {
+                mInvisibleDepth++;
+            }
+            mPolicy.openTag(elementName, attrs);
+        }
+
+        @Override
+        public void closeTag(String elementName) {
+            if (mInvisibleDepth > 0 && INVISIBLE_TEXT_ELEMENTS.contains(elementName)) {
+                mInvisibleDepth--;
+            }
+            mPolicy.closeTag(elementName);
+        }
+
+        @Override
+        public void text(String text) {
+            if (mInvisibleDepth == 0) {
+                try {
+                    mVisibleText.append(text);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            mPolicy.text(text);
+        }
+    }
+
+    /**
+     * Counts the chars appended to an Appendable.
+     */
+    private static final class CountingAppendable implements Appendable {
+        private final Appendable mOut;
+        private int mCount;
+
+        CountingAppendable(Appendable out) {
+            mOut = out;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq) throws IOException {
+            mOut.append(csq);
+            mCount += csq.length();
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) throws IOException {
+            mOut.append(csq, start, end);
+            mCount += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) throws IOException {
+            mOut.append(c);
+            mCount++;
+            return this;
+        }
+    }
+
+    /**
+     * Passes the events of the HTML being sanitized on to the sanitizing policy until its output
+     * reaches a limit; after that, only the end tags are passed on, to close the open elements.
+     */
+    private static final class ClippingPolicy implements org.owasp.html.HtmlSanitizer.Policy {
+        private final org.owasp.html.HtmlSanitizer.Policy mPolicy;
+        private final CountingAppendable mOutput;
+        private final int mMaxChars;
+        private boolean mClipped;
+
+        ClippingPolicy(org.owasp.html.HtmlSanitizer.Policy policy, CountingAppendable output,
+                int maxChars) {
+            mPolicy = policy;
+            mOutput = output;
+            mMaxChars = maxChars;
+        }
+
+        private boolean isFull() {
+            if (!mClipped && mOutput.mCount >= mMaxChars) {
+                mClipped = true;
+            }
+            return mClipped;
+        }
+
+        @Override
+        public void openDocument() {
+            mPolicy.openDocument();
+        }
+
+        @Override
+        public void closeDocument() {
+            mPolicy.closeDocument();
+        }
+
+        @Override
+        public void openTag(String elementName, List<String> attrs) {
+            if (!isFull()) {
+                mPolicy.openTag(elementName, attrs);
+            }
+        }
+
+        @Override
+        public void closeTag(String elementName) {
+            mPolicy.closeTag(elementName);
+        }
+
+        @Override
+        public void text(String text) {
+            if (!isFull()) {
+                if (mOutput.mCount + text.length() > mMaxChars) {
+                    // Keep the text that fits, without splitting a surrogate pair; escaping
+                    // may take it a little over the limit
+                    int end = mMaxChars - mOutput.mCount;
+                    if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+                        end--;
+                    }
+                    text = text.substring(0, end);
+                    mClipped = true;
+                }
+                mPolicy.text(text);
+            }
+        }
+    }
+
     private HtmlSanitizer() {}
 
     /**
@@ -370,20 +530,61 @@ public final class HtmlSanitizer {
      *      <code>rawHtml</code> was <code>null</code>
      */
     public static String sanitizeHtml(final String rawHtml) {
+        return sanitizeHtml(rawHtml, null);
+    }
+
+    /**
+     * Sanitizes HTML as {@link #sanitizeHtml(String)} does and, in the same pass, appends the
+     * text a reader would see in the <em>unsanitized</em> HTML to an Appendable: the text
+     * outside tags, with entities decoded and the content of {@link #INVISIBLE_TEXT_ELEMENTS}
+     * left out. This lets callers build a snippet without scanning the HTML themselves.
+     *
+     * @param rawHtml the unsanitized, suspicious html
+     * @param visibleText where to append the visible text; may be <code>null</code>
+     * @return the sanitized form of the <code>rawHtml</code>; <code>null</code> if
+     *      <code>rawHtml</code> was <code>null</code>
+     */
+    public static String sanitizeHtml(final String rawHtml, final Appendable visibleText) {
+        // create the builder into which the sanitized email will be written
+        final StringBuilder htmlBuilder =
+                rawHtml != null ? new StringBuilder(rawHtml.length()) : null;
+        sanitizeHtml(rawHtml, htmlBuilder, visibleText, -1);
+
+        // return the resulting HTML from the builder
+        return htmlBuilder != null ? htmlBuilder.toString() : null;
+    }
+
+    /**
+     * Sanitizes HTML as {@link #sanitizeHtml(String, Appendable)} does, but appends the sanitized
+     * HTML to an Appendable, such as the buffer of a page being built, instead of returning it.
+     * A limit can be put on the amount of sanitized HTML: once it is reached, no more elements
+     * or text are appended, but the elements that are open are still closed, so that the output
+     * is well formed.
+     *
+     * @param rawHtml the unsanitized, suspicious html; nothing is appended if it is
+     *      <code>null</code>
+     * @param out where to append the sanitized html
+     * @param visibleText where to append the visible text; may be <code>null</code>
+     * @param maxChars the most chars of sanitized html to append, not counting the end tags that
+     *      close the output once the limit is reached; or -1 for no limit
+     * @return true if the sanitized html was clipped to fit maxChars
+     */
+    public static boolean sanitizeHtml(final String rawHtml, final Appendable out,
+            final Appendable visibleText, final int maxChars) {
         if (Looper.getMainLooper() == Looper.myLooper()) {
             throw new IllegalStateException("sanitizing email should not occur on the main thread");
         }
 
         if (rawHtml == null) {
-            return null;
+            return false;
         }
 
-        // create the builder into which the sanitized email will be written
-        final StringBuilder htmlBuilder = new StringBuilder(rawHtml.length());
+        // count the sanitized output, if it is limited
+        final CountingAppendable counter = maxChars >= 0 ? new CountingAppendable(out) : null;
 
-        // create the renderer that will write the sanitized HTML to the builder
+        // create the renderer that will write the sanitized HTML to the output
         final HtmlStreamRenderer renderer = HtmlStreamRenderer.create(
-                htmlBuilder,
+                counter != null ? counter : out,
                 Handler.PROPAGATE,
                 // log errors resulting from exceptionally bizarre inputs
                 new Handler<String>() {
@@ -395,7 +596,15 @@ public final class HtmlSanitizer {
         );
 
         // create a thread-specific policy
-        final org.owasp.html.HtmlSanitizer.Policy policy = POLICY_DEFINITION.apply(renderer);
+        org.owasp.html.HtmlSanitizer.Policy policy = POLICY_DEFINITION.apply(renderer);
+        ClippingPolicy clippingPolicy = null;
+        if (counter != null) {
+            clippingPolicy = new ClippingPolicy(policy, counter, maxChars);
+            policy = clippingPolicy;
+        }
+        if (visibleText != null) {
+            policy = new VisibleTextPolicy(policy, visibleText);
+        }
 
         // run the html through the sanitizer
         Timer.startTiming("sanitizingHTMLEmail");
@@ -405,7 +614,6 @@ public final class HtmlSanitizer {
             Timer.stopTiming("sanitizingHTMLEmail");
         }
 
-        // return the resulting HTML from the builder
-        return htmlBuilder.toString();
+        return clippingPolicy != null && clippingPolicy.mClipped;
     }
 }
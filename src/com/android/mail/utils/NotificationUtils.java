@@ -1366,7 +1366,7 @@ public class NotificationUtils {
             final Cursor conversationCursor, final int maxLength, final Account account) {
         final Conversation conversation = new Conversation(conversationCursor);
         final com.android.mail.providers.ConversationInfo conversationInfo =
-                conversation.conversationInfo;
+                conversation.getConversationInfo();
         final ArrayList<SpannableString> senders = new ArrayList<>();
         if (sNotificationUnreadStyleSpan == null) {
             sNotificationUnreadStyleSpan = new TextAppearanceSpan(
@@ -1722,7 +1722,7 @@ public class NotificationUtils {
                 final Dimensions dimensions = new Dimensions(idealIconWidth, idealIconHeight,
                         Dimensions.SCALE_ONE);
 
-                contactIconInfo.icon = new LetterTileProvider(context.getResources())
+                contactIconInfo.icon = new LetterTileProvider(context)
                         .getLetterTile(dimensions, displayName, senderAddress);
             }
 
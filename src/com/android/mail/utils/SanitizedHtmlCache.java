@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.mail.utils;
+
+import android.content.Context;
+import android.util.LruCache;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Caches the output of {@link HtmlSanitizer} for message bodies, so that a message that is opened
+ * again isn't sanitized again. Entries are keyed by a hash of the raw html and
+ * {@link HtmlSanitizer#VERSION}, so a sanitizer change makes the old entries unreachable; they
+ * are then evicted in time. There are two levels, each with LRU eviction and a size cap: memory,
+ * and files in the app's cache directory, which outlive the process.
+ *
+ * This does disk I/O, so like sanitizing itself it must be used off the main thread.
+ */
+public final class SanitizedHtmlCache {
+    private static final String LOG_TAG = LogTag.getLogTag();
+
+    /** The name of the cache's directory, in the app's cache directory */
+    private static final String DIRECTORY_NAME = "sanitized_html";
+    /** Bumped when the format of the files changes */
+    private static final int FILE_FORMAT_VERSION = 2;
+
+    /** The most chars of html and snippets kept in memory */
+    private static final int MAX_MEMORY_CHARS = 512 * 1024;
+    /** The most bytes of files kept on disk */
+    private static final long MAX_DISK_BYTES = 8 * 1024 * 1024;
+
+    private static SanitizedHtmlCache sInstance;
+
+    /** The sanitized form of an html body, and its snippet */
+    public static final class Entry {
+        public final String sanitizedHtml;
+        /** The snippet of the visible text of the raw html; may be null */
+        public final String snippet;
+        /** True if the sanitized html was clipped */
+        public final boolean clipped;
+
+        public Entry(String sanitizedHtml, String snippet, boolean clipped) {
+            this.sanitizedHtml = sanitizedHtml;
+            this.snippet = snippet;
+            this.clipped = clipped;
+        }
+    }
+
+    private final LruCache<String, Entry> mMemoryCache =
+            new LruCache<String, Entry>(MAX_MEMORY_CHARS) {
+                @Override
+                protected int sizeOf(String key, Entry value) {
+                    return value.sanitizedHtml.length()
+                            + (value.snippet != null ? value.snippet.length() : 0);
+                }
+            };
+
+    private final File mDirectory;
+    private final long mMaxDiskBytes;
+    /** The total size of the files on disk; -1 until the directory is first read */
+    private long mDiskBytes = -1;
+
+    private int mMemoryHits;
+    private int mDiskHits;
+    private int mMisses;
+
+    public static synchronized SanitizedHtmlCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SanitizedHtmlCache(
+                    new File(context.getCacheDir(), DIRECTORY_NAME), MAX_DISK_BYTES);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    SanitizedHtmlCache(File directory, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * @param maxChars the limit the html was sanitized with, or -1 for none
+     * @return the cached entry for the raw html, from memory or disk, or null if there is none
+     */
+    public Entry get(String rawHtml, int maxChars) {
+        final String key = getKey(rawHtml, maxChars);
+        Entry entry = mMemoryCache.get(key);
+        if (entry != null) {
+            synchronized (this) {
+                mMemoryHits++;
+            }
+            return entry;
+        }
+
+        entry = readFile(key);
+        synchronized (this) {
+            if (entry != null) {
+                mDiskHits++;
+            } else {
+                mMisses++;
+            }
+        }
+        if (entry != null) {
+            mMemoryCache.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the sanitized form of the raw html.
+     *
+     * @param maxChars the limit the html was sanitized with, or -1 for none
+     */
+    public void put(String rawHtml, int maxChars, Entry entry) {
+        final String key = getKey(rawHtml, maxChars);
+        mMemoryCache.put(key, entry);
+        writeFile(key, entry);
+    }
+
+    public synchronized int getMemoryHitCount() {
+        return mMemoryHits;
+    }
+
+    public synchronized int getDiskHitCount() {
+        return mDiskHits;
+    }
+
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SanitizedHtmlCache{memoryHits=" + mMemoryHits + " diskHits=" + mDiskHits
+                + " misses=" + mMisses + " memoryChars=" + mMemoryCache.size()
+                + " diskBytes=" + mDiskBytes + "}";
+    }
+
+    /**
+     * @return the hex SHA-1 of the html's chars, followed by the sanitizer version and the limit
+     *      on its output; this is also the name of the entry's file
+     */
+    private static String getKey(String rawHtml, int maxChars) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // Hash the UTF-16 chars in blocks, rather than encoding the whole html first
+        final byte[] buffer = new byte[1024];
+        final int length = rawHtml.length();
+        for (int i = 0; i < length;) {
+            int count = 0;
+            for (; count < buffer.length && i < length; i++) {
+                final char c = rawHtml.charAt(i);
+                buffer[count++] = (byte) (c >> 8);
+                buffer[count++] = (byte) c;
+            }
+            digest.update(buffer, 0, count);
+        }
+
+        final StringBuilder sb = new StringBuilder(48);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        sb.append('-').append(HtmlSanitizer.VERSION);
+        if (maxChars >= 0) {
+            sb.append('-').append(maxChars);
+        }
+        return sb.toString();
+    }
+
+    private Entry readFile(String key) {
+        final File file = new File(mDirectory, key);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_FORMAT_VERSION) {
+                return null;
+            }
+            final boolean clipped = in.readBoolean();
+            final String snippet = in.readBoolean() ? in.readUTF() : null;
+            // The html is stored as UTF-16 chars, as written by writeChars()
+            final int length = in.readInt();
+            if (length < 0 || length > file.length() / 2) {
+                LogUtils.w(LOG_TAG, "Corrupt sanitized html %s", key);
+                return null;
+            }
+            final byte[] bytes = new byte[length * 2];
+            in.readFully(bytes);
+            final char[] html = new char[bytes.length / 2];
+            for (int i = 0; i < html.length; i++) {
+                html[i] = (char) (((bytes[2 * i] & 0xff) << 8) | (bytes[2 * i + 1] & 0xff));
+            }
+            // Mark it as recently used, for eviction
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(new String(html), snippet, clipped);
+        } catch (IOException e) {
+            LogUtils.w(LOG_TAG, e, "Couldn't read sanitized html %s", key);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void writeFile(String key, Entry entry) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            LogUtils.w(LOG_TAG, "Couldn't create %s", mDirectory);
+            return;
+        }
+        // Write to a temporary file, so that a partial file is never read. Each write has its own,
+        // as two threads may write the same key at once.
+        final File file = new File(mDirectory, key);
+        File tempFile = null;
+        DataOutputStream out = null;
+        try {
+            tempFile = File.createTempFile(key, ".tmp", mDirectory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FILE_FORMAT_VERSION);
+            out.writeBoolean(entry.clipped);
+            out.writeBoolean(entry.snippet != null);
+            if (entry.snippet != null) {
+                out.writeUTF(entry.snippet);
+            }
+            out.writeInt(entry.sanitizedHtml.length());
+            out.writeChars(entry.sanitizedHtml);
+            out.close();
+            out = null;
+
+            synchronized (this) {
+                final long oldLength = file.length();
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Couldn't rename " + tempFile);
+                }
+                if (mDiskBytes >= 0) {
+                    mDiskBytes += file.length() - oldLength;
+                }
+                trimDisk();
+            }
+        } catch (IOException e) {
+            LogUtils.w(LOG_TAG, e, "Couldn't write sanitized html %s", key);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files, until the files fit in the cache's size again.
+     */
+    private synchronized void trimDisk() {
+        if (mDiskBytes >= 0 && mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        mDiskBytes = 0;
+        for (File file : files) {
+            mDiskBytes += file.length();
+        }
+        if (mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long lhsModified = lhs.lastModified();
+                final long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        // Trim to somewhat below the cap, so that every write doesn't have to trim again
+        final long target = mMaxDiskBytes * 3 / 4;
+        for (int i = 0; i < files.length && mDiskBytes > target; i++) {
+            final long length = files[i].length();
+            if (files[i].delete()) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+}
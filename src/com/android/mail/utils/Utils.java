@@ -62,8 +62,8 @@ import com.android.mail.providers.Folder;
 import com.android.mail.providers.UIProvider;
 import com.android.mail.providers.UIProvider.EditSettingsExtras;
 import com.android.mail.ui.HelpActivity;
-import com.google.android.mail.common.html.parser.HtmlDocument;
 import com.google.android.mail.common.html.parser.HtmlParser;
+import com.google.android.mail.common.html.parser.HtmlParserPool;
 import com.google.android.mail.common.html.parser.HtmlTree;
 import com.google.android.mail.common.html.parser.HtmlTreeBuilder;
 
@@ -345,7 +345,21 @@ public class Utils {
         if (TextUtils.isEmpty(htmlText)) {
             return "";
         }
-        return getHtmlTree(htmlText, new HtmlParser(), new HtmlTreeBuilder()).getPlainText();
+        return HtmlParserPool.convertToPlainText(htmlText);
+    }
+
+    /**
+     * Returns the beginning of the displayable text from the provided HTML string. Only as much
+     * of the HTML as is needed for the text is parsed.
+     * @param htmlText HTML string
+     * @param maxLength the maximum length of the text
+     * @return Plain text string representation of the start of the specified Html string
+     */
+    public static String convertHtmlToPlainText(String htmlText, int maxLength) {
+        if (TextUtils.isEmpty(htmlText)) {
+            return "";
+        }
+        return HtmlParserPool.convertToPlainText(htmlText, maxLength);
     }
 
     public static String convertHtmlToPlainText(String htmlText, HtmlParser parser,
@@ -360,7 +374,7 @@ public class Utils {
      * Returns a {@link HtmlTree} representation of the specified HTML string.
      */
     public static HtmlTree getHtmlTree(String htmlText) {
-        return getHtmlTree(htmlText, new HtmlParser(), new HtmlTreeBuilder());
+        return HtmlParserPool.buildTree(htmlText);
     }
 
     /**
@@ -368,9 +382,7 @@ public class Utils {
      */
     private static HtmlTree getHtmlTree(String htmlText, HtmlParser parser,
             HtmlTreeBuilder builder) {
-        final HtmlDocument doc = parser.parse(htmlText);
-        doc.accept(builder);
-
+        builder.build(parser.parseCompact(htmlText));
         return builder.getTree();
     }
 
@@ -0,0 +1,632 @@
+/**
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.mail.common.html.parser;
+
+import com.google.android.mail.common.base.CharEscapers;
+import com.google.android.mail.common.base.CharMatcher;
+import com.google.android.mail.common.base.StringUtil;
+import com.google.android.mail.common.base.X;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * CompactHtmlDocument is the output of {@link HtmlParser#parseCompact}. It
+ * holds the same nodes as the {@link HtmlDocument} that
+ * {@link HtmlParser#parse} returns, but instead of one object per node, per
+ * attribute and per substring of the html, it keeps parallel int arrays of
+ * each node's kind, its offsets into the original html and the id of its
+ * element. Text is only unescaped, and node objects only created, on request.
+ *
+ * Adjacent text nodes are not coalesced: a run of TEXT, LESS_THAN and CDATA
+ * nodes stands for the single text node that {@link HtmlParser#parse} would
+ * return.
+ */
+public final class CompactHtmlDocument {
+
+  // Node kinds
+  /** Text, escaped: html[start, end) */
+  public static final int TEXT = 0;
+  /** A '<' that does not begin a tag: html[start, end) is just the '<' */
+  public static final int LESS_THAN = 1;
+  /** Content of a STYLE or SCRIPT element: html[start, end) */
+  public static final int CDATA = 2;
+  /** A comment, including "&lt;!--" and "--&gt;": html[start, end) */
+  public static final int COMMENT = 3;
+  /** Start tag: html[start, end) including '<' and '>' */
+  public static final int START_TAG = 4;
+  /** Self-terminating start tag, e.g. "&lt;br/&gt;" */
+  public static final int SELF_TERMINATING_TAG = 5;
+  /**
+   * End tag: html[start, end), which may lack the '>' if the tag was cut short
+   * by a '<'
+   */
+  public static final int END_TAG = 6;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final String html;
+  private final boolean preserveAll;
+  private final boolean preserveValidHtml;
+
+  // Nodes
+  private int size;
+  private int[] kinds;
+  private int[] starts;
+  private int[] ends;
+  /** Index in elements, for tags; -1 otherwise */
+  private int[] elementIds;
+  /** For tags, the end of the tag name, where the attributes begin */
+  private int[] nameEnds;
+  /** For start tags, the end of the last attribute */
+  private int[] attributesEnds;
+  /** For start tags, the index of the first attribute */
+  private int[] firstAttributes;
+  /**
+   * For start tags, the number of attributes, or -1 if the tag has no
+   * attribute list at all (as opposed to only unrecognized attributes)
+   */
+  private int[] attributeCounts;
+
+  // Attributes
+  private int attributeSize;
+  /**
+   * Index in attributes; the complement (~id) of the index for an
+   * unrecognized attribute, preserved in PRESERVE_ALL mode
+   */
+  private int[] attributeIds;
+  /** Start of the attribute, including preceding separator characters */
+  private int[] attributeStarts;
+  private int[] attributeEnds;
+  private int[] attributeNameStarts;
+  private int[] attributeNameEnds;
+  /** Start of the value, excluding any quote; -1 if there's no value */
+  private int[] attributeValueStarts;
+  private int[] attributeValueEnds;
+
+  /** The distinct elements and attributes, indexed by id */
+  private final ArrayList<HTML.Element> elements = new ArrayList<HTML.Element>();
+  private final IdentityHashMap<HTML.Element, Integer> elementIdMap =
+      new IdentityHashMap<HTML.Element, Integer>();
+  private final ArrayList<HTML.Attribute> attributes = new ArrayList<HTML.Attribute>();
+  private final IdentityHashMap<HTML.Attribute, Integer> attributeIdMap =
+      new IdentityHashMap<HTML.Attribute, Integer>();
+
+  /**
+   * @param html the html being parsed
+   * @param parseStyle the parse style, which determines the original html
+   *        preserved in the nodes created by {@link #getNode}
+   */
+  CompactHtmlDocument(String html, HtmlParser.ParseStyle parseStyle) {
+    this.html = html;
+    preserveAll = (parseStyle == HtmlParser.ParseStyle.PRESERVE_ALL);
+    preserveValidHtml = preserveAll || (parseStyle == HtmlParser.ParseStyle.PRESERVE_VALID);
+
+    // A rough guess; tags average some tens of characters
+    int capacity = Math.max(INITIAL_CAPACITY, html.length() / 32);
+    kinds = new int[capacity];
+    starts = new int[capacity];
+    ends = new int[capacity];
+    elementIds = new int[capacity];
+    nameEnds = new int[capacity];
+    attributesEnds = new int[capacity];
+    firstAttributes = new int[capacity];
+    attributeCounts = new int[capacity];
+
+    attributeIds = new int[INITIAL_CAPACITY];
+    attributeStarts = new int[INITIAL_CAPACITY];
+    attributeEnds = new int[INITIAL_CAPACITY];
+    attributeNameStarts = new int[INITIAL_CAPACITY];
+    attributeNameEnds = new int[INITIAL_CAPACITY];
+    attributeValueStarts = new int[INITIAL_CAPACITY];
+    attributeValueEnds = new int[INITIAL_CAPACITY];
+  }
+
+  //------------------------------------------------------------------------
+  // Accessors
+  //------------------------------------------------------------------------
+
+  /** Gets the html that was parsed */
+  public String getHtml() {
+    return html;
+  }
+
+  /** Gets the number of nodes */
+  public int size() {
+    return size;
+  }
+
+  /** Gets the kind of a node, e.g. {@link #TEXT} */
+  public int getKind(int node) {
+    checkNode(node);
+    return kinds[node];
+  }
+
+  /** Gets the start offset of a node in the html */
+  public int getStart(int node) {
+    checkNode(node);
+    return starts[node];
+  }
+
+  /** Gets the end offset of a node in the html */
+  public int getEnd(int node) {
+    checkNode(node);
+    return ends[node];
+  }
+
+  /** Returns true if the node is a TEXT, LESS_THAN or CDATA node */
+  public boolean isText(int node) {
+    checkNode(node);
+    return kinds[node] <= CDATA;
+  }
+
+  /** Returns true if the node is a start tag, self-terminating or not */
+  public boolean isStartTag(int node) {
+    checkNode(node);
+    return kinds[node] == START_TAG || kinds[node] == SELF_TERMINATING_TAG;
+  }
+
+  /** Gets the element of a tag, or null if the node is not a tag */
+  public HTML.Element getElement(int node) {
+    checkNode(node);
+    int id = elementIds[node];
+    return id < 0 ? null : elements.get(id);
+  }
+
+  /** Gets the plain, unescaped text of a text node */
+  public String getText(int node) {
+    X.assertTrue(isText(node));
+    String text = html.substring(starts[node], ends[node]);
+    return kinds[node] == TEXT ? StringUtil.unescapeHTML(text) : text;
+  }
+
+  /**
+   * Appends the plain, unescaped text of the text nodes in [fromNode, toNode)
+   * to a StringBuilder.
+   */
+  public void appendText(int fromNode, int toNode, StringBuilder sb) {
+    for (int n = fromNode; n < toNode; n++) {
+      X.assertTrue(isText(n));
+      if (kinds[n] == TEXT && hasEntity(n)) {
+        sb.append(getText(n));
+      } else {
+        sb.append(html, starts[n], ends[n]);
+      }
+    }
+  }
+
+  /**
+   * Returns true if the text nodes in [fromNode, toNode) contain only white
+   * space.
+   */
+  public boolean isWhitespace(int fromNode, int toNode) {
+    for (int n = fromNode; n < toNode; n++) {
+      X.assertTrue(isText(n));
+      if (kinds[n] == TEXT && hasEntity(n)) {
+        String text = getText(n);
+        for (int i = 0; i < text.length(); i++) {
+          if (!Character.isWhitespace(text.charAt(i))) {
+            return false;
+          }
+        }
+      } else {
+        for (int i = starts[n]; i < ends[n]; i++) {
+          if (!Character.isWhitespace(html.charAt(i))) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  /** Returns true if a text node may contain an entity, so needs unescaping */
+  private boolean hasEntity(int node) {
+    for (int i = starts[node]; i < ends[node]; i++) {
+      if (html.charAt(i) == '&') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void checkNode(int node) {
+    X.assertTrue(node >= 0 && node < size);
+  }
+
+  //------------------------------------------------------------------------
+  // Node objects
+  //------------------------------------------------------------------------
+
+  /**
+   * Converts to an HtmlDocument, creating the node objects and coalescing
+   * adjacent text nodes. This is the document {@link HtmlParser#parse}
+   * returns.
+   */
+  public HtmlDocument toHtmlDocument() {
+    List<HtmlDocument.Node> nodes = new ArrayList<HtmlDocument.Node>(size);
+    for (int n = 0; n < size; n++) {
+      nodes.add(getNode(n));
+    }
+    return new HtmlDocument(HtmlParser.coalesceTextNodes(nodes));
+  }
+
+  /**
+   * Creates the node object for a node. Each call returns a new object, with
+   * the original html the parse style preserves.
+   */
+  public HtmlDocument.Node getNode(int node) {
+    checkNode(node);
+    switch (kinds[node]) {
+      case TEXT:
+        return createText(starts[node], ends[node]);
+
+      case LESS_THAN:
+        return HtmlDocument.createText("<", preserveAll ? "<" : null);
+
+      case CDATA:
+        return HtmlDocument.createCDATA(html.substring(starts[node], ends[node]));
+
+      case COMMENT:
+        return HtmlDocument.createHtmlComment(html.substring(starts[node], ends[node]));
+
+      case START_TAG:
+      case SELF_TERMINATING_TAG:
+        return createStartTag(node);
+
+      case END_TAG:
+        return createEndTag(node);
+
+      default:
+        throw new Error("Unknown node kind!");
+    }
+  }
+
+  /** Creates an escaped text node for html[startPos, endPos) */
+  private HtmlDocument.Text createText(int startPos, int endPos) {
+    String htmlTail = html.substring(startPos, endPos);
+    String originalHtml = null;
+    if (preserveAll) {
+      originalHtml = htmlTail;
+    } else if (preserveValidHtml) {
+      // Officially a '<' can be valid in a text node, but to be safe we
+      // always escape them
+      originalHtml = CharMatcher.is('<').replaceFrom(htmlTail, "&lt;");
+    }
+    return HtmlDocument.createEscapedText(htmlTail, originalHtml);
+  }
+
+  private HtmlDocument.Tag createStartTag(int node) {
+    HTML.Element element = getElement(node);
+    boolean isSingleTag = (kinds[node] == SELF_TERMINATING_TAG);
+    int startPos = starts[node];
+    int startAttributesPos = nameEnds[node];
+    int endAttributesPos = attributesEnds[node];
+    int endPos = ends[node];
+    X.assertTrue(startPos < startAttributesPos);
+    X.assertTrue(startAttributesPos <= endAttributesPos);
+    X.assertTrue(endAttributesPos <= endPos);
+
+    ArrayList<HtmlDocument.TagAttribute> tagAttributes = null;
+    if (attributeCounts[node] >= 0) {
+      tagAttributes = new ArrayList<HtmlDocument.TagAttribute>(attributeCounts[node]);
+      int end = firstAttributes[node] + attributeCounts[node];
+      for (int a = firstAttributes[node]; a < end; a++) {
+        tagAttributes.add(createAttribute(a));
+      }
+    }
+
+    if (preserveAll) {
+      String beforeAttrs = html.substring(startPos, startAttributesPos);
+      String afterAttrs = html.substring(endAttributesPos, endPos);
+      return (isSingleTag)
+          ? HtmlDocument.createSelfTerminatingTag(element, tagAttributes,
+              beforeAttrs, afterAttrs)
+          : HtmlDocument.createTag(element, tagAttributes,
+              beforeAttrs, afterAttrs);
+    } else if (preserveValidHtml) {
+      // This is the beginning of the tag up through the tag name. It should not
+      // be possible for this to contain characters needing escaping, but we add
+      // this redundant check to avoid an XSS attack that might get past our
+      // parser but trick a browser into executing a script.
+      X.assertTrue(html.charAt(startPos) == '<');
+      StringBuilder beforeAttrs = new StringBuilder("<");
+      String tagName = html.substring(startPos + 1, startAttributesPos);
+      beforeAttrs.append(CharEscapers.asciiHtmlEscaper().escape(tagName));
+
+      // Verify end-of-tag characters
+      int endContentPos = endPos - 1;
+      X.assertTrue(html.charAt(endContentPos) == '>');
+      if (isSingleTag) {
+        --endContentPos;
+        X.assertTrue(html.charAt(endContentPos) == '/');
+      }
+      X.assertTrue(endAttributesPos <= endContentPos);
+
+      // This is any extra characters between the last attribute and the end of
+      // the tag.
+      X.assertTrue(endAttributesPos < endPos);
+      String afterAttrs = html.substring(endAttributesPos, endPos);
+
+      // Strip all but preceding whitespace.
+      return (isSingleTag)
+          ? HtmlDocument.createSelfTerminatingTag(element, tagAttributes,
+              beforeAttrs.toString(), afterAttrs)
+          : HtmlDocument.createTag(element, tagAttributes,
+              beforeAttrs.toString(), afterAttrs);
+    } else {
+      // Normalize.
+      return (isSingleTag)
+          ? HtmlDocument.createSelfTerminatingTag(element, tagAttributes)
+          : HtmlDocument.createTag(element, tagAttributes);
+    }
+  }
+
+  private HtmlDocument.EndTag createEndTag(int node) {
+    HTML.Element element = getElement(node);
+    int startPos = starts[node];
+    int startAttributesPos = nameEnds[node];
+    int endPos = ends[node];
+    X.assertTrue(element != null);
+    X.assertTrue(html.charAt(startPos) == '<');
+    X.assertTrue(html.charAt(startPos + 1) == '/');
+
+    if (preserveAll) {
+      // Preserve all: keep actual content even if it's malformed.
+      X.assertTrue(startPos < endPos);
+      String content = html.substring(startPos, endPos);
+      return HtmlDocument.createEndTag(element, content);
+    } else if (preserveValidHtml) {
+      // Preserve valid: terminate the tag.
+
+      StringBuilder validContent = new StringBuilder("</");
+
+      // This is the beginning of the tag up through the tag name. It should not
+      // be possible for this to contain characters needing escaping, but we add
+      // this redundant check to avoid an XSS attack that might get past our
+      // parser but trick a browser into executing a script.
+      X.assertTrue(startPos < startAttributesPos);
+      String tagName = html.substring(startPos + 2, startAttributesPos);
+      validContent.append(CharEscapers.asciiHtmlEscaper().escape(tagName));
+
+      // This is the rest of the tag, including any attributes.
+      // See bug 874396 (Buganizer). We don't allow attributes in an end tag.
+      X.assertTrue(startAttributesPos <= endPos);
+      String endOfTag = html.substring(startAttributesPos, endPos);
+      if (endOfTag.charAt(endOfTag.length() - 1) != '>') {
+        endOfTag += '>';
+      }
+
+      // Strip everything but leading whitespace.
+      validContent.append(endOfTag.replaceAll("\\S+.*>", ">"));
+
+      return HtmlDocument.createEndTag(element, validContent.toString());
+    } else {
+      // Normalize: ignore the original content.
+      return HtmlDocument.createEndTag(element);
+    }
+  }
+
+  private HtmlDocument.TagAttribute createAttribute(int a) {
+    int startPos = attributeStarts[a];
+    int endPos = attributeEnds[a];
+    int startNamePos = attributeNameStarts[a];
+    int endNamePos = attributeNameEnds[a];
+    int startValuePos = attributeValueStarts[a];
+    int endValuePos = attributeValueEnds[a];
+    X.assertTrue(startPos < endPos);
+
+    // This can be null when there's no value, e.g., input.checked attribute.
+    String value = (startValuePos < 0) ? null : html.substring(startValuePos, endValuePos);
+
+    if (attributeIds[a] < 0) {
+      // Unknown attribute, only kept in PRESERVE_ALL mode
+      String original = html.substring(startPos, endPos);
+      return HtmlDocument.createTagAttribute(attributes.get(~attributeIds[a]), value, original);
+    }
+
+    HTML.Attribute htmlAttribute = attributes.get(attributeIds[a]);
+    String unescapedValue = (value == null) ? null : StringUtil.unescapeHTML(value);
+    if (preserveAll) {
+      return HtmlDocument.createTagAttribute(htmlAttribute,
+          unescapedValue, html.substring(startPos, endPos));
+    } else if (preserveValidHtml) {
+      StringBuilder original = new StringBuilder();
+
+      // This includes any separator characters between the tag name or
+      // preceding attribute and this one.
+      // This addresses bugs 870757 and 875303 (Buganizer).
+      // Don't allow non-whitespace separators between attributes.
+      X.assertTrue(startPos <= startNamePos);
+      String originalPrefix = html.substring(
+          startPos, startNamePos).replaceAll("\\S+", "");
+      if (originalPrefix.length() == 0) {
+        originalPrefix = " ";
+      }
+      original.append(originalPrefix);
+
+      if (value == null) {
+        // This includes the name and any following whitespace. Escape in case
+        // the name has any quotes or '<' that could confuse a browser.
+        X.assertTrue(startNamePos < endPos);
+        String nameEtc = html.substring(startNamePos, endPos);
+        original.append(CharEscapers.asciiHtmlEscaper().escape(nameEtc));
+      } else {
+        // Escape name in case the name has any quotes or '<' that could
+        // confuse a browser.
+        String name = html.substring(startNamePos, endNamePos);
+        original.append(CharEscapers.asciiHtmlEscaper().escape(name));
+
+        // This includes the equal sign, and any other whitespace
+        // between the name and value. It also contains the opening quote
+        // character if there is one.
+        X.assertTrue(endNamePos < startValuePos);
+        original.append(html.substring(endNamePos, startValuePos));
+
+        // This is the value, excluding any quotes. An unquoted value can't
+        // follow a quote character, as that would have begun a quoted value.
+        char beforeValue = html.charAt(startValuePos - 1);
+        if (beforeValue == '\'' || beforeValue == '\"') {
+          // Officially a '<' can be valid in an attribute value, but to be
+          // safe we always escape them.
+          original.append(value.replaceAll("<", "&lt;"));
+        } else {
+          // This addresses bug 881426 (Buganizer). Put quotes around any
+          // dangerous characters, which is what most of the browsers do.
+          if (HtmlParser.NEEDS_QUOTING_ATTRIBUTE_VALUE_REGEX.matcher(value).find()) {
+            original.append('"');
+            original.append(value.replaceAll("\"", "&quot;"));
+            original.append('"');
+          } else {
+            original.append(value);
+          }
+        }
+
+        // This includes end quote, if applicable.
+        X.assertTrue(endValuePos <= endPos);
+        original.append(html.substring(endValuePos, endPos));
+      }
+
+      return HtmlDocument.createTagAttribute(
+          htmlAttribute, unescapedValue, original.toString());
+    } else {
+      return HtmlDocument.createTagAttribute(htmlAttribute, unescapedValue);
+    }
+  }
+
+  //------------------------------------------------------------------------
+  // Building, by HtmlParser
+  //------------------------------------------------------------------------
+
+  /** Adds a TEXT, LESS_THAN, CDATA or COMMENT node */
+  void addText(int kind, int startPos, int endPos) {
+    X.assertTrue(kind <= COMMENT);
+    int node = addNode(kind, startPos, endPos, -1);
+    nameEnds[node] = endPos;
+    attributesEnds[node] = endPos;
+    firstAttributes[node] = attributeSize;
+    attributeCounts[node] = -1;
+  }
+
+  /**
+   * Adds a start tag, whose attributes are those added since
+   * firstAttribute.
+   *
+   * @param hasAttributeList false if the tag had no attributes at all, not
+   *        even unrecognized ones
+   */
+  void addStartTag(HTML.Element element, int startPos, int startAttributesPos,
+      int endAttributesPos, int endPos, boolean isSingleTag, int firstAttribute,
+      boolean hasAttributeList) {
+    int node = addNode(isSingleTag ? SELF_TERMINATING_TAG : START_TAG, startPos, endPos,
+        getElementId(element));
+    nameEnds[node] = startAttributesPos;
+    attributesEnds[node] = endAttributesPos;
+    firstAttributes[node] = firstAttribute;
+    attributeCounts[node] = hasAttributeList ? attributeSize - firstAttribute : -1;
+  }
+
+  /** Adds an end tag */
+  void addEndTag(HTML.Element element, int startPos, int startAttributesPos, int endPos) {
+    int node = addNode(END_TAG, startPos, endPos, getElementId(element));
+    nameEnds[node] = startAttributesPos;
+    attributesEnds[node] = endPos;
+    firstAttributes[node] = attributeSize;
+    attributeCounts[node] = -1;
+  }
+
+  /**
+   * Adds an attribute of the start tag being scanned.
+   *
+   * @param isKnown false for an unrecognized attribute kept in PRESERVE_ALL
+   *        mode
+   * @param startValuePos -1 if there is no value
+   */
+  void addAttribute(HTML.Attribute attribute, boolean isKnown, int startPos, int endPos,
+      int startNamePos, int endNamePos, int startValuePos, int endValuePos) {
+    if (attributeSize == attributeIds.length) {
+      int capacity = attributeSize * 2;
+      attributeIds = Arrays.copyOf(attributeIds, capacity);
+      attributeStarts = Arrays.copyOf(attributeStarts, capacity);
+      attributeEnds = Arrays.copyOf(attributeEnds, capacity);
+      attributeNameStarts = Arrays.copyOf(attributeNameStarts, capacity);
+      attributeNameEnds = Arrays.copyOf(attributeNameEnds, capacity);
+      attributeValueStarts = Arrays.copyOf(attributeValueStarts, capacity);
+      attributeValueEnds = Arrays.copyOf(attributeValueEnds, capacity);
+    }
+    Integer id = attributeIdMap.get(attribute);
+    if (id == null) {
+      id = attributes.size();
+      attributes.add(attribute);
+      attributeIdMap.put(attribute, id);
+    }
+    int a = attributeSize++;
+    attributeIds[a] = isKnown ? id : ~id;
+    attributeStarts[a] = startPos;
+    attributeEnds[a] = endPos;
+    attributeNameStarts[a] = startNamePos;
+    attributeNameEnds[a] = endNamePos;
+    attributeValueStarts[a] = startValuePos;
+    attributeValueEnds[a] = endValuePos;
+  }
+
+  /** Gets the number of attributes added so far */
+  int getAttributeSize() {
+    return attributeSize;
+  }
+
+  /**
+   * Discards the attributes added since firstAttribute, which belong to a
+   * tag that turned out not to be a start tag.
+   */
+  void discardAttributes(int firstAttribute) {
+    X.assertTrue(firstAttribute <= attributeSize);
+    attributeSize = firstAttribute;
+  }
+
+  private int addNode(int kind, int startPos, int endPos, int elementId) {
+    if (size == kinds.length) {
+      int capacity = size * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      elementIds = Arrays.copyOf(elementIds, capacity);
+      nameEnds = Arrays.copyOf(nameEnds, capacity);
+      attributesEnds = Arrays.copyOf(attributesEnds, capacity);
+      firstAttributes = Arrays.copyOf(firstAttributes, capacity);
+      attributeCounts = Arrays.copyOf(attributeCounts, capacity);
+    }
+    int node = size++;
+    kinds[node] = kind;
+    starts[node] = startPos;
+    ends[node] = endPos;
+    elementIds[node] = elementId;
+    return node;
+  }
+
+  private int getElementId(HTML.Element element) {
+    X.assertTrue(element != null);
+    Integer id = elementIdMap.get(element);
+    if (id == null) {
+      id = elements.size();
+      elements.add(element);
+      elementIdMap.put(element, id);
+    }
+    return id;
+  }
+}
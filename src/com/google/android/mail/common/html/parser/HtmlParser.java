@@ -15,10 +15,7 @@
  */
 package com.google.android.mail.common.html.parser;
 
-import com.google.android.mail.common.base.CharEscapers;
-import com.google.android.mail.common.base.CharMatcher;
 import com.google.android.mail.common.base.Preconditions;
-import com.google.android.mail.common.base.StringUtil;
 import com.google.android.mail.common.base.X;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -57,8 +54,12 @@ public class HtmlParser {
   // The html text
   private String html;
 
-  // The entire array of nodes
-  private List<HtmlDocument.Node> nodes;
+  // The document being built
+  private CompactHtmlDocument document;
+
+  // Scanners, reused for each tag
+  private TagNameScanner tagNameScanner;
+  private AttributeScanner attributeScanner;
 
   // Turn on for debug information.
   private static boolean DEBUG = false;
@@ -83,6 +84,8 @@ public class HtmlParser {
    */
   public enum ParseStyle { NORMALIZE, PRESERVE_VALID, PRESERVE_ALL }
 
+  private final ParseStyle parseStyle;
+
   /**
    * True only in PRESERVE_ALL mode.
    * @see HtmlParser.ParseStyle
@@ -108,6 +111,7 @@ public class HtmlParser {
    * @see HtmlParser.ParseStyle
    */
   public HtmlParser(ParseStyle parseStyle) {
+    this.parseStyle = parseStyle;
     preserveAll = (parseStyle == ParseStyle.PRESERVE_ALL);
     preserveValidHtml = preserveAll || (parseStyle == ParseStyle.PRESERVE_VALID);
   }
@@ -185,10 +189,48 @@ public class HtmlParser {
    * @return an Html document
    */
   public HtmlDocument parse(String html) {
+    return parseCompact(html).toHtmlDocument();
+  }
+
+  /**
+   * Parses a String as HTML, into the compact representation that
+   * {@link HtmlTreeBuilder#build(CompactHtmlDocument)} takes. This creates
+   * no objects per node, so it is the cheaper way to parse large documents.
+   *
+   * @param html String to parse
+   * @return the nodes of the Html document
+   */
+  public CompactHtmlDocument parseCompact(String html) {
+    return parseCompact(html, null);
+  }
+
+  /**
+   * Receives the nodes of a document as it is parsed, so that they can be
+   * consumed without waiting for the whole document.
+   */
+  interface NodeListener {
+    /**
+     * Called after each step of the parse, which may have added nodes to the
+     * document.
+     *
+     * @return false to stop parsing
+     */
+    boolean onNodesAdded(CompactHtmlDocument document);
+  }
+
+  /**
+   * Parses a String as HTML, passing the nodes to a listener as they are
+   * added.
+   *
+   * @param listener may be null
+   * @return the nodes of the Html document, which are only those parsed so
+   *         far if the listener stopped the parse
+   */
+  CompactHtmlDocument parseCompact(String html, NodeListener listener) {
     this.html = html;
-    // Use a LinkedList because we don't know the number of nodes ahead of
-    // time. This will be compacted into an ArrayList in coalesceTextNodes().
-    nodes = Lists.newLinkedList();
+    document = new CompactHtmlDocument(html, parseStyle);
+    tagNameScanner = new TagNameScanner(html);
+    attributeScanner = new AttributeScanner(html);
     state = State.IN_TEXT;
 
     clipped = false;
@@ -230,12 +272,16 @@ public class HtmlParser {
 
       // If we've reached or gone beyond the clipping length, stop.
       clipped = pos >= clipLength;
-    }
 
-    nodes = coalesceTextNodes(nodes);
+      if (listener != null && !listener.onNodesAdded(document)) {
+        break;
+      }
+    }
 
-    HtmlDocument doc = new HtmlDocument(nodes);
-    nodes = null;
+    CompactHtmlDocument doc = document;
+    document = null;
+    tagNameScanner = null;
+    attributeScanner = null;
     html = null;
     return doc;
   }
@@ -340,7 +386,6 @@ public class HtmlParser {
 
     if (pos > start) {
       int finalPos = pos;
-      String htmlTail = this.html.substring(start, finalPos);
 
       if ((pos == clipLength) && (clipLength < html.length())) {
         // We're clipping this HTML, not running off the end.
@@ -349,32 +394,21 @@ public class HtmlParser {
         // If it really was a truncated entity, great.
         // If it was a false positive, the user won't notice that we clipped
         // an additional handful of characters.
+        String htmlTail = this.html.substring(start, finalPos);
         Matcher matcher = TRUNCATED_ENTITY.matcher(htmlTail);
         if (matcher.find()) {
           int matchStart = matcher.start();
           // The matcher matched in htmlTail, not html.
           // htmlTail starts at html[start]
           finalPos = start + matchStart;
-          htmlTail = htmlTail.substring(0, matchStart);
         }
       }
 
       if (finalPos > start) {
-        String originalHtml = null;
-        if (preserveAll) {
-          originalHtml = htmlTail;
-        } else if (preserveValidHtml) {
-          // the only way htmlTail can start with '<' is if it's the last character
-          // in html; otherwise, we would have entered State.IN_TAG or
-          // State.IN_COMMENT above
-
-          // officially a '<' can be valid in a text node, but to be safe we
-          // always escape them
-          originalHtml = CharMatcher.is('<').replaceFrom(htmlTail, "&lt;");
-        }
-
-        HtmlDocument.Text textnode = HtmlDocument.createEscapedText(htmlTail, originalHtml);
-        nodes.add(textnode);
+        // the only way the text can start with '<' is if it's the last
+        // character in html; otherwise, we would have entered State.IN_TAG or
+        // State.IN_COMMENT above
+        document.addText(CompactHtmlDocument.TEXT, start, finalPos);
       }
     }
     return pos;
@@ -393,6 +427,15 @@ public class HtmlParser {
       this.html = html;
     }
 
+    /**
+     * Reset to scan another tag name.
+     */
+    public void reset() {
+      tagName = null;
+      startNamePos = -1;
+      endNamePos = -1;
+    }
+
     /**
      * Scans for a tag name. Sets #startNamePos and #endNamePos.
      * @param start Position in original html.
@@ -659,7 +702,7 @@ public class HtmlParser {
     }
 
     // Tag name and element
-    TagNameScanner tagNameScanner = new TagNameScanner(html);
+    tagNameScanner.reset();
     int pos = tagNameScanner.scanName(nameStart, end);
     String tagName = tagNameScanner.getTagName();
     HTML.Element element = null;
@@ -669,8 +712,7 @@ public class HtmlParser {
       // (e.g., "</ >"), start tags treated as text (e.g., "< >")
       if (!isEndTag) {
         // This is not really a tag, treat the '<' as text.
-        HtmlDocument.Text text = HtmlDocument.createText("<", preserveAll ? "<" : null);
-        nodes.add(text);
+        document.addText(CompactHtmlDocument.LESS_THAN, start, nameStart);
         state = State.IN_TEXT;
         return nameStart;
       }
@@ -693,10 +735,10 @@ public class HtmlParser {
 
     // Attributes
     boolean isSingleTag = false;
-    ArrayList<HtmlDocument.TagAttribute> attributes = null;
+    boolean hasAttributeList = false;
+    int firstAttribute = document.getAttributeSize();
     int allAttributesStartPos = pos;
     int nextAttributeStartPos = pos;
-    AttributeScanner attributeScanner = new AttributeScanner(html);
     while (pos < end) {
       int startPos = pos;
       char ch = html.charAt(pos);
@@ -716,8 +758,9 @@ public class HtmlParser {
         // '<' not allowed in end tag, so we finish processing this tag and
         // return to State.IN_TEXT. We mimic Safari & Firefox, which both
         // terminate the tag when it contains a '<'.
+        document.discardAttributes(firstAttribute);
         if (element != null) {
-          addEndTag(element, start, allAttributesStartPos, pos);
+          document.addEndTag(element, start, allAttributesStartPos, pos);
         }
         state = State.IN_TEXT;
         return pos;
@@ -738,10 +781,8 @@ public class HtmlParser {
 
           // Add the attribute to the list
           if (element != null) {
-            if (attributes == null) {
-              attributes = new ArrayList<HtmlDocument.TagAttribute>();
-            }
-            addAttribute(attributes, attributeScanner, nextAttributeStartPos, pos);
+            hasAttributeList = true;
+            addAttribute(attributeScanner, nextAttributeStartPos, pos);
           }
           nextAttributeStartPos = pos;
         }
@@ -754,17 +795,8 @@ public class HtmlParser {
     // Cannot find the close tag, so we treat this as text
     if (pos == end) {
       X.assertTrue(start < end);
-      String textNodeContent = html.substring(start, end);
-      String originalContent = null;
-      if (preserveAll) {
-        originalContent = textNodeContent;
-      } else if (preserveValidHtml) {
-        // Officially a '<' can be valid in a text node, but to be safe we
-        // always escape them.
-        originalContent =
-            CharMatcher.is('<').replaceFrom(html.substring(start, end), "&lt;");
-      }
-      nodes.add(HtmlDocument.createEscapedText(textNodeContent, originalContent));
+      document.discardAttributes(firstAttribute);
+      document.addText(CompactHtmlDocument.TEXT, start, end);
       return end;
     }
 
@@ -774,9 +806,12 @@ public class HtmlParser {
 
     // Check if it's an element we're keeping (either an HTML4 element, or an
     // unknown element we're preserving). If not, ignore the tag.
-    if (element != null) {
+    if (element == null) {
+      document.discardAttributes(firstAttribute);
+    } else {
       if (isEndTag) {
-        addEndTag(element, start, allAttributesStartPos, pos);
+        document.discardAttributes(firstAttribute);
+        document.addEndTag(element, start, allAttributesStartPos, pos);
       } else {
         // Special case: if it's a STYLE/SCRIPT element, we go to into
         // CDATA state.
@@ -784,9 +819,12 @@ public class HtmlParser {
           state = State.IN_CDATA;
         }
 
-        addStartTag(element, start, allAttributesStartPos,
-            nextAttributeStartPos,
-            pos, isSingleTag, attributes);
+        X.assertTrue(start < allAttributesStartPos);
+        X.assertTrue(allAttributesStartPos <= nextAttributeStartPos);
+        X.assertTrue(nextAttributeStartPos <= pos);
+        document.addStartTag(element, start, allAttributesStartPos,
+            nextAttributeStartPos, pos, isSingleTag, firstAttribute,
+            hasAttributeList);
       }
     }
 
@@ -832,128 +870,9 @@ public class HtmlParser {
   }
 
   /**
-   * @param element Tag element
-   * @param startPos Start of tag, including '<'
-   * @param startAttributesPos Start of attributes. This is the first
-   * character after the tag name. If there are no attributes, this is the end
-   * of the tag.
-   * @param endAttributesPos First position after last attribute
-   * @param endPos End of tag, including '>' character
-   * @param isSingleTag True iff this is a self-terminating tag
-   * @param attributes Tag attributes
-   */
-  private void addStartTag(HTML.Element element, final int startPos,
-      final int startAttributesPos, final int endAttributesPos,
-      final int endPos, final boolean isSingleTag,
-      ArrayList<HtmlDocument.TagAttribute> attributes) {
-    X.assertTrue(startPos < startAttributesPos);
-    X.assertTrue(startAttributesPos <= endAttributesPos);
-    X.assertTrue(endAttributesPos <= endPos);
-
-    if (preserveAll) {
-      String beforeAttrs = html.substring(startPos, startAttributesPos);
-      String afterAttrs = html.substring(endAttributesPos, endPos);
-      HtmlDocument.Tag tag = (isSingleTag)
-          ? HtmlDocument.createSelfTerminatingTag(element, attributes,
-              beforeAttrs, afterAttrs)
-          : HtmlDocument.createTag(element, attributes,
-              beforeAttrs, afterAttrs);
-      nodes.add(tag);
-    } else if (preserveValidHtml) {
-      // This is the beginning of the tag up through the tag name. It should not
-      // be possible for this to contain characters needing escaping, but we add
-      // this redundant check to avoid an XSS attack that might get past our
-      // parser but trick a browser into executing a script.
-      X.assertTrue(html.charAt(startPos) == '<');
-      StringBuilder beforeAttrs = new StringBuilder("<");
-      String tagName = html.substring(startPos + 1, startAttributesPos);
-      beforeAttrs.append(CharEscapers.asciiHtmlEscaper().escape(tagName));
-
-      // Verify end-of-tag characters
-      int endContentPos = endPos - 1;
-      X.assertTrue(html.charAt(endContentPos) == '>');
-      if (isSingleTag) {
-        --endContentPos;
-        X.assertTrue(html.charAt(endContentPos) == '/');
-      }
-      X.assertTrue(endAttributesPos <= endContentPos);
-
-      // This is any extra characters between the last attribute and the end of
-      // the tag.
-      X.assertTrue(endAttributesPos < endPos);
-      String afterAttrs = html.substring(endAttributesPos, endPos);
-
-      // Strip all but preceding whitespace.
-      HtmlDocument.Tag tag = (isSingleTag)
-          ? HtmlDocument.createSelfTerminatingTag(element, attributes,
-              beforeAttrs.toString(), afterAttrs)
-          : HtmlDocument.createTag(element, attributes,
-              beforeAttrs.toString(), afterAttrs);
-      nodes.add(tag);
-    } else {
-      // Normalize.
-      HtmlDocument.Tag tag = (isSingleTag)
-          ? HtmlDocument.createSelfTerminatingTag(element, attributes)
-          : HtmlDocument.createTag(element, attributes);
-      nodes.add(tag);
-    }
-  }
-
- /**
-   * @param element End tag element.
-   * @param startPos Start of tag, including '<'.
-   * @param startAttributesPos Start of attributes. This is the first
-   * character after the tag name. If there are no attributes, this is the end
-   * of the tag.
-   * @param endPos End of tag. This usually contains the '>' character, but in
-   * the case where browsers force a termination of a malformed tag, it doesn't.
-   */
-  private void addEndTag(HTML.Element element, final int startPos,
-      final int startAttributesPos, final int endPos) {
-    X.assertTrue(element != null);
-    X.assertTrue(html.charAt(startPos) == '<');
-    X.assertTrue(html.charAt(startPos + 1) == '/');
-
-    if (preserveAll) {
-      // Preserve all: keep actual content even if it's malformed.
-      X.assertTrue(startPos < endPos);
-      String content = html.substring(startPos, endPos);
-      nodes.add(HtmlDocument.createEndTag(element, content));
-    } else if (preserveValidHtml) {
-      // Preserve valid: terminate the tag.
-
-      StringBuilder validContent = new StringBuilder("</");
-
-      // This is the beginning of the tag up through the tag name. It should not
-      // be possible for this to contain characters needing escaping, but we add
-      // this redundant check to avoid an XSS attack that might get past our
-      // parser but trick a browser into executing a script.
-      X.assertTrue(startPos < startAttributesPos);
-      String tagName = html.substring(startPos + 2, startAttributesPos);
-      validContent.append(CharEscapers.asciiHtmlEscaper().escape(tagName));
-
-      // This is the rest of the tag, including any attributes.
-      // See bug 874396 (Buganizer). We don't allow attributes in an end tag.
-      X.assertTrue(startAttributesPos <= endPos);
-      String endOfTag = html.substring(startAttributesPos, endPos);
-      if (endOfTag.charAt(endOfTag.length() - 1) != '>') {
-        endOfTag += '>';
-      }
-
-      // Strip everything but leading whitespace.
-      validContent.append(endOfTag.replaceAll("\\S+.*>", ">"));
-
-      nodes.add(HtmlDocument.createEndTag(element, validContent.toString()));
-    } else {
-      // Normalize: ignore the original content.
-      nodes.add(HtmlDocument.createEndTag(element));
-    }
-  }
-
-  /**
-   * Creates and adds an attribute to the list.
+   * Adds an attribute of the tag being scanned to the document, if it's
+   * recognized or we're preserving all.
    *
-   * @param attributes Destination of new attribute.
    * @param scanner Scanned attribute.
    * @param startPos start position (inclusive) in original HTML of this
    *        attribute, including preceeding separator characters (generally this
@@ -961,93 +880,27 @@ public class HtmlParser {
    *        end position of the tag name or previous attribute +1.
    * @param endPos end position (exclusive) in original HTML of this attribute.
    */
-  private void addAttribute(ArrayList<HtmlDocument.TagAttribute> attributes,
-      AttributeScanner scanner, final int startPos, final int endPos) {
+  private void addAttribute(AttributeScanner scanner, final int startPos, final int endPos) {
     X.assertTrue(startPos < endPos);
 
     String name = scanner.getName();
     X.assertTrue(name != null);
     HTML.Attribute htmlAttribute = lookupAttribute(name);
-
-    // This can be null when there's no value, e.g., input.checked attribute.
-    String value = scanner.getValue();
+    boolean isKnown = (htmlAttribute != null);
 
     if (htmlAttribute == null) {
       // Unknown attribute.
       if (DEBUG) {
         debug("Unknown attribute: " + name);
       }
-      if (preserveAll) {
-        String original = html.substring(startPos, endPos);
-        attributes.add(HtmlDocument.createTagAttribute(
-            lookupUnknownAttribute(name), value, original));
-      }
-    } else {
-      String unescapedValue = (value == null) ? null : StringUtil.unescapeHTML(value);
-      if (preserveAll) {
-        attributes.add(HtmlDocument.createTagAttribute(htmlAttribute,
-            unescapedValue, html.substring(startPos, endPos)));
-      } else if (preserveValidHtml) {
-        StringBuilder original = new StringBuilder();
-
-        // This includes any separator characters between the tag name or
-        // preceding attribute and this one.
-        // This addresses bugs 870757 and 875303 (Buganizer).
-        // Don't allow non-whitespace separators between attributes.
-        X.assertTrue(startPos <= scanner.startNamePos);
-        String originalPrefix = html.substring(
-            startPos, scanner.startNamePos).replaceAll("\\S+", "");
-        if (originalPrefix.length() == 0) {
-          originalPrefix = " ";
-        }
-        original.append(originalPrefix);
-
-        if (value == null) {
-          // This includes the name and any following whitespace. Escape in case
-          // the name has any quotes or '<' that could confuse a browser.
-          X.assertTrue(scanner.startNamePos < endPos);
-          String nameEtc = html.substring(scanner.startNamePos, endPos);
-          original.append(CharEscapers.asciiHtmlEscaper().escape(nameEtc));
-        } else {
-          // Escape name in case the name has any quotes or '<' that could
-          // confuse a browser.
-          original.append(CharEscapers.asciiHtmlEscaper().escape(name));
-
-          // This includes the equal sign, and any other whitespace
-          // between the name and value. It also contains the opening quote
-          // character if there is one.
-          X.assertTrue(scanner.endNamePos < scanner.startValuePos);
-          original.append(html.substring(scanner.endNamePos, scanner.startValuePos));
-
-          // This is the value, excluding any quotes.
-          if (scanner.attrValueIsQuoted) {
-            // Officially a '<' can be valid in an attribute value, but to be
-            // safe we always escape them.
-            original.append(value.replaceAll("<", "&lt;"));
-          } else {
-            // This addresses bug 881426 (Buganizer). Put quotes around any
-            // dangerous characters, which is what most of the browsers do.
-            if (NEEDS_QUOTING_ATTRIBUTE_VALUE_REGEX.matcher(value).find()) {
-              original.append('"');
-              original.append(value.replaceAll("\"", "&quot;"));
-              original.append('"');
-            } else {
-              original.append(value);
-            }
-          }
-
-          // This includes end quote, if applicable.
-          X.assertTrue(scanner.endValuePos <= endPos);
-          original.append(html.substring(scanner.endValuePos, endPos));
-        }
-
-        attributes.add(HtmlDocument.createTagAttribute(
-            htmlAttribute, unescapedValue, original.toString()));
-      } else {
-        attributes.add(HtmlDocument.createTagAttribute(
-            htmlAttribute, unescapedValue));
+      if (!preserveAll) {
+        return;
       }
+      htmlAttribute = lookupUnknownAttribute(name);
     }
+    document.addAttribute(htmlAttribute, isKnown, startPos, endPos,
+        scanner.startNamePos, scanner.endNamePos,
+        scanner.startValuePos, scanner.endValuePos);
   }
 
   //------------------------------------------------------------------------
@@ -1075,7 +928,7 @@ public class HtmlParser {
     }
 
     if (preserveAll) {
-      nodes.add(HtmlDocument.createHtmlComment(html.substring(start, pos)));
+      document.addText(CompactHtmlDocument.COMMENT, start, pos);
     }
 
     return pos;
@@ -1087,8 +940,7 @@ public class HtmlParser {
   int scanCDATA(final int start, final int end) {
 
     // Get the tag: must be either STYLE or SCRIPT
-    HtmlDocument.Tag tag = (HtmlDocument.Tag) nodes.get(nodes.size() - 1);
-    HTML.Element element = tag.getElement();
+    HTML.Element element = document.getElement(document.size() - 1);
     X.assertTrue(HTML4.SCRIPT_ELEMENT.equals(element) || HTML4.STYLE_ELEMENT.equals(element));
 
     int pos;
@@ -1104,9 +956,7 @@ public class HtmlParser {
 
     // Add a CDATA node
     if (pos > start) {
-      HtmlDocument.CDATA cdata =
-        HtmlDocument.createCDATA(html.substring(start, pos));
-      nodes.add(cdata);
+      document.addText(CompactHtmlDocument.CDATA, start, pos);
     }
 
     state = State.IN_TAG;
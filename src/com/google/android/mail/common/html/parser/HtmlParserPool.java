@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.mail.common.html.parser;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * HtmlParserPool keeps an HtmlParser, HtmlTreeBuilder and
+ * StreamingPlainTextConverter for each thread, with the default parse style
+ * and whitelist, and reuses them for each document instead of creating new
+ * ones. None of them is thread-safe, so a thread only ever uses its own.
+ *
+ * The instances are reset before each use, so a document that failed to
+ * parse doesn't affect the next one, and their buffers are trimmed after
+ * each use, so a thread doesn't hold on to the buffers of its largest
+ * document. Should a conversion on a thread need
+ * another while its own instances are busy, it gets new ones.
+ */
+public final class HtmlParserPool {
+
+  private static final ThreadLocal<HtmlParserPool> POOL =
+      new ThreadLocal<HtmlParserPool>() {
+        @Override
+        protected HtmlParserPool initialValue() {
+          return new HtmlParserPool();
+        }
+      };
+
+  private final HtmlParser parser = new HtmlParser();
+  private final HtmlTreeBuilder builder = new HtmlTreeBuilder();
+  private final StreamingPlainTextConverter converter = new StreamingPlainTextConverter();
+  private boolean inUse;
+
+  private HtmlParserPool() {
+  }
+
+  /**
+   * Builds the HtmlTree of the html, the same tree as a new HtmlParser and
+   * HtmlTreeBuilder would.
+   */
+  public static HtmlTree buildTree(String html) {
+    HtmlParserPool pool = acquire();
+    try {
+      pool.builder.build(pool.parser.parseCompact(html));
+      return pool.builder.getTree();
+    } finally {
+      pool.release();
+    }
+  }
+
+  /** Converts html to plain text; see {@link StreamingPlainTextConverter} */
+  public static String convertToPlainText(String html) {
+    return convertToPlainText(html, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Converts html to plain text, of no more than maxLength characters; see
+   * {@link StreamingPlainTextConverter}
+   */
+  public static String convertToPlainText(String html, int maxLength) {
+    HtmlParserPool pool = acquire();
+    try {
+      return pool.converter.convert(html, maxLength);
+    } finally {
+      pool.release();
+    }
+  }
+
+  @VisibleForTesting
+  static int getConverterBufferCapacity() {
+    return POOL.get().converter.getBufferCapacity();
+  }
+
+  /** Gets the pool of this thread, or a new one if it is in use */
+  private static HtmlParserPool acquire() {
+    HtmlParserPool pool = POOL.get();
+    if (pool.inUse) {
+      pool = new HtmlParserPool();
+    }
+    pool.inUse = true;
+    return pool;
+  }
+
+  private void release() {
+    // Don't keep the last tree around, nor the buffers of a large document
+    builder.reset();
+    converter.trimBuffers();
+    inUse = false;
+  }
+}
@@ -28,7 +28,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.Stack;
 import java.util.logging.Logger;
 
 /**
@@ -98,12 +97,39 @@ public class HtmlTree {
         }
       };
 
-  /** Contains html nodes */
-  private final List<HtmlDocument.Node> nodes = new ArrayList<HtmlDocument.Node>();
+  // Node kinds. Singular tags are start tags that are their own end.
+  private static final int TEXT = 0;
+  private static final int START_TAG = 1;
+  private static final int END_TAG = 2;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Number of html nodes */
+  private int numNodes;
+
+  /** The kind of each node, and the element of each tag */
+  private int[] kinds = new int[INITIAL_CAPACITY];
+  private HTML.Element[] elements = new HTML.Element[INITIAL_CAPACITY];
 
   /** Keeps track of beginning and end of each node */
-  private final Stack<Integer> begins = new Stack<Integer>();
-  private final Stack<Integer> ends = new Stack<Integer>();
+  private int[] begins = new int[INITIAL_CAPACITY];
+  private int[] ends = new int[INITIAL_CAPACITY];
+
+  /**
+   * The document the tree was built from, if it was built from a
+   * CompactHtmlDocument; then [documentStarts[node], documentEnds[node]) are
+   * the document's nodes for each node (a run of text nodes for a text
+   * node), or -1 for nodes that the builder added.
+   */
+  private CompactHtmlDocument document;
+  private int[] documentStarts;
+  private int[] documentEnds;
+
+  /** The node objects, created on demand for nodes from a CompactHtmlDocument */
+  private HtmlDocument.Node[] nodes = new HtmlDocument.Node[INITIAL_CAPACITY];
+
+  /** The list of all node objects (lazy creation) */
+  private List<HtmlDocument.Node> nodesList;
 
   /** Plain text (lazy creation) */
   private String plainText;
@@ -147,14 +173,85 @@ public class HtmlTree {
    * @return the nodes of the tree
    */
   public List<HtmlDocument.Node> getNodesList() {
-    return Collections.unmodifiableList(nodes);
+    if (nodesList == null) {
+      for (int n = 0; n < numNodes; n++) {
+        getNode(n);
+      }
+      nodesList = Collections.unmodifiableList(Arrays.asList(nodes).subList(0, numNodes));
+    }
+    return nodesList;
   }
 
   /**
    * @return number of nodes
    */
   public int getNumNodes() {
-    return nodes.size();
+    return numNodes;
+  }
+
+  /**
+   * Gets a node object, creating it if the tree was built from a
+   * CompactHtmlDocument and it hasn't been created yet.
+   */
+  private HtmlDocument.Node getNode(int n) {
+    HtmlDocument.Node node = nodes[n];
+    if (node == null) {
+      node = createNode(n);
+      nodes[n] = node;
+    }
+    return node;
+  }
+
+  private HtmlDocument.Node createNode(int n) {
+    int documentStart = (document == null) ? -1 : documentStarts[n];
+    if (documentStart < 0) {
+      // Added by the builder
+      X.assertTrue(kinds[n] != TEXT);
+      return (kinds[n] == START_TAG)
+          ? HtmlDocument.createTag(elements[n], null)
+          : HtmlDocument.createEndTag(elements[n]);
+    }
+
+    int documentEnd = documentEnds[n];
+    if (kinds[n] == TEXT) {
+      if (documentEnd - documentStart == 1) {
+        return document.getNode(documentStart);
+      }
+      List<HtmlDocument.Node> textNodes =
+          new ArrayList<HtmlDocument.Node>(documentEnd - documentStart);
+      for (int i = documentStart; i < documentEnd; i++) {
+        textNodes.add(document.getNode(i));
+      }
+      List<HtmlDocument.Node> coalesced = HtmlParser.coalesceTextNodes(textNodes);
+      X.assertTrue(coalesced.size() == 1);
+      return coalesced.get(0);
+    }
+
+    HtmlDocument.Node node = document.getNode(documentStart);
+    if (document.getKind(documentStart) == CompactHtmlDocument.SELF_TERMINATING_TAG
+        && !elements[n].isEmpty()) {
+      // The builder splits self-terminating tags into a start and an end tag
+      HtmlDocument.Tag t = (HtmlDocument.Tag) node;
+      node = HtmlDocument.createTag(t.getElement(), t.getAttributes(),
+          t.getOriginalHtmlBeforeAttributes(), t.getOriginalHtmlAfterAttributes());
+    }
+    return node;
+  }
+
+  /** Gets the plain, unescaped text of a text node */
+  private String getText(int n) {
+    X.assertTrue(kinds[n] == TEXT);
+    if (nodes[n] != null) {
+      return ((HtmlDocument.Text) nodes[n]).getText();
+    }
+    int documentStart = documentStarts[n];
+    int documentEnd = documentEnds[n];
+    if (documentEnd - documentStart == 1) {
+      return document.getText(documentStart);
+    }
+    StringBuilder sb = new StringBuilder();
+    document.appendText(documentStart, documentEnd, sb);
+    return sb.toString();
   }
 
   /**
@@ -162,8 +259,8 @@ public class HtmlTree {
    * if it does not point to a closing tag.
    */
   public int findOpenTag(int endTagNodeNum) {
-    X.assertTrue(endTagNodeNum >= 0 && endTagNodeNum < nodes.size());
-    return begins.get(endTagNodeNum);
+    X.assertTrue(endTagNodeNum >= 0 && endTagNodeNum < numNodes);
+    return begins[endTagNodeNum];
   }
 
   /**
@@ -171,8 +268,8 @@ public class HtmlTree {
    * if it does not point to an open tag or points to an open tag with no closing one.
    */
   public int findEndTag(int openTagNodeNum) {
-    X.assertTrue(openTagNodeNum >= 0 && openTagNodeNum < nodes.size());
-    return ends.get(openTagNodeNum);
+    X.assertTrue(openTagNodeNum >= 0 && openTagNodeNum < numNodes);
+    return ends[openTagNodeNum];
   }
 
   /**
@@ -180,9 +277,9 @@ public class HtmlTree {
    * if it does not point to an open/closing tag (e.g text node or comment).
    */
   public int findPairedTag(int tagNodeNum) {
-    X.assertTrue(tagNodeNum >= 0 && tagNodeNum < nodes.size());
-    int openNodeNum = begins.get(tagNodeNum);
-    int endNodeNum = ends.get(tagNodeNum);
+    X.assertTrue(tagNodeNum >= 0 && tagNodeNum < numNodes);
+    int openNodeNum = begins[tagNodeNum];
+    int endNodeNum = ends[tagNodeNum];
     return tagNodeNum == openNodeNum ? endNodeNum : openNodeNum;
   }
 
@@ -199,7 +296,7 @@ public class HtmlTree {
    */
   public String getHtml(int wrapSize) {
     if (html == null) {
-      html = getHtml(0, nodes.size(), wrapSize);
+      html = getHtml(0, numNodes, wrapSize);
     }
     return html;
   }
@@ -214,14 +311,13 @@ public class HtmlTree {
    * to do wrapping at the specified size.
    */
   public String getHtml(int fromNode, int toNode, int wrapSize) {
-    X.assertTrue(fromNode >= 0 && toNode <= nodes.size());
+    X.assertTrue(fromNode >= 0 && toNode <= numNodes);
 
     int estSize = (toNode - fromNode) * 10;
     StringBuilder sb = new StringBuilder(estSize);
     int lastWrapIndex = 0;      // used for wrapping
     for (int n = fromNode; n < toNode; n++) {
-      HtmlDocument.Node node = nodes.get(n);
-      node.toHTML(sb);
+      getNode(n).toHTML(sb);
       // TODO: maybe we can be smarter about this and not add newlines
       // within <pre> tags, unless the whole long line is encompassed
       // by the <pre> tag.
@@ -229,10 +325,7 @@ public class HtmlTree {
         // We can only wrap if the last outputted node is an element that
         // breaks the flow. Otherwise, we risk the possibility of inserting
         // spaces where they shouldn't be.
-        if ((node instanceof HtmlDocument.Tag &&
-              ((HtmlDocument.Tag) node).getElement().breaksFlow()) ||
-            (node instanceof HtmlDocument.EndTag &&
-              ((HtmlDocument.EndTag) node).getElement().breaksFlow())) {
+        if (kinds[n] != TEXT && elements[n].breaksFlow()) {
           // Check to see if there is a newline in the most recent node's html.
           int recentNewLine = sb.substring(lastWrapIndex + 1).lastIndexOf('\n');
           if (recentNewLine != -1) {
@@ -256,7 +349,7 @@ public class HtmlTree {
    * roughly chunkSize characters.
    */
   public ArrayList<String> getHtmlChunks(int fromNode, int toNode, int chunkSize) {
-    X.assertTrue(fromNode >= 0 && toNode <= nodes.size());
+    X.assertTrue(fromNode >= 0 && toNode <= numNodes);
 
     ArrayList<String> chunks = new ArrayList<String>();
 
@@ -270,18 +363,15 @@ public class HtmlTree {
 
     StringBuilder sb = new StringBuilder(chunkSize + 256);
     for (int n = fromNode; n < toNode; n++) {
-      HtmlDocument.Node node = nodes.get(n);
-      node.toHTML(sb);
+      getNode(n).toHTML(sb);
 
-      if (node instanceof HtmlDocument.Tag) {
-        if (HTML4.TEXTAREA_ELEMENT.equals(
-            ((HtmlDocument.Tag) node).getElement())) {
+      if (kinds[n] == START_TAG) {
+        if (HTML4.TEXTAREA_ELEMENT.equals(elements[n])) {
           stack++;
         }
       }
-      if (node instanceof HtmlDocument.EndTag) {
-        if (HTML4.TEXTAREA_ELEMENT.equals(
-            ((HtmlDocument.EndTag) node).getElement())) {
+      if (kinds[n] == END_TAG) {
+        if (HTML4.TEXTAREA_ELEMENT.equals(elements[n])) {
           if (stack == 0) {
             balanced = false;
           } else {
@@ -327,18 +417,17 @@ public class HtmlTree {
     int currentHeight = 0;
     int maxHeight = 0;
 
-    for (int i = 0; i < nodes.size(); i++) {
-      HtmlDocument.Node node = nodes.get(i);
-      if (node instanceof HtmlDocument.Tag) {
+    for (int i = 0; i < numNodes; i++) {
+      if (kinds[i] == START_TAG) {
         currentHeight++;
         if (currentHeight > maxHeight) {
           maxHeight = currentHeight;
         }
-        if (((HtmlDocument.Tag) node).getElement().isEmpty()) {
+        if (elements[i].isEmpty()) {
           // Empty tags have no closing pair, so decrease counter here.
           currentHeight--;
         }
-      } else if (node instanceof HtmlDocument.EndTag) {
+      } else if (kinds[i] == END_TAG) {
         currentHeight--;
       }
     }
@@ -395,8 +484,8 @@ public class HtmlTree {
     for (int n = startNode; n < endNode;) {
 
       // The node n spans [nBegin, nEnd]
-      int nBegin = begins.get(n);
-      int nEnd = ends.get(n);
+      int nBegin = begins[n];
+      int nEnd = ends[n];
 
       if (blockStart == -1) {
         // Check if this is a valid start node
@@ -495,7 +584,7 @@ public class HtmlTree {
       nodenum = -nodenum - 1;
     }
 
-    X.assertTrue(nodenum >= 0 && nodenum <= nodes.size());
+    X.assertTrue(nodenum >= 0 && nodenum <= numNodes);
     return nodenum;
   }
 
@@ -513,7 +602,7 @@ public class HtmlTree {
       // textPos matches the middle of a node.
       nodenum = -nodenum - 2;
     }
-    X.assertTrue(nodenum >= 0 && nodenum <= nodes.size());
+    X.assertTrue(nodenum >= 0 && nodenum <= numNodes);
     return nodenum;
   }
 
@@ -560,17 +649,29 @@ public class HtmlTree {
   private void convertToPlainText() {
     X.assertTrue(plainText == null && textPositions == null);
 
-    int numNodes = nodes.size();
-
     // Keeps track of start text position of each node, including a last
     // entry for the size of the text.
     textPositions = new int[numNodes + 1];
 
     Converter<String> converter = (Converter<String>) converterFactory.createInstance();
 
+    // The default converter doesn't need the node objects, so don't create
+    // them for it
+    DefaultPlainTextConverter defaultConverter =
+        (converter.getClass() == DefaultPlainTextConverter.class)
+        ? (DefaultPlainTextConverter) converter : null;
+
     for (int i = 0; i < numNodes; i++) {
       textPositions[i] = converter.getPlainTextLength();
-      converter.addNode(nodes.get(i), i, ends.get(i));
+      if (defaultConverter == null) {
+        converter.addNode(getNode(i), i, ends[i]);
+      } else if (kinds[i] == TEXT) {
+        defaultConverter.addText(getText(i));
+      } else if (kinds[i] == START_TAG) {
+        defaultConverter.addStartTag(elements[i]);
+      } else {
+        defaultConverter.addEndTag(elements[i]);
+      }
     }
 
     // Add a last entry, so that textPositions_[nodes_.size()] is valid.
@@ -581,7 +682,7 @@ public class HtmlTree {
     if (DEBUG) {
       debug("Plain text: " + plainText);
 
-      for (int i = 0; i < nodes.size(); i++) {
+      for (int i = 0; i < numNodes; i++) {
         int textPos = textPositions[i];
         String text = plainText.substring(textPos, textPositions[i + 1]);
         debug("At " + i + ": pos=" + textPos + " " +  text);
@@ -613,12 +714,10 @@ public class HtmlTree {
     private void convertToSpan() {
         X.assertTrue(constructedSpan == null);
 
-        int numNodes = nodes.size();
-
         Converter<Spanned> converter = (Converter<Spanned>) converterFactory.createInstance();
 
         for (int i = 0; i < numNodes; i++) {
-            converter.addNode(nodes.get(i), i, ends.get(i));
+            converter.addNode(getNode(i), i, ends[i]);
         }
 
         constructedSpan = converter.getObject();
@@ -663,8 +762,15 @@ public class HtmlTree {
       return HTML_SPACE_EQUIVALENTS.indexOf(ch) >= 0;
     }
 
+    /**
+     * The largest buffer {@link #trimBuffer} keeps for reuse, so that one
+     * huge document doesn't pin its buffer for as long as the printer lives.
+     */
+    @VisibleForTesting
+    static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
     // The buffer in which we accumulate the converted plain text
-    private final StringBuilder sb = new StringBuilder();
+    private StringBuilder sb = new StringBuilder();
 
     // How many <blockquote> blocks we are in.
     private int quoteDepth = 0;
@@ -692,6 +798,34 @@ public class HtmlTree {
       return sb.toString();
     }
 
+    /** Returns no more than the first maxLength characters of the text. */
+    final String getText(int maxLength) {
+      return sb.length() > maxLength ? sb.substring(0, maxLength) : sb.toString();
+    }
+
+    /** Clears the text, keeping the buffer for reuse. */
+    final void reset() {
+      sb.setLength(0);
+      quoteDepth = 0;
+      endingNewLines = 2;
+      separator = Separator.None;
+    }
+
+    /**
+     * Drops the buffer if it grew past {@link #MAX_RETAINED_CAPACITY}. The
+     * text must have been read already, as it may be lost.
+     */
+    final void trimBuffer() {
+      if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+        sb = new StringBuilder();
+      }
+    }
+
+    @VisibleForTesting
+    final int getBufferCapacity() {
+      return sb.capacity();
+    }
+
     /**
      * Sets the next separator between two text nodes. A Space separator is
      * used if there is any whitespace between the two text nodes when there is
@@ -891,74 +1025,91 @@ public class HtmlTree {
     @Override
     public void addNode(HtmlDocument.Node n, int nodeNum, int endNum) {
       if (n instanceof HtmlDocument.Text) {        // A string node
+        addText(((HtmlDocument.Text) n).getText());
 
-        HtmlDocument.Text textNode = (HtmlDocument.Text) n;
-        String str = textNode.getText();
+      } else if (n instanceof HtmlDocument.Tag) {
+        addStartTag(((HtmlDocument.Tag) n).getElement());
 
-        if (preDepth > 0) {
-          printer.appendPreText(str);
+      } else if (n instanceof HtmlDocument.EndTag) {
+        addEndTag(((HtmlDocument.EndTag) n).getElement());
+      }
+    }
 
-        } else if (styleDepth > 0) {
-          // Append nothing
-        } else {
-          printer.appendNormalText(str);
-        }
+    void addText(String str) {
+      if (preDepth > 0) {
+        printer.appendPreText(str);
 
-      } else if (n instanceof HtmlDocument.Tag) {
+      } else if (styleDepth > 0) {
+        // Append nothing
+      } else {
+        printer.appendNormalText(str);
+      }
+    }
 
-        // Check for linebreaking tags.
-        HtmlDocument.Tag tag = (HtmlDocument.Tag) n;
-        HTML.Element element = tag.getElement();
+    void addStartTag(HTML.Element element) {
+      // Check for linebreaking tags.
+      if (BLANK_LINE_ELEMENTS.contains(element)) {
+        printer.setSeparator(PlainTextPrinter.Separator.BlankLine);
 
-        if (BLANK_LINE_ELEMENTS.contains(element)) {
-          printer.setSeparator(PlainTextPrinter.Separator.BlankLine);
+      } else if (HTML4.BR_ELEMENT.equals(element)) {
+        // The <BR> element is special in that it always adds a newline.
+        printer.appendForcedLineBreak();
 
-        } else if (HTML4.BR_ELEMENT.equals(element)) {
-          // The <BR> element is special in that it always adds a newline.
-          printer.appendForcedLineBreak();
+      } else if (element.breaksFlow()) {
+        // All other elements that break the flow add a LineBreak separator.
+        printer.setSeparator(PlainTextPrinter.Separator.LineBreak);
 
-        } else if (element.breaksFlow()) {
-          // All other elements that break the flow add a LineBreak separator.
+        if (HTML4.HR_ELEMENT.equals(element)) {
+          printer.appendNormalText("________________________________");
           printer.setSeparator(PlainTextPrinter.Separator.LineBreak);
-
-          if (HTML4.HR_ELEMENT.equals(element)) {
-            printer.appendNormalText("________________________________");
-            printer.setSeparator(PlainTextPrinter.Separator.LineBreak);
-          }
         }
+      }
 
-        if (HTML4.BLOCKQUOTE_ELEMENT.equals(element)) {
-          printer.incQuoteDepth();
+      if (HTML4.BLOCKQUOTE_ELEMENT.equals(element)) {
+        printer.incQuoteDepth();
 
-        } else if (HTML4.PRE_ELEMENT.equals(element)) {
-          preDepth++;
-        } else if (HTML4.STYLE_ELEMENT.equals(element)) {
-          styleDepth++;
-        }
+      } else if (HTML4.PRE_ELEMENT.equals(element)) {
+        preDepth++;
+      } else if (HTML4.STYLE_ELEMENT.equals(element)) {
+        styleDepth++;
+      }
+    }
 
-      } else if (n instanceof HtmlDocument.EndTag) {
+    void addEndTag(HTML.Element element) {
+      // Check for linebreaking tags.
+      if (BLANK_LINE_ELEMENTS.contains(element)) {
+        printer.setSeparator(PlainTextPrinter.Separator.BlankLine);
 
-        // Check for linebreaking tags.
-        HtmlDocument.EndTag endTag = (HtmlDocument.EndTag) n;
-        HTML.Element element = endTag.getElement();
+      } else if (element.breaksFlow()) {
+        // All other elements that break the flow add a LineBreak separator.
+        printer.setSeparator(PlainTextPrinter.Separator.LineBreak);
+      }
 
-        if (BLANK_LINE_ELEMENTS.contains(element)) {
-          printer.setSeparator(PlainTextPrinter.Separator.BlankLine);
+      if (HTML4.BLOCKQUOTE_ELEMENT.equals(element)) {
+        printer.decQuoteDepth();
 
-        } else if (element.breaksFlow()) {
-          // All other elements that break the flow add a LineBreak separator.
-          printer.setSeparator(PlainTextPrinter.Separator.LineBreak);
-        }
+      } else if (HTML4.PRE_ELEMENT.equals(element)) {
+        preDepth--;
+      } else if (HTML4.STYLE_ELEMENT.equals(element)) {
+        styleDepth--;
+      }
+    }
 
-        if (HTML4.BLOCKQUOTE_ELEMENT.equals(element)) {
-          printer.decQuoteDepth();
+    /** Clears the converter, keeping its buffer, to convert another tree */
+    void reset() {
+      printer.reset();
+      preDepth = 0;
+      styleDepth = 0;
+    }
 
-        } else if (HTML4.PRE_ELEMENT.equals(element)) {
-          preDepth--;
-        } else if (HTML4.STYLE_ELEMENT.equals(element)) {
-          styleDepth--;
-        }
-      }
+    /** Drops the buffer if it grew large; see {@link PlainTextPrinter#trimBuffer} */
+    void trimBuffer() {
+      printer.trimBuffer();
+    }
+
+    @VisibleForTesting
+    int getBufferCapacity() {
+      return printer.getBufferCapacity();
     }
 
     @Override
@@ -970,25 +1121,44 @@ public class HtmlTree {
     public final String getObject() {
       return printer.getText();
     }
+
+    /** Gets no more than the first maxLength characters of the text */
+    final String getObject(int maxLength) {
+      return printer.getText(maxLength);
+    }
   }
 
   //------------------------------------------------------------------------
   // The following methods are used to build the html tree.
   //------------------------------------------------------------------------
   /** For building the html tree */
-  private Stack<Integer> stack;
+  private int[] stack;
+  private int stackSize;
   private int parent;
 
   /** Starts the build process */
   void start() {
-    stack = new Stack<Integer>();
+    stack = new int[INITIAL_CAPACITY];
+    stackSize = 0;
     parent = -1;
   }
 
+  /**
+   * Starts the build process for a tree whose nodes come from a
+   * CompactHtmlDocument
+   */
+  void start(CompactHtmlDocument document) {
+    start();
+    this.document = document;
+    documentStarts = new int[kinds.length];
+    documentEnds = new int[kinds.length];
+  }
+
   /** Finishes the build process */
   void finish() {
-    X.assertTrue(stack.size() == 0);
+    X.assertTrue(stackSize == 0);
     X.assertTrue(parent == -1);
+    stack = null;
   }
 
   /**
@@ -996,10 +1166,21 @@ public class HtmlTree {
    * to add the matching end tag
    */
   void addStartTag(HtmlDocument.Tag t) {
-    int nodenum = nodes.size();
-    addNode(t, nodenum, -1);
+    addStartTag(t.getElement(), t, -1);
+  }
+
+  /**
+   * Adds a html start tag, either as a node object, or as a document node,
+   * or (if both are null/-1) as a tag without attributes
+   */
+  void addStartTag(HTML.Element element, HtmlDocument.Tag t, int documentNode) {
+    int nodenum = numNodes;
+    addNode(START_TAG, element, t, documentNode, documentNode + 1, nodenum, -1);
 
-    stack.add(parent);
+    if (stackSize == stack.length) {
+      stack = Arrays.copyOf(stack, stackSize * 2);
+    }
+    stack[stackSize++] = parent;
     parent = nodenum;
   }
 
@@ -1007,20 +1188,33 @@ public class HtmlTree {
    * Adds a html end tag, this must be preceded by a previous matching open tag
    */
   void addEndTag(HtmlDocument.EndTag t) {
-    int nodenum = nodes.size();
-    addNode(t, parent, nodenum);
+    addEndTag(t.getElement(), t, -1);
+  }
+
+  /**
+   * Adds a html end tag, either as a node object, or as a document node, or
+   * (if both are null/-1) as a plain end tag
+   */
+  void addEndTag(HTML.Element element, HtmlDocument.EndTag t, int documentNode) {
+    int nodenum = numNodes;
+    addNode(END_TAG, element, t, documentNode, documentNode + 1, parent, nodenum);
 
     if (parent != -1) {
-      ends.set(parent, nodenum);
+      ends[parent] = nodenum;
     }
 
-    parent = stack.pop();
+    parent = stack[--stackSize];
   }
 
   /** Adds a singular tag that does not have a corresponding end tag */
   void addSingularTag(HtmlDocument.Tag t) {
-    int nodenum = nodes.size();
-    addNode(t, nodenum, nodenum);
+    addSingularTag(t.getElement(), t, -1);
+  }
+
+  /** Adds a singular tag, either as a node object or as a document node */
+  void addSingularTag(HTML.Element element, HtmlDocument.Tag t, int documentNode) {
+    int nodenum = numNodes;
+    addNode(START_TAG, element, t, documentNode, documentNode + 1, nodenum, nodenum);
   }
 
   /**
@@ -1028,15 +1222,44 @@ public class HtmlTree {
    * @param t a plain-text string
    */
   void addText(HtmlDocument.Text t) {
-    int nodenum = nodes.size();
-    addNode(t, nodenum, nodenum);
+    int nodenum = numNodes;
+    addNode(TEXT, null, t, -1, -1, nodenum, nodenum);
+  }
+
+  /**
+   * Adds a text made of the document's text nodes
+   * [documentStart, documentEnd)
+   */
+  void addText(int documentStart, int documentEnd) {
+    int nodenum = numNodes;
+    addNode(TEXT, null, null, documentStart, documentEnd, nodenum, nodenum);
   }
 
   /** Adds a node */
-  private void addNode(HtmlDocument.Node n, int begin, int end) {
-    nodes.add(n);
-    begins.add(begin);
-    ends.add(end);
+  private void addNode(int kind, HTML.Element element, HtmlDocument.Node n,
+      int documentStart, int documentEnd, int begin, int end) {
+    if (numNodes == kinds.length) {
+      int capacity = numNodes * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      elements = Arrays.copyOf(elements, capacity);
+      begins = Arrays.copyOf(begins, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      nodes = Arrays.copyOf(nodes, capacity);
+      if (document != null) {
+        documentStarts = Arrays.copyOf(documentStarts, capacity);
+        documentEnds = Arrays.copyOf(documentEnds, capacity);
+      }
+    }
+    int nodenum = numNodes++;
+    kinds[nodenum] = kind;
+    elements[nodenum] = element;
+    nodes[nodenum] = n;
+    begins[nodenum] = begin;
+    ends[nodenum] = end;
+    if (document != null) {
+      documentStarts[nodenum] = documentStart;
+      documentEnds[nodenum] = documentEnd;
+    }
   }
 
   /** For debugging */
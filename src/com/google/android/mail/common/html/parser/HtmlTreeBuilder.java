@@ -16,7 +16,6 @@
 package com.google.android.mail.common.html.parser;
 
 import com.google.android.mail.common.base.X;
-import com.google.android.mail.common.html.parser.HtmlDocument.EndTag;
 import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
@@ -47,12 +46,82 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
     return tree;
   }
 
-  /** Implements HtmlDocument.Visitor.start */
+  /**
+   * Implements HtmlDocument.Visitor.start. A builder may be reused: each
+   * start begins a new tree.
+   */
   public void start() {
+    reset();
     tree = new HtmlTree();
     tree.start();
   }
 
+  /**
+   * Builds the tree of a compact document; this is equivalent to, but cheaper
+   * than, accepting the HtmlDocument it stands for.
+   */
+  public void build(CompactHtmlDocument document) {
+    start();
+    tree.start(document);
+    addNodes(document, 0, document.size(), true);
+    finish();
+  }
+
+  /**
+   * Adds the nodes [from, to) of a compact document. Unless the document is
+   * complete, a run of text nodes at the end is left for a later call, as
+   * more text may follow it.
+   *
+   * @return the first node not added
+   */
+  int addNodes(CompactHtmlDocument document, int from, int to, boolean complete) {
+    for (int n = from; n < to;) {
+      if (document.isText(n)) {
+        // Adjacent text nodes make up one text
+        int end = n + 1;
+        while (end < to && document.isText(end)) {
+          end++;
+        }
+        if (end == to && !complete) {
+          return n;
+        }
+        if (tableFixer.needsCellForText() && !document.isWhitespace(n, end)) {
+          tableFixer.ensureCellState();
+        }
+        outputText(document, n, end);
+        n = end;
+        continue;
+      }
+      switch (document.getKind(n)) {
+        case CompactHtmlDocument.START_TAG:
+          addTag(document.getElement(n), false, null, n);
+          break;
+        case CompactHtmlDocument.SELF_TERMINATING_TAG:
+          addTag(document.getElement(n), true, null, n);
+          break;
+        case CompactHtmlDocument.END_TAG:
+          addEndTag(document.getElement(n), null, n);
+          break;
+        default:
+          // Comments are ignored
+          break;
+      }
+      n++;
+    }
+    return to;
+  }
+
+  /**
+   * Clears the state of the last build, finished or not, and lets go of its
+   * tree, so that the builder can be kept for another
+   */
+  void reset() {
+    stack.clear();
+    tableFixer.reset();
+    tree = null;
+    built = false;
+  }
+
   /** Implements HtmlDocument.Visitor.finish */
   public void finish() {
     // Close all tags
@@ -67,35 +136,52 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
 
   /** Implements HtmlDocument.Visitor.visitTag */
   public void visitTag(HtmlDocument.Tag t) {
-    tableFixer.seeTag(t);
+    addTag(t.getElement(), t.isSelfTerminating(), t, -1);
+  }
+
+  /**
+   * Adds a start tag, given either as a node object or as a node of the
+   * document being built
+   */
+  private void addTag(HTML.Element element, boolean isSelfTerminating,
+      HtmlDocument.Tag t, int documentNode) {
+    tableFixer.seeTag(element);
 
-    HTML.Element element = t.getElement();
     if (element.isEmpty()) {
-      tree.addSingularTag(t);
-    } else if (t.isSelfTerminating()) {
+      outputSingularTag(element, t, documentNode);
+    } else if (isSelfTerminating) {
       // Explicitly create a non-selfterminating open tag and add it to the tree
       // and also immediately add the corresponding close tag. This is done
       // so that the toHTML, toXHTML and toOriginalHTML of the tree's node list
       // will be balanced consistently.
       // Otherwise there is a possibility of "<span /></span>" for example, if
       // the created tree is converted to string through toXHTML.
-      tree.addStartTag(HtmlDocument.createTag(element,
-          t.getAttributes(), t.getOriginalHtmlBeforeAttributes(),
-          t.getOriginalHtmlAfterAttributes()));
-      EndTag end = HtmlDocument.createEndTag(element);
-      tableFixer.seeEndTag(end);
-      tree.addEndTag(end);
+      // (The tree does this itself for document nodes, when it creates them.)
+      if (t != null) {
+        t = HtmlDocument.createTag(element,
+            t.getAttributes(), t.getOriginalHtmlBeforeAttributes(),
+            t.getOriginalHtmlAfterAttributes());
+      }
+      outputStartTag(element, t, documentNode);
+      tableFixer.seeEndTag(element);
+      outputEndTag(element, null, -1);
     } else {
-      tree.addStartTag(t);
+      outputStartTag(element, t, documentNode);
       push(element);                       // Track the open tags
     }
   }
 
   /** Implements HtmlVisitor.visit */
   public void visitEndTag(HtmlDocument.EndTag t) {
+    addEndTag(t.getElement(), t, -1);
+  }
 
+  /**
+   * Adds an end tag, given either as a node object or as a node of the
+   * document being built
+   */
+  private void addEndTag(HTML.Element element, HtmlDocument.EndTag t, int documentNode) {
     // Here we pop back to the start tag
-    HTML.Element element = t.getElement();
     int pos = findStartTag(element);
     if (pos >= 0) {
 
@@ -105,8 +191,8 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
       }
 
       pop();
-      tableFixer.seeEndTag(t);
-      tree.addEndTag(t);
+      tableFixer.seeEndTag(element);
+      outputEndTag(element, t, documentNode);
 
     } else {
       // Not found, ignore this end tag
@@ -116,7 +202,9 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
 
   /** Implements HtmlDocument.Visitor.visitText */
   public void visitText(HtmlDocument.Text t) {
-    tableFixer.seeText(t);
+    if (tableFixer.needsCellForText() && !t.isWhitespace()) {
+      tableFixer.ensureCellState();
+    }
     tree.addText(t);
   }
 
@@ -143,9 +231,28 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
   private void addMissingEndTag() {
     HTML.Element element = pop();
 
-    HtmlDocument.EndTag endTag = HtmlDocument.createEndTag(element);
-    tableFixer.seeEndTag(endTag);
-    tree.addEndTag(endTag);
+    tableFixer.seeEndTag(element);
+    outputEndTag(element, null, -1);
+  }
+
+  //------------------------------------------------------------------------
+  // The nodes of the well-formed tree are passed to these, which add them to
+  // the tree. StreamingPlainTextConverter converts them to text instead.
+  //------------------------------------------------------------------------
+  void outputStartTag(HTML.Element element, HtmlDocument.Tag t, int documentNode) {
+    tree.addStartTag(element, t, documentNode);
+  }
+
+  void outputSingularTag(HTML.Element element, HtmlDocument.Tag t, int documentNode) {
+    tree.addSingularTag(element, t, documentNode);
+  }
+
+  void outputEndTag(HTML.Element element, HtmlDocument.EndTag t, int documentNode) {
+    tree.addEndTag(element, t, documentNode);
+  }
+
+  void outputText(CompactHtmlDocument document, int fromNode, int toNode) {
+    tree.addText(fromNode, toNode);
   }
 
   /** Pushes a tag onto the stack */
@@ -192,8 +299,7 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
 
     private int state;
 
-    void seeTag(HtmlDocument.Tag tag) {
-      HTML.Element element = tag.getElement();
+    void seeTag(HTML.Element element) {
       if (element.getType() == HTML.Element.TABLE_TYPE) {
 
         if (HTML4.TABLE_ELEMENT.equals(element)) {
@@ -228,9 +334,7 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
       }
     }
 
-    void seeEndTag(HtmlDocument.EndTag endTag) {
-      HTML.Element element= endTag.getElement();
-
+    void seeEndTag(HTML.Element element) {
       if (tables > 0 && element.getType() == HTML.Element.TABLE_TYPE) {
 
         if (HTML4.TD_ELEMENT.equals(element) ||
@@ -250,14 +354,13 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
       }
     }
 
-    void seeText(HtmlDocument.Text textNode) {
-      // If we're in a table, but not in a cell or caption, and the
-      // text is not whitespace, add a <TD>
-      if (tables > 0 &&
-          state == NULL &&
-          !textNode.isWhitespace()) {
-        ensureCellState();
-      }
+    /**
+     * Returns true if we're in a table, but not in a cell or caption, so that
+     * text that is not whitespace needs a <TD> added, by
+     * {@link #ensureCellState}
+     */
+    boolean needsCellForText() {
+      return tables > 0 && state == NULL;
     }
 
     void finish() {
@@ -265,26 +368,28 @@ public class HtmlTreeBuilder implements HtmlDocument.Visitor {
       X.assertTrue(state == NULL);
     }
 
+    void reset() {
+      tables = 0;
+      state = NULL;
+    }
+
     // Ensure that we're within a TABLE
     private void ensureTableState() {
       if (tables == 0) {
         push(HTML4.TABLE_ELEMENT);
 
-        HtmlDocument.Tag tableTag =
-          HtmlDocument.createTag(HTML4.TABLE_ELEMENT, null);
-        tree.addStartTag(tableTag);
+        outputStartTag(HTML4.TABLE_ELEMENT, null, -1);
 
         tables++;
       }
     }
 
     // Ensure that we're within a TD or TH cell
-    private void ensureCellState() {
+    void ensureCellState() {
       if (state != IN_CELL) {
         push(HTML4.TD_ELEMENT);
 
-        HtmlDocument.Tag tdTag = HtmlDocument.createTag(HTML4.TD_ELEMENT, null);
-        tree.addStartTag(tdTag);
+        outputStartTag(HTML4.TD_ELEMENT, null, -1);
 
         state = IN_CELL;
       }
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.mail.common.html.parser;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * StreamingPlainTextConverter converts html to the same plain text as
+ * {@link HtmlTree#getPlainText}, but in a single pass: the nodes are made well
+ * formed and converted as the parser produces them, without building an
+ * HtmlTree, and parsing stops once the text reaches the maximum length asked
+ * for.
+ *
+ * A converter reuses its buffers from one conversion to the next, so it is
+ * worth keeping one around; {@link #trimBuffers} drops those that a large
+ * document made large. It is not thread-safe.
+ */
+public final class StreamingPlainTextConverter {
+
+  /** Characters after which the html is just text, with no tags or entities */
+  private static final String MARKUP_CHARS = "<&";
+
+  private final HtmlParser parser = new HtmlParser();
+  private final Builder builder = new Builder();
+  private final HtmlTree.DefaultPlainTextConverter converter =
+      new HtmlTree.DefaultPlainTextConverter();
+  private StringBuilder text = new StringBuilder();
+
+  /** The first node of the document being parsed not yet converted */
+  private int nextNode;
+
+  /** Converts html to plain text */
+  public String convert(String html) {
+    return convert(html, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Converts html to plain text, of no more than maxLength characters. The
+   * text is the beginning of the text of the whole html.
+   */
+  public String convert(String html, final int maxLength) {
+    if (maxLength < 0) {
+      throw new IllegalArgumentException("maxLength '" + maxLength + "' < 0");
+    }
+    converter.reset();
+    if (html.length() == 0 || maxLength == 0) {
+      return "";
+    }
+
+    if (!containsMarkup(html)) {
+      // Fast path: the html is a single text node
+      converter.addText(html);
+      return converter.getObject(maxLength);
+    }
+
+    builder.reset();
+    nextNode = 0;
+    CompactHtmlDocument doc = parser.parseCompact(html, new HtmlParser.NodeListener() {
+      @Override
+      public boolean onNodesAdded(CompactHtmlDocument document) {
+        nextNode = builder.addNodes(document, nextNode, document.size(), false);
+        return converter.getPlainTextLength() < maxLength;
+      }
+    });
+    if (converter.getPlainTextLength() < maxLength) {
+      // The text at the end of the document
+      builder.addNodes(doc, nextNode, doc.size(), true);
+    }
+    return converter.getObject(maxLength);
+  }
+
+  /**
+   * Drops the buffers that grew past
+   * {@link HtmlTree.PlainTextPrinter#MAX_RETAINED_CAPACITY} converting a large
+   * document, rather than keep them for the next conversion.
+   */
+  public void trimBuffers() {
+    if (text.capacity() > HtmlTree.PlainTextPrinter.MAX_RETAINED_CAPACITY) {
+      text = new StringBuilder();
+    }
+    converter.trimBuffer();
+  }
+
+  @VisibleForTesting
+  int getBufferCapacity() {
+    return Math.max(text.capacity(), converter.getBufferCapacity());
+  }
+
+  private static boolean containsMarkup(String html) {
+    for (int i = 0; i < html.length(); i++) {
+      if (MARKUP_CHARS.indexOf(html.charAt(i)) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Makes the nodes well formed, as for a tree, and passes them to the converter */
+  private final class Builder extends HtmlTreeBuilder {
+    @Override
+    void outputStartTag(HTML.Element element, HtmlDocument.Tag t, int documentNode) {
+      converter.addStartTag(element);
+    }
+
+    @Override
+    void outputSingularTag(HTML.Element element, HtmlDocument.Tag t, int documentNode) {
+      // The tree has a single node for it, converted as a start tag
+      converter.addStartTag(element);
+    }
+
+    @Override
+    void outputEndTag(HTML.Element element, HtmlDocument.EndTag t, int documentNode) {
+      converter.addEndTag(element);
+    }
+
+    @Override
+    void outputText(CompactHtmlDocument document, int fromNode, int toNode) {
+      text.setLength(0);
+      document.appendText(fromNode, toNode, text);
+      converter.addText(text.toString());
+    }
+  }
+}
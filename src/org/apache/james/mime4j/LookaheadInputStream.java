@@ -0,0 +1,153 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mime4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffered stream whose buffer can be inspected directly. Successive
+ * {@link MimeBoundaryInputStream}s for the body parts of one multipart
+ * share an instance, so that bytes one part's stream reads ahead of its
+ * boundary are still there for the next part (and for the epilogue).
+ * <p>
+ * Bytes <code>buf[pos]</code> up to <code>buf[limit - 1]</code> are the
+ * buffered, unread bytes.
+ */
+class LookaheadInputStream extends InputStream {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final InputStream source;
+    byte[] buf;
+    int pos = 0;
+    int limit = 0;
+    private boolean sourceEOF = false;
+
+    /**
+     * Creates a new <code>LookaheadInputStream</code>.
+     *
+     * @param source the stream to read from. It will be read ahead by
+     *        up to the buffer size.
+     */
+    public LookaheadInputStream(InputStream source) {
+        this.source = source;
+        this.buf = new byte[DEFAULT_BUFFER_SIZE];
+    }
+
+    /**
+     * @return the number of buffered, unread bytes.
+     */
+    int buffered() {
+        return limit - pos;
+    }
+
+    /**
+     * Reads from the underlying stream until at least <code>min</code>
+     * bytes are buffered or it ends. Moves the buffered bytes to the
+     * start of the buffer (and grows it if needed) first, so this
+     * invalidates any buffer indexes held by the caller.
+     *
+     * @param min the number of bytes that should be buffered.
+     * @return <code>true</code> if at least <code>min</code> bytes are
+     *         buffered.
+     * @throws IOException on I/O errors.
+     */
+    boolean fill(int min) throws IOException {
+        int buffered = limit - pos;
+        if (buffered >= min) {
+            return true;
+        }
+        if (sourceEOF) {
+            return false;
+        }
+        if (min > buf.length) {
+            byte[] grown = new byte[Math.max(min, buf.length * 2)];
+            System.arraycopy(buf, pos, grown, 0, buffered);
+            buf = grown;
+        } else if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, buffered);
+        }
+        pos = 0;
+        limit = buffered;
+        while (limit < min) {
+            int n = source.read(buf, limit, buf.length - limit);
+            if (n == -1) {
+                sourceEOF = true;
+                return false;
+            }
+            limit += n;
+        }
+        return true;
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException on I/O errors.
+     */
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * @see java.io.InputStream#read()
+     */
+    public int read() throws IOException {
+        if (pos == limit && !fill(1)) {
+            return -1;
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    /**
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == limit && !fill(1)) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * @see java.io.InputStream#skip(long)
+     */
+    public long skip(long n) throws IOException {
+        if (n <= 0 || (pos == limit && !fill(1))) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, limit - pos);
+        pos += skipped;
+        return skipped;
+    }
+
+    /**
+     * @see java.io.InputStream#available()
+     */
+    public int available() throws IOException {
+        return limit - pos;
+    }
+}
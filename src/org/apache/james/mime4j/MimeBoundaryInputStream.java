@@ -21,7 +21,6 @@ package org.apache.james.mime4j;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PushbackInputStream;
 
 /**
  * Stream that constrains itself to a single MIME body part.
@@ -29,44 +28,70 @@ import java.io.PushbackInputStream;
  * can be used to determine if a final boundary has been seen or not.
  * If {@link #parentEOF()} is <code>true</code> an unexpected end of stream
  * has been detected in the parent stream.
- * 
+ * <p>
+ * The boundary is searched for in blocks with Boyer-Moore-Horspool over
+ * <code>\r\n--boundary</code>, and all bytes before it can be served by
+ * a single bulk read. The underlying stream is read ahead through a
+ * {@link LookaheadInputStream}; to read successive body parts (and then
+ * the epilogue) from the same stream, pass the same
+ * <code>LookaheadInputStream</code> to each
+ * <code>MimeBoundaryInputStream</code>.
  * 
  * 
  * @version $Id: MimeBoundaryInputStream.java,v 1.2 2004/11/29 13:15:42 ntherning Exp $
  */
 public class MimeBoundaryInputStream extends InputStream {
     
-    private PushbackInputStream s = null;
-    private byte[] boundary = null;
+    private LookaheadInputStream s = null;
+    /** <code>\r\n--boundary</code>; the part ends before its first match */
+    private byte[] pattern = null;
+    /** Horspool shift for each byte value */
+    private int[] shifts = null;
     private boolean first = true;
     private boolean eof = false;
     private boolean parenteof = false;
     private boolean moreParts = true;
+    /**
+     * Index in the buffer up to which bytes are known to be part content.
+     * Only valid while the buffer is not refilled, which only happens
+     * once the content up to here has been read.
+     */
+    private int contentLimit = 0;
+    /** Whether the pattern starts at contentLimit */
+    private boolean boundaryAtLimit = false;
+    private final byte[] single = new byte[1];
 
     /**
      * Creates a new MimeBoundaryInputStream.
-     * @param s The underlying stream.
+     * @param s The underlying stream. Unless it is a 
+     *        {@link LookaheadInputStream}, it will be read ahead past the
+     *        end of this part.
      * @param boundary Boundary string (not including leading hyphens).
      */
     public MimeBoundaryInputStream(InputStream s, String boundary) 
             throws IOException {
         
-        this.s = new PushbackInputStream(s, boundary.length() + 4);
+        this.s = s instanceof LookaheadInputStream
+                ? (LookaheadInputStream) s : new LookaheadInputStream(s);
 
-        boundary = "--" + boundary;
-        this.boundary = new byte[boundary.length()];
-        for (int i = 0; i < this.boundary.length; i++) {
-            this.boundary[i] = (byte) boundary.charAt(i);
+        boundary = "\r\n--" + boundary;
+        this.pattern = new byte[boundary.length()];
+        for (int i = 0; i < this.pattern.length; i++) {
+            this.pattern[i] = (byte) boundary.charAt(i);
+        }
+        this.shifts = new int[256];
+        for (int i = 0; i < shifts.length; i++) {
+            shifts[i] = pattern.length;
+        }
+        for (int i = 0; i < pattern.length - 1; i++) {
+            shifts[pattern[i] & 0xff] = pattern.length - 1 - i;
         }
         
         /*
-         * By reading one byte we will update moreParts to be as expected
-         * before any bytes have been read.
+         * By looking for content we will update moreParts to be as
+         * expected before any bytes have been read.
          */
-        int b = read();
-        if (b != -1) {
-            this.s.unread(b);
-        }
+        contentAvailable();
     }
 
     /**
@@ -106,7 +131,9 @@ public class MimeBoundaryInputStream extends InputStream {
      * @throws IOException on I/O errors.
      */
     public void consume() throws IOException {
-        while (read() != -1) {
+        int n;
+        while ((n = contentAvailable()) != -1) {
+            s.pos += n;
         }
     }
     
@@ -114,51 +141,172 @@ public class MimeBoundaryInputStream extends InputStream {
      * @see java.io.InputStream#read()
      */
     public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    /**
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = contentAvailable();
+        if (n == -1) {
+            return -1;
+        }
+        n = Math.min(n, len);
+        System.arraycopy(s.buf, s.pos, b, off, n);
+        s.pos += n;
+        return n;
+    }
+
+    /**
+     * @see java.io.InputStream#skip(long)
+     */
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        int available = contentAvailable();
+        if (available == -1) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, available);
+        s.pos += skipped;
+        return skipped;
+    }
+
+    /**
+     * @see java.io.InputStream#available()
+     */
+    public int available() throws IOException {
+        return eof ? 0 : contentLimit - s.pos;
+    }
+
+    /**
+     * Finds out how many bytes of part content follow in the buffer,
+     * reading more of the underlying stream if needed. When the boundary
+     * is reached it is consumed along with the rest of its line, and the
+     * stream is at EOF.
+     *
+     * @return the number of content bytes at the buffer position (at
+     *         least 1), or -1 at the end of the part.
+     * @throws IOException on I/O errors.
+     */
+    int contentAvailable() throws IOException {
         if (eof) {
             return -1;
         }
         
         if (first) {
             first = false;
-            if (matchBoundary()) {
+            /*
+             * A boundary right at the start isn't preceded by \r\n.
+             */
+            s.fill(pattern.length - 2);
+            if (matchesAt(s.pos, 2)) {
+                s.pos += pattern.length - 2;
+                readBoundaryTail();
                 return -1;
             }
+            contentLimit = s.pos;
         }
         
-        int b1 = s.read();
-        int b2 = s.read();
-        
-        if (b1 == '\r' && b2 == '\n') {
-            if (matchBoundary()) {
+        while (true) {
+            if (s.pos < contentLimit) {
+                return contentLimit - s.pos;
+            }
+            if (boundaryAtLimit) {
+                s.pos += pattern.length;
+                readBoundaryTail();
                 return -1;
             }
+            
+            /*
+             * Refill (moving the unread bytes to the start of the buffer)
+             * only once the unread bytes can no longer hold a match.
+             */
+            if (s.buffered() < pattern.length && !s.fill(pattern.length)) {
+                /*
+                 * The parent ended; whatever is left can't hold a boundary.
+                 */
+                if (s.buffered() > 0) {
+                    contentLimit = s.limit;
+                    continue;
+                }
+                parenteof = true;
+                eof = true;
+                return -1;
+            }
+            
+            int match = indexOfPattern(s.pos, s.limit);
+            if (match != -1) {
+                contentLimit = match;
+                boundaryAtLimit = true;
+            } else {
+                /*
+                 * The last pattern.length - 1 bytes may start a match 
+                 * which continues past the end of the buffer.
+                 */
+                contentLimit = s.limit - (pattern.length - 1);
+            }
         }
-        
-        if (b2 != -1) {
-            s.unread(b2);
-        }
+    }
 
-        parenteof = b1 == -1;
-        eof = parenteof;
-        
-        return b1;
+    /**
+     * @return the buffer holding the bytes counted by 
+     *         {@link #contentAvailable()}; only valid until the next read.
+     */
+    byte[] buffer() {
+        return s.buf;
     }
-    
-    private boolean matchBoundary() throws IOException {
-        
-        for (int i = 0; i < boundary.length; i++) {
-            int b = s.read();
-            if (b != boundary[i]) {
-                if (b != -1) {
-                    s.unread(b);
-                }
-                for (int j = i - 1; j >= 0; j--) {
-                    s.unread(boundary[j]);
-                }
+
+    /**
+     * @return the index in {@link #buffer()} of the next byte to read.
+     */
+    int bufferPosition() {
+        return s.pos;
+    }
+
+    /**
+     * Searches the buffer for the pattern with Boyer-Moore-Horspool.
+     *
+     * @return the index of the first match, or -1.
+     */
+    private int indexOfPattern(int from, int to) {
+        byte[] buf = s.buf;
+        int last = pattern.length - 1;
+        for (int i = from; i + last < to; i += shifts[buf[i + last] & 0xff]) {
+            if (matchesAt(i, 0)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return <code>true</code> if the pattern from <code>start</code> on
+     *         is in the buffer at <code>index</code>.
+     */
+    private boolean matchesAt(int index, int start) {
+        byte[] buf = s.buf;
+        int length = pattern.length - start;
+        if (s.limit - index < length) {
+            return false;
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            if (buf[index + i] != pattern[start + i]) {
                 return false;
             }
         }
-        
+        return true;
+    }
+
+    /**
+     * Reads the rest of the boundary line after a matched boundary.
+     */
+    private void readBoundaryTail() throws IOException {
         /*
          * We have a match. Is it an end boundary?
          */
@@ -178,7 +326,5 @@ public class MimeBoundaryInputStream extends InputStream {
         }
         
         eof = true;
-        
-        return true;
     }
 }
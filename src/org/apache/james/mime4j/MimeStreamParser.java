@@ -24,6 +24,8 @@ import org.apache.james.mime4j.decoder.QuotedPrintableInputStream;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.LinkedList;
 
@@ -50,6 +52,12 @@ import java.util.LinkedList;
 public class MimeStreamParser {
     private static final Log log = LogFactory.getLog(MimeStreamParser.class);
 
+    private static final int SKIP_BUFFER_SIZE = 4096;
+    private static final int HEADER_BUFFER_SIZE = 1024;
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final String CONTENT_TYPE = "content-type";
+    private static final String CONTENT_TRANSFER_ENCODING = "content-transfer-encoding";
+
     private static BitSet fieldChars = null;
 
     private RootInputStream rootStream = null;
@@ -57,6 +65,9 @@ public class MimeStreamParser {
     private ContentHandler handler = null;
     private boolean raw = false;
     private boolean prematureEof = false;
+    private byte[] skipBuffer = null;
+    /** Reused for the bytes of each header */
+    private byte[] headerBuffer = null;
 
     static {
         fieldChars = new BitSet();
@@ -141,6 +152,11 @@ public class MimeStreamParser {
 
             handler.startMultipart(bd);
 
+            /*
+             * The boundary streams read ahead; share one buffer between
+             * them so that nothing they read ahead is lost.
+             */
+            is = new LookaheadInputStream(is);
             MimeBoundaryInputStream tempIs =
                 new MimeBoundaryInputStream(is, bd.getBoundary());
             handler.preamble(new CloseShieldInputStream(tempIs));
@@ -150,7 +166,7 @@ public class MimeStreamParser {
                 tempIs = new MimeBoundaryInputStream(is, bd.getBoundary());
                 parseBodyPart(tempIs);
                 tempIs.consume();
-                if (tempIs.parentEOF()) {
+                if (tempIs.parentEOF() || rootStream.isTruncated()) {
                     prematureEof = true;
 //                    if (log.isWarnEnabled()) {
 //                        log.warn("Line " + rootStream.getLineNumber()
@@ -188,7 +204,18 @@ public class MimeStreamParser {
         /*
          * Make sure the stream has been consumed.
          */
-        while (is.read() != -1) {
+        consume(is);
+    }
+
+    private void consume(InputStream is) throws IOException {
+        if (is instanceof MimeBoundaryInputStream) {
+            ((MimeBoundaryInputStream) is).consume();
+            return;
+        }
+        if (skipBuffer == null) {
+            skipBuffer = new byte[SKIP_BUFFER_SIZE];
+        }
+        while (is.read(skipBuffer, 0, skipBuffer.length) != -1) {
         }
     }
 
@@ -231,72 +258,89 @@ public class MimeStreamParser {
 
         int lineNumber = rootStream.getLineNumber();
 
-        StringBuffer sb = new StringBuffer();
-        int curr = 0;
-        int prev = 0;
-        while ((curr = is.read()) != -1) {
-            if (curr == '\n' && (prev == '\n' || prev == 0)) {
-                /*
-                 * [\r]\n[\r]\n or an immediate \r\n have been seen.
-                 */
-                sb.deleteCharAt(sb.length() - 1);
-                break;
-            }
-            sb.append((char) curr);
-            prev = curr == '\r' ? prev : curr;
-        }
+        int length = readHeader(is);
 
-//        if (curr == -1 && log.isWarnEnabled()) {
+//        if (length == -1 && log.isWarnEnabled()) {
 //            log.warn("Line " + rootStream.getLineNumber()
 //                    + ": Unexpected end of headers detected. "
 //                    + "Boundary detected in header or EOF reached.");
 //        }
+        if (length < 0) {
+            length = -length - 1;
+        }
+
+        /*
+         * Raw field handlers get to keep the header bytes, so give them a
+         * copy of their own.
+         */
+        RawFieldContentHandler rawHandler = handler instanceof RawFieldContentHandler
+                ? (RawFieldContentHandler) handler : null;
+        byte[] header = rawHandler != null
+                ? Arrays.copyOf(headerBuffer, length) : headerBuffer;
 
         int start = 0;
         int pos = 0;
         int startLineNumber = lineNumber;
-        while (pos < sb.length()) {
-            while (pos < sb.length() && sb.charAt(pos) != '\r') {
+        while (pos < length) {
+            while (pos < length && header[pos] != '\r') {
                 pos++;
             }
-            if (pos < sb.length() - 1 && sb.charAt(pos + 1) != '\n') {
+            if (pos < length - 1 && header[pos + 1] != '\n') {
                 pos++;
                 continue;
             }
 
-            if (pos >= sb.length() - 2 || fieldChars.get(sb.charAt(pos + 2))) {
+            if (pos >= length - 2 || fieldChars.get(header[pos + 2] & 0xff)) {
 
                 /*
-                 * field should be the complete field data excluding the
+                 * The field is the complete field data excluding the
                  * trailing \r\n.
                  */
-                String field = sb.substring(start, pos);
+                int fieldStart = start;
+                int fieldEnd = pos;
                 start = pos + 2;
 
                 /*
                  * Check for a valid field.
                  */
-                int index = field.indexOf(':');
+                int colon = indexOf(header, ':', fieldStart, fieldEnd);
                 boolean valid = false;
-                if (index != -1 && fieldChars.get(field.charAt(0))) {
+                if (colon != -1 && fieldChars.get(header[fieldStart] & 0xff)) {
                     valid = true;
-                    String fieldName = field.substring(0, index).trim();
-                    for (int i = 0; i < fieldName.length(); i++) {
-                        if (!fieldChars.get(fieldName.charAt(i))) {
+                    int nameStart = trimStart(header, fieldStart, colon);
+                    int nameEnd = trimEnd(header, nameStart, colon);
+                    for (int i = nameStart; i < nameEnd; i++) {
+                        if (!fieldChars.get(header[i] & 0xff)) {
                             valid = false;
                             break;
                         }
                     }
 
                     if (valid) {
-                        handler.field(field);
-                        bd.addField(fieldName, field.substring(index + 1));
+                        if (rawHandler != null) {
+                            rawHandler.rawField(header, fieldStart, colon, fieldEnd);
+                        } else {
+                            handler.field(new String(header, fieldStart,
+                                    fieldEnd - fieldStart, ISO_8859_1));
+                        }
+                        /*
+                         * Only Content- fields matter to the body
+                         * descriptor; don't make Strings for the others.
+                         */
+                        if (isDescriptorField(header, nameStart, nameEnd)) {
+                            bd.addField(new String(header, nameStart,
+                                    nameEnd - nameStart, ISO_8859_1),
+                                    new String(header, colon + 1,
+                                            fieldEnd - colon - 1, ISO_8859_1));
+                        }
                     }
                 }
 
                 if (!valid && log.isWarnEnabled()) {
                     log.warn("Line " + startLineNumber
-                            + ": Ignoring invalid field: '" + field.trim() + "'");
+                            + ": Ignoring invalid field: '"
+                            + new String(header, fieldStart, fieldEnd - fieldStart,
+                                    ISO_8859_1).trim() + "'");
                 }
 
                 startLineNumber = lineNumber;
@@ -311,6 +355,134 @@ public class MimeStreamParser {
         return bd;
     }
 
+    /**
+     * Reads a header into {@link #headerBuffer}, up to and including the
+     * empty line ending it. The empty line isn't kept.
+     *
+     * @param is the stream to read from.
+     * @return the length of the header, or <code>-(length + 1)</code> if
+     *         the stream ended before the empty line.
+     * @throws IOException on I/O errors.
+     */
+    private int readHeader(InputStream is) throws IOException {
+        if (headerBuffer == null) {
+            headerBuffer = new byte[HEADER_BUFFER_SIZE];
+        }
+        int length = 0;
+        int prev = 0;
+        if (is instanceof MimeBoundaryInputStream) {
+            /*
+             * Scan the part's buffered content in place.
+             */
+            MimeBoundaryInputStream part = (MimeBoundaryInputStream) is;
+            int n;
+            while ((n = part.contentAvailable()) != -1) {
+                byte[] buf = part.buffer();
+                int from = part.bufferPosition();
+                int to = from + n;
+                int i = from;
+                boolean end = false;
+                for (; i < to; i++) {
+                    int curr = buf[i] & 0xff;
+                    if (curr == '\n' && (prev == '\n' || prev == 0)) {
+                        end = true;
+                        break;
+                    }
+                    prev = curr == '\r' ? prev : curr;
+                }
+                length = appendHeaderBytes(length, buf, from, i - from);
+                if (end) {
+                    part.skip(i - from + 1);
+                    return Math.max(length - 1, 0);
+                }
+                part.skip(i - from);
+            }
+            return -length - 1;
+        }
+
+        int curr;
+        while ((curr = is.read()) != -1) {
+            if (curr == '\n' && (prev == '\n' || prev == 0)) {
+                /*
+                 * [\r]\n[\r]\n or an immediate \r\n have been seen.
+                 */
+                return Math.max(length - 1, 0);
+            }
+            if (length == headerBuffer.length) {
+                headerBuffer = Arrays.copyOf(headerBuffer, length * 2);
+            }
+            headerBuffer[length++] = (byte) curr;
+            prev = curr == '\r' ? prev : curr;
+        }
+        return -length - 1;
+    }
+
+    private int appendHeaderBytes(int length, byte[] b, int off, int len) {
+        if (length + len > headerBuffer.length) {
+            headerBuffer = Arrays.copyOf(headerBuffer,
+                    Math.max(headerBuffer.length * 2, length + len));
+        }
+        System.arraycopy(b, off, headerBuffer, length, len);
+        return length + len;
+    }
+
+    private static int indexOf(byte[] b, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the first byte in the range which 
+     *         {@link String#trim()} would keep, or <code>to</code>.
+     */
+    private static int trimStart(byte[] b, int from, int to) {
+        while (from < to && (b[from] & 0xff) <= ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * @return the index after the last byte in the range which 
+     *         {@link String#trim()} would keep, or <code>from</code>.
+     */
+    private static int trimEnd(byte[] b, int from, int to) {
+        while (to > from && (b[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    /**
+     * @return <code>true</code> if the field name is one 
+     *         {@link BodyDescriptor#addField(String, String)} looks at.
+     */
+    private static boolean isDescriptorField(byte[] b, int from, int to) {
+        return regionMatchesIgnoreCase(b, from, to, CONTENT_TYPE)
+                || regionMatchesIgnoreCase(b, from, to, CONTENT_TRANSFER_ENCODING);
+    }
+
+    private static boolean regionMatchesIgnoreCase(byte[] b, int from, int to,
+            String lowerCase) {
+        if (to - from != lowerCase.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length(); i++) {
+            int c = b[from + i];
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != lowerCase.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Sets the <code>ContentHandler</code> to use when reporting
      * parsing events.
@@ -0,0 +1,48 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mime4j;
+
+/**
+ * A <code>ContentHandler</code> which receives header fields as slices of
+ * the raw header bytes instead of as Strings. When the handler given to
+ * {@link MimeStreamParser#setContentHandler(ContentHandler)} implements
+ * this interface, {@link #rawField(byte[], int, int, int)} is called
+ * instead of {@link ContentHandler#field(String)}, and the handler can
+ * defer decoding field values until they are needed.
+ *
+ *
+ * @version $Id$
+ */
+public interface RawFieldContentHandler extends ContentHandler {
+
+    /**
+     * Called for each field of a header. The bytes are those of the
+     * String {@link ContentHandler#field(String)} would have been called
+     * with, one char per byte (ISO-8859-1); the value is not unfolded.
+     *
+     * @param header the bytes of the whole header. The array belongs to
+     *        the handler from here on and is never modified by the parser,
+     *        so slices of it may be kept.
+     * @param start the index of the first byte of the field.
+     * @param colon the index of the colon ending the field name.
+     * @param end the index after the last byte of the field.
+     */
+    void rawField(byte[] header, int start, int colon, int end);
+}
@@ -66,6 +66,16 @@ class RootInputStream extends InputStream {
     public void truncate() {
         this.truncated = true;
     }
+
+    /**
+     * Determines if this <code>InputStream</code> has been truncated.
+     * Data already read ahead from it may still be parsed after that.
+     * 
+     * @return <code>true</code> if {@link #truncate()} has been called.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
     
     /**
      * @see java.io.InputStream#read()
@@ -33,12 +33,20 @@ import java.io.InputStream;
  * @version $Id: Base64InputStream.java,v 1.3 2004/11/29 13:15:47 ntherning Exp $
  */
 public class Base64InputStream extends InputStream {
+    private static final int ENCODED_BUFFER_SIZE = 8192;
+
     private final InputStream s;
     private int outCount = 0;
     private int outIndex = 0;
-    private final int[] outputBuffer = new int[3];
-    private final byte[] inputBuffer = new byte[4];
+    private final byte[] outputBuffer = new byte[3];
+    private final byte[] encoded = new byte[ENCODED_BUFFER_SIZE];
+    private int encodedPos = 0;
+    private int encodedLimit = 0;
+    /** The sextets of the current, incomplete quantum */
+    private int accum = 0;
+    private int inCount = 0;
     private boolean done = false;
+    private final byte[] singleByte = new byte[1];
 
     public Base64InputStream(InputStream s) {
         this.s = s;
@@ -56,79 +64,131 @@ public class Base64InputStream extends InputStream {
     
     @Override
     public int read() throws IOException {
-        if (outIndex == outCount) {
-            fillBuffer();
-            if (outIndex == outCount) {
-                return -1;
-            }
+        if (outIndex < outCount) {
+            return outputBuffer[outIndex++] & 0xFF;
         }
-
-        return outputBuffer[outIndex++];
+        return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xFF;
     }
 
     /**
-     * Retrieve data from the underlying stream, decode it,
-     * and put the results in the byteq.
-     * @throws IOException
+     * Decodes whole quanta straight from a buffer of the underlying
+     * stream's bytes into <code>b</code>. Only a quantum that does not
+     * fit goes through the output buffer.
+     * 
+     * @see java.io.InputStream#read(byte[], int, int)
      */
-    private void fillBuffer() throws IOException {
-        outCount = 0;
-        outIndex = 0;
-        int inCount = 0;
-
-        int i;
-        // "done" is needed for the two successive '=' at the end
-        while (!done) {
-            switch (i = s.read()) {
-                case -1:
-                    // No more input - just return, let outputBuffer drain out, and be done
-                    return;
-                case '=':
-                    // once we meet the first '=', avoid reading the second '='
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len && outIndex < outCount) {
+            b[off + n++] = outputBuffer[outIndex++];
+        }
+        while (n < len && !done) {
+            if (encodedPos == encodedLimit) {
+                if (n > 0 && s.available() <= 0) {
+                    // Don't block when there is something to return
+                    break;
+                }
+                int count = s.read(encoded, 0, encoded.length);
+                if (count == -1) {
+                    // No more input - drop any incomplete quantum, and be done
                     done = true;
-                    decodeAndEnqueue(inCount);
-                    return;
-                default:
-                    byte sX = TRANSLATION[i];
-                    if (sX < 0) continue;
-                    inputBuffer[inCount++] = sX;
-                    if (inCount == 4) {
-                        decodeAndEnqueue(inCount);
-                        return;
-                    }
                     break;
+                }
+                encodedPos = 0;
+                encodedLimit = count;
             }
+            n = decode(b, off, n, len);
         }
+        return n == 0 ? -1 : n;
     }
 
-    private void decodeAndEnqueue(int len) {
-        int accum = 0;
-        accum |= inputBuffer[0] << 18;
-        accum |= inputBuffer[1] << 12;
-        accum |= inputBuffer[2] << 6;
-        accum |= inputBuffer[3];
+    /**
+     * Decodes buffered input until it runs out, <code>b</code> is full or
+     * the first '=' is met.
+     * 
+     * @return the new number of bytes written to <code>b</code>.
+     */
+    private int decode(byte[] b, int off, int n, int len) {
+        final byte[] in = encoded;
+        final int limit = encodedLimit;
+        int pos = encodedPos;
+        int accum = this.accum;
+        int inCount = this.inCount;
+        while (pos < limit) {
+            int i = in[pos++] & 0xFF;
+            if (i == '=') {
+                // once we meet the first '=', ignore the rest of the input
+                done = true;
+                pos = limit;
+                n = flushPartialQuantum(accum, inCount, b, off, n, len);
+                accum = 0;
+                inCount = 0;
+                break;
+            }
+            byte sX = TRANSLATION[i];
+            if (sX < 0) {
+                continue;
+            }
+            accum = (accum << 6) | sX;
+            if (++inCount == 4) {
+                if (len - n >= 3) {
+                    int o = off + n;
+                    b[o] = (byte) (accum >> 16);
+                    b[o + 1] = (byte) (accum >> 8);
+                    b[o + 2] = (byte) accum;
+                    n += 3;
+                } else {
+                    outputBuffer[0] = (byte) (accum >> 16);
+                    outputBuffer[1] = (byte) (accum >> 8);
+                    outputBuffer[2] = (byte) accum;
+                    outCount = 3;
+                    outIndex = 0;
+                    n = drainOutputBuffer(b, off, n, len);
+                }
+                accum = 0;
+                inCount = 0;
+                if (n == len) {
+                    break;
+                }
+            }
+        }
+        encodedPos = pos;
+        this.accum = accum;
+        this.inCount = inCount;
+        return n;
+    }
 
-        // There's a bit of duplicated code here because we want to have straight-through operation
-        // for the most common case of len==4
-        if (len == 4) {
-            outputBuffer[0] = (accum >> 16) & 0xFF;
-            outputBuffer[1] = (accum >> 8) & 0xFF;
-            outputBuffer[2] = (accum) & 0xFF;
-            outCount = 3;
-            return;
-        } else if (len == 3) {
-            outputBuffer[0] = (accum >> 16) & 0xFF;
-            outputBuffer[1] = (accum >> 8) & 0xFF;
+    /**
+     * Decodes the quantum cut short by '=': two sextets make one byte and
+     * three make two. Fewer than two make nothing.
+     */
+    private int flushPartialQuantum(int accum, int inCount, byte[] b, int off, int n, int len) {
+        if (inCount == 3) {
+            outputBuffer[0] = (byte) (accum >> 10);
+            outputBuffer[1] = (byte) (accum >> 2);
             outCount = 2;
-            return;
-        } else {    // len == 2
-            outputBuffer[0] = (accum >> 16) & 0xFF;
+        } else if (inCount == 2) {
+            outputBuffer[0] = (byte) (accum >> 4);
             outCount = 1;
-            return;
+        } else {
+            outCount = 0;
+        }
+        outIndex = 0;
+        return drainOutputBuffer(b, off, n, len);
+    }
+
+    private int drainOutputBuffer(byte[] b, int off, int n, int len) {
+        while (n < len && outIndex < outCount) {
+            b[off + n++] = outputBuffer[outIndex++];
         }
+        return n;
     }
 
-    private static byte[] TRANSLATION = {
+    private static final byte[] TRANSLATION = {
         -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, /* 0x00 */
         -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, /* 0x10 */
         -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 62, -1, -1, -1, 63, /* 0x20 */
@@ -29,6 +29,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 
 /**
  * Static methods for decoding strings, byte arrays and encoded words.
@@ -54,9 +55,10 @@ public class DecoderUtil {
             QuotedPrintableInputStream is = new QuotedPrintableInputStream(
                                                new ByteArrayInputStream(bytes));
             
-            int b = 0;
-            while ((b = is.read()) != -1) {
-                baos.write(b);
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = is.read(buffer, 0, buffer.length)) != -1) {
+                baos.write(buffer, 0, n);
             }
         } catch (IOException e) {
             /*
@@ -83,9 +85,10 @@ public class DecoderUtil {
             Base64InputStream is = new Base64InputStream(
                                         new ByteArrayInputStream(bytes));
             
-            int b = 0;
-            while ((b = is.read()) != -1) {
-                baos.write(b);
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = is.read(buffer, 0, buffer.length)) != -1) {
+                baos.write(buffer, 0, n);
             }
         } catch (IOException e) {
             /*
@@ -112,6 +115,18 @@ public class DecoderUtil {
         
         return new String(decodeBase64(encodedWord), charset);
     }
+
+    /**
+     * Decodes an encoded word encoded with the 'B' encoding (described in 
+     * RFC 2047) found in a header field body.
+     * 
+     * @param encodedWord the encoded word to decode.
+     * @param charset the charset to use.
+     * @return the decoded string.
+     */
+    public static String decodeB(String encodedWord, Charset charset) {
+        return new String(decodeBase64(encodedWord), charset);
+    }
     
     /**
      * Decodes an encoded word encoded with the 'Q' encoding (described in 
@@ -126,6 +141,22 @@ public class DecoderUtil {
     public static String decodeQ(String encodedWord, String charset)
             throws UnsupportedEncodingException {
            
+        return new String(decodeBaseQuotedPrintable(replaceUnderscores(encodedWord)), charset);
+    }
+
+    /**
+     * Decodes an encoded word encoded with the 'Q' encoding (described in 
+     * RFC 2047) found in a header field body.
+     * 
+     * @param encodedWord the encoded word to decode.
+     * @param charset the charset to use.
+     * @return the decoded string.
+     */
+    public static String decodeQ(String encodedWord, Charset charset) {
+        return new String(decodeBaseQuotedPrintable(replaceUnderscores(encodedWord)), charset);
+    }
+
+    private static String replaceUnderscores(String encodedWord) {
         /*
          * Replace _ with =20
          */
@@ -138,8 +169,7 @@ public class DecoderUtil {
                 sb.append(c);
             }
         }
-        
-        return new String(decodeBaseQuotedPrintable(sb.toString()), charset);
+        return sb.toString();
     }
     
     /**
@@ -228,18 +258,18 @@ public class DecoderUtil {
         String encoding = body.substring(qm1 + 1, qm2);
         String encodedText = body.substring(qm2 + 1, end - 2);
 
-        String charset = CharsetUtil.toJavaCharset(mimeCharset);
+        Charset charset = CharsetUtil.getDecodingCharset(mimeCharset);
         if (charset == null) {
-            if (log.isWarnEnabled()) {
-                log.warn("MIME charset '" + mimeCharset + "' in encoded word '"
-                        + body.substring(begin, end) + "' doesn't have a "
-                        + "corresponding Java charset");
-            }
-            return null;
-        } else if (!CharsetUtil.isDecodingSupported(charset)) {
-            if (log.isWarnEnabled()) {
+            String javaCharset = CharsetUtil.toJavaCharset(mimeCharset);
+            if (javaCharset == null) {
+                if (log.isWarnEnabled()) {
+                    log.warn("MIME charset '" + mimeCharset + "' in encoded word '"
+                            + body.substring(begin, end) + "' doesn't have a "
+                            + "corresponding Java charset");
+                }
+            } else if (log.isWarnEnabled()) {
                 log.warn("Current JDK doesn't support decoding of charset '"
-                        + charset + "' (MIME charset '" + mimeCharset
+                        + javaCharset + "' (MIME charset '" + mimeCharset
                         + "' in encoded word '" + body.substring(begin, end)
                         + "')");
             }
@@ -266,13 +296,6 @@ public class DecoderUtil {
                 }
                 return null;
             }
-        } catch (UnsupportedEncodingException e) {
-            // should not happen because of isDecodingSupported check above
-            if (log.isWarnEnabled()) {
-                log.warn("Unsupported encoding in encoded word '"
-                        + body.substring(begin, end) + "'", e);
-            }
-            return null;
         } catch (RuntimeException e) {
             if (log.isWarnEnabled()) {
                 log.warn("Could not decode encoded word '"
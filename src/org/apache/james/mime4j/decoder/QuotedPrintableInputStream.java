@@ -36,11 +36,48 @@ import org.apache.james.mime4j.LogFactory;
  */
 public class QuotedPrintableInputStream extends InputStream {
     private static Log log = LogFactory.getLog(QuotedPrintableInputStream.class);
-    
+
+    private static final int ENCODED_BUFFER_SIZE = 8192;
+
+    /** The value of each hexadecimal digit, -1 for other bytes */
+    private static final byte[] HEX_VALUE = new byte[256];
+    static {
+        for (int i = 0; i < HEX_VALUE.length; i++) {
+            HEX_VALUE[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUE['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUE['A' + i] = (byte) (0xA + i);
+            HEX_VALUE['a' + i] = (byte) (0xA + i);
+        }
+    }
+
     private InputStream stream;
-    ByteQueue byteq = new ByteQueue();
-    ByteQueue pushbackq = new ByteQueue();
+    private final byte[] encoded = new byte[ENCODED_BUFFER_SIZE];
+    private int encodedPos = 0;
+    private int encodedLimit = 0;
+    private boolean eof = false;
+    /**
+     * Whitespace held back until it is known not to be "transport
+     * padding", i.e. whitespace that appears immediately before a line
+     * break or the end of the stream.
+     */
+    private byte[] pendingWhitespace = new byte[16];
+    private int pendingWhitespaceCount = 0;
+    /** Decoded bytes that did not fit in the caller's buffer */
+    private byte[] overflow = new byte[16];
+    private int overflowPos = 0;
+    private int overflowCount = 0;
     private byte state = 0;
+    private byte msdChar = 0;  // first digit of escaped num
+    private final byte[] singleByte = new byte[1];
+
+    /** The buffer being decoded into by the current read */
+    private byte[] out;
+    private int outPos;
+    private int outLimit;
 
     public QuotedPrintableInputStream(InputStream stream) {
         this.stream = stream;
@@ -56,174 +93,203 @@ public class QuotedPrintableInputStream extends InputStream {
     }
 
     public int read() throws IOException {
-        fillBuffer();
-        if (byteq.count() == 0)
-            return -1;
-        else {
-            byte val = byteq.dequeue();
-            if (val >= 0)
-                return val;
-            else
-                return val & 0xFF;
+        if (overflowPos < overflowCount) {
+            return overflow[overflowPos++] & 0xFF;
         }
+        return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xFF;
     }
 
     /**
-     * Pulls bytes out of the underlying stream and places them in the
-     * pushback queue.  This is necessary (vs. reading from the
-     * underlying stream directly) to detect and filter out "transport
-     * padding" whitespace, i.e., all whitespace that appears immediately
-     * before a CRLF.
-     *
-     * @throws IOException Underlying stream threw IOException.
+     * Decodes from a buffer of the underlying stream's bytes straight
+     * into <code>b</code>.
+     * 
+     * @see java.io.InputStream#read(byte[], int, int)
      */
-    private void populatePushbackQueue() throws IOException {
-        //Debug.verify(pushbackq.count() == 0, "PopulatePushbackQueue called when pushback queue was not empty!");
-
-        if (pushbackq.count() != 0)
-            return;
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        if (overflowPos < overflowCount) {
+            n = Math.min(len, overflowCount - overflowPos);
+            System.arraycopy(overflow, overflowPos, b, off, n);
+            overflowPos += n;
+        }
+        out = b;
+        outPos = off + n;
+        outLimit = off + len;
+        try {
+            while (outPos < outLimit && !eof) {
+                if (encodedPos == encodedLimit) {
+                    if (outPos > off && stream.available() <= 0) {
+                        // Don't block when there is something to return
+                        break;
+                    }
+                    int count = stream.read(encoded, 0, encoded.length);
+                    if (count == -1) {
+                        // discard any whitespace preceding EOF
+                        pendingWhitespaceCount = 0;
+                        eof = true;
+                        break;
+                    }
+                    encodedPos = 0;
+                    encodedLimit = count;
+                }
+                decode();
+            }
+            n = outPos - off;
+        } finally {
+            out = null;
+        }
+        return n == 0 ? -1 : n;
+    }
 
-        while (true) {
-            int i = stream.read();
-            switch (i) {
-                case -1:
-                    // stream is done
-                    pushbackq.clear();  // discard any whitespace preceding EOF
-                    return;
+    /**
+     * Decodes buffered input until it runs out or the output is full.
+     */
+    private void decode() {
+        final byte[] in = encoded;
+        final int limit = encodedLimit;
+        final byte[] out = this.out;
+        int pos = encodedPos;
+        while (pos < limit && outPos < outLimit) {
+            byte b = in[pos++];
+            if (state == 0 && pendingWhitespaceCount == 0 && b > ' ' && b != '=') {
+                // The common case: a literal byte
+                out[outPos++] = b;
+                continue;
+            }
+            switch (b) {
                 case ' ':
                 case '\t':
-                    pushbackq.enqueue((byte)i);
+                    holdWhitespace(b);
                     break;
                 case '\r':
                 case '\n':
-                    pushbackq.clear();  // discard any whitespace preceding EOL
-                    pushbackq.enqueue((byte)i);
-                    return;
+                    pendingWhitespaceCount = 0;  // discard any whitespace preceding EOL
+                    decode(b);
+                    break;
                 default:
-                    pushbackq.enqueue((byte)i);
-                    return;
+                    for (int i = 0; i < pendingWhitespaceCount; i++) {
+                        decode(pendingWhitespace[i]);
+                    }
+                    pendingWhitespaceCount = 0;
+                    decode(b);
+                    break;
             }
         }
+        encodedPos = pos;
+    }
+
+    private void holdWhitespace(byte b) {
+        if (pendingWhitespaceCount == pendingWhitespace.length) {
+            byte[] grown = new byte[pendingWhitespace.length * 2];
+            System.arraycopy(pendingWhitespace, 0, grown, 0, pendingWhitespaceCount);
+            pendingWhitespace = grown;
+        }
+        pendingWhitespace[pendingWhitespaceCount++] = b;
     }
 
     /**
-     * Causes the pushback queue to get populated if it is empty, then
-     * consumes and decodes bytes out of it until one or more bytes are
-     * in the byte queue.  This decoding step performs the actual QP
-     * decoding.
-     *
-     * @throws IOException Underlying stream threw IOException.
+     * Runs one byte through the decoding state machine.
      */
-    private void fillBuffer() throws IOException {
-        byte msdChar = 0;  // first digit of escaped num
-        while (byteq.count() == 0) {
-            if (pushbackq.count() == 0) {
-                populatePushbackQueue();
-                if (pushbackq.count() == 0)
-                    return;
-            }
-
-            byte b = (byte)pushbackq.dequeue();
-
-            switch (state) {
-                case 0:  // start state, no bytes pending
-                    if (b != '=') {
-                        byteq.enqueue(b);
-                        break;  // state remains 0
-                    } else {
-                        state = 1;
-                        break;
+    private void decode(byte b) {
+        switch (state) {
+            case 0:  // start state, no bytes pending
+                if (b != '=') {
+                    emit(b);
+                    break;  // state remains 0
+                } else {
+                    state = 1;
+                    break;
+                }
+            case 1:  // encountered "=" so far
+                if (b == '\r') {
+                    state = 2;
+                    break;
+                } else if (HEX_VALUE[b & 0xFF] >= 0) {
+                    state = 3;
+                    msdChar = b;  // save until next digit encountered
+                    break;
+                } else if (b == '=') {
+                    /*
+                     * Special case when == is encountered.
+                     * Emit one = and stay in this state.
+                     */
+                    if (log.isWarnEnabled()) {
+                        log.warn("Malformed MIME; got ==");
                     }
-                case 1:  // encountered "=" so far
-                    if (b == '\r') {
-                        state = 2;
-                        break;
-                    } else if ((b >= '0' && b <= '9') || (b >= 'A' && b <= 'F') || (b >= 'a' && b <= 'f')) {
-                        state = 3;
-                        msdChar = b;  // save until next digit encountered
-                        break;
-                    } else if (b == '=') {
-                        /*
-                         * Special case when == is encountered.
-                         * Emit one = and stay in this state.
-                         */
-                        if (log.isWarnEnabled()) {
-                            log.warn("Malformed MIME; got ==");
-                        }
-                        byteq.enqueue((byte)'=');
-                        break;
-                    } else {
-                        if (log.isWarnEnabled()) {
-                            log.warn("Malformed MIME; expected \\r or "
-                                    + "[0-9A-Z], got " + b);
-                        }
-                        state = 0;
-                        byteq.enqueue((byte)'=');
-                        byteq.enqueue(b);
-                        break;
+                    emit((byte)'=');
+                    break;
+                } else {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Malformed MIME; expected \\r or "
+                                + "[0-9A-Z], got " + b);
                     }
-                case 2:  // encountered "=\r" so far
-                    if (b == '\n') {
-                        state = 0;
-                        break;
-                    } else {
-                        if (log.isWarnEnabled()) {
-                            log.warn("Malformed MIME; expected " 
-                                    + (int)'\n' + ", got " + b);
-                        }
-                        state = 0;
-                        byteq.enqueue((byte)'=');
-                        byteq.enqueue((byte)'\r');
-                        byteq.enqueue(b);
-                        break;
+                    state = 0;
+                    emit((byte)'=');
+                    emit(b);
+                    break;
+                }
+            case 2:  // encountered "=\r" so far
+                if (b == '\n') {
+                    state = 0;
+                    break;
+                } else {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Malformed MIME; expected " 
+                                + (int)'\n' + ", got " + b);
                     }
-                case 3:  // encountered =<digit> so far; expecting another <digit> to complete the octet
-                    if ((b >= '0' && b <= '9') || (b >= 'A' && b <= 'F') || (b >= 'a' && b <= 'f')) {
-                        byte msd = asciiCharToNumericValue(msdChar);
-                        byte low = asciiCharToNumericValue(b);
-                        state = 0;
-                        byteq.enqueue((byte)((msd << 4) | low));
-                        break;
-                    } else {
-                        if (log.isWarnEnabled()) {
-                            log.warn("Malformed MIME; expected "
-                                     + "[0-9A-Z], got " + b);
-                        }
-                        state = 0;
-                        byteq.enqueue((byte)'=');
-                        byteq.enqueue(msdChar);
-                        byteq.enqueue(b);
-                        break;
+                    state = 0;
+                    emit((byte)'=');
+                    emit((byte)'\r');
+                    emit(b);
+                    break;
+                }
+            case 3:  // encountered =<digit> so far; expecting another <digit> to complete the octet
+                byte low = HEX_VALUE[b & 0xFF];
+                if (low >= 0) {
+                    state = 0;
+                    emit((byte)((HEX_VALUE[msdChar & 0xFF] << 4) | low));
+                    break;
+                } else {
+                    if (log.isWarnEnabled()) {
+                        log.warn("Malformed MIME; expected "
+                                 + "[0-9A-Z], got " + b);
                     }
-                default:  // should never happen
-                    log.error("Illegal state: " + state);
                     state = 0;
-                    byteq.enqueue(b);
+                    emit((byte)'=');
+                    emit(msdChar);
+                    emit(b);
                     break;
-            }
+                }
+            default:  // should never happen
+                log.error("Illegal state: " + state);
+                state = 0;
+                emit(b);
+                break;
         }
     }
 
     /**
-     * Converts '0' => 0, 'A' => 10, etc.
-     * @param c ASCII character value.
-     * @return Numeric value of hexadecimal character.
+     * Writes a decoded byte to the caller's buffer, or to the overflow
+     * buffer once that is full.
      */
-    private byte asciiCharToNumericValue(byte c) {
-        if (c >= '0' && c <= '9') {
-            return (byte)(c - '0');
-        } else if (c >= 'A' && c <= 'Z') {
-            return (byte)(0xA + (c - 'A'));
-        } else if (c >= 'a' && c <= 'z') {
-            return (byte)(0xA + (c - 'a'));
-        } else {
-            /*
-             * This should never happen since all calls to this method
-             * are preceded by a check that c is in [0-9A-Za-z]
-             */
-            throw new IllegalArgumentException((char) c 
-                    + " is not a hexadecimal digit");
+    private void emit(byte b) {
+        if (outPos < outLimit) {
+            out[outPos++] = b;
+            return;
+        }
+        if (overflowPos == overflowCount) {
+            overflowPos = 0;
+            overflowCount = 0;
+        }
+        if (overflowCount == overflow.length) {
+            byte[] grown = new byte[overflow.length * 2];
+            System.arraycopy(overflow, 0, grown, 0, overflowCount);
+            overflow = grown;
         }
+        overflow[overflowCount++] = b;
     }
 
 }
@@ -19,12 +19,11 @@
 
 package org.apache.james.mime4j.util;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.HashMap;
 import java.util.Locale;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 //BEGIN android-changed: Stubbing out logging
 import org.apache.james.mime4j.Log;
@@ -808,6 +807,27 @@ public class CharsetUtil {
         public int compareTo(Charset c) {
             return this.canonical.compareTo(c.canonical);
         }
+
+        private boolean resolved = false;
+        private java.nio.charset.Charset javaCharset = null;
+
+        /**
+         * Looks up the VM's character set the first time it is needed.
+         *
+         * @return the character set or <code>null</code> if the VM doesn't
+         *         support it.
+         */
+        private synchronized java.nio.charset.Charset resolve() {
+            if (!resolved) {
+                try {
+                    javaCharset = java.nio.charset.Charset.forName(canonical);
+                } catch (IllegalCharsetNameException e) {
+                } catch (UnsupportedCharsetException e) {
+                }
+                resolved = true;
+            }
+            return javaCharset;
+        }
     }
 
     private static Charset[] JAVA_CHARSETS = {
@@ -1000,42 +1020,34 @@ public class CharsetUtil {
     };
 
     /**
-     * Contains the canonical names of character sets which can be used to
-     * decode bytes into Java chars.
+     * Maps character set names to Charset objects. All possible names of
+     * a charset will be mapped to the Charset.
      */
-    private static TreeSet<String> decodingSupported = null;
+    private static HashMap<String, Charset> charsetMap = null;
 
     /**
-     * Contains the canonical names of character sets which can be used to
-     * encode Java chars into bytes.
+     * The most character set names which are cached by
+     * {@link #getDecodingCharset(String)} and {@link #getCharset(String)}.
+     * Names come from messages, so this only guards against junk.
      */
-    private static TreeSet<String> encodingSupported = null;
+    private static final int MAX_CACHED_NAMES = 128;
 
     /**
-     * Maps character set names to Charset objects. All possible names of
-     * a charset will be mapped to the Charset.
+     * Maps character set names, as given to
+     * {@link #getDecodingCharset(String)}, to the VM's character sets.
      */
-    private static HashMap<String, Charset> charsetMap = null;
+    private static final ConcurrentHashMap<String, java.nio.charset.Charset>
+            decodingCharsets =
+                    new ConcurrentHashMap<String, java.nio.charset.Charset>();
 
-    static {
-        decodingSupported = new TreeSet<String>();
-        encodingSupported = new TreeSet<String>();
-        byte[] dummy = new byte[] {'d', 'u', 'm', 'm', 'y'};
-        for (int i = 0; i < JAVA_CHARSETS.length; i++) {
-            try {
-                String s = new String(dummy, JAVA_CHARSETS[i].canonical);
-                decodingSupported.add(JAVA_CHARSETS[i].canonical.toLowerCase(Locale.US));
-            } catch (UnsupportedOperationException e) {
-            } catch (UnsupportedEncodingException e) {
-            }
-            try {
-                "dummy".getBytes(JAVA_CHARSETS[i].canonical);
-                encodingSupported.add(JAVA_CHARSETS[i].canonical.toLowerCase(Locale.US));
-            } catch (UnsupportedOperationException e) {
-            } catch (UnsupportedEncodingException e) {
-            }
-        }
+    /**
+     * Maps character set names, as given to {@link #getCharset(String)}, to
+     * the VM's character sets (or the fallback).
+     */
+    private static final ConcurrentHashMap<String, java.nio.charset.Charset>
+            charsets = new ConcurrentHashMap<String, java.nio.charset.Charset>();
 
+    static {
         charsetMap = new HashMap<String, Charset>();
         for (int i = 0; i < JAVA_CHARSETS.length; i++) {
             Charset c = JAVA_CHARSETS[i];
@@ -1049,13 +1061,6 @@ public class CharsetUtil {
                 }
             }
         }
-
-        if (log.isDebugEnabled()) {
-            log.debug("Character sets which support decoding: "
-                        + decodingSupported);
-            log.debug("Character sets which support encoding: "
-                        + encodingSupported);
-        }
     }
 
     /**
@@ -1137,7 +1142,8 @@ public class CharsetUtil {
      *         otherwise.
      */
     public static boolean isEncodingSupported(String charsetName) {
-        return encodingSupported.contains(charsetName.toLowerCase(Locale.US));
+        java.nio.charset.Charset c = resolveCanonical(charsetName);
+        return c != null && c.canEncode();
     }
 
     /**
@@ -1152,7 +1158,49 @@ public class CharsetUtil {
      *         otherwise.
      */
     public static boolean isDecodingSupported(String charsetName) {
-        return decodingSupported.contains(charsetName.toLowerCase(Locale.US));
+        return resolveCanonical(charsetName) != null;
+    }
+
+    /**
+     * Gets the VM's character set for a canonical Java character set name.
+     *
+     * @return the character set or <code>null</code> if the name isn't a
+     *         known canonical name or the VM doesn't support it.
+     */
+    private static java.nio.charset.Charset resolveCanonical(String charsetName) {
+        String lowerCaseName = charsetName.toLowerCase(Locale.US);
+        Charset c = charsetMap.get(lowerCaseName);
+        if (c == null || !c.canonical.toLowerCase(Locale.US).equals(lowerCaseName)) {
+            return null;
+        }
+        return c.resolve();
+    }
+
+    /**
+     * Gets the VM's character set for the specified character set, which
+     * may be known by any of its names. This is the same as looking up
+     * {@link #toJavaCharset(String)} and checking
+     * {@link #isDecodingSupported(String)}, but the result is cached per
+     * name, so callers can skip looking up names when decoding.
+     *
+     * @param charsetName the character set name to look for.
+     * @return the character set or <code>null</code> if the name is not
+     *         known or the VM can't decode the character set.
+     */
+    public static java.nio.charset.Charset getDecodingCharset(String charsetName) {
+        java.nio.charset.Charset javaCharset = decodingCharsets.get(charsetName);
+        if (javaCharset != null) {
+            return javaCharset;
+        }
+        Charset c = charsetMap.get(charsetName.toLowerCase(Locale.US));
+        if (c == null) {
+            return null;
+        }
+        javaCharset = c.resolve();
+        if (javaCharset != null && decodingCharsets.size() < MAX_CACHED_NAMES) {
+            decodingCharsets.put(charsetName, javaCharset);
+        }
+        return javaCharset;
     }
 
     /**
@@ -1195,6 +1243,18 @@ public class CharsetUtil {
         // Use the default chareset if given charset is null
         if(charsetName == null) charsetName = defaultCharset;
 
+        java.nio.charset.Charset javaCharset = charsets.get(charsetName);
+        if (javaCharset == null) {
+            javaCharset = lookupCharset(charsetName, defaultCharset);
+            if (charsets.size() < MAX_CACHED_NAMES) {
+                charsets.put(charsetName, javaCharset);
+            }
+        }
+        return javaCharset;
+    }
+
+    private static java.nio.charset.Charset lookupCharset(String charsetName,
+            String defaultCharset) {
         try {
             return java.nio.charset.Charset.forName(charsetName);
         } catch (IllegalCharsetNameException e) {
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.emailcommon.mail.MessagingException;
+import com.android.emailcommon.mail.Part;
+import com.android.mail.utils.LogUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+public class MimeTypeMatcherTest extends AndroidTestCase {
+    private static final String LOG_TAG = "MimeTypeMatcherTest";
+
+    private static final int BENCHMARK_MESSAGES = 200;
+    private static final int BENCHMARK_ROUNDS = 20;
+
+    private static final String[] PART_TYPES = {
+        "text/plain", "text/html", "image/jpeg", "application/pdf",
+        "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+        "message/delivery-status", "text/calendar"
+    };
+
+    private static final String[] ACCEPTABLE_TYPES = {
+        "image/*", "audio/*", "video/*", "text/*", "application/pdf", "application/msword"
+    };
+
+    @SmallTest
+    public void testExact() {
+        assertTrue(MimeUtility.mimeTypeMatches("text/plain", "text/plain"));
+        assertTrue(MimeUtility.mimeTypeMatches("Text/PLAIN", "text/plain"));
+        assertFalse(MimeUtility.mimeTypeMatches("text/plainx", "text/plain"));
+        assertFalse(MimeUtility.mimeTypeMatches("text/plai", "text/plain"));
+    }
+
+    @SmallTest
+    public void testWildcards() {
+        assertTrue(MimeUtility.mimeTypeMatches("text/html", "text/*"));
+        assertTrue(MimeUtility.mimeTypeMatches("TEXT/HTML", "text/*"));
+        assertTrue(MimeUtility.mimeTypeMatches("text/", "text/*"));
+        assertFalse(MimeUtility.mimeTypeMatches("image/text", "text/*"));
+        assertTrue(MimeUtility.mimeTypeMatches("image/png", "*/*"));
+        assertFalse(MimeUtility.mimeTypeMatches("image", "*/*"));
+        assertTrue(MimeUtility.mimeTypeMatches("anything", "*"));
+        assertTrue(MimeUtility.mimeTypeMatches("application/vnd.ms-excel", "*/vnd.*"));
+        assertTrue(MimeUtility.mimeTypeMatches("application/vnd.ms-excel", "*ms*excel"));
+        assertFalse(MimeUtility.mimeTypeMatches("application/vnd.ms-excel", "*excel*ms*"));
+        assertTrue(MimeUtility.mimeTypeMatches("a/b", "a**/**b"));
+    }
+
+    @SmallTest
+    public void testLiteralCharacters() {
+        // Unlike a regex, '.' and '+' only match themselves
+        assertTrue(MimeUtility.mimeTypeMatches("application/rss+xml", "application/rss+xml"));
+        assertFalse(MimeUtility.mimeTypeMatches("application/vndXms-excel",
+                "application/vnd.ms-excel"));
+    }
+
+    @SmallTest
+    public void testArray() {
+        assertTrue(MimeUtility.mimeTypeMatches("image/gif", ACCEPTABLE_TYPES));
+        assertTrue(MimeUtility.mimeTypeMatches("APPLICATION/PDF", ACCEPTABLE_TYPES));
+        assertFalse(MimeUtility.mimeTypeMatches("application/zip", ACCEPTABLE_TYPES));
+    }
+
+    private static String createMultipartMessage(int index) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Subject: message ").append(index).append("\r\n");
+        sb.append("Content-Type: multipart/mixed; boundary=\"b\"\r\n\r\n");
+        for (int i = 0; i < PART_TYPES.length; i++) {
+            sb.append("--b\r\n");
+            sb.append("Content-Type: ").append(PART_TYPES[(index + i) % PART_TYPES.length])
+                    .append("\r\n\r\n");
+            sb.append("part ").append(i).append("\r\n");
+        }
+        sb.append("--b--\r\n");
+        return sb.toString();
+    }
+
+    /**
+     * Logs the per-part cost of classifying the parts of a corpus of multipart messages the way
+     * getTextFromPart and attachment filtering do, against compiling a regex per call as
+     * mimeTypeMatches used to.
+     */
+    @LargeTest
+    public void testMatchBenchmark() throws IOException, MessagingException {
+        final ArrayList<String> mimeTypes = new ArrayList<String>();
+        for (int i = 0; i < BENCHMARK_MESSAGES; i++) {
+            final MimeMessage message = new MimeMessage(
+                    new ByteArrayInputStream(createMultipartMessage(i).getBytes("US-ASCII")));
+            final ArrayList<Part> viewables = new ArrayList<Part>();
+            final ArrayList<Part> attachments = new ArrayList<Part>();
+            MimeUtility.collectParts(message, viewables, attachments);
+            for (Part part : viewables) {
+                mimeTypes.add(part.getMimeType());
+            }
+            for (Part part : attachments) {
+                mimeTypes.add(part.getMimeType());
+            }
+        }
+        final int parts = mimeTypes.size() * BENCHMARK_ROUNDS;
+
+        int matched = 0;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (String mimeType : mimeTypes) {
+                if (MimeUtility.mimeTypeMatches(mimeType, "text/*")) {
+                    matched++;
+                }
+                if (MimeUtility.mimeTypeMatches(mimeType, ACCEPTABLE_TYPES)) {
+                    matched++;
+                }
+            }
+        }
+        report("Compiled matchers", start, parts);
+
+        int regexMatched = 0;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (String mimeType : mimeTypes) {
+                if (regexMatches(mimeType, "text/*")) {
+                    regexMatched++;
+                }
+                for (String acceptable : ACCEPTABLE_TYPES) {
+                    if (regexMatches(mimeType, acceptable)) {
+                        regexMatched++;
+                        break;
+                    }
+                }
+            }
+        }
+        report("Regex per call", start, parts);
+        assertEquals(regexMatched, matched);
+    }
+
+    private static boolean regexMatches(String mimeType, String matchAgainst) {
+        return Pattern.compile(matchAgainst.replaceAll("\\*", "\\.\\*"), Pattern.CASE_INSENSITIVE)
+                .matcher(mimeType).matches();
+    }
+
+    private static void report(String name, long startNanos, int parts) {
+        LogUtils.i(LOG_TAG, "%s: %dns per part", name,
+                (SystemClock.elapsedRealtimeNanos() - startNanos) / parts);
+    }
+}
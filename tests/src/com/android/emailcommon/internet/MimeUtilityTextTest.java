@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.internet;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.emailcommon.mail.MessagingException;
+import com.android.emailcommon.mail.Part;
+import com.android.emailcommon.utility.ConversionUtilities;
+import com.android.emailcommon.utility.ConversionUtilities.BodyFieldData;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for reading the text of parts with {@link MimeUtility#getTextFromPart} and
+ * {@link MimeUtility#appendTextFromPart}.
+ */
+@SmallTest
+public class MimeUtilityTextTest extends AndroidTestCase {
+
+    private static String repeat(String s, int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static Part createTextPart(String text, String mimeType) throws MessagingException {
+        // TextBody yields UTF-8
+        return new MimeBodyPart(new TextBody(text), mimeType + "; charset=utf-8");
+    }
+
+    public void testGetTextFromPart() throws MessagingException {
+        final String text = repeat("Café 日本語 😀\r\n", 2000);
+        assertEquals(text, MimeUtility.getTextFromPart(createTextPart(text, "text/plain"), null));
+    }
+
+    public void testGetTextFromPartNotText() throws MessagingException {
+        assertNull(MimeUtility.getTextFromPart(createTextPart("abc", "image/png"), null));
+        assertNull(MimeUtility.getTextFromPart(null, null));
+    }
+
+    public void testUnknownCharset() throws MessagingException {
+        final Part part = new MimeBodyPart(new TextBody("aé"), "text/plain; charset=x-none");
+        // Decoded as US-ASCII
+        assertEquals("a\ufffd\ufffd", MimeUtility.getTextFromPart(part, null));
+    }
+
+    public void testAppendTextFromPartMaxChars() throws MessagingException {
+        final String text = repeat("0123456789", 5000);
+        final StringBuilder sb = new StringBuilder("> ");
+        assertTrue(MimeUtility.appendTextFromPart(createTextPart(text, "text/plain"), sb, 25,
+                null));
+        assertEquals("> " + text.substring(0, 25), sb.toString());
+    }
+
+    public void testParseBodyFields() throws MessagingException {
+        final ArrayList<Part> viewables = new ArrayList<Part>();
+        viewables.add(createTextPart("first", "text/plain"));
+        viewables.add(createTextPart("<b>bold</b>", "text/html"));
+        viewables.add(createTextPart("second part", "text/plain"));
+        viewables.add(createTextPart("third", "text/plain"));
+
+        final BodyFieldData data = ConversionUtilities.parseBodyFields(viewables);
+        assertEquals("first\nsecond part\nthird", data.textContent);
+        assertEquals("<b>bold</b>", data.htmlContent);
+        assertEquals("first second part third", data.snippet);
+    }
+}
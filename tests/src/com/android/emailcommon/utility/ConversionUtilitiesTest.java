@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.utility;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.emailcommon.internet.MimeBodyPart;
+import com.android.emailcommon.internet.TextBody;
+import com.android.emailcommon.mail.MessagingException;
+import com.android.emailcommon.mail.Part;
+import com.android.emailcommon.utility.ConversionUtilities.BodyFieldData;
+
+import java.util.ArrayList;
+
+@SmallTest
+public class ConversionUtilitiesTest extends AndroidTestCase {
+
+    private static Part createTextPart(String text, String mimeType) throws MessagingException {
+        return new MimeBodyPart(new TextBody(text), mimeType + "; charset=utf-8");
+    }
+
+    public void testSnippetBuilder() {
+        final String[] texts = {
+            "", "   ", "  Hello,\r\n\tworld  ", "a  b", "----\n====\n--=-=", "x "
+        };
+        for (String text : texts) {
+            assertEquals(TextUtilities.makeSnippetFromPlainText(text),
+                    new TextUtilities.SnippetBuilder().append(text).toString());
+        }
+
+        final StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longText.append("word ").append(i).append("\n\n");
+        }
+        final TextUtilities.SnippetBuilder snippet = new TextUtilities.SnippetBuilder();
+        for (int i = 0; i < longText.length() && !snippet.isFull(); i += 7) {
+            snippet.append(longText, i, Math.min(i + 7, longText.length()));
+        }
+        assertTrue(snippet.isFull());
+        assertEquals(TextUtilities.makeSnippetFromPlainText(longText.toString()),
+                snippet.toString());
+    }
+
+    public void testParseBodyFieldsWithoutHtmlSnippet() throws MessagingException {
+        final String html = "<p onclick=\"x()\">Hello <b>there</b></p><script>x()</script>";
+        final ArrayList<Part> viewables = new ArrayList<Part>();
+        viewables.add(createTextPart("  plain\ttext ", "text/plain"));
+        viewables.add(createTextPart(html, "text/html"));
+        viewables.add(createTextPart("more", "text/plain"));
+
+        BodyFieldData data = ConversionUtilities.parseBodyFieldsWithoutHtmlSnippet(viewables);
+        assertEquals("  plain\ttext \nmore", data.textContent);
+        assertEquals(html, data.htmlContent);
+        assertEquals("plain text more", data.snippet);
+
+        // Without plain text the snippet is left to the caller
+        viewables.remove(2);
+        viewables.remove(0);
+        data = ConversionUtilities.parseBodyFieldsWithoutHtmlSnippet(viewables);
+        assertNull(data.textContent);
+        assertEquals(html, data.htmlContent);
+        assertNull(data.snippet);
+        assertEquals("Hello there", ConversionUtilities.parseBodyFields(viewables).snippet);
+    }
+}
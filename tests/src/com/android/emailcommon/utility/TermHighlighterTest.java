@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.emailcommon.utility;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.SpannableStringBuilder;
+import android.text.style.BackgroundColorSpan;
+
+import com.android.mail.utils.LogUtils;
+
+public class TermHighlighterTest extends AndroidTestCase {
+    private static final String LOG_TAG = "TermHighlighterTest";
+
+    private static final String START = "<span style=\"background-color: "
+            + TextUtilities.HIGHLIGHT_COLOR_STRING + "\">";
+    private static final String END = "</span>";
+
+    private static final int BENCHMARK_ROUNDS = 200;
+
+    private static String highlight(String text) {
+        return START + text + END;
+    }
+
+    @SmallTest
+    public void testHighlightHtml() {
+        assertEquals("", TextUtilities.highlightTermsInHtml("", "abc"));
+        assertEquals("abc", TextUtilities.highlightTermsInHtml("abc", ""));
+        assertEquals("abc", TextUtilities.highlightTermsInHtml("abc", null));
+        assertEquals("x" + highlight("AbC") + "x" + highlight("abc"),
+                TextUtilities.highlightTermsInHtml("xAbCxabc", "aBc"));
+        // Every occurrence is found, even one starting inside a partial match
+        assertEquals("a" + highlight("ab"), TextUtilities.highlightTermsInHtml("aab", "ab"));
+        // Overlapping and adjacent matches are highlighted as one
+        assertEquals(highlight("abab") + " " + highlight("cde"),
+                TextUtilities.highlightTermsInHtml("abab cde", "bab a c de"));
+    }
+
+    @SmallTest
+    public void testHighlightHtmlSkipsTags() {
+        assertEquals("<b class=\"bold\">" + highlight("bold") + "</b>",
+                TextUtilities.highlightTermsInHtml("<b class=\"bold\">bold</b>", "bold"));
+        // Matches don't span tags
+        assertEquals("bo<i>ld</i>", TextUtilities.highlightTermsInHtml("bo<i>ld</i>", "bold"));
+        // Nor do they go into stripped elements
+        assertEquals("<title>bold</title><script>bold()</script>" + highlight("bold"),
+                TextUtilities.highlightTermsInHtml(
+                        "<title>bold</title><script>bold()</script>bold", "bold"));
+        // A '<' that doesn't start a tag is text
+        assertEquals("1 " + highlight("<") + " 2",
+                TextUtilities.highlightTermsInHtml("1 < 2", "<"));
+    }
+
+    @SmallTest
+    public void testHighlightText() {
+        final SpannableStringBuilder text = (SpannableStringBuilder)
+                TextUtilities.highlightTermsInText("Ab ab aab", "ab");
+        final BackgroundColorSpan[] spans =
+                text.getSpans(0, text.length(), BackgroundColorSpan.class);
+        assertEquals(3, spans.length);
+        assertEquals(0, text.getSpanStart(spans[0]));
+        assertEquals(2, text.getSpanEnd(spans[0]));
+        assertEquals(3, text.getSpanStart(spans[1]));
+        assertEquals(5, text.getSpanEnd(spans[1]));
+        assertEquals(7, text.getSpanStart(spans[2]));
+        assertEquals(9, text.getSpanEnd(spans[2]));
+    }
+
+    @SmallTest
+    public void testGetHighlighter() {
+        final TermHighlighter highlighter = TextUtilities.getHighlighter("a b");
+        assertSame(highlighter, TextUtilities.getHighlighter("a b"));
+        assertNotSame(highlighter, TextUtilities.getHighlighter("a c"));
+    }
+
+    /**
+     * Logs the per-message cost of highlighting a multi-term query in a list of HTML messages, as
+     * search results are.
+     */
+    @LargeTest
+    public void testHighlightBenchmark() {
+        final StringBuilder sb = new StringBuilder("<html><head><title>Title</title></head><body>");
+        for (int i = 0; i < 200; i++) {
+            sb.append("<p class=\"para\">Paragraph ").append(i)
+                    .append(" of the meeting notes, with <b>search</b> results.</p>\n");
+        }
+        final String html = sb.append("</body></html>").toString();
+        final String query = "meeting notes search paragraph result";
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            TextUtilities.highlightTermsInHtml(html, query);
+        }
+        LogUtils.i(LOG_TAG, "%s: %dns per message", "Highlight HTML",
+                (SystemClock.elapsedRealtimeNanos() - start) / BENCHMARK_ROUNDS);
+    }
+}
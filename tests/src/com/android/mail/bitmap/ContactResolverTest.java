@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.bitmap;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.android.bitmap.BitmapCache;
+import com.android.bitmap.RequestKey;
+import com.android.bitmap.ReusableBitmap;
+import com.android.bitmap.UnrefedBitmapCache;
+import com.android.mail.ContactInfo;
+import com.android.mail.bitmap.ContactRequest.ContactRequestHolder;
+import com.android.mail.bitmap.ContactResolver.ContactDrawableInterface;
+import com.android.mail.bitmap.ContactResolver.ContactResolverTask;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link ContactResolverTask} batches against canned contact lookups.
+ */
+@LargeTest
+public class ContactResolverTest extends AndroidTestCase {
+    private static final int PHOTO_SIZE = 96;
+
+    private BitmapCache mCache;
+    private String mEmailPrefix;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCache = new UnrefedBitmapCache(1024 * 1024, 0.1f, 16);
+        // Addresses without photos are remembered across tasks, so keep each test's apart
+        mEmailPrefix = getName() + SystemClock.elapsedRealtime();
+    }
+
+    private String email(String name) {
+        return mEmailPrefix + "." + name + "@example.com";
+    }
+
+    public void testNoPhotoIsRemembered() throws Exception {
+        final String noPhoto = email("nophoto");
+        final Map<String, ContactInfo> infos = Maps.newHashMap();
+        infos.put(noPhoto, new ContactInfo(Uri.parse("content://contacts/1")));
+
+        final TestDestination destination = new TestDestination(1);
+        final TestTask task = new TestTask(requests(destination, noPhoto), mCache, infos);
+        task.doInBackground();
+        destination.await();
+        assertEquals(Collections.singleton(noPhoto), task.mLoadedEmails);
+        assertTrue(destination.mResults.containsKey(noPhoto));
+        assertNull(destination.mResults.get(noPhoto));
+
+        final long now = SystemClock.elapsedRealtime();
+        assertTrue(ContactResolver.isKnownToHaveNoPhoto(noPhoto, now));
+
+        // The next batch doesn't look the address up again, but still completes its request
+        final TestDestination nextDestination = new TestDestination(1);
+        final TestTask nextTask = new TestTask(requests(nextDestination, noPhoto), mCache, infos);
+        nextTask.doInBackground();
+        nextDestination.await();
+        assertTrue(nextTask.mLoadedEmails.isEmpty());
+        assertTrue(nextDestination.mResults.containsKey(noPhoto));
+
+        // Until it's time to look again
+        assertFalse(ContactResolver.isKnownToHaveNoPhoto(noPhoto,
+                now + ContactResolver.NO_PHOTO_TTL_MS));
+        assertFalse(ContactResolver.isKnownToHaveNoPhoto(noPhoto, now));
+    }
+
+    public void testSkippedRequestIsRetried() throws Exception {
+        final String skipped = email("skipped");
+        final String noPhoto = email("nophoto");
+        final Map<String, ContactInfo> infos = Maps.newHashMap();
+        infos.put(noPhoto, new ContactInfo(Uri.parse("content://contacts/1")));
+
+        // The skipped request is first, so its result would arrive before the other one's
+        final TestDestination destination = new TestDestination(1);
+        final TestTask task = new TestTask(requests(destination, skipped, noPhoto), mCache, infos);
+        task.doInBackground();
+        destination.await();
+        assertEquals(Sets.newHashSet(skipped, noPhoto), task.mLoadedEmails);
+        assertFalse(destination.mResults.containsKey(skipped));
+        assertTrue(destination.mResults.containsKey(noPhoto));
+        assertFalse(ContactResolver.isKnownToHaveNoPhoto(skipped, SystemClock.elapsedRealtime()));
+
+        final TestTask nextTask = new TestTask(requests(new TestDestination(0), skipped), mCache,
+                infos);
+        nextTask.doInBackground();
+        assertEquals(Collections.singleton(skipped), nextTask.mLoadedEmails);
+    }
+
+    public void testDecodeCounters() throws Exception {
+        final String withPhoto = email("photo");
+        final Map<String, ContactInfo> infos = Maps.newHashMap();
+        infos.put(withPhoto, new ContactInfo(Uri.parse("content://contacts/1"), createPhoto()));
+
+        final int decodeCount = ContactResolver.getDecodeCount();
+        final long decodedBytes = ContactResolver.getDecodedBytes();
+        final TestDestination destination = new TestDestination(1);
+        final TestTask task = new TestTask(requests(destination, withPhoto), mCache, infos);
+        task.doInBackground();
+        destination.await();
+
+        final ReusableBitmap result = destination.mResults.get(withPhoto);
+        assertNotNull(result);
+        assertEquals(decodeCount + 1, ContactResolver.getDecodeCount());
+        assertEquals(decodedBytes + result.getByteCount(), ContactResolver.getDecodedBytes());
+    }
+
+    public void testFailedDecodeDoesNotStopBatch() throws Exception {
+        final String failing = email("failing");
+        final String withPhoto = email("photo");
+        final byte[] photo = createPhoto();
+        final Map<String, ContactInfo> infos = Maps.newHashMap();
+        infos.put(failing, new ContactInfo(Uri.parse("content://contacts/1"), photo));
+        infos.put(withPhoto, new ContactInfo(Uri.parse("content://contacts/2"), photo));
+
+        final TestDestination destination = new TestDestination(2);
+        final TestDestination failingDestination = new TestDestination(0) {
+            @Override
+            public int getDecodeWidth() {
+                throw new IllegalStateException("Failing decode");
+            }
+
+            @Override
+            public void onDecodeComplete(RequestKey key, ReusableBitmap result) {
+                destination.onDecodeComplete(key, result);
+            }
+        };
+        final LinkedHashSet<ContactRequestHolder> requests =
+                requests(failingDestination, failing);
+        requests.addAll(requests(destination, withPhoto));
+        final TestTask task = new TestTask(requests, mCache, infos);
+        task.doInBackground();
+        destination.await();
+
+        // The failed decode completes with no photo
+        assertTrue(destination.mResults.containsKey(failing));
+        assertNull(destination.mResults.get(failing));
+        assertNotNull(destination.mResults.get(withPhoto));
+    }
+
+    private static LinkedHashSet<ContactRequestHolder> requests(
+            ContactDrawableInterface destination, String... emails) {
+        final LinkedHashSet<ContactRequestHolder> requests =
+                new LinkedHashSet<ContactRequestHolder>();
+        for (String email : emails) {
+            requests.add(new ContactRequestHolder(new ContactRequest(email, email), destination));
+        }
+        return requests;
+    }
+
+    private static byte[] createPhoto() {
+        final Bitmap bitmap = Bitmap.createBitmap(PHOTO_SIZE, PHOTO_SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.BLUE);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    /**
+     * Serves the contact infos it's given rather than querying the contacts provider, and
+     * records which addresses it was asked for.
+     */
+    private static class TestTask extends ContactResolverTask {
+        private final Map<String, ContactInfo> mContactInfos;
+        final Set<String> mLoadedEmails = Sets.newHashSet();
+
+        TestTask(Set<ContactRequestHolder> requests, BitmapCache cache,
+                Map<String, ContactInfo> contactInfos) {
+            super(requests, null, cache, null);
+            mContactInfos = contactInfos;
+        }
+
+        @Override
+        protected ImmutableMap<String, ContactInfo> loadContactPhotos(Set<String> emails) {
+            mLoadedEmails.addAll(emails);
+            final ImmutableMap.Builder<String, ContactInfo> builder = ImmutableMap.builder();
+            for (String email : emails) {
+                final ContactInfo info = mContactInfos.get(email);
+                if (info != null) {
+                    builder.put(email, info);
+                }
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Records the results of the requests, by address. Results are delivered on the main thread.
+     */
+    private static class TestDestination implements ContactDrawableInterface {
+        final Map<String, ReusableBitmap> mResults =
+                Collections.synchronizedMap(Maps.<String, ReusableBitmap>newHashMap());
+        private final CountDownLatch mLatch;
+
+        TestDestination(int expectedResults) {
+            mLatch = new CountDownLatch(expectedResults);
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(mLatch.await(10, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public void onDecodeComplete(RequestKey key, ReusableBitmap result) {
+            mResults.put(((ContactRequest) key).getEmail(), result);
+            mLatch.countDown();
+        }
+
+        @Override
+        public int getDecodeWidth() {
+            return PHOTO_SIZE;
+        }
+
+        @Override
+        public int getDecodeHeight() {
+            return PHOTO_SIZE;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class CachedColumnStoreTest extends AndroidTestCase {
+    private static final String[] COLUMNS = { "read", "subject", "info" };
+    private static final int READ = 0;
+    private static final int SUBJECT = 1;
+    private static final int INFO = 2;
+
+    public void testPutAndGet() {
+        final CachedColumnStore store = new CachedColumnStore(4, COLUMNS.length);
+        assertFalse(store.isDirty(1));
+        assertNull(store.getValue(1, READ));
+
+        final byte[] blob = new byte[] { 1, 2, 3 };
+        store.putInt(1, READ, 1);
+        store.putObject(1, SUBJECT, "subject");
+        store.putObject(2, INFO, blob);
+        // Values aren't visible until the row is touched
+        assertFalse(store.hasValue(1, READ));
+        store.touch(1, 100);
+        store.touch(2, 200);
+
+        assertTrue(store.isDirty(1));
+        assertEquals(2, store.getDirtyRowCount());
+        assertEquals(100, store.getUpdateTime(1));
+        assertEquals(1, store.getInt(1, READ));
+        assertEquals(Integer.valueOf(1), store.getValue(1, READ));
+        assertEquals("subject", store.getValue(1, SUBJECT));
+        assertSame(blob, store.getValue(2, INFO));
+        assertFalse(store.hasValue(1, INFO));
+        assertFalse(store.hasValue(2, READ));
+        assertFalse(store.hasValue(1, -1));
+        assertFalse(store.hasValue(5, READ));
+
+        final ContentValues values = store.getValues(1, COLUMNS);
+        assertEquals(2, values.size());
+        assertEquals(Integer.valueOf(1), values.getAsInteger("read"));
+        assertEquals("subject", values.getAsString("subject"));
+    }
+
+    public void testPutOverwritesOtherType() {
+        final CachedColumnStore store = new CachedColumnStore(2, COLUMNS.length);
+        store.putObject(0, SUBJECT, "subject");
+        store.putInt(0, SUBJECT, 7);
+        store.touch(0, 0);
+        assertEquals(Integer.valueOf(7), store.getValue(0, SUBJECT));
+
+        store.putObject(0, SUBJECT, "again");
+        assertEquals("again", store.getValue(0, SUBJECT));
+    }
+
+    public void testClearRow() {
+        final CachedColumnStore store = new CachedColumnStore(3, COLUMNS.length);
+        store.putInt(0, READ, 1);
+        store.putObject(0, SUBJECT, "subject");
+        store.touch(0, 100);
+        store.putObject(1, SUBJECT, "other");
+        store.touch(1, 100);
+
+        store.clearRow(0);
+        assertFalse(store.isDirty(0));
+        assertEquals(0, store.nextCleanRow(0));
+        assertEquals(1, store.nextDirtyRow(0));
+        assertFalse(store.hasValue(0, READ));
+        assertNull(store.getValue(0, SUBJECT));
+        assertEquals("other", store.getValue(1, SUBJECT));
+
+        // A cleared row can be reused without old values showing through
+        store.putInt(0, READ, 0);
+        store.touch(0, 200);
+        assertFalse(store.hasValue(0, SUBJECT));
+        assertEquals(0, store.getInt(0, READ));
+        assertEquals(200, store.getUpdateTime(0));
+
+        // Clearing rows out of range does nothing
+        store.clearRow(-1);
+        store.clearRow(3);
+    }
+
+    public void testRowGrowth() {
+        final CachedColumnStore store = new CachedColumnStore(0, COLUMNS.length);
+        assertEquals(0, store.getRowCount());
+        assertEquals(0, store.nextCleanRow(0));
+
+        store.ensureRowCount(1);
+        assertEquals(1, store.getRowCount());
+        store.putInt(0, READ, 1);
+        store.putObject(0, SUBJECT, "subject");
+        store.touch(0, 100);
+
+        for (int row = 1; row < 10; row++) {
+            assertEquals(row, store.nextCleanRow(0));
+            store.ensureRowCount(row + 1);
+            assertTrue(store.getRowCount() > row);
+            assertFalse(store.isDirty(row));
+            store.putInt(row, READ, row);
+            store.touch(row, row);
+        }
+
+        // Values written before the growth are kept
+        assertEquals(1, store.getInt(0, READ));
+        assertEquals("subject", store.getValue(0, SUBJECT));
+        assertEquals(100, store.getUpdateTime(0));
+        for (int row = 1; row < 10; row++) {
+            assertEquals(row, store.getInt(row, READ));
+            assertFalse(store.hasValue(row, SUBJECT));
+        }
+
+        // Shrinking is a no-op
+        final int rowCount = store.getRowCount();
+        store.ensureRowCount(1);
+        assertEquals(rowCount, store.getRowCount());
+    }
+
+    public void testCopyRow() {
+        final CachedColumnStore from = new CachedColumnStore(2, COLUMNS.length);
+        from.putInt(1, READ, 1);
+        from.putObject(1, SUBJECT, "subject");
+        from.touch(1, 100);
+
+        final CachedColumnStore to = new CachedColumnStore(0, COLUMNS.length);
+        to.ensureRowCount(5);
+        to.copyRow(from, 1, 4);
+        assertTrue(to.isDirty(4));
+        assertEquals(100, to.getUpdateTime(4));
+        assertEquals(1, to.getInt(4, READ));
+        assertEquals("subject", to.getValue(4, SUBJECT));
+        assertFalse(to.hasValue(4, INFO));
+    }
+}
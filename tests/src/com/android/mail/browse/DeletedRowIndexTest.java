@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class DeletedRowIndexTest extends AndroidTestCase {
+
+    public void testEmpty() {
+        final DeletedRowIndex index = new DeletedRowIndex(0);
+        assertEquals(0, index.getVisibleCount());
+        assertEquals(-1, index.toUnderlyingPosition(0));
+        assertEquals(-1, index.toVisiblePosition(0));
+        assertFalse(index.setDeleted(0, true));
+    }
+
+    public void testNoDeletions() {
+        final DeletedRowIndex index = new DeletedRowIndex(10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, index.toUnderlyingPosition(i));
+            assertEquals(i, index.toVisiblePosition(i));
+        }
+        assertEquals(-1, index.toUnderlyingPosition(10));
+    }
+
+    public void testDeleteAndUndelete() {
+        final DeletedRowIndex index = new DeletedRowIndex(7);
+        assertTrue(index.setDeleted(0, true));
+        assertTrue(index.setDeleted(3, true));
+        assertTrue(index.setDeleted(4, true));
+        assertFalse("Deleting twice should be a no-op", index.setDeleted(4, true));
+
+        assertEquals(3, index.getDeletedCount());
+        assertEquals(4, index.getVisibleCount());
+        assertEquals(1, index.toUnderlyingPosition(0));
+        assertEquals(2, index.toUnderlyingPosition(1));
+        assertEquals(5, index.toUnderlyingPosition(2));
+        assertEquals(6, index.toUnderlyingPosition(3));
+        assertEquals(-1, index.toUnderlyingPosition(4));
+
+        assertEquals(-1, index.toVisiblePosition(3));
+        assertEquals(2, index.toVisiblePosition(5));
+        assertEquals(2, index.deletedBefore(3));
+
+        assertTrue(index.setDeleted(3, false));
+        assertEquals(5, index.getVisibleCount());
+        assertEquals(3, index.toUnderlyingPosition(2));
+        assertEquals(2, index.toVisiblePosition(3));
+    }
+
+    public void testAllDeleted() {
+        final DeletedRowIndex index = new DeletedRowIndex(5);
+        for (int i = 0; i < 5; i++) {
+            index.setDeleted(i, true);
+        }
+        assertEquals(0, index.getVisibleCount());
+        assertEquals(-1, index.toUnderlyingPosition(0));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.providers.Conversation;
+
+@SmallTest
+public class PagedConversationCacheTest extends AndroidTestCase {
+    private static final int PAGE_SIZE = PagedConversationCache.PAGE_SIZE;
+
+    private final Conversation mConversation = new Conversation.Builder().build();
+
+    /**
+     * Runs the prefetcher until it is done.
+     *
+     * @return the number of rows it filled
+     */
+    private int prefetch(PagedConversationCache cache) {
+        int filled = 0;
+        int position;
+        while ((position = cache.nextPrefetchPosition()) >= 0) {
+            assertTrue(cache.putIfAbsent(position, mConversation));
+            filled++;
+        }
+        return filled;
+    }
+
+    public void testSmallCursorIsFullyCached() {
+        final int count = PAGE_SIZE * 3 + 7;
+        final PagedConversationCache cache = new PagedConversationCache(count);
+        assertFalse(cache.isPaged());
+        cache.onPositionShown(PAGE_SIZE * 2);
+        assertEquals(count, prefetch(cache));
+        for (int i = 0; i < count; i++) {
+            assertNotNull(cache.get(i));
+        }
+        assertFalse(cache.putIfAbsent(0, mConversation));
+    }
+
+    public void testLargeCursorStaysBounded() {
+        final int count = PAGE_SIZE * PagedConversationCache.MAX_RESIDENT_PAGES * 5;
+        final PagedConversationCache cache = new PagedConversationCache(count);
+        assertTrue(cache.isPaged());
+        assertEquals(PAGE_SIZE * (PagedConversationCache.PREFETCH_PAGES + 1), prefetch(cache));
+
+        for (int position = 0; position < count; position += PAGE_SIZE / 2) {
+            cache.onPositionShown(position);
+            cache.putIfAbsent(position, mConversation);
+            prefetch(cache);
+            assertNotNull(cache.get(position));
+            assertTrue(cache.getResidentPageCount() <= PagedConversationCache.MAX_RESIDENT_PAGES);
+        }
+        assertNull("Pages far behind should have been evicted", cache.get(0));
+    }
+
+    public void testPrefetchFollowsScrollDirection() {
+        final int count = PAGE_SIZE * PagedConversationCache.MAX_RESIDENT_PAGES * 2;
+        final PagedConversationCache cache = new PagedConversationCache(count);
+        cache.onPositionShown(PAGE_SIZE * 30);
+        prefetch(cache);
+        cache.onPositionShown(PAGE_SIZE * 29);
+        final int next = cache.nextPrefetchPosition();
+        assertEquals(PAGE_SIZE * 29, next);
+        cache.putIfAbsent(next, mConversation);
+        prefetch(cache);
+        assertNotNull(cache.get(PAGE_SIZE * 27));
+        assertNull(cache.get(PAGE_SIZE * 33));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.utils.LogUtils;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.Set;
+
+public class PositionMapTest extends AndroidTestCase {
+    private static final String LOG_TAG = "PositionMapTest";
+
+    private static final int BENCHMARK_ROWS = 10000;
+
+    @SmallTest
+    public void testLongPositionMap() {
+        final LongPositionMap map = new LongPositionMap(3);
+        assertEquals(-1, map.put(100L, 0));
+        assertEquals(-1, map.put(-5L, 1));
+        assertEquals(-1, map.put(Long.MAX_VALUE, 2));
+        assertEquals(3, map.size());
+
+        assertEquals(0, map.get(100L));
+        assertEquals(1, map.get(-5L));
+        assertEquals(2, map.get(Long.MAX_VALUE));
+        assertEquals(-1, map.get(7L));
+
+        assertEquals("Duplicate keys should report the previous position", 0, map.put(100L, 5));
+        assertEquals(5, map.get(100L));
+        assertEquals(3, map.size());
+
+        final Set<Long> keys = map.keySet();
+        assertEquals(3, keys.size());
+        assertTrue(keys.contains(-5L));
+        assertFalse(keys.contains(7L));
+        int iterated = 0;
+        for (Long key : keys) {
+            assertTrue(map.containsKey(key));
+            iterated++;
+        }
+        assertEquals(3, iterated);
+    }
+
+    @SmallTest
+    public void testStringPositionMap() {
+        // "Aa" and "BB" share a hash code
+        final String[] keys = new String[] { "Aa", "BB", "content://a/1", null };
+        final StringPositionMap map = new StringPositionMap(keys);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(-1, map.put(i));
+        }
+        assertEquals(4, map.size());
+        assertEquals(0, map.get("Aa"));
+        assertEquals(1, map.get("BB"));
+        assertEquals(2, map.get("content://a/1"));
+        assertEquals(3, map.get(null));
+        assertEquals(-1, map.get("content://a/2"));
+    }
+
+    /**
+     * Compares filling the primitive maps against the boxed HashMaps they replaced, reporting
+     * time and bytes allocated per 1k rows in the log.
+     */
+    @LargeTest
+    public void testPreloadBenchmark() {
+        final String[] uris = new String[BENCHMARK_ROWS];
+        final long[] ids = new long[BENCHMARK_ROWS];
+        for (int i = 0; i < BENCHMARK_ROWS; i++) {
+            ids[i] = 1000000L + i * 7919L;
+            uris[i] = "content://com.android.mail.mockprovider/conversation/" + ids[i];
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = SystemClock.elapsedRealtimeNanos();
+            final Map<String, Integer> uriMap = Maps.newHashMapWithExpectedSize(BENCHMARK_ROWS);
+            final Map<Long, Integer> idMap = Maps.newHashMapWithExpectedSize(BENCHMARK_ROWS);
+            for (int i = 0; i < BENCHMARK_ROWS; i++) {
+                uriMap.put(uris[i], i);
+                idMap.put(ids[i], i);
+            }
+            report("HashMap", SystemClock.elapsedRealtimeNanos() - start,
+                    Debug.getThreadAllocSize());
+
+            Debug.resetThreadAllocSize();
+            start = SystemClock.elapsedRealtimeNanos();
+            final String[] uriCache = new String[BENCHMARK_ROWS];
+            final StringPositionMap uriPositions = new StringPositionMap(uriCache);
+            final LongPositionMap idPositions = new LongPositionMap(BENCHMARK_ROWS);
+            for (int i = 0; i < BENCHMARK_ROWS; i++) {
+                uriCache[i] = uris[i];
+                uriPositions.put(i);
+                idPositions.put(ids[i], i);
+            }
+            report("PositionMap", SystemClock.elapsedRealtimeNanos() - start,
+                    Debug.getThreadAllocSize());
+
+            assertEquals(uriMap.size(), uriPositions.size());
+            assertEquals(idMap.size(), idPositions.size());
+            for (int i = 0; i < BENCHMARK_ROWS; i++) {
+                assertEquals(i, uriPositions.get(uris[i]));
+                assertEquals(i, idPositions.get(ids[i]));
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    private static void report(String name, long elapsedNanos, long allocatedBytes) {
+        final int thousands = BENCHMARK_ROWS / 1000;
+        LogUtils.i(LOG_TAG, "%s pre-loading: %dus and %d bytes per 1k rows", name,
+                elapsedNanos / 1000 / thousands, allocatedBytes / thousands);
+    }
+}
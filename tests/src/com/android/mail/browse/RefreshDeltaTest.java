@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.browse;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+
+@SmallTest
+public class RefreshDeltaTest extends AndroidTestCase {
+
+    public void testEmpty() {
+        final RefreshDelta delta = new RefreshDelta();
+        delta.incrementCarriedOverCount();
+        assertTrue(delta.isEmpty());
+        assertEquals(0, delta.getInsertedRanges().length);
+        assertEquals(1, delta.getCarriedOverCount());
+    }
+
+    public void testRangesCoalesce() {
+        final RefreshDelta delta = new RefreshDelta();
+        delta.addInserted(0);
+        delta.addChanged(2);
+        delta.addChanged(3);
+        delta.addChanged(4);
+        delta.addChanged(7);
+        for (int i = 0; i < 6; i++) {
+            delta.addRemoved(i * 2);
+        }
+
+        assertFalse(delta.isEmpty());
+        assertTrue(Arrays.equals(new int[] { 0, 1 }, delta.getInsertedRanges()));
+        assertTrue(Arrays.equals(new int[] { 2, 3, 7, 1 }, delta.getChangedRanges()));
+        assertTrue(Arrays.equals(new int[] { 0, 1, 2, 1, 4, 1, 6, 1, 8, 1, 10, 1 },
+                delta.getRemovedRanges()));
+    }
+
+    public void testMovedIsNotEmpty() {
+        final RefreshDelta delta = new RefreshDelta();
+        delta.addMoved(1);
+        delta.addMoved(2);
+        assertFalse(delta.isEmpty());
+        assertTrue(Arrays.equals(new int[] { 1, 2 }, delta.getMovedRanges()));
+        assertEquals(0, delta.getChangedRanges().length);
+    }
+}
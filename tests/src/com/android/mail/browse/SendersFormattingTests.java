@@ -17,7 +17,10 @@
 
 package com.android.mail.browse;
 
+import android.os.Debug;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.text.SpannableString;
 
@@ -25,6 +28,7 @@ import com.android.mail.providers.Account;
 import com.android.mail.providers.ConversationInfo;
 import com.android.mail.providers.ParticipantInfo;
 import com.android.mail.providers.UIProvider;
+import com.android.mail.utils.LogUtils;
 import com.google.common.collect.Lists;
 
 import org.json.JSONException;
@@ -33,9 +37,11 @@ import org.json.JSONObject;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 
 @SmallTest
 public class SendersFormattingTests extends AndroidTestCase {
+    private static final String LOG_TAG = "SendersFormattingTests";
 
     private static ConversationInfo createConversationInfo() {
         return new ConversationInfo(0, 5, "snippet", "snippet", "snippet");
@@ -267,6 +273,69 @@ public class SendersFormattingTests extends AndroidTestCase {
         assertEquals("Andrew", displayableSenderNames.get(1));
     }
 
+    public void testMaxPriorityToInclude() {
+        final ArrayList<ParticipantInfo> participants = Lists.newArrayList();
+        assertEquals(0, SendersView.getMaxPriorityToInclude(participants, 0, 10));
+
+        participants.add(new ParticipantInfo("Alice", "a@example.com", 2, false));
+        participants.add(new ParticipantInfo("Bob", "b@example.com", 0, false));
+        participants.add(new ParticipantInfo("Carol", "c@example.com", 1, false));
+        // at least two senders are shown, even if they don't fit
+        assertEquals(1, SendersView.getMaxPriorityToInclude(participants, 0, 5));
+        assertEquals(1, SendersView.getMaxPriorityToInclude(participants, 0, 14));
+        assertEquals(2, SendersView.getMaxPriorityToInclude(participants, 0, 17));
+
+        // of two participants with the same priority, the name of the last one counts
+        participants.add(new ParticipantInfo("Dave Davidson", "d@example.com", 1, false));
+        assertEquals(1, SendersView.getMaxPriorityToInclude(participants, 0, 17));
+        assertEquals(2, SendersView.getMaxPriorityToInclude(participants, 0, 25));
+
+        // negative priorities are skipped
+        participants.add(new ParticipantInfo("Eve", "e@example.com", -1, false));
+        assertEquals(2, SendersView.getMaxPriorityToInclude(participants, 0, 25));
+    }
+
+    /**
+     * Logs the time and memory it takes to format the senders of conversations with 1 to 100
+     * participants.
+     */
+    @LargeTest
+    @SuppressWarnings("deprecation")
+    public void testFormatBenchmark() {
+        final int conversationCount = 10000;
+        final Random random = new Random(0);
+        final ConversationInfo[] conversations = new ConversationInfo[conversationCount];
+        for (int i = 0; i < conversationCount; i++) {
+            final int participantCount = 1 + random.nextInt(100);
+            conversations[i] = new ConversationInfo(participantCount);
+            for (int j = 0; j < participantCount; j++) {
+                final int priority = random.nextInt(participantCount);
+                conversations[i].addParticipant(new ParticipantInfo("Sender " + priority,
+                        "sender" + priority + "@example.com", priority, random.nextBoolean()));
+            }
+        }
+        final Account account = createAccount();
+        final ArrayList<SpannableString> styledSenders = Lists.newArrayList();
+        final ArrayList<String> displayableSenderNames = Lists.newArrayList();
+
+        Debug.startAllocCounting();
+        final long startBytes = Debug.getThreadAllocSize();
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        for (ConversationInfo conversation : conversations) {
+            styledSenders.clear();
+            displayableSenderNames.clear();
+            SendersView.format(getContext(), conversation, "", 40, styledSenders,
+                    displayableSenderNames, new ConversationItemViewModel.SenderAvatarModel(),
+                    account, false, true);
+        }
+        final long nanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+        final long bytes = Debug.getThreadAllocSize() - startBytes;
+        Debug.stopAllocCounting();
+
+        LogUtils.i(LOG_TAG, "format: %dns per conversation, %d bytes per conversation",
+                nanos / conversationCount, bytes / conversationCount);
+    }
+
     private static Account createAccount() {
         try {
             final Map<String, Object> map = new HashMap<>(2);
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.photomanager;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.ui.ImageCanvas.Dimensions;
+
+@SmallTest
+public class LetterTileProviderTest extends AndroidTestCase {
+
+    public void testTileCache() {
+        final LetterTileProvider provider = new LetterTileProvider(getContext());
+        final Dimensions dimensions = new Dimensions(40, 40, Dimensions.SCALE_ONE);
+        final int hits = LetterTileProvider.getTileCacheHitCount();
+
+        final Bitmap tile = provider.getLetterTile(dimensions, "Alice", "alice@example.com");
+        assertEquals(40, tile.getWidth());
+        // the same letter and color, from any provider, is the same tile
+        assertSame(tile, provider.getLetterTile(dimensions, "alice", "alice@example.com"));
+        assertSame(tile, new LetterTileProvider(getContext())
+                .getLetterTile(dimensions, "Alice", "alice@example.com"));
+        assertEquals(hits + 2, LetterTileProvider.getTileCacheHitCount());
+
+        // another letter, or size, is another tile
+        assertNotSame(tile, provider.getLetterTile(dimensions, "Bob", "alice@example.com"));
+        final Bitmap smallTile = provider.getLetterTile(
+                new Dimensions(20, 20, Dimensions.SCALE_HALF), "Alice", "alice@example.com");
+        assertEquals(20, smallTile.getWidth());
+
+        assertNull(provider.getLetterTile(new Dimensions(0, 0, Dimensions.SCALE_ONE), "Alice",
+                "alice@example.com"));
+    }
+}
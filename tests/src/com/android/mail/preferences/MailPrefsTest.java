@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.preferences;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.regex.Pattern;
+
+@SmallTest
+public class MailPrefsTest extends AndroidTestCase {
+    private MailPrefs mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = new MailPrefs(getContext(), "MailPrefsTest");
+        mPrefs.clearSenderWhiteList();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.clearAllPreferences();
+        super.tearDown();
+    }
+
+    public void testDisplayImagesFromSender() {
+        assertFalse(mPrefs.getDisplayImagesFromSender("a@example.com"));
+
+        mPrefs.setDisplayImagesFromSender("a@example.com", null);
+        mPrefs.setDisplayImagesFromSender("b@social.com",
+                ImmutableList.of(Pattern.compile(".*@social\\.com")));
+        mPrefs.setSenderWhitelistPatterns(ImmutableSet.of(".*@social\\.com", "(x)\\1@.*"));
+        assertTrue(mPrefs.getDisplayImagesFromSender("a@example.com"));
+        assertTrue(mPrefs.getDisplayImagesFromSender("c@social.com"));
+        assertTrue(mPrefs.getDisplayImagesFromSender("xx@example.com"));
+        assertFalse(mPrefs.getDisplayImagesFromSender("b@example.com"));
+
+        assertEquals(ImmutableSet.of("a@example.com", "c@social.com"),
+                mPrefs.getDisplayImagesFromSenders(
+                        ImmutableList.of("a@example.com", "b@example.com", "c@social.com")));
+
+        // The compiled whitelist follows changes to the preferences
+        mPrefs.clearSenderWhiteList();
+        assertFalse(mPrefs.getDisplayImagesFromSender("a@example.com"));
+        assertFalse(mPrefs.getDisplayImagesFromSender("c@social.com"));
+    }
+
+    public void testDisplayImagesFromSenderUncombinablePatterns() {
+        // Each pattern is valid, but they can't be combined into one: the group names clash, and
+        // the comment would swallow the closing parenthesis
+        mPrefs.setSenderWhitelistPatterns(ImmutableSet.of(
+                "(?<u>a)@one\\.com", "(?<u>b)@two\\.com", "(?x) c @three\\.com # comment"));
+        assertTrue(mPrefs.getDisplayImagesFromSender("a@one.com"));
+        assertTrue(mPrefs.getDisplayImagesFromSender("b@two.com"));
+        assertTrue(mPrefs.getDisplayImagesFromSender("c@three.com"));
+        assertFalse(mPrefs.getDisplayImagesFromSender("d@one.com"));
+    }
+}
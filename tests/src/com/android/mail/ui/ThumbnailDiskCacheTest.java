@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+
+@SmallTest
+public class ThumbnailDiskCacheTest extends AndroidTestCase {
+    private static final Uri ATTACHMENT_URI = Uri.parse("content://attachments/1");
+    private static final int ATTACHMENT_SIZE = 1000;
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "ThumbnailDiskCacheTest");
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private static Bitmap createBitmap(int size, Bitmap.Config config) {
+        final Bitmap bitmap = Bitmap.createBitmap(size, size, config);
+        bitmap.eraseColor(Color.RED);
+        return bitmap;
+    }
+
+    public void testGetAndPut() {
+        final ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1024 * 1024);
+        final String key = ThumbnailDiskCache.getKey(ATTACHMENT_URI, ATTACHMENT_SIZE, 20, 20);
+        assertNull(cache.get(key));
+        assertEquals(1, cache.getMissCount());
+
+        cache.put(key, createBitmap(20, Bitmap.Config.RGB_565));
+        // A new cache finds the file
+        final ThumbnailDiskCache newCache = new ThumbnailDiskCache(mDirectory, 1024 * 1024);
+        final Bitmap bitmap = newCache.get(key);
+        assertEquals(20, bitmap.getWidth());
+        assertEquals(20, bitmap.getHeight());
+        assertEquals(1, newCache.getHitCount());
+
+        // The same attachment at another size is another thumbnail
+        assertNull(newCache.get(
+                ThumbnailDiskCache.getKey(ATTACHMENT_URI, ATTACHMENT_SIZE, 40, 40)));
+
+        // Transparency is kept
+        final String alphaKey = ThumbnailDiskCache.getKey(ATTACHMENT_URI, ATTACHMENT_SIZE, 10, 10);
+        final Bitmap transparent = createBitmap(10, Bitmap.Config.ARGB_8888);
+        transparent.setPixel(0, 0, Color.TRANSPARENT);
+        newCache.put(alphaKey, transparent);
+        assertEquals(Color.TRANSPARENT, newCache.get(alphaKey).getPixel(0, 0));
+    }
+
+    public void testChangedAttachmentIsAnotherThumbnail() {
+        final ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1024 * 1024);
+        cache.put(ThumbnailDiskCache.getKey(ATTACHMENT_URI, ATTACHMENT_SIZE, 20, 20),
+                createBitmap(20, Bitmap.Config.RGB_565));
+        assertNull(cache.get(ThumbnailDiskCache.getKey(ATTACHMENT_URI, ATTACHMENT_SIZE + 1,
+                20, 20)));
+    }
+
+    public void testClear() {
+        final ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 1024 * 1024);
+        final String key = ThumbnailDiskCache.getKey(ATTACHMENT_URI, ATTACHMENT_SIZE, 20, 20);
+        cache.put(key, createBitmap(20, Bitmap.Config.RGB_565));
+        cache.clear();
+        assertEquals(0, mDirectory.listFiles().length);
+        assertNull(cache.get(key));
+
+        // The cache still works afterwards
+        cache.put(key, createBitmap(20, Bitmap.Config.RGB_565));
+        assertNotNull(cache.get(key));
+    }
+
+    public void testDiskEviction() {
+        final ThumbnailDiskCache cache = new ThumbnailDiskCache(mDirectory, 8 * 1024);
+        for (int i = 0; i < 20; i++) {
+            cache.put(ThumbnailDiskCache.getKey(Uri.parse("content://attachments/" + i),
+                    ATTACHMENT_SIZE, 64, 64), createBitmap(64, Bitmap.Config.ARGB_8888));
+        }
+        final File[] files = mDirectory.listFiles();
+        assertTrue(files.length > 0);
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        assertTrue(total <= 8 * 1024);
+    }
+}
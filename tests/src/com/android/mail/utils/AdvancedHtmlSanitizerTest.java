@@ -531,6 +531,18 @@ public class AdvancedHtmlSanitizerTest extends AndroidTestCase {
                 "<div style=\"font-style:italic\"></div>");
     }
 
+    public void testVisibleText() {
+        final String html = "<html><head><title>HTML E-mail</title>"
+                + "<script>alert(\"I am an alert box!\");</script></head>"
+                + "<body>Body&nbsp;here<style>p { color: red }</style>"
+                + "<a onclick=\"alert('surprise!')\" href=\"#\">I am a link!</a>"
+                + "<applet>applet text</applet> &lt;end&gt;</body></html>";
+        final StringBuilder visibleText = new StringBuilder();
+        assertEquals(HtmlSanitizer.sanitizeHtml(html),
+                HtmlSanitizer.sanitizeHtml(html, visibleText));
+        assertEquals("Body\u00a0hereI am a link! <end>", visibleText.toString());
+    }
+
     private void sanitize(String dirtyHTML, String expectedHTML) {
         final String cleansedHTML = HtmlSanitizer.sanitizeHtml(dirtyHTML);
         assertEquals(expectedHTML, cleansedHTML);
@@ -3,6 +3,8 @@ package com.android.mail.utils;
 import android.test.AndroidTestCase;
 import android.test.suitebuilder.annotation.SmallTest;
 
+import com.android.emailcommon.utility.TextUtilities;
+
 /**
  * These test cases verify that each white listed element and attribute is accepted by the sanitizer
  * and everything else is correctly discarded.
@@ -1071,6 +1073,31 @@ public class BasicHtmlSanitizerTest extends AndroidTestCase {
         sanitize("word1<wbr/>word2", "word1<wbr />word2");
     }
 
+    public void testMaxChars() {
+        StringBuilder out = new StringBuilder();
+        assertFalse(HtmlSanitizer.sanitizeHtml("<p>abcdef</p><p>ghi</p>", out, null, -1));
+        assertEquals("<p>abcdef</p><p>ghi</p>", out.toString());
+
+        // the text is clipped, and the open element is still closed
+        out = new StringBuilder();
+        assertTrue(HtmlSanitizer.sanitizeHtml("<p>abcdef</p><p>ghi</p>", out, null, 6));
+        assertEquals("<p>abc</p>", out.toString());
+
+        // a surrogate pair is not split
+        out = new StringBuilder();
+        assertTrue(HtmlSanitizer.sanitizeHtml("<p>a\ud83d\ude00b</p>", out, null, 5));
+        assertEquals("<p>a</p>", out.toString());
+    }
+
+    public void testVisibleTextSnippet() {
+        final String html = "<p onclick=\"x()\">Hello <b>there</b></p><script>x()</script>";
+        final TextUtilities.SnippetBuilder snippet = new TextUtilities.SnippetBuilder();
+        final StringBuilder out = new StringBuilder();
+        assertFalse(HtmlSanitizer.sanitizeHtml(html, out, snippet, -1));
+        assertEquals(HtmlSanitizer.sanitizeHtml(html), out.toString());
+        assertEquals("Hello there", snippet.toString());
+    }
+
     private void sanitize(String dirtyHTML, String expectedHTML) {
         final String cleansedHTML = HtmlSanitizer.sanitizeHtml(dirtyHTML);
         assertEquals(expectedHTML, cleansedHTML);
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mail.utils;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+@SmallTest
+public class SanitizedHtmlCacheTest extends AndroidTestCase {
+    private static final String SANITIZED = "<p>sanitized \ud83d\ude00</p>";
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(getContext().getCacheDir(), "SanitizedHtmlCacheTest");
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    public void testMemoryAndDisk() {
+        final SanitizedHtmlCache cache = new SanitizedHtmlCache(mDirectory, 1024 * 1024);
+        assertNull(cache.get("<p>raw</p>", -1));
+        assertEquals(1, cache.getMissCount());
+
+        cache.put("<p>raw</p>", -1, new SanitizedHtmlCache.Entry(SANITIZED, "raw", false));
+        SanitizedHtmlCache.Entry entry = cache.get("<p>raw</p>", -1);
+        assertEquals(SANITIZED, entry.sanitizedHtml);
+        assertEquals("raw", entry.snippet);
+        assertFalse(entry.clipped);
+        assertEquals(1, cache.getMemoryHitCount());
+        assertNull(cache.get("<p>other</p>", -1));
+        // The same html sanitized with a limit is a different entry
+        assertNull(cache.get("<p>raw</p>", 4));
+
+        // A new cache only has the disk entries
+        final SanitizedHtmlCache newCache = new SanitizedHtmlCache(mDirectory, 1024 * 1024);
+        entry = newCache.get("<p>raw</p>", -1);
+        assertEquals(SANITIZED, entry.sanitizedHtml);
+        assertEquals("raw", entry.snippet);
+        assertEquals(1, newCache.getDiskHitCount());
+        assertEquals(0, newCache.getMissCount());
+
+        newCache.put("<p>no snippet</p>", 4, new SanitizedHtmlCache.Entry("<p>", null, true));
+        entry = new SanitizedHtmlCache(mDirectory, 1024 * 1024).get("<p>no snippet</p>", 4);
+        assertEquals("<p>", entry.sanitizedHtml);
+        assertNull(entry.snippet);
+        assertTrue(entry.clipped);
+    }
+
+    public void testConcurrentWritesOfOneKey() throws InterruptedException {
+        final SanitizedHtmlCache cache = new SanitizedHtmlCache(mDirectory, 1024 * 1024);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[4];
+        final String[] sanitized = new String[threads.length];
+        for (int t = 0; t < threads.length; t++) {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                sb.append((char) ('a' + t));
+            }
+            final String html = sb.toString();
+            sanitized[t] = html;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            cache.put("<p>raw</p>", -1,
+                                    new SanitizedHtmlCache.Entry(html, null, false));
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        // The file is one whole write, and no temporary file is left behind
+        final File[] files = mDirectory.listFiles();
+        assertEquals(1, files.length);
+        final SanitizedHtmlCache.Entry entry =
+                new SanitizedHtmlCache(mDirectory, 1024 * 1024).get("<p>raw</p>", -1);
+        boolean written = false;
+        for (String html : sanitized) {
+            written |= html.equals(entry.sanitizedHtml);
+        }
+        assertTrue(written);
+    }
+
+    public void testDiskEviction() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append('x');
+        }
+        final String html = sb.toString();
+
+        // Each entry takes some 2KB, so only a few fit
+        final SanitizedHtmlCache cache = new SanitizedHtmlCache(mDirectory, 8 * 1024);
+        for (int i = 0; i < 10; i++) {
+            cache.put(Integer.toString(i), -1, new SanitizedHtmlCache.Entry(html, null, false));
+        }
+        final File[] files = mDirectory.listFiles();
+        assertTrue(files.length > 0);
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        assertTrue(total <= 8 * 1024);
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mail.common.html.parser;
+
+import static com.google.android.mail.common.html.parser.HtmlParser.ParseStyle.NORMALIZE;
+import static com.google.android.mail.common.html.parser.HtmlParser.ParseStyle.PRESERVE_ALL;
+import static com.google.android.mail.common.html.parser.HtmlParser.ParseStyle.PRESERVE_VALID;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.utils.LogUtils;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class CompactHtmlDocumentTest extends TestCase {
+    private static final String LOG_TAG = "CompactHtmlDocumentTest";
+
+    private static final int BENCHMARK_ROUNDS = 10;
+
+    @SmallTest
+    public void testNodes() {
+        final String html = "<p class=x>a &amp; b</p><br/>";
+        final CompactHtmlDocument doc = new HtmlParser().parseCompact(html);
+        assertEquals(4, doc.size());
+
+        assertEquals(CompactHtmlDocument.START_TAG, doc.getKind(0));
+        assertEquals(HTML4.P_ELEMENT, doc.getElement(0));
+        assertEquals(0, doc.getStart(0));
+        assertEquals(11, doc.getEnd(0));
+
+        assertTrue(doc.isText(1));
+        assertNull(doc.getElement(1));
+        assertEquals("a & b", doc.getText(1));
+        assertFalse(doc.isWhitespace(1, 2));
+
+        assertEquals(CompactHtmlDocument.END_TAG, doc.getKind(2));
+        assertEquals(CompactHtmlDocument.SELF_TERMINATING_TAG, doc.getKind(3));
+        assertEquals(HTML4.BR_ELEMENT, doc.getElement(3));
+
+        final HtmlDocument.Tag tag = (HtmlDocument.Tag) doc.getNode(0);
+        assertEquals("x", tag.getAttribute(HTML4.CLASS_ATTRIBUTE).getValue());
+    }
+
+    /**
+     * Checks the documents parsed from a set of inputs against the output of the parser before
+     * {@link HtmlParser#parse(String)} was built on {@link CompactHtmlDocument}.
+     */
+    @SmallTest
+    public void testDocumentGoldens() {
+        assertDocument(NORMALIZE, "", "", "", "");
+        assertDocument(PRESERVE_VALID, "", "", "", "");
+        assertDocument(PRESERVE_ALL, "", "", "", "");
+        assertDocument(NORMALIZE, "plain &amp; simple", "plain &amp; simple", "plain &amp; simple",
+                "plain &amp; simple");
+        assertDocument(PRESERVE_VALID, "plain &amp; simple", "plain &amp; simple",
+                "plain &amp; simple", "plain &amp; simple");
+        assertDocument(PRESERVE_ALL, "plain &amp; simple", "plain &amp; simple",
+                "plain &amp; simple", "plain &amp; simple");
+        assertDocument(NORMALIZE, "<p class=\"a\" onclick=x>Hello <b>world</b></p><br/>a < b",
+                "<p class=\"a\" onclick=\"x\">Hello <b>world</b></p><br>a &lt; b",
+                "<p class=\"a\" onclick=\"x\">Hello <b>world</b></p><br />a &lt; b",
+                "<p class=\"a\" onclick=\"x\">Hello <b>world</b></p><br>a &lt; b");
+        assertDocument(PRESERVE_VALID, "<p class=\"a\" onclick=x>Hello <b>world</b></p><br/>a < b",
+                "<p class=\"a\" onclick=\"x\">Hello <b>world</b></p><br>a &lt; b",
+                "<p class=\"a\" onclick=\"x\">Hello <b>world</b></p><br />a &lt; b",
+                "<p class=\"a\" onclick=x>Hello <b>world</b></p><br/>a &lt; b");
+        assertDocument(PRESERVE_ALL, "<p class=\"a\" onclick=x>Hello <b>world</b></p><br/>a < b",
+                "<p class=\"a\" onclick=\"x\">Hello <b>world</b></p><br>a &lt; b",
+                "<p class=\"a\" onclick=\"x\">Hello <b>world</b></p><br />a &lt; b",
+                "<p class=\"a\" onclick=x>Hello <b>world</b></p><br/>a < b");
+        assertDocument(NORMALIZE, "<table><tr>cell<td>x</table>outside",
+                "<table><tr>cell<td>x</table>outside", "<table><tr>cell<td>x</table>outside",
+                "<table><tr>cell<td>x</table>outside");
+        assertDocument(PRESERVE_VALID, "<table><tr>cell<td>x</table>outside",
+                "<table><tr>cell<td>x</table>outside", "<table><tr>cell<td>x</table>outside",
+                "<table><tr>cell<td>x</table>outside");
+        assertDocument(PRESERVE_ALL, "<table><tr>cell<td>x</table>outside",
+                "<table><tr>cell<td>x</table>outside", "<table><tr>cell<td>x</table>outside",
+                "<table><tr>cell<td>x</table>outside");
+        assertDocument(NORMALIZE, "<div><span/>text &lt;<unknown>more</unknown>&#32;</div>",
+                "<div><span>text &lt;more </div>", "<div><span />text &lt;more </div>",
+                "<div><span>text &lt;more </div>");
+        assertDocument(PRESERVE_VALID, "<div><span/>text &lt;<unknown>more</unknown>&#32;</div>",
+                "<div><span>text &lt;more </div>", "<div><span />text &lt;more </div>",
+                "<div><span/>text &lt;more&#32;</div>");
+        assertDocument(PRESERVE_ALL, "<div><span/>text &lt;<unknown>more</unknown>&#32;</div>",
+                "<div><span>text &lt;<unknown>more</unknown> </div>",
+                "<div><span />text &lt;<unknown>more</unknown> </div>",
+                "<div><span/>text &lt;<unknown>more</unknown>&#32;</div>");
+        assertDocument(NORMALIZE,
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted",
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted",
+                "<style><![CDATA[p { color: red }]]></style><pre>a\n  b</pre><blockquote>quoted",
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted");
+        assertDocument(PRESERVE_VALID,
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted",
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted",
+                "<style><![CDATA[p { color: red }]]></style><pre>a\n  b</pre><blockquote>quoted",
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted");
+        assertDocument(PRESERVE_ALL,
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted",
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted",
+                "<style><![CDATA[p { color: red }]]></style><pre>a\n  b</pre><blockquote>quoted",
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted");
+        assertDocument(NORMALIZE, "<!-- comment -->x<a href='y<z' title=\"&quot;\">link</a",
+                "x<a href=\"y&lt;z\" title=\"&quot;\">link&lt;/a",
+                "x<a href=\"y&lt;z\" title=\"&quot;\">link&lt;/a",
+                "x<a href=\"y&lt;z\" title=\"&quot;\">link&lt;/a");
+        assertDocument(PRESERVE_VALID, "<!-- comment -->x<a href='y<z' title=\"&quot;\">link</a",
+                "x<a href=\"y&lt;z\" title=\"&quot;\">link&lt;/a",
+                "x<a href=\"y&lt;z\" title=\"&quot;\">link&lt;/a",
+                "x<a href='y&lt;z' title=\"&quot;\">link&lt;/a");
+        assertDocument(PRESERVE_ALL, "<!-- comment -->x<a href='y<z' title=\"&quot;\">link</a",
+                "<!-- comment -->x<a href=\"y&lt;z\" title=\"&quot;\">link&lt;/a",
+                "<!-- comment -->x<a href=\"y&lt;z\" title=\"&quot;\">link&lt;/a",
+                "<!-- comment -->x<a href='y<z' title=\"&quot;\">link</a");
+        assertDocument(NORMALIZE, "<input checked disabled><img src=a.png /></b<p>",
+                "<input checked disabled><img src=\"a.png\">",
+                "<input checked=\"checked\" disabled=\"disabled\" /><img src=\"a.png\" />",
+                "<input checked disabled><img src=\"a.png\">");
+        assertDocument(PRESERVE_VALID, "<input checked disabled><img src=a.png /></b<p>",
+                "<input checked disabled><img src=\"a.png\">",
+                "<input checked=\"checked\" disabled=\"disabled\" /><img src=\"a.png\" />",
+                "<input checked disabled><img src=a.png />");
+        assertDocument(PRESERVE_ALL, "<input checked disabled><img src=a.png /></b<p>",
+                "<input checked disabled><img src=\"a.png\"></b<p>",
+                "<input checked=\"checked\" disabled=\"disabled\" /><img src=\"a.png\" /></b<p>",
+                "<input checked disabled><img src=a.png /></b<p>");
+        assertDocument(NORMALIZE, "<a href=\"unclosed>text</a>more",
+                "&lt;a href=&quot;unclosed&gt;text&lt;/a&gt;more",
+                "&lt;a href=&quot;unclosed&gt;text&lt;/a&gt;more",
+                "&lt;a href=&quot;unclosed&gt;text&lt;/a&gt;more");
+        assertDocument(PRESERVE_VALID, "<a href=\"unclosed>text</a>more",
+                "&lt;a href=&quot;unclosed&gt;text&lt;/a&gt;more",
+                "&lt;a href=&quot;unclosed&gt;text&lt;/a&gt;more",
+                "&lt;a href=\"unclosed>text&lt;/a>more");
+        assertDocument(PRESERVE_ALL, "<a href=\"unclosed>text</a>more",
+                "&lt;a href=&quot;unclosed&gt;text&lt;/a&gt;more",
+                "&lt;a href=&quot;unclosed&gt;text&lt;/a&gt;more",
+                "<a href=\"unclosed>text</a>more");
+        assertDocument(NORMALIZE, "<b title='x>y</b>z", "&lt;b title=&#39;x&gt;y&lt;/b&gt;z",
+                "&lt;b title=&#39;x&gt;y&lt;/b&gt;z", "&lt;b title=&#39;x&gt;y&lt;/b&gt;z");
+        assertDocument(PRESERVE_VALID, "<b title='x>y</b>z", "&lt;b title=&#39;x&gt;y&lt;/b&gt;z",
+                "&lt;b title=&#39;x&gt;y&lt;/b&gt;z", "&lt;b title='x>y&lt;/b>z");
+        assertDocument(PRESERVE_ALL, "<b title='x>y</b>z", "&lt;b title=&#39;x&gt;y&lt;/b&gt;z",
+                "&lt;b title=&#39;x&gt;y&lt;/b&gt;z", "<b title='x>y</b>z");
+        assertDocument(NORMALIZE, "<![CDATA[x<y]]>after", "after", "after", "after");
+        assertDocument(PRESERVE_VALID, "<![CDATA[x<y]]>after", "after", "after", "after");
+        assertDocument(PRESERVE_ALL, "<![CDATA[x<y]]>after", "<![cdata[x<y]]>after",
+                "<![cdata[x<y]]>after", "<![CDATA[x<y]]>after");
+        assertDocument(NORMALIZE, "a<!-- <b>not a tag</b> -->b<!---->c<!-- open", "abc", "abc",
+                "abc");
+        assertDocument(PRESERVE_VALID, "a<!-- <b>not a tag</b> -->b<!---->c<!-- open", "abc", "abc",
+                "abc");
+        assertDocument(PRESERVE_ALL, "a<!-- <b>not a tag</b> -->b<!---->c<!-- open",
+                "a<!-- <b>not a tag</b> -->b<!---->c<!-- open",
+                "a<!-- <b>not a tag</b> -->b<!---->c<!-- open",
+                "a<!-- <b>not a tag</b> -->b<!---->c<!-- open");
+        assertDocument(NORMALIZE, "  lead  <p>  a \n b  </p>\ttrail  ",
+                "  lead  <p>  a \n b  </p>\ttrail  ", "  lead  <p>  a \n b  </p>\ttrail  ",
+                "  lead  <p>  a \n b  </p>\ttrail  ");
+        assertDocument(PRESERVE_VALID, "  lead  <p>  a \n b  </p>\ttrail  ",
+                "  lead  <p>  a \n b  </p>\ttrail  ", "  lead  <p>  a \n b  </p>\ttrail  ",
+                "  lead  <p>  a \n b  </p>\ttrail  ");
+        assertDocument(PRESERVE_ALL, "  lead  <p>  a \n b  </p>\ttrail  ",
+                "  lead  <p>  a \n b  </p>\ttrail  ", "  lead  <p>  a \n b  </p>\ttrail  ",
+                "  lead  <p>  a \n b  </p>\ttrail  ");
+    }
+
+    /**
+     * Checks the trees built from a set of inputs, from node objects and from the compact
+     * document, against the output of the parser before it was built on
+     * {@link CompactHtmlDocument}.
+     */
+    @SmallTest
+    public void testTreeGoldens() {
+        assertTree("", "", "", new int[] {});
+        assertTree("plain &amp; simple", "plain & simple", "plain &amp; simple", new int[] { 0 });
+        assertTree("<p class=\"a\" onclick=x>Hello <b>world</b></p><br/>a < b",
+                "Hello world\n\n\na < b",
+                "<p class=\"a\" onclick=\"x\">Hello <b>world</b></p><br>a &lt; b",
+                new int[] { 5, 1, 4, 3, 2, 0, 6, 7 });
+        assertTree("<table><tr>cell<td>x</table>outside", "cell\nx\noutside",
+                "<table><tr><td>cell<td>x</td></td></tr></table>outside",
+                new int[] { 9, 8, 7, 3, 6, 5, 4, 2, 1, 0, 10 });
+        assertTree("<div><span/>text &lt;<unknown>more</unknown>&#32;</div>", "text <more",
+                "<div><span></span>text &lt;more </div>", new int[] { 4, 2, 1, 3, 0 });
+        assertTree("<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted",
+                "a\n  b\n>\n> quoted",
+                "<style>p { color: red }</style><pre>a\n  b</pre><blockquote>quoted</blockquote>",
+                new int[] { 2, 1, 0, 5, 4, 3, 8, 7, 6 });
+        assertTree("<!-- comment -->x<a href='y<z' title=\"&quot;\">link</a", "xlink</a",
+                "x<a href=\"y&lt;z\" title=\"&quot;\">link&lt;/a</a>", new int[] { 0, 3, 2, 1 });
+        assertTree("<input checked disabled><img src=a.png /></b<p>", "",
+                "<input checked disabled><img src=\"a.png\">", new int[] { 0, 1 });
+        assertTree("<a href=\"unclosed>text</a>more", "<a href=\"unclosed>text</a>more",
+                "&lt;a href=&quot;unclosed&gt;text&lt;/a&gt;more", new int[] { 0 });
+        assertTree("<b title='x>y</b>z", "<b title='x>y</b>z", "&lt;b title=&#39;x&gt;y&lt;/b&gt;z",
+                new int[] { 0 });
+        assertTree("<![CDATA[x<y]]>after", "after", "after", new int[] { 0 });
+        assertTree("a<!-- <b>not a tag</b> -->b<!---->c<!-- open", "abc", "abc", new int[] { 0 });
+        assertTree("  lead  <p>  a \n b  </p>\ttrail  ", "lead\n\na b\n\ntrail",
+                "  lead  <p>  a \n b  </p>\ttrail  ", new int[] { 0, 3, 2, 1, 4 });
+    }
+
+    private static void assertDocument(HtmlParser.ParseStyle style, String html,
+            String expectedHtml, String expectedXhtml, String expectedOriginalHtml) {
+        final HtmlDocument doc = new HtmlParser(style).parse(html);
+        assertEquals(expectedHtml, doc.toHTML());
+        assertEquals(expectedXhtml, doc.toXHTML());
+        assertEquals(expectedOriginalHtml, doc.toOriginalHTML());
+
+        final HtmlDocument compactDoc = new HtmlParser(style).parseCompact(html).toHtmlDocument();
+        assertEquals(expectedHtml, compactDoc.toHTML());
+        assertEquals(expectedXhtml, compactDoc.toXHTML());
+        assertEquals(expectedOriginalHtml, compactDoc.toOriginalHTML());
+    }
+
+    private static void assertTree(String html, String expectedPlainText, String expectedHtml,
+            int[] expectedPairedTags) {
+        final HtmlTree tree = buildTree(html);
+        final HtmlTree compactTree = buildCompactTree(html);
+        for (HtmlTree t : new HtmlTree[] { tree, compactTree }) {
+            assertEquals(expectedPlainText, t.getPlainText());
+            assertEquals(expectedHtml, t.getHtml());
+            assertEquals(expectedPairedTags.length, t.getNumNodes());
+            for (int i = 0; i < expectedPairedTags.length; i++) {
+                assertEquals(expectedPairedTags[i], t.findPairedTag(i));
+            }
+        }
+
+        final List<HtmlDocument.Node> nodes = compactTree.getNodesList();
+        final List<HtmlDocument.Node> expectedNodes = tree.getNodesList();
+        for (int i = 0; i < nodes.size(); i++) {
+            assertEquals(expectedNodes.get(i).getClass(), nodes.get(i).getClass());
+            assertEquals(expectedNodes.get(i).toXHTML(), nodes.get(i).toXHTML());
+        }
+    }
+
+    private static HtmlTree buildTree(String html) {
+        final HtmlTreeBuilder builder = new HtmlTreeBuilder();
+        new HtmlParser().parse(html).accept(builder);
+        return builder.getTree();
+    }
+
+    private static HtmlTree buildCompactTree(String html) {
+        final HtmlTreeBuilder builder = new HtmlTreeBuilder();
+        builder.build(new HtmlParser().parseCompact(html));
+        return builder.getTree();
+    }
+
+    /**
+     * Logs the cost of converting a newsletter of a few hundred KB to plain text, from node
+     * objects and from the compact document.
+     */
+    @LargeTest
+    public void testPlainTextBenchmark() {
+        final StringBuilder sb = new StringBuilder("<html><body><table width=\"100%\">");
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<tr><td class=\"item\" style=\"padding: 4px\"><a href=\"http://example.com/")
+                    .append(i).append("\"><img src=\"http://example.com/")
+                    .append(i).append(".png\" width=\"64\" height=\"64\" /></a></td>")
+                    .append("<td><font face=\"Arial\" size=\"2\"><b>Item ").append(i)
+                    .append("</b><br>Now only &pound;").append(i)
+                    .append(" &ndash; <i>while stocks last</i></font></td></tr>\n");
+        }
+        final String html = sb.append("</table></body></html>").toString();
+
+        String text = null;
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            text = buildTree(html).getPlainText();
+        }
+        report("Node objects", start, html.length());
+
+        String compactText = null;
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            compactText = buildCompactTree(html).getPlainText();
+        }
+        report("Compact document", start, html.length());
+        assertEquals(text, compactText);
+    }
+
+    private static void report(String name, long startNanos, int length) {
+        LogUtils.i(LOG_TAG, "%s: %dus per %d chars", name,
+                (SystemClock.elapsedRealtimeNanos() - startNanos) / 1000 / BENCHMARK_ROUNDS,
+                length);
+    }
+}
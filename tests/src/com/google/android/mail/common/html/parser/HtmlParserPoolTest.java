@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mail.common.html.parser;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+@SmallTest
+public class HtmlParserPoolTest extends TestCase {
+    private static final String[] HTML = {
+        "<p>Hello <b>world</b></p>",
+        "<table><tr>cell<td>x</table>outside",
+        "<div>unclosed <blockquote>tags",
+        "plain text",
+    };
+
+    private static HtmlTree newTree(String html) {
+        final HtmlTreeBuilder builder = new HtmlTreeBuilder();
+        builder.build(new HtmlParser().parseCompact(html));
+        return builder.getTree();
+    }
+
+    public void testBuildTree() {
+        // Each tree is built by the same builder, so this checks it is reset
+        for (int i = 0; i < 2; i++) {
+            for (String html : HTML) {
+                final HtmlTree tree = HtmlParserPool.buildTree(html);
+                final HtmlTree expected = newTree(html);
+                assertEquals(expected.getHtml(), tree.getHtml());
+                assertEquals(expected.getPlainText(), tree.getPlainText());
+            }
+        }
+        assertNotSame(HtmlParserPool.buildTree(HTML[0]), HtmlParserPool.buildTree(HTML[0]));
+    }
+
+    public void testConvertToPlainText() {
+        for (String html : HTML) {
+            final String text = newTree(html).getPlainText();
+            assertEquals(text, HtmlParserPool.convertToPlainText(html));
+            assertEquals(text.substring(0, 3), HtmlParserPool.convertToPlainText(html, 3));
+        }
+    }
+
+    public void testLargeDocumentBuffersAreDropped() {
+        final String large = StreamingPlainTextConverterTest.largeHtml(
+                HtmlTree.PlainTextPrinter.MAX_RETAINED_CAPACITY);
+        assertEquals(newTree(large).getPlainText(), HtmlParserPool.convertToPlainText(large));
+        assertTrue(HtmlParserPool.getConverterBufferCapacity()
+                <= HtmlTree.PlainTextPrinter.MAX_RETAINED_CAPACITY);
+    }
+
+    public void testThreads() throws InterruptedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final String html = HTML[t % HTML.length];
+            final String text = newTree(html).getPlainText();
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            assertEquals(text, HtmlParserPool.convertToPlainText(html));
+                            assertEquals(text, HtmlParserPool.buildTree(html).getPlainText());
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mail.common.html.parser;
+
+import android.os.SystemClock;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.utils.LogUtils;
+
+import junit.framework.TestCase;
+
+public class StreamingPlainTextConverterTest extends TestCase {
+    private static final String LOG_TAG = "StreamingPlainTextConverterTest";
+
+    private static final String[] HTML = {
+        "",
+        "just  some\ntext ",
+        "plain &amp; simple",
+        "<p>Hello <b>world</b></p>after<br>line",
+        "<blockquote>quoted<blockquote>twice</blockquote></blockquote>not",
+        "<table><tr>cell<td>x</table>outside",
+        "<style>p { color: red }</style><pre>a\n  b</pre><hr>",
+        "<div>unclosed <span>tags<p>and </i>stray end tags",
+        "<!-- comment -->1 < 2 &lt; 3",
+    };
+
+    private static final int BENCHMARK_ROUNDS = 1000;
+
+    private static String treeText(String html) {
+        final HtmlTreeBuilder builder = new HtmlTreeBuilder();
+        builder.build(new HtmlParser().parseCompact(html));
+        return builder.getTree().getPlainText();
+    }
+
+    @SmallTest
+    public void testConvert() {
+        final StreamingPlainTextConverter converter = new StreamingPlainTextConverter();
+        assertEquals("just some text", converter.convert("just  some\ntext "));
+        assertEquals("Hello world\n\nafter\nline",
+                converter.convert("<p>Hello <b>world</b></p>after<br>line"));
+        assertEquals("> quoted\n\nnot", converter.convert("<blockquote>quoted</blockquote>not"));
+        assertEquals("1 < 2", converter.convert("1 &lt; 2"));
+    }
+
+    @SmallTest
+    public void testSameAsTree() {
+        // The same converter is used throughout, to check it is reset
+        final StreamingPlainTextConverter converter = new StreamingPlainTextConverter();
+        for (String html : HTML) {
+            assertEquals(treeText(html), converter.convert(html));
+        }
+    }
+
+    @SmallTest
+    public void testMaxLength() {
+        final StreamingPlainTextConverter converter = new StreamingPlainTextConverter();
+        for (String html : HTML) {
+            final String text = treeText(html);
+            for (int maxLength = 0; maxLength <= text.length() + 1; maxLength++) {
+                assertEquals(text.substring(0, Math.min(maxLength, text.length())),
+                        converter.convert(html, maxLength));
+            }
+        }
+    }
+
+    @SmallTest
+    public void testTrimBuffers() {
+        final StreamingPlainTextConverter converter = new StreamingPlainTextConverter();
+        converter.convert(HTML[3]);
+        final int smallCapacity = converter.getBufferCapacity();
+        converter.trimBuffers();
+        assertEquals(smallCapacity, converter.getBufferCapacity());
+
+        final String large = largeHtml(HtmlTree.PlainTextPrinter.MAX_RETAINED_CAPACITY);
+        final String text = converter.convert(large);
+        assertTrue(converter.getBufferCapacity() > HtmlTree.PlainTextPrinter.MAX_RETAINED_CAPACITY);
+        converter.trimBuffers();
+        assertTrue(converter.getBufferCapacity()
+                <= HtmlTree.PlainTextPrinter.MAX_RETAINED_CAPACITY);
+        // The converter still works with the new buffers
+        assertEquals(text, converter.convert(large));
+        assertEquals(treeText(HTML[3]), converter.convert(HTML[3]));
+    }
+
+    /** Returns html whose text is longer than the given length */
+    static String largeHtml(int length) {
+        final StringBuilder html = new StringBuilder();
+        while (html.length() <= 2 * length) {
+            html.append("<p>paragraph of <b>text</b></p>");
+        }
+        return html.toString();
+    }
+
+    @SmallTest
+    public void testNegativeMaxLength() {
+        try {
+            new StreamingPlainTextConverter().convert("text", -1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Logs the cost of converting short strings, such as toast messages, through a tree and with
+     * the streaming converter.
+     */
+    @LargeTest
+    public void testShortStringBenchmark() {
+        final String[] strings = {
+            "Moved to <b>Archive</b>",
+            "1 conversation deleted",
+            "Why is this message in Spam? It's similar to messages that were detected by our spam"
+                    + " filters. &nbsp;<a href=\"http://example.com\">Learn more</a>",
+        };
+        final StreamingPlainTextConverter converter = new StreamingPlainTextConverter();
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            for (String html : strings) {
+                treeText(html);
+            }
+        }
+        report("HtmlTree", start, strings.length);
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ROUNDS; i++) {
+            for (String html : strings) {
+                converter.convert(html);
+            }
+        }
+        report("Streaming", start, strings.length);
+    }
+
+    private static void report(String name, long startNanos, int count) {
+        LogUtils.i(LOG_TAG, "%s: %dns per string", name,
+                (SystemClock.elapsedRealtimeNanos() - startNanos) / BENCHMARK_ROUNDS / count);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.james.mime4j;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+@SmallTest
+public class MimeBoundaryInputStreamTest extends AndroidTestCase {
+
+    private static InputStream stream(String s) throws IOException {
+        return new ByteArrayInputStream(s.getBytes("ISO-8859-1"));
+    }
+
+    private static String readAll(InputStream is, int chunk) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[chunk];
+        int n;
+        while ((n = is.read(buf, 0, chunk)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toString("ISO-8859-1");
+    }
+
+    public void testParts() throws IOException {
+        final LookaheadInputStream in = new LookaheadInputStream(
+                stream("preamble\r\n--b\r\none\r\n--b  \r\ntwo\r\n--bx\r\n--b--\r\nepilogue"));
+
+        MimeBoundaryInputStream part = new MimeBoundaryInputStream(in, "b");
+        assertEquals("preamble", readAll(part, 3));
+        assertTrue(part.hasMoreParts());
+
+        part = new MimeBoundaryInputStream(in, "b");
+        assertEquals("one", readAll(part, 100));
+        assertTrue(part.hasMoreParts());
+
+        // The boundary only has to be a prefix of the line
+        part = new MimeBoundaryInputStream(in, "b");
+        assertEquals("two", readAll(part, 1));
+        assertTrue(part.hasMoreParts());
+
+        part = new MimeBoundaryInputStream(in, "b");
+        assertEquals("", readAll(part, 100));
+        assertFalse(part.hasMoreParts());
+        assertFalse(part.parentEOF());
+        assertEquals("epilogue", readAll(in, 100));
+    }
+
+    public void testBoundaryAtStart() throws IOException {
+        final MimeBoundaryInputStream part =
+                new MimeBoundaryInputStream(stream("--b--\r\n"), "b");
+        assertEquals(-1, part.read());
+        assertFalse(part.hasMoreParts());
+    }
+
+    public void testMissingBoundary() throws IOException {
+        final MimeBoundaryInputStream part =
+                new MimeBoundaryInputStream(stream("abc\r\n--c\r\n--"), "b");
+        assertEquals("abc\r\n--c\r\n--", readAll(part, 5));
+        assertTrue(part.parentEOF());
+    }
+
+    public void testBoundaryAcrossBufferRefills() throws IOException {
+        // Content well past the buffer size, with near misses on the way
+        final StringBuilder sb = new StringBuilder();
+        while (sb.length() < 50000) {
+            sb.append("0123456789\r\n--boundar\r\n-");
+        }
+        final String content = sb.toString();
+        final MimeBoundaryInputStream part = new MimeBoundaryInputStream(
+                stream(content + "\r\n--boundary--\r\n"), "boundary");
+        assertEquals(content, readAll(part, 777));
+        assertFalse(part.hasMoreParts());
+        assertFalse(part.parentEOF());
+    }
+
+    public void testConsume() throws IOException {
+        final byte[] content = new byte[20000];
+        Arrays.fill(content, (byte) 'x');
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(content);
+        out.write("\r\n--b\r\nnext".getBytes("ISO-8859-1"));
+        final LookaheadInputStream in =
+                new LookaheadInputStream(new ByteArrayInputStream(out.toByteArray()));
+
+        final MimeBoundaryInputStream part = new MimeBoundaryInputStream(in, "b");
+        part.consume();
+        assertEquals(-1, part.read());
+        assertTrue(part.hasMoreParts());
+        assertEquals("next", readAll(in, 100));
+    }
+}
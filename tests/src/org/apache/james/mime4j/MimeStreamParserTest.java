@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.james.mime4j;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+public class MimeStreamParserTest extends AndroidTestCase {
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    private static final String MESSAGE =
+            "Received: from a\r\n\tby b\r\n"
+            + "Subject: caf\u00e9\r\n"
+            + "Bad field\r\n"
+            + "Content-Type: multipart/mixed;\r\n boundary=\"xyz\"\r\n"
+            + "\r\n"
+            + "--xyz\r\n"
+            + "content-type: text/plain\r\n"
+            + "X-Empty:\r\n"
+            + "\r\n"
+            + "body\r\n"
+            + "--xyz--\r\n";
+
+    private static class FieldCollector extends AbstractContentHandler {
+        final List<String> fields = new ArrayList<String>();
+        final List<String> mimeTypes = new ArrayList<String>();
+
+        @Override
+        public void field(String fieldData) {
+            fields.add(fieldData);
+        }
+
+        @Override
+        public void startMultipart(BodyDescriptor bd) {
+            mimeTypes.add(bd.getMimeType());
+        }
+
+        @Override
+        public void body(BodyDescriptor bd, InputStream is) {
+            mimeTypes.add(bd.getMimeType());
+        }
+    }
+
+    private static class RawFieldCollector extends FieldCollector
+            implements RawFieldContentHandler {
+        @Override
+        public void rawField(byte[] header, int start, int colon, int end) {
+            assertEquals(':', header[colon]);
+            fields.add(new String(header, start, end - start, ISO_8859_1));
+        }
+    }
+
+    private static void parse(FieldCollector handler, String message) throws IOException {
+        final MimeStreamParser parser = new MimeStreamParser();
+        parser.setContentHandler(handler);
+        parser.parse(new ByteArrayInputStream(message.getBytes(ISO_8859_1)));
+    }
+
+    public void testFields() throws IOException {
+        final FieldCollector handler = new FieldCollector();
+        parse(handler, MESSAGE);
+
+        assertEquals(5, handler.fields.size());
+        assertEquals("Received: from a\r\n\tby b", handler.fields.get(0));
+        assertEquals("Subject: caf\u00e9", handler.fields.get(1));
+        assertEquals("Content-Type: multipart/mixed;\r\n boundary=\"xyz\"", handler.fields.get(2));
+        assertEquals("content-type: text/plain", handler.fields.get(3));
+        assertEquals("X-Empty:", handler.fields.get(4));
+        assertEquals("multipart/mixed", handler.mimeTypes.get(0));
+        assertEquals("text/plain", handler.mimeTypes.get(1));
+    }
+
+    public void testRawFields() throws IOException {
+        final FieldCollector expected = new FieldCollector();
+        parse(expected, MESSAGE);
+        final RawFieldCollector actual = new RawFieldCollector();
+        parse(actual, MESSAGE);
+
+        assertEquals(expected.fields, actual.fields);
+        assertEquals(expected.mimeTypes, actual.mimeTypes);
+    }
+
+    public void testEmptyHeader() throws IOException {
+        final FieldCollector handler = new FieldCollector();
+        parse(handler, "\nbody");
+        assertEquals(0, handler.fields.size());
+    }
+}
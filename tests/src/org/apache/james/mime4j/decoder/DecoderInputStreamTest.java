@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.james.mime4j.decoder;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.mail.utils.LogUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class DecoderInputStreamTest extends AndroidTestCase {
+    private static final String LOG_TAG = "DecoderInputStreamTest";
+
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * Yields one block of bytes over and over, up to a total size.
+     */
+    private static class RepeatingInputStream extends InputStream {
+        private final byte[] mBlock;
+        private long mRemaining;
+        private int mPosition;
+
+        RepeatingInputStream(byte[] block, long size) {
+            mBlock = block;
+            mRemaining = size;
+        }
+
+        @Override
+        public int read() {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            final int n = (int) Math.min(Math.min(len, mBlock.length - mPosition), mRemaining);
+            System.arraycopy(mBlock, mPosition, b, off, n);
+            mPosition = (mPosition + n) % mBlock.length;
+            mRemaining -= n;
+            return n;
+        }
+    }
+
+    private static byte[] readBytewise(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            out.write(b);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readInChunks(InputStream in, int chunkSize) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[chunkSize];
+        int n;
+        while ((n = in.read(buffer, 0, chunkSize)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static InputStream base64(String encoded) throws IOException {
+        return new Base64InputStream(new ByteArrayInputStream(encoded.getBytes("US-ASCII")));
+    }
+
+    private static InputStream quotedPrintable(String encoded) throws IOException {
+        return new QuotedPrintableInputStream(
+                new ByteArrayInputStream(encoded.getBytes("US-ASCII")));
+    }
+
+    @SmallTest
+    public void testBase64() throws IOException {
+        final String encoded = "SGVsbG8s\r\nIHdvcmxk\r\nIQ==";
+        final byte[] expected = "Hello, world!".getBytes("US-ASCII");
+        assertTrue(Arrays.equals(expected, readBytewise(base64(encoded))));
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            assertTrue(Arrays.equals(expected, readInChunks(base64(encoded), chunkSize)));
+        }
+    }
+
+    @SmallTest
+    public void testBase64Padding() throws IOException {
+        assertEquals("ab", new String(readInChunks(base64("YWI=YWJj"), 16), "US-ASCII"));
+        assertEquals("a", new String(readInChunks(base64("YQ=="), 16), "US-ASCII"));
+        // A lone sextet before the padding makes no byte
+        assertEquals("abc", new String(readInChunks(base64("YWJjY==="), 16), "US-ASCII"));
+        // An incomplete quantum at the end is dropped
+        assertEquals("abc", new String(readInChunks(base64("YWJjYW"), 16), "US-ASCII"));
+    }
+
+    @SmallTest
+    public void testQuotedPrintable() throws IOException {
+        final String encoded = "caf=C3=A9 =\r\nau lait  \r\n=3D=3d \t\r\nend\t ";
+        final byte[] expected = "caf\u00c3\u00a9 au lait\r\n==\r\nend".getBytes("ISO-8859-1");
+        assertTrue(Arrays.equals(expected, readBytewise(quotedPrintable(encoded))));
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            assertTrue(Arrays.equals(expected,
+                    readInChunks(quotedPrintable(encoded), chunkSize)));
+        }
+    }
+
+    @SmallTest
+    public void testQuotedPrintableMalformed() throws IOException {
+        assertEquals("==x", new String(readInChunks(quotedPrintable("==x"), 1), "US-ASCII"));
+        assertEquals("=Ax", new String(readInChunks(quotedPrintable("=Ax"), 2), "US-ASCII"));
+        assertEquals("=\rx", new String(readInChunks(quotedPrintable("=\rx"), 16), "US-ASCII"));
+    }
+
+    /**
+     * Logs the decoding throughput of both streams on synthetic 10 and 50 MB attachments.
+     */
+    @LargeTest
+    public void testThroughputBenchmark() throws IOException {
+        final byte[] raw = new byte[57 * 64];
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = (byte) (i * 31 + (i >> 7));
+        }
+        final byte[] base64Block = android.util.Base64.encode(raw, android.util.Base64.CRLF);
+        final StringBuilder qp = new StringBuilder();
+        for (int i = 0; i < 64; i++) {
+            qp.append("Lorem ipsum dolor sit amet, consectetur =C3=A9 adipiscing elit, sed=\r\n")
+                    .append("do eiusmod tempor incididunt ut labore et dolore magna aliqua.  \r\n");
+        }
+        final byte[] qpBlock = qp.toString().getBytes("US-ASCII");
+
+        for (int size : new int[] { 10 * MB, 50 * MB }) {
+            benchmark("Base64", new Base64InputStream(
+                    new RepeatingInputStream(base64Block, size)), size);
+            benchmark("Quoted-printable", new QuotedPrintableInputStream(
+                    new RepeatingInputStream(qpBlock, size)), size);
+        }
+    }
+
+    private static void benchmark(String name, InputStream in, int encodedSize)
+            throws IOException {
+        final byte[] buffer = new byte[4096];
+        final long start = SystemClock.elapsedRealtime();
+        long decoded = 0;
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) != -1) {
+            decoded += n;
+        }
+        final long elapsed = Math.max(1, SystemClock.elapsedRealtime() - start);
+        LogUtils.i(LOG_TAG, "%s, %d MB encoded: %d MB/s decoded", name, encodedSize / MB,
+                decoded * 1000 / elapsed / MB);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.james.mime4j.util;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.nio.charset.Charset;
+
+@SmallTest
+public class CharsetUtilTest extends AndroidTestCase {
+
+    public void testGetDecodingCharset() {
+        assertEquals(Charset.forName("ISO-8859-1"), CharsetUtil.getDecodingCharset("latin1"));
+        assertEquals(Charset.forName("UTF-8"), CharsetUtil.getDecodingCharset("utf-8"));
+        assertEquals(Charset.forName("UTF-8"), CharsetUtil.getDecodingCharset("UTF-8"));
+        // Cached per name
+        assertSame(CharsetUtil.getDecodingCharset("UTF-8"),
+                CharsetUtil.getDecodingCharset("UTF-8"));
+        assertNull(CharsetUtil.getDecodingCharset("x-no-such-charset"));
+    }
+
+    public void testSupported() {
+        // Only canonical Java names are checked
+        assertTrue(CharsetUtil.isDecodingSupported("ISO8859_1"));
+        assertTrue(CharsetUtil.isDecodingSupported("iso8859_1"));
+        assertTrue(CharsetUtil.isEncodingSupported("UTF8"));
+        assertFalse(CharsetUtil.isDecodingSupported("latin1"));
+        assertFalse(CharsetUtil.isEncodingSupported("x-no-such-charset"));
+    }
+
+    public void testGetCharset() {
+        assertEquals(Charset.forName("UTF-8"), CharsetUtil.getCharset("utf-8"));
+        assertEquals(CharsetUtil.ISO_8859_1, CharsetUtil.getCharset(null));
+        assertEquals(CharsetUtil.ISO_8859_1, CharsetUtil.getCharset("x-no-such-charset"));
+        assertEquals(CharsetUtil.ISO_8859_1, CharsetUtil.getCharset("illegal name!"));
+    }
+}